@@ -0,0 +1,116 @@
+package com.eecs3311.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Runs the benchmarks like the usual JMH main, but writes the results to jmh-result.json unless told otherwise, so every
+ * run leaves a file that can be kept next to the commit it measured:
+ * <pre>
+ * java -jar target/benchmarks.jar -rff results-$(git rev-parse --short HEAD).json
+ * java -jar target/benchmarks.jar SongDalBenchmark.findSongById -wi 1 -i 3
+ * java -jar target/benchmarks.jar compare results-abc1234.json results-def5678.json
+ * java -jar target/benchmarks.jar load --rate=500
+ * </pre>
+ * "compare" prints the score of every benchmark in both files and how much it changed, "load" runs the end-to-end
+ * LoadTest instead of the benchmarks
+ */
+public class BenchmarkMain {
+
+	// The embedded Neo4j reaches into JDK internals that have to be opened up on Java 9 and later
+	private static final String[] ADD_OPENS = {"--add-opens", "java.base/java.lang=ALL-UNNAMED", "--add-opens", "java.base/java.nio=ALL-UNNAMED",
+			"--add-opens", "java.base/sun.nio.ch=ALL-UNNAMED", "--add-opens", "java.base/java.util=ALL-UNNAMED",
+			"--add-opens", "java.base/java.io=ALL-UNNAMED"};
+
+	public static void main(String[] args) throws Exception {
+		if (args.length == 3 && args[0].equals("compare")) {
+			compare(new File(args[1]), new File(args[2]));
+			return;
+		}
+		if (args.length > 0 && args[0].equals("load")) {
+			load(Arrays.copyOfRange(args, 1, args.length));
+			return;
+		}
+
+		CommandLineOptions commandLine = new CommandLineOptions(args);
+		ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLine);
+		if (!commandLine.getResultFormat().hasValue()) {
+			options.resultFormat(ResultFormatType.JSON);
+		}
+		if (!commandLine.getResult().hasValue()) {
+			options.result("jmh-result.json");
+		}
+		if (!System.getProperty("java.version").startsWith("1.") && !commandLine.getJvmArgsAppend().hasValue()) {
+			options.jvmArgsAppend(ADD_OPENS);
+		}
+		new Runner(options.build()).run();
+	}
+
+	// The load test runs the embedded Neo4j in this JVM, on Java 9 and later it starts over in one with ADD_OPENS
+	private static void load(String[] args) throws Exception {
+		if (System.getProperty("java.version").startsWith("1.") || Boolean.getBoolean("benchmarks.opened")) {
+			LoadTest.main(args);
+			return;
+		}
+		List<String> command = new ArrayList<>();
+		command.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+		command.addAll(Arrays.asList(ADD_OPENS));
+		command.addAll(Arrays.asList("-Dbenchmarks.opened=true", "-cp", System.getProperty("java.class.path"), LoadTest.class.getName()));
+		command.addAll(Arrays.asList(args));
+		System.exit(new ProcessBuilder(command).inheritIO().start().waitFor());
+	}
+
+	private static void compare(File before, File after) throws IOException {
+		Map<String, JsonNode> beforeScores = scores(before);
+		Map<String, JsonNode> afterScores = scores(after);
+
+		System.out.println(String.format("%-70s %14s %14s %9s %s", "Benchmark", before.getName(), after.getName(), "Change", "Unit"));
+		for (String benchmark : union(beforeScores, afterScores)) {
+			JsonNode old = beforeScores.get(benchmark);
+			JsonNode now = afterScores.get(benchmark);
+			String unit = (now != null ? now : old).get("scoreUnit").asText();
+			String change = old == null || now == null ? "" : String.format("%+.1f%%",
+					(now.get("score").asDouble() - old.get("score").asDouble()) * 100 / old.get("score").asDouble());
+			System.out.println(String.format("%-70s %14s %14s %9s %s", benchmark, score(old), score(now), change, unit));
+		}
+	}
+
+	// The primary metric of every benchmark in a JMH JSON result file, by benchmark name and parameters
+	private static Map<String, JsonNode> scores(File results) throws IOException {
+		Map<String, JsonNode> scores = new LinkedHashMap<>();
+		for (JsonNode result : new ObjectMapper().readTree(results)) {
+			StringBuilder name = new StringBuilder(result.get("benchmark").asText().replace("com.eecs3311.", ""));
+			JsonNode params = result.get("params");
+			if (params != null) {
+				params.fields().forEachRemaining(param -> name.append(' ').append(param.getKey()).append('=').append(param.getValue().asText()));
+			}
+			scores.put(name.toString(), result.get("primaryMetric"));
+		}
+		return scores;
+	}
+
+	private static TreeSet<String> union(Map<String, JsonNode> first, Map<String, JsonNode> second) {
+		TreeSet<String> names = new TreeSet<>(first.keySet());
+		names.addAll(second.keySet());
+		return names;
+	}
+
+	private static String score(JsonNode metric) {
+		return metric == null ? "-" : String.format("%.3f", metric.get("score").asDouble());
+	}
+}
@@ -0,0 +1,243 @@
+package com.eecs3311.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.bson.types.ObjectId;
+import org.neo4j.driver.v1.Driver;
+import org.neo4j.driver.v1.Session;
+import org.neo4j.driver.v1.Values;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import com.eecs3311.profilemicroservice.SchemaMigrations;
+import com.eecs3311.songmicroservice.Song;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * The songs and profiles a load test runs against. Songs are copies of the ones in MOCK_DATA.json, numbered once the
+ * file runs out. Who follows whom follows a power law: a few profiles are followed by a large share of everyone while
+ * most have a handful of followers, the way a social network is shaped, and songs are just as unevenly popular. Every
+ * profile gets a playlist of songs it may like, and already likes the first few of them
+ */
+class LoadDataset {
+
+	// Rows per UNWIND when writing the graph
+	private static final int BATCH = 1000;
+
+	final List<String> songIds = new ArrayList<>();
+	final List<String> songNames = new ArrayList<>();
+	final String[] userNames;
+	final String[][] playlists;
+	final String[][] follows;
+	final Zipf songPopularity;
+	final Zipf profilePopularity;
+	private final int likes;
+
+	/**
+	 * This method should make up the data set, the same options and seed always make up the same follows and playlists
+	 * @param mockData the MOCK_DATA.json the songs are copied from
+	 * @param songs how many songs there are
+	 * @param profiles how many profiles there are
+	 * @param follows how many profiles a profile follows on average
+	 * @param followExponent how steep the power law of followers is, 0 makes every profile as likely to be followed
+	 * @param songExponent how steep the popularity of songs is, for playlists and for the songs requests ask for
+	 * @param playlistSongs how many songs are in every playlist
+	 * @param likes how many of its playlist songs every profile already likes
+	 * @param random where the choices come from
+	 */
+	LoadDataset(File mockData, int songs, int profiles, int follows, double followExponent, double songExponent,
+			int playlistSongs, int likes, Random random) throws IOException {
+		List<JsonNode> templates = readMockData(mockData);
+		for (int i = 0; i < songs; i++) {
+			JsonNode template = templates.get(i % templates.size());
+			int copy = i / templates.size();
+			songIds.add(copy == 0 ? template.get("_id").asText() : new ObjectId().toHexString());
+			songNames.add(copy == 0 ? template.get(Song.KEY_SONG_NAME).asText() : template.get(Song.KEY_SONG_NAME).asText() + " (" + (copy + 1) + ")");
+		}
+
+		this.likes = Math.min(likes, playlistSongs);
+		songPopularity = new Zipf(songs, songExponent);
+		profilePopularity = new Zipf(profiles, followExponent);
+		userNames = new String[profiles];
+		for (int i = 0; i < profiles; i++) {
+			userNames[i] = "user" + i;
+		}
+
+		// The user numbers are the popularity ranks, user0 is the most followed profile
+		this.follows = new String[profiles][];
+		playlists = new String[profiles][];
+		String[] songIdArray = songIds.toArray(new String[0]);
+		for (int user = 0; user < profiles; user++) {
+			int followCount = Math.min(profiles - 1, 1 + random.nextInt(Math.max(1, 2 * follows - 1)));
+			this.follows[user] = pick(profilePopularity, followCount, user, random, userNames);
+			playlists[user] = pick(songPopularity, Math.min(playlistSongs, songs), -1, random, songIdArray);
+		}
+	}
+
+	/**
+	 * This method should write the songs to the mongoDB of the song service
+	 * @param db the song service's database
+	 * @param mockData the MOCK_DATA.json the artists, albums and favourite counts are copied from
+	 */
+	void seedSongs(MongoTemplate db, File mockData) throws IOException {
+		List<JsonNode> templates = readMockData(mockData);
+		List<Song> batch = new ArrayList<>(BATCH);
+		for (int i = 0; i < songIds.size(); i++) {
+			JsonNode template = templates.get(i % templates.size());
+			Song song = new Song(songNames.get(i), template.get(Song.KEY_SONG_ARTIST_FULL_NAME).asText(), template.get(Song.KEY_SONG_ALBUM).asText());
+			song.setId(new ObjectId(songIds.get(i)));
+			song.setSongAmountFavourites(template.get(Song.KEY_SONG_AMOUNT_FAVOURITES).asLong());
+			batch.add(song);
+			if (batch.size() == BATCH) {
+				db.insert(batch, Song.class);
+				batch.clear();
+			}
+		}
+		if (!batch.isEmpty()) {
+			db.insert(batch, Song.class);
+		}
+	}
+
+	/**
+	 * This method should write the profiles, their playlists, follows and likes, and the songs they point at, to the
+	 * Neo4j of the profile service. The schema goes in first so the writes can find their nodes by index
+	 * @param driver a driver of the profile service's Neo4j
+	 */
+	void seedGraph(Driver driver) {
+		new SchemaMigrations(driver, false, 300).migrate();
+		try (Session session = driver.session()) {
+			List<Map<String, Object>> rows = new ArrayList<>();
+			for (int i = 0; i < songIds.size(); i++) {
+				rows.add(row("songId", songIds.get(i), "songName", songNames.get(i)));
+				rows = flush(session, "UNWIND $rows AS row CREATE (:song {songId: row.songId, songName: row.songName})", rows, false);
+			}
+			flush(session, "UNWIND $rows AS row CREATE (:song {songId: row.songId, songName: row.songName})", rows, true);
+
+			rows = new ArrayList<>();
+			for (String userName : userNames) {
+				rows.add(row("userName", userName));
+				rows = flush(session, "UNWIND $rows AS row CREATE (:profile {userName: row.userName, fullName: row.userName, password: 'load'})"
+						+ "-[:created]->(:playlist {plName: row.userName + '-favourites'})", rows, false);
+			}
+			flush(session, "UNWIND $rows AS row CREATE (:profile {userName: row.userName, fullName: row.userName, password: 'load'})"
+					+ "-[:created]->(:playlist {plName: row.userName + '-favourites'})", rows, true);
+
+			String playlistQuery = "UNWIND $rows AS row MATCH (:profile {userName: row.userName})-[:created]->(pl:playlist) "
+					+ "UNWIND row.songIds AS songId MATCH (s:song {songId: songId}) CREATE (pl)-[:includes]->(s) "
+					+ "WITH row, songId, s WHERE songId IN row.likedSongIds MATCH (p:profile {userName: row.userName}) CREATE (p)-[:likes {likedAt: timestamp()}]->(s)";
+			String followQuery = "UNWIND $rows AS row MATCH (a:profile {userName: row.userName}) "
+					+ "UNWIND row.friends AS friend MATCH (b:profile {userName: friend}) CREATE (a)-[:follows]->(b)";
+			List<Map<String, Object>> followRows = new ArrayList<>();
+			rows = new ArrayList<>();
+			for (int user = 0; user < userNames.length; user++) {
+				String[] playlist = playlists[user];
+				String[] liked = new String[Math.min(likes, playlist.length)];
+				System.arraycopy(playlist, 0, liked, 0, liked.length);
+				rows.add(row("userName", userNames[user], "songIds", Arrays.asList(playlist), "likedSongIds", Arrays.asList(liked)));
+				rows = flush(session, playlistQuery, rows, false);
+				followRows.add(row("userName", userNames[user], "friends", Arrays.asList(follows[user])));
+				followRows = flush(session, followQuery, followRows, false);
+			}
+			flush(session, playlistQuery, rows, true);
+			flush(session, followQuery, followRows, true);
+		}
+	}
+
+	/**
+	 * This method should tell how many follows there are in all
+	 * @return the number of follows relationships
+	 */
+	long followCount() {
+		long count = 0;
+		for (String[] friends : follows) {
+			count += friends.length;
+		}
+		return count;
+	}
+
+	private static List<Map<String, Object>> flush(Session session, String query, List<Map<String, Object>> rows, boolean last) {
+		if (rows.isEmpty() || (!last && rows.size() < BATCH)) {
+			return rows;
+		}
+		session.writeTransaction(tx -> tx.run(query, Values.parameters("rows", rows)).consume());
+		return new ArrayList<>();
+	}
+
+	private static Map<String, Object> row(Object... keysAndValues) {
+		Map<String, Object> row = new HashMap<>();
+		for (int i = 0; i < keysAndValues.length; i += 2) {
+			row.put((String) keysAndValues[i], keysAndValues[i + 1]);
+		}
+		return row;
+	}
+
+	// Distinct samples, leaving out the one at skip
+	private static String[] pick(Zipf zipf, int count, int skip, Random random, String[] values) {
+		Set<String> picked = new LinkedHashSet<>();
+		// Popular values come up again and again, give up on distinct ones long before that takes forever
+		for (int attempts = 0; picked.size() < count && attempts < count * 20; attempts++) {
+			int rank = zipf.sample(random);
+			if (rank != skip) {
+				picked.add(values[rank]);
+			}
+		}
+		return picked.toArray(new String[0]);
+	}
+
+	// MOCK_DATA.json is a mongo shell export, its Ids are written as ObjectId("...") which isn't JSON
+	private static List<JsonNode> readMockData(File mockData) throws IOException {
+		String json = new String(Files.readAllBytes(mockData.toPath()), StandardCharsets.UTF_8)
+				.replaceAll("ObjectId\\(\"([0-9a-fA-F]{24})\"\\)", "\"$1\"");
+		List<JsonNode> templates = new ArrayList<>();
+		new ObjectMapper().readTree(json).forEach(templates::add);
+		if (templates.isEmpty()) {
+			throw new IOException(mockData + " has no songs in it");
+		}
+		return templates;
+	}
+
+	/**
+	 * Ranks from 0 to n - 1 where rank k comes up in proportion to 1 / (k + 1)^exponent
+	 */
+	static class Zipf {
+		private final double[] cumulative;
+
+		Zipf(int n, double exponent) {
+			cumulative = new double[n];
+			double sum = 0;
+			for (int k = 0; k < n; k++) {
+				sum += 1 / Math.pow(k + 1, exponent);
+				cumulative[k] = sum;
+			}
+			for (int k = 0; k < n; k++) {
+				cumulative[k] /= sum;
+			}
+		}
+
+		int sample(Random random) {
+			double u = random.nextDouble();
+			int low = 0;
+			int high = cumulative.length - 1;
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				if (cumulative[middle] < u) {
+					low = middle + 1;
+				} else {
+					high = middle;
+				}
+			}
+			return low;
+		}
+	}
+}
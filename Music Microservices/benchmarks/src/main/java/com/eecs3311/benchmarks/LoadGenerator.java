@@ -0,0 +1,321 @@
+package com.eecs3311.benchmarks;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import com.eecs3311.songmicroservice.LatencyHistogram;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * Sends a mix of requests to both services in an open loop: requests go out at the times a Poisson process picks for
+ * the target rate, whether or not the ones before them have been answered, the way independent users would send them.
+ * A latency is counted from the time the request was meant to go out, so a slow service, or a generator that fell
+ * behind, shows up in the percentiles instead of quietly lowering the rate
+ */
+class LoadGenerator {
+
+	private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+	// Status recorded for a request that never got a response
+	private static final int NO_RESPONSE = -1;
+
+	enum Endpoint {
+		GET_SONG_BY_ID("getSongById"),
+		UPDATE_SONG_FAVOURITES_COUNT("updateSongFavouritesCount"),
+		LIKE_SONG("likeSong"),
+		FOLLOW_FRIEND("followFriend"),
+		GET_ALL_FRIEND_FAVOURITE_SONG_TITLES("getAllFriendFavouriteSongTitles");
+
+		final String path;
+
+		Endpoint(String path) {
+			this.path = path;
+		}
+
+		static Endpoint of(String path) {
+			for (Endpoint endpoint : values()) {
+				if (endpoint.path.equals(path)) {
+					return endpoint;
+				}
+			}
+			throw new IllegalArgumentException("Unknown endpoint " + path);
+		}
+	}
+
+	private static class Outcomes {
+		final LatencyHistogram latencies = new LatencyHistogram();
+		final Map<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+
+		void record(long nanos, int status) {
+			latencies.record(nanos);
+			statuses.computeIfAbsent(status, key -> new LongAdder()).increment();
+		}
+	}
+
+	private final OkHttpClient client;
+	private final String songUrl;
+	private final String profileUrl;
+	private final LoadDataset dataset;
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	private final Endpoint[] endpoints;
+	private final double[] cumulativeWeights;
+	private final Map<Endpoint, Outcomes> outcomes = new EnumMap<>(Endpoint.class);
+	private final Outcomes all = new Outcomes();
+	private final AtomicLong sent = new AtomicLong();
+	private final LongAdder answered = new LongAdder();
+	private long maxLagNanos;
+	private double measuredSeconds;
+
+	/**
+	 * This method should set up the generator, no request goes out before run
+	 * @param songUrl where the song service listens, without a trailing slash
+	 * @param profileUrl where the profile service listens, without a trailing slash
+	 * @param dataset the songs and profiles the services were seeded with
+	 * @param mix how often each endpoint is asked for relative to the others
+	 * @param maxInFlight how many requests may be waiting for a response at once, more are queued in the generator
+	 */
+	LoadGenerator(String songUrl, String profileUrl, LoadDataset dataset, Map<Endpoint, Integer> mix, int maxInFlight) {
+		this.songUrl = songUrl;
+		this.profileUrl = profileUrl;
+		this.dataset = dataset;
+
+		endpoints = mix.keySet().toArray(new Endpoint[0]);
+		cumulativeWeights = new double[endpoints.length];
+		double total = 0;
+		for (int i = 0; i < endpoints.length; i++) {
+			total += mix.get(endpoints[i]);
+			cumulativeWeights[i] = total;
+			outcomes.put(endpoints[i], new Outcomes());
+		}
+		for (int i = 0; i < endpoints.length; i++) {
+			cumulativeWeights[i] /= total;
+		}
+
+		Dispatcher dispatcher = new Dispatcher();
+		dispatcher.setMaxRequests(maxInFlight);
+		dispatcher.setMaxRequestsPerHost(maxInFlight);
+		client = new OkHttpClient.Builder()
+				.dispatcher(dispatcher)
+				.connectionPool(new ConnectionPool(maxInFlight, 5, TimeUnit.MINUTES))
+				.readTimeout(60, TimeUnit.SECONDS)
+				.retryOnConnectionFailure(false)
+				.build();
+	}
+
+	/**
+	 * This method should send requests at the given rate for the warmup and then the measured time, and wait for the
+	 * answers to the last of them. Only requests meant to go out after the warmup are counted
+	 * @param rate requests per second across all endpoints
+	 * @param warmupSeconds how long to send requests before counting them
+	 * @param durationSeconds how long to count requests for
+	 * @param drainSeconds how long to wait for the answers still missing at the end
+	 * @param random where the arrival times and the requests come from
+	 */
+	void run(double rate, long warmupSeconds, long durationSeconds, long drainSeconds, Random random) throws InterruptedException {
+		long start = System.nanoTime();
+		long measureFrom = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+		long end = measureFrom + TimeUnit.SECONDS.toNanos(durationSeconds);
+
+		long intended = start;
+		while (intended < end) {
+			long now = System.nanoTime();
+			while (now < intended) {
+				LockSupport.parkNanos(intended - now);
+				now = System.nanoTime();
+			}
+			if (intended >= measureFrom) {
+				maxLagNanos = Math.max(maxLagNanos, now - intended);
+			}
+
+			Endpoint endpoint = pick(random);
+			send(endpoint, request(endpoint, random), intended, intended >= measureFrom);
+			// Exponential gaps between requests make their arrivals a Poisson process
+			intended += (long) (-Math.log(1 - random.nextDouble()) * TimeUnit.SECONDS.toNanos(1) / rate);
+		}
+		measuredSeconds = durationSeconds;
+
+		long drainUntil = System.nanoTime() + TimeUnit.SECONDS.toNanos(drainSeconds);
+		while (answered.sum() < sent.get() && System.nanoTime() < drainUntil) {
+			Thread.sleep(50);
+		}
+	}
+
+	/**
+	 * This method should print throughput, latency percentiles and status codes of every endpoint and of all of them
+	 * @param out where to print the table
+	 */
+	void printReport(PrintStream out) {
+		out.println(String.format("%-32s %9s %9s %9s %10s %10s %10s %10s  %s", "Endpoint", "Requests", "Non-2xx", "Req/s",
+				"p50 ms", "p99 ms", "p99.9 ms", "max ms", "Statuses"));
+		for (Map.Entry<Endpoint, Outcomes> entry : outcomes.entrySet()) {
+			printRow(out, entry.getKey().path, entry.getValue());
+		}
+		printRow(out, "all", all);
+		long missing = sent.get() - answered.sum();
+		if (missing > 0) {
+			out.println("WARN: " + missing + " requests were still unanswered at the end and are not counted");
+		}
+		if (maxLagNanos > TimeUnit.MILLISECONDS.toNanos(10)) {
+			out.println("WARN: The generator sent requests up to " + TimeUnit.NANOSECONDS.toMillis(maxLagNanos)
+					+ " ms late, its own delays are in the latencies, lower the rate or run it on a bigger machine");
+		}
+	}
+
+	/**
+	 * This method should give the same numbers as printReport, for writing to a file
+	 * @return the numbers of every endpoint and of all of them, by endpoint
+	 */
+	Map<String, Object> results() {
+		Map<String, Object> results = new LinkedHashMap<>();
+		for (Map.Entry<Endpoint, Outcomes> entry : outcomes.entrySet()) {
+			results.put(entry.getKey().path, results(entry.getValue()));
+		}
+		results.put("all", results(all));
+		return results;
+	}
+
+	void shutdown() {
+		client.dispatcher().executorService().shutdownNow();
+		client.connectionPool().evictAll();
+	}
+
+	private Endpoint pick(Random random) {
+		double u = random.nextDouble();
+		for (int i = 0; i < endpoints.length - 1; i++) {
+			if (u < cumulativeWeights[i]) {
+				return endpoints[i];
+			}
+		}
+		return endpoints[endpoints.length - 1];
+	}
+
+	// Popular songs and profiles are asked about more often, the users sending requests are anyone
+	private Request request(Endpoint endpoint, Random random) {
+		String songId = dataset.songIds.get(dataset.songPopularity.sample(random));
+		int user = random.nextInt(dataset.userNames.length);
+		String userName = dataset.userNames[user];
+		switch (endpoint) {
+			case GET_SONG_BY_ID:
+				return new Request.Builder().url(songUrl + "/getSongById/" + songId).get().build();
+			case UPDATE_SONG_FAVOURITES_COUNT:
+				return put(songUrl + "/updateSongFavouritesCount", "songId", songId, "shouldDecrement", "false");
+			case LIKE_SONG:
+				String[] playlist = dataset.playlists[user];
+				return put(profileUrl + "/likeSong", "userName", userName, "songId", playlist[random.nextInt(playlist.length)]);
+			case FOLLOW_FRIEND:
+				int friend = dataset.profilePopularity.sample(random);
+				if (friend == user) {
+					friend = (friend + 1) % dataset.userNames.length;
+				}
+				return put(profileUrl + "/followFriend", "userName", userName, "friendUserName", dataset.userNames[friend]);
+			case GET_ALL_FRIEND_FAVOURITE_SONG_TITLES:
+				return new Request.Builder().url(profileUrl + "/getAllFriendFavouriteSongTitles/" + userName).get().build();
+			default:
+				throw new IllegalArgumentException("Unknown endpoint " + endpoint);
+		}
+	}
+
+	private Request put(String url, String... keysAndValues) {
+		Map<String, String> body = new LinkedHashMap<>();
+		for (int i = 0; i < keysAndValues.length; i += 2) {
+			body.put(keysAndValues[i], keysAndValues[i + 1]);
+		}
+		try {
+			return new Request.Builder().url(url).put(RequestBody.create(objectMapper.writeValueAsBytes(body), JSON)).build();
+		} catch (JsonProcessingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private void send(Endpoint endpoint, Request request, long intended, boolean counted) {
+		if (counted) {
+			sent.incrementAndGet();
+		}
+		client.newCall(request).enqueue(new Callback() {
+			@Override
+			public void onFailure(Call call, IOException e) {
+				done(NO_RESPONSE);
+			}
+
+			@Override
+			public void onResponse(Call call, Response response) throws IOException {
+				try (ResponseBody body = response.body()) {
+					// Read the whole body, it's part of the time the client waits
+					body.bytes();
+				}
+				done(response.code());
+			}
+
+			private void done(int status) {
+				if (counted) {
+					long nanos = System.nanoTime() - intended;
+					outcomes.get(endpoint).record(nanos, status);
+					all.record(nanos, status);
+					answered.increment();
+				}
+			}
+		});
+	}
+
+	private void printRow(PrintStream out, String name, Outcomes outcome) {
+		LatencyHistogram.Snapshot snapshot = outcome.latencies.snapshot();
+		out.println(String.format("%-32s %9d %9d %9.1f %10.2f %10.2f %10.2f %10.2f  %s", name, snapshot.getCount(), non2xx(outcome),
+				snapshot.getCount() / measuredSeconds, millis(snapshot, 0.5), millis(snapshot, 0.99), millis(snapshot, 0.999),
+				millis(snapshot, 1), statuses(outcome)));
+	}
+
+	private Map<String, Object> results(Outcomes outcome) {
+		LatencyHistogram.Snapshot snapshot = outcome.latencies.snapshot();
+		Map<String, Object> results = new LinkedHashMap<>();
+		results.put("requests", snapshot.getCount());
+		results.put("non2xx", non2xx(outcome));
+		results.put("throughput", snapshot.getCount() / measuredSeconds);
+		results.put("p50Ms", millis(snapshot, 0.5));
+		results.put("p99Ms", millis(snapshot, 0.99));
+		results.put("p999Ms", millis(snapshot, 0.999));
+		results.put("maxMs", millis(snapshot, 1));
+		results.put("statuses", statuses(outcome));
+		return results;
+	}
+
+	private static long non2xx(Outcomes outcome) {
+		long count = 0;
+		for (Map.Entry<Integer, LongAdder> status : outcome.statuses.entrySet()) {
+			if (status.getKey() < 200 || status.getKey() >= 300) {
+				count += status.getValue().sum();
+			}
+		}
+		return count;
+	}
+
+	private static Map<String, Long> statuses(Outcomes outcome) {
+		Map<String, Long> statuses = new TreeMap<>();
+		outcome.statuses.forEach((status, count) -> statuses.put(status == NO_RESPONSE ? "none" : String.valueOf(status), count.sum()));
+		return statuses;
+	}
+
+	private static double millis(LatencyHistogram.Snapshot snapshot, double quantile) {
+		return snapshot.getCount() == 0 ? 0 : snapshot.valueAtQuantile(quantile) / 1e6;
+	}
+}
@@ -0,0 +1,277 @@
+package com.eecs3311.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.neo4j.driver.v1.Config;
+import org.neo4j.driver.v1.Driver;
+import org.neo4j.driver.v1.GraphDatabase;
+import org.neo4j.harness.ServerControls;
+import org.neo4j.harness.TestServerBuilders;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import com.eecs3311.benchmarks.LoadGenerator.Endpoint;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.mongodb.MongoClient;
+import com.mongodb.ServerAddress;
+
+import de.bwaldvogel.mongo.MongoServer;
+import de.bwaldvogel.mongo.backend.memory.MemoryBackend;
+
+/**
+ * End-to-end load test of both services. It starts the same in-process MongoDB and Neo4j stand-ins the tests use, seeds
+ * them with a LoadDataset, starts each service from its runnable jar in a JVM of its own, sends a LoadGenerator's mix of
+ * requests for a while and prints the throughput and latency percentiles of every endpoint:
+ * <pre>
+ * java -jar target/benchmarks.jar load --profiles=20000 --rate=800 --duration=120
+ * java -jar target/benchmarks.jar load --mix=getSongById:90,updateSongFavouritesCount:10 --song-property=song.cache.enabled=false
+ * </pre>
+ * Options are --name=value, see DEFAULTS for all of them. --song-property and --profile-property may be given more than
+ * once and pass key=value on to the service, to compare its settings under the same load. The numbers also go to
+ * load-result.json unless --out says otherwise, and the services' output to the load-logs directory
+ */
+public class LoadTest {
+
+	private static final Map<String, String> DEFAULTS = new LinkedHashMap<>();
+
+	static {
+		DEFAULTS.put("songs", "5000");
+		DEFAULTS.put("profiles", "10000");
+		// Average number of profiles a profile follows
+		DEFAULTS.put("follows", "20");
+		// Power law exponents of how often a profile is followed and a song is picked, 0 is uniform
+		DEFAULTS.put("follow-exponent", "1.0");
+		DEFAULTS.put("song-exponent", "0.8");
+		DEFAULTS.put("playlist-songs", "50");
+		DEFAULTS.put("likes", "5");
+		DEFAULTS.put("mix", "getSongById:40,updateSongFavouritesCount:10,likeSong:20,followFriend:10,getAllFriendFavouriteSongTitles:20");
+		// Requests per second across all endpoints
+		DEFAULTS.put("rate", "200");
+		DEFAULTS.put("warmup", "15");
+		DEFAULTS.put("duration", "60");
+		DEFAULTS.put("drain", "30");
+		DEFAULTS.put("max-in-flight", "2000");
+		DEFAULTS.put("seed", "42");
+		DEFAULTS.put("mock-data", "");
+		DEFAULTS.put("song-jar", "");
+		DEFAULTS.put("profile-jar", "");
+		DEFAULTS.put("logs", "load-logs");
+		DEFAULTS.put("out", "load-result.json");
+	}
+
+	private final Map<String, String> options = new LinkedHashMap<>(DEFAULTS);
+	private final List<String> songProperties = new ArrayList<>();
+	private final List<String> profileProperties = new ArrayList<>();
+	private final List<Process> services = new ArrayList<>();
+	private MongoServer mongo;
+	private ServerControls neo4j;
+
+	public static void main(String[] args) throws Exception {
+		LoadTest loadTest = new LoadTest(args);
+		// Stops the services on Ctrl-C too, they'd outlive the load test otherwise
+		Runtime.getRuntime().addShutdownHook(new Thread(loadTest::stop));
+		try {
+			loadTest.run();
+		} finally {
+			loadTest.stop();
+		}
+		System.exit(0);
+	}
+
+	LoadTest(String[] args) {
+		for (String arg : args) {
+			int equals = arg.indexOf('=');
+			if (!arg.startsWith("--") || equals < 0) {
+				throw new IllegalArgumentException("Options are --name=value, not " + arg);
+			}
+			String name = arg.substring(2, equals);
+			String value = arg.substring(equals + 1);
+			if (name.equals("song-property")) {
+				songProperties.add("--" + value);
+			} else if (name.equals("profile-property")) {
+				profileProperties.add("--" + value);
+			} else if (DEFAULTS.containsKey(name)) {
+				options.put(name, value);
+			} else {
+				throw new IllegalArgumentException("Unknown option --" + name + ", the options are " + DEFAULTS.keySet()
+						+ " and song-property, profile-property");
+			}
+		}
+	}
+
+	void run() throws Exception {
+		File songJar = serviceJar("song-jar", "song-microservice");
+		File profileJar = serviceJar("profile-jar", "profile-microservice");
+		File mockData = mockData();
+		File logs = new File(options.get("logs"));
+		logs.mkdirs();
+		Map<Endpoint, Integer> mix = mix(options.get("mix"));
+		Random random = new Random(Long.parseLong(options.get("seed")));
+
+		long started = System.nanoTime();
+		LoadDataset dataset = new LoadDataset(mockData, integer("songs"), integer("profiles"), integer("follows"),
+				Double.parseDouble(options.get("follow-exponent")), Double.parseDouble(options.get("song-exponent")),
+				integer("playlist-songs"), integer("likes"), random);
+		System.out.println("INFO: Seeding " + dataset.songIds.size() + " songs, " + dataset.userNames.length + " profiles and "
+				+ dataset.followCount() + " follows");
+
+		mongo = new MongoServer(new MemoryBackend());
+		InetSocketAddress mongoAddress = mongo.bind();
+		try (MongoClient client = new MongoClient(new ServerAddress(mongoAddress))) {
+			dataset.seedSongs(new MongoTemplate(client, "eecs3311-load"), mockData);
+		}
+
+		neo4j = TestServerBuilders.newInProcessBuilder().newServer();
+		try (Driver driver = GraphDatabase.driver(neo4j.boltURI(), Config.build().withoutEncryption().toConfig())) {
+			dataset.seedGraph(driver);
+		}
+		System.out.println("INFO: Seeded in " + TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - started) + " s");
+
+		int songPort = freePort();
+		int profilePort = freePort();
+		List<String> songArgs = new ArrayList<>(Arrays.asList("--server.port=" + songPort,
+				"--spring.data.mongodb.host=" + mongoAddress.getHostString(), "--spring.data.mongodb.port=" + mongoAddress.getPort(),
+				"--spring.data.mongodb.database=eecs3311-load"));
+		songArgs.addAll(songProperties);
+		List<String> profileArgs = new ArrayList<>(Arrays.asList("--server.port=" + profilePort,
+				"--profile.neo4j.uri=" + neo4j.boltURI(), "--profile.outbox.dir=" + Files.createTempDirectory("load-outbox"),
+				"--profile.outbox.song-service-url=http://localhost:" + songPort));
+		profileArgs.addAll(profileProperties);
+		Process song = startService(songJar, songArgs, new File(logs, "song.log"));
+		Process profile = startService(profileJar, profileArgs, new File(logs, "profile.log"));
+		awaitStarted(song, new File(logs, "song.log"));
+		awaitStarted(profile, new File(logs, "profile.log"));
+
+		LoadGenerator generator = new LoadGenerator("http://localhost:" + songPort, "http://localhost:" + profilePort, dataset, mix,
+				integer("max-in-flight"));
+		System.out.println("INFO: Sending " + options.get("rate") + " requests/s for " + options.get("warmup") + " s of warmup and "
+				+ options.get("duration") + " s measured");
+		generator.run(Double.parseDouble(options.get("rate")), integer("warmup"), integer("duration"), integer("drain"), random);
+		generator.printReport(System.out);
+		generator.shutdown();
+
+		Map<String, Object> result = new LinkedHashMap<>();
+		result.put("options", options);
+		result.put("songProperties", songProperties);
+		result.put("profileProperties", profileProperties);
+		result.put("endpoints", generator.results());
+		new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(new File(options.get("out")), result);
+		System.out.println("INFO: Results written to " + options.get("out"));
+	}
+
+	synchronized void stop() {
+		for (Process service : services) {
+			service.destroy();
+		}
+		for (Process service : services) {
+			try {
+				if (!service.waitFor(30, TimeUnit.SECONDS)) {
+					service.destroyForcibly();
+				}
+			} catch (InterruptedException e) {
+				service.destroyForcibly();
+			}
+		}
+		services.clear();
+		if (neo4j != null) {
+			neo4j.close();
+			neo4j = null;
+		}
+		if (mongo != null) {
+			mongo.shutdownNow();
+			mongo = null;
+		}
+	}
+
+	private Process startService(File jar, List<String> args, File log) throws IOException {
+		List<String> command = new ArrayList<>(Arrays.asList(new File(System.getProperty("java.home"), "bin/java").getPath(), "-jar", jar.getPath()));
+		command.addAll(args);
+		Process process = new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(log).start();
+		services.add(process);
+		return process;
+	}
+
+	// Both services print that they're running once their startup work, migrations and all, is done
+	private static void awaitStarted(Process service, File log) throws IOException, InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(5);
+		while (System.nanoTime() < deadline) {
+			if (!service.isAlive()) {
+				throw new IllegalStateException("Service exited with " + service.exitValue() + ", see " + log);
+			}
+			String output = new String(Files.readAllBytes(log.toPath()), StandardCharsets.UTF_8);
+			if (output.contains("is running on port")) {
+				return;
+			}
+			// Tomcat keeps the JVM alive after the startup work failed
+			if (output.contains("Exception in thread \"main\"")) {
+				throw new IllegalStateException("Service failed to start, see " + log);
+			}
+			Thread.sleep(200);
+		}
+		throw new IllegalStateException("Service didn't start within 5 minutes, see " + log);
+	}
+
+	// The runnable jar "mvn install" leaves in the service's target directory, from this module or the one above it
+	private File serviceJar(String option, String service) {
+		if (!options.get(option).isEmpty()) {
+			return new File(options.get(option));
+		}
+		for (String parent : new String[] {"..", "."}) {
+			File[] jars = new File(parent, service + "/target").listFiles((dir, name) -> name.endsWith("-exec.jar"));
+			if (jars != null && jars.length > 0) {
+				return jars[0];
+			}
+		}
+		throw new IllegalStateException("No " + service + " jar found, run \"mvn install -DskipTests\" in Music Microservices or give --" + option);
+	}
+
+	private File mockData() {
+		if (!options.get("mock-data").isEmpty()) {
+			return new File(options.get("mock-data"));
+		}
+		for (String parent : new String[] {"..", "."}) {
+			File mockData = new File(parent, "MOCK_DATA.json");
+			if (mockData.isFile()) {
+				return mockData;
+			}
+		}
+		throw new IllegalStateException("No MOCK_DATA.json found, give --mock-data");
+	}
+
+	private static Map<Endpoint, Integer> mix(String mix) {
+		Map<Endpoint, Integer> weights = new LinkedHashMap<>();
+		for (String entry : mix.split(",")) {
+			String[] pathAndWeight = entry.split(":");
+			int weight = Integer.parseInt(pathAndWeight[1].trim());
+			if (weight > 0) {
+				weights.put(Endpoint.of(pathAndWeight[0].trim()), weight);
+			}
+		}
+		if (weights.isEmpty()) {
+			throw new IllegalArgumentException("The mix has no endpoints in it");
+		}
+		return weights;
+	}
+
+	private int integer(String option) {
+		return Integer.parseInt(options.get(option));
+	}
+
+	private static int freePort() throws IOException {
+		try (ServerSocket socket = new ServerSocket(0)) {
+			return socket.getLocalPort();
+		}
+	}
+}
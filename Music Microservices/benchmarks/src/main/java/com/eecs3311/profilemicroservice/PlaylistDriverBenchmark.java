@@ -0,0 +1,98 @@
+package com.eecs3311.profilemicroservice;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * PlaylistDriverImpl's like and unlike against an in-process Neo4j seeded by SocialGraphFixture, with the favourites
+ * outbox writing to a temporary directory, with and without an fsync per event. The outbox never sends anything, its
+ * dispatcher is not started. The like is removed or added before each call, outside the measured time
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PlaylistDriverBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class Graph {
+		@Param({"true", "false"})
+		boolean outboxFsync;
+
+		SocialGraphFixture fixture;
+		FavouritesOutbox favouritesOutbox;
+		PlaylistDriverImpl playlistDriver;
+
+		@Setup
+		public void setUp() throws IOException {
+			fixture = new SocialGraphFixture();
+			favouritesOutbox = new FavouritesOutbox(true, Files.createTempDirectory("outbox").toString(), "http://localhost:3001",
+					200, 200, 30000, outboxFsync);
+			playlistDriver = new PlaylistDriverImpl(fixture.driver, favouritesOutbox, new FriendFeed(fixture.driver, false, 500, 10000, 4096));
+		}
+
+		@TearDown
+		public void tearDown() {
+			favouritesOutbox.shutdown();
+			fixture.close();
+		}
+	}
+
+	public static class Like {
+		private final Random random = new Random(42);
+		String userName;
+		String songId;
+
+		void pick() {
+			userName = "user" + random.nextInt(SocialGraphFixture.USERS);
+			songId = "song" + random.nextInt(SocialGraphFixture.SONGS);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class NotLiked extends Like {
+		@Setup(Level.Invocation)
+		public void setUp(Graph graph) {
+			pick();
+			graph.fixture.run("MATCH (:profile {userName: $userName})-[l:likes]->(:song {songId: $songId}) DELETE l",
+					"userName", userName, "songId", songId);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Liked extends Like {
+		@Setup(Level.Invocation)
+		public void setUp(Graph graph) {
+			pick();
+			graph.fixture.run("MATCH (p:profile {userName: $userName}), (s:song {songId: $songId}) "
+					+ "OPTIONAL MATCH (p)-[l:likes]->(s) DELETE l CREATE (p)-[:likes {likedAt: timestamp()}]->(s)", "userName", userName, "songId", songId);
+		}
+	}
+
+	@Benchmark
+	public DbQueryStatus likeSong(Graph graph, NotLiked like) {
+		return graph.playlistDriver.likeSong(like.userName, like.songId);
+	}
+
+	@Benchmark
+	public DbQueryStatus unlikeSong(Graph graph, Liked like) {
+		return graph.playlistDriver.unlikeSong(like.userName, like.songId);
+	}
+}
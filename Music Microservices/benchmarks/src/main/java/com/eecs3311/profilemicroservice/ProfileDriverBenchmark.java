@@ -0,0 +1,137 @@
+package com.eecs3311.profilemicroservice;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Every ProfileDriverImpl operation against an in-process Neo4j seeded by SocialGraphFixture. The friend feed and the
+ * social graph replica are turned off so only the Cypher of each operation is measured. A follow or unfollow gets its
+ * edge removed or added before the call, outside the measured time, so every call takes the path that changes the graph
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProfileDriverBenchmark {
+
+	private static final AtomicLong NEW_USERS = new AtomicLong();
+
+	@State(Scope.Benchmark)
+	public static class Graph {
+		SocialGraphFixture fixture;
+		ProfileDriverImpl profileDriver;
+
+		@Setup
+		public void setUp() {
+			fixture = new SocialGraphFixture();
+			profileDriver = new ProfileDriverImpl(fixture.driver, new FriendFeed(fixture.driver, false, 500, 10000, 4096),
+					new SocialGraph(fixture.driver, false, 65536));
+		}
+
+		@TearDown
+		public void tearDown() {
+			fixture.close();
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Picker {
+		private final Random random = new Random(42);
+
+		String user() {
+			return "user" + random.nextInt(SocialGraphFixture.USERS);
+		}
+
+		// Someone the user doesn't follow in the seeded graph, offset by at least FOLLOWS + 1
+		String stranger(String userName, int offset) {
+			int user = Integer.parseInt(userName.substring(4));
+			return "user" + ((user + offset + random.nextInt(100)) % SocialGraphFixture.USERS);
+		}
+
+		String followed(String userName) {
+			int user = Integer.parseInt(userName.substring(4));
+			return "user" + ((user + 1 + random.nextInt(SocialGraphFixture.FOLLOWS)) % SocialGraphFixture.USERS);
+		}
+
+		String song() {
+			return "song" + random.nextInt(SocialGraphFixture.SONGS);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class NotFollowing {
+		String userName;
+		String friendUserName;
+
+		@Setup(Level.Invocation)
+		public void setUp(Graph graph, Picker picker) {
+			userName = picker.user();
+			friendUserName = picker.stranger(userName, SocialGraphFixture.FOLLOWS + 1);
+			graph.fixture.run("MATCH (:profile {userName: $userName})-[f:follows]->(:profile {userName: $friendUserName}) DELETE f",
+					"userName", userName, "friendUserName", friendUserName);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Following {
+		String userName;
+		String friendUserName;
+
+		@Setup(Level.Invocation)
+		public void setUp(Graph graph, Picker picker) {
+			userName = picker.user();
+			friendUserName = picker.stranger(userName, SocialGraphFixture.FOLLOWS + 1);
+			graph.fixture.run("MATCH (a:profile {userName: $userName}), (b:profile {userName: $friendUserName}) MERGE (a)-[:follows]->(b)",
+					"userName", userName, "friendUserName", friendUserName);
+		}
+	}
+
+	@Benchmark
+	public DbQueryStatus createUserProfile(Graph graph) {
+		String userName = "new" + NEW_USERS.incrementAndGet();
+		return graph.profileDriver.createUserProfile(userName, "New User", "pw");
+	}
+
+	@Benchmark
+	public DbQueryStatus followFriend(Graph graph, NotFollowing pair) {
+		return graph.profileDriver.followFriend(pair.userName, pair.friendUserName);
+	}
+
+	@Benchmark
+	public DbQueryStatus unfollowFriend(Graph graph, Following pair) {
+		return graph.profileDriver.unfollowFriend(pair.userName, pair.friendUserName);
+	}
+
+	@Benchmark
+	public DbQueryStatus getAllSongFriendsLike(Graph graph, Picker picker) {
+		return graph.profileDriver.getAllSongFriendsLike(picker.user());
+	}
+
+	@Benchmark
+	public DbQueryStatus sendSongToFriend(Graph graph, Picker picker) {
+		String userName = picker.user();
+		return graph.profileDriver.sendSongToFriend(userName, picker.followed(userName), picker.song());
+	}
+
+	@Benchmark
+	public DbQueryStatus blockFriend(Graph graph, Picker picker) {
+		// Far enough from the follows and strangers above that blocking doesn't change what they measure
+		String userName = picker.user();
+		return graph.profileDriver.blockFriend(userName, picker.stranger(userName, 200));
+	}
+}
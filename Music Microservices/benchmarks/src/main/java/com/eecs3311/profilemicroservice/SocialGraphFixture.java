@@ -0,0 +1,55 @@
+package com.eecs3311.profilemicroservice;
+
+import org.neo4j.driver.v1.Config;
+import org.neo4j.driver.v1.Driver;
+import org.neo4j.driver.v1.GraphDatabase;
+import org.neo4j.driver.v1.Session;
+import org.neo4j.driver.v1.Values;
+import org.neo4j.harness.ServerControls;
+import org.neo4j.harness.TestServerBuilders;
+
+/**
+ * An in-process Neo4j with the service's schema and a seeded graph: USERS profiles that each follow the next FOLLOWS
+ * users, and a playlist per profile that includes every one of the SONGS songs, so any user can like any song
+ */
+final class SocialGraphFixture {
+
+	static final int USERS = 500;
+	static final int FOLLOWS = 10;
+	static final int SONGS = 100;
+	static final int LIKES = 5;
+
+	final ServerControls server;
+	final Driver driver;
+
+	SocialGraphFixture() {
+		server = TestServerBuilders.newInProcessBuilder().newServer();
+		driver = GraphDatabase.driver(server.boltURI(), Config.build().withoutEncryption().toConfig());
+		new SchemaMigrations(driver, false, 60).migrate();
+		try (Session session = driver.session()) {
+			session.run("UNWIND range(0, $songs - 1) AS i CREATE (:song {songId: 'song' + i, songName: 'Song ' + i})",
+					Values.parameters("songs", SONGS));
+			session.run("UNWIND range(0, $users - 1) AS i "
+							+ "CREATE (p:profile {userName: 'user' + i, fullName: 'User ' + i, password: 'pw'})-[:created]->(:playlist {plName: 'user' + i + '-favourites'})",
+					Values.parameters("users", USERS));
+			session.run("MATCH (pl:playlist), (s:song) CREATE (pl)-[:includes]->(s)");
+			session.run("UNWIND range(0, $users - 1) AS i UNWIND range(1, $follows) AS j "
+							+ "MATCH (a:profile {userName: 'user' + i}), (b:profile {userName: 'user' + ((i + j) % $users)}) CREATE (a)-[:follows]->(b)",
+					Values.parameters("users", USERS, "follows", FOLLOWS));
+			session.run("UNWIND range(0, $users - 1) AS i UNWIND range(0, $likes - 1) AS j "
+							+ "MATCH (p:profile {userName: 'user' + i}), (s:song {songId: 'song' + ((i + j) % $songs)}) CREATE (p)-[:likes {likedAt: timestamp()}]->(s)",
+					Values.parameters("users", USERS, "likes", LIKES, "songs", SONGS));
+		}
+	}
+
+	void run(String query, Object... parameters) {
+		try (Session session = driver.session()) {
+			session.run(query, Values.parameters(parameters)).consume();
+		}
+	}
+
+	void close() {
+		driver.close();
+		server.close();
+	}
+}
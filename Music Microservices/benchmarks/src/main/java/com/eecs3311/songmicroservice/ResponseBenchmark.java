@@ -0,0 +1,87 @@
+package com.eecs3311.songmicroservice;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.types.ObjectId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.ResponseEntity;
+
+/**
+ * Utils.setResponseStatus of both services, building the response alone and building it and writing it the way
+ * ApiResponseConverter does
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResponseBenchmark {
+
+	// Throws the bytes away so only the response is measured
+	private static final OutputStream DISCARD = new OutputStream() {
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+	};
+
+	private static final String PATH = "GET http://localhost:3001/getSongById/5d61728193528481fe5a3122";
+
+	private Song song;
+	private Map<String, List<String>> friendsSongs;
+
+	@Setup
+	public void setUp() {
+		song = new Song("Never Gonna Give You Up", "Rick Astley", "Whenever You Need Somebody");
+		song.setId(new ObjectId("5d61728193528481fe5a3122"));
+		friendsSongs = new HashMap<>();
+		for (int i = 0; i < 10; i++) {
+			friendsSongs.put("user" + i, Arrays.asList("Song " + i, "Song " + (i + 1), "Song " + (i + 2)));
+		}
+	}
+
+	@Benchmark
+	public ResponseEntity<ApiResponse> songSetResponseStatus() {
+		return Utils.setResponseStatus(PATH, "Song found in DB!", DbQueryExecResult.QUERY_OK, song);
+	}
+
+	@Benchmark
+	public ResponseEntity<ApiResponse> songWriteResponse() throws IOException {
+		ResponseEntity<ApiResponse> response = Utils.setResponseStatus(PATH, "Song found in DB!", DbQueryExecResult.QUERY_OK, song);
+		Utils.responseWriter(ApiResponse.class).writeValue(DISCARD, response.getBody());
+		return response;
+	}
+
+	@Benchmark
+	public ResponseEntity<com.eecs3311.profilemicroservice.ApiResponse> profileSetResponseStatus() {
+		return com.eecs3311.profilemicroservice.Utils.setResponseStatus(PATH, null,
+				com.eecs3311.profilemicroservice.DbQueryExecResult.QUERY_OK, friendsSongs);
+	}
+
+	@Benchmark
+	public ResponseEntity<com.eecs3311.profilemicroservice.ApiResponse> profileWriteResponse() throws IOException {
+		ResponseEntity<com.eecs3311.profilemicroservice.ApiResponse> response = com.eecs3311.profilemicroservice.Utils.setResponseStatus(PATH, null,
+				com.eecs3311.profilemicroservice.DbQueryExecResult.QUERY_OK, friendsSongs);
+		com.eecs3311.profilemicroservice.Utils.responseWriter(com.eecs3311.profilemicroservice.ApiResponse.class).writeValue(DISCARD, response.getBody());
+		return response;
+	}
+}
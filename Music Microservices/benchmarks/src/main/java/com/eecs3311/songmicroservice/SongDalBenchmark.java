@@ -0,0 +1,155 @@
+package com.eecs3311.songmicroservice;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.types.ObjectId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import com.mongodb.MongoClient;
+import com.mongodb.ServerAddress;
+
+import de.bwaldvogel.mongo.MongoServer;
+import de.bwaldvogel.mongo.backend.memory.MemoryBackend;
+
+/**
+ * Every SongDalImpl operation against the in-memory MongoDB stand-in the tests use, with a catalog of 1000 songs. The
+ * stand-in answers in-process, so the scores are the cost of the service's side of each query, not a real mongod's
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SongDalBenchmark {
+
+	private static final int SONGS = 1000;
+	private static final int BATCH = 20;
+
+	@State(Scope.Benchmark)
+	public static class Catalog {
+		MongoServer server;
+		MongoClient client;
+		MongoTemplate db;
+		FavouritesWriteBehind writeBehind;
+		SongDalImpl songDal;
+		List<String> songIds = new ArrayList<>();
+
+		@Setup
+		public void setUp() {
+			server = new MongoServer(new MemoryBackend());
+			InetSocketAddress address = server.bind();
+			client = new MongoClient(new ServerAddress(address));
+			db = new MongoTemplate(client, "eecs3311-benchmark");
+			writeBehind = new FavouritesWriteBehind(db, false, 250, 500);
+			songDal = new SongDalImpl(db, writeBehind, new SongLeaderboard(db, writeBehind, 100, 60));
+
+			List<Song> songs = new ArrayList<>();
+			for (int i = 0; i < SONGS; i++) {
+				Song song = new Song("Song " + i, "Artist " + (i % 50), "Album " + (i % 200));
+				song.setId(new ObjectId());
+				songs.add(song);
+				songIds.add(song.getId());
+			}
+			songDal.addSongs(songs, false);
+		}
+
+		@TearDown
+		public void tearDown() {
+			writeBehind.shutdown();
+			client.close();
+			server.shutdownNow();
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Picker {
+		private final Random random = new Random(42);
+
+		String songId(Catalog catalog) {
+			return catalog.songIds.get(random.nextInt(SONGS));
+		}
+
+		List<String> songIds(Catalog catalog) {
+			List<String> songIds = new ArrayList<>(BATCH);
+			for (int i = 0; i < BATCH; i++) {
+				songIds.add(songId(catalog));
+			}
+			return songIds;
+		}
+	}
+
+	// A song that is only there to be deleted by the next call
+	@State(Scope.Thread)
+	public static class Doomed {
+		String songId;
+
+		@Setup(Level.Invocation)
+		public void setUp(Catalog catalog) {
+			Song song = new Song("Doomed", "Artist", "Album");
+			song.setId(new ObjectId());
+			catalog.db.insert(song);
+			songId = song.getId();
+		}
+	}
+
+	@Benchmark
+	public DbQueryStatus addSong(Catalog catalog) {
+		return catalog.songDal.addSong(new Song("New song", "Artist", "Album"));
+	}
+
+	@Benchmark
+	public DbQueryStatus addSongs(Catalog catalog) {
+		List<Song> songs = new ArrayList<>(100);
+		for (int i = 0; i < 100; i++) {
+			songs.add(new Song("New song " + i, "Artist", "Album"));
+		}
+		return catalog.songDal.addSongs(songs, false);
+	}
+
+	@Benchmark
+	public DbQueryStatus findSongById(Catalog catalog, Picker picker) {
+		return catalog.songDal.findSongById(picker.songId(catalog));
+	}
+
+	@Benchmark
+	public DbQueryStatus getSongTitleById(Catalog catalog, Picker picker) {
+		return catalog.songDal.getSongTitleById(picker.songId(catalog));
+	}
+
+	@Benchmark
+	public DbQueryStatus findSongsByIds(Catalog catalog, Picker picker) {
+		return catalog.songDal.findSongsByIds(picker.songIds(catalog), false);
+	}
+
+	@Benchmark
+	public DbQueryStatus listSongs(Catalog catalog, Blackhole blackhole) {
+		return catalog.songDal.listSongs("Artist 7", null, null, null, 50, blackhole::consume);
+	}
+
+	@Benchmark
+	public DbQueryStatus updateSongFavouritesCount(Catalog catalog, Picker picker) {
+		return catalog.songDal.updateSongFavouritesCount(picker.songId(catalog), false);
+	}
+
+	@Benchmark
+	public DbQueryStatus deleteSongById(Catalog catalog, Doomed doomed) {
+		return catalog.songDal.deleteSongById(doomed.songId);
+	}
+}
@@ -0,0 +1,94 @@
+package com.eecs3311.songmicroservice;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+/**
+ * A Song on its way in and out of the service: written as JSON the way the controllers send it, read from a request
+ * body the way the controllers take it, and converted to and from the BSON document MongoTemplate stores
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SongSerializationBenchmark {
+
+	private Song song;
+	private ObjectMapper objectMapper;
+	private ObjectWriter songWriter;
+	private byte[] requestBody;
+	private MappingMongoConverter mongoConverter;
+	private Document songDocument;
+
+	@Setup
+	public void setUp() throws IOException {
+		song = new Song("Never Gonna Give You Up", "Rick Astley", "Whenever You Need Somebody");
+		song.setId(new ObjectId("5d61728193528481fe5a3122"));
+		song.setSongAmountFavourites(42);
+
+		// Configured like the mapper Spring Boot gives the controllers
+		objectMapper = Jackson2ObjectMapperBuilder.json().build();
+		songWriter = objectMapper.writerFor(Song.class);
+		requestBody = objectMapper.writeValueAsBytes(song.getJsonRepresentation());
+
+		MongoMappingContext mappingContext = new MongoMappingContext();
+		mappingContext.afterPropertiesSet();
+		mongoConverter = new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, mappingContext);
+		mongoConverter.afterPropertiesSet();
+		songDocument = toDocument();
+	}
+
+	@Benchmark
+	public byte[] writeJson() throws IOException {
+		return songWriter.writeValueAsBytes(song);
+	}
+
+	@Benchmark
+	public Map<?, ?> readRequestBody() throws IOException {
+		return objectMapper.readValue(requestBody, Map.class);
+	}
+
+	@Benchmark
+	public Map<String, String> getJsonRepresentation() {
+		return song.getJsonRepresentation();
+	}
+
+	@Benchmark
+	public Document writeBson() {
+		return toDocument();
+	}
+
+	@Benchmark
+	public Song readBson() {
+		return mongoConverter.read(Song.class, songDocument);
+	}
+
+	private Document toDocument() {
+		Document document = new Document();
+		mongoConverter.write(song, document);
+		return document;
+	}
+}
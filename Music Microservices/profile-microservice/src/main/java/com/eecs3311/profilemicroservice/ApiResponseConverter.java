@@ -0,0 +1,40 @@
+package com.eecs3311.profilemicroservice;
+
+import java.io.IOException;
+
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+
+/**
+ * Writes ApiResponse bodies with the writers cached in Utils instead of Spring's Jackson converter, which builds a new
+ * ObjectWriter for every response. Write only, request bodies still go through Spring's converter
+ */
+public class ApiResponseConverter extends AbstractHttpMessageConverter<ApiResponse> {
+
+	public ApiResponseConverter() {
+		super(MediaType.APPLICATION_JSON_UTF8, MediaType.APPLICATION_JSON);
+	}
+
+	@Override
+	protected boolean supports(Class<?> clazz) {
+		return ApiResponse.class.isAssignableFrom(clazz);
+	}
+
+	@Override
+	public boolean canRead(Class<?> clazz, MediaType mediaType) {
+		return false;
+	}
+
+	@Override
+	protected ApiResponse readInternal(Class<? extends ApiResponse> clazz, HttpInputMessage inputMessage) {
+		throw new HttpMessageNotReadableException("Responses are never read", inputMessage);
+	}
+
+	@Override
+	protected void writeInternal(ApiResponse response, HttpOutputMessage outputMessage) throws IOException {
+		Utils.responseWriter(response.getClass()).writeValue(outputMessage.getBody(), response);
+	}
+}
@@ -0,0 +1,157 @@
+package com.eecs3311.profilemicroservice;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import org.neo4j.driver.v1.Driver;
+import org.neo4j.driver.v1.Record;
+import org.neo4j.driver.v1.Session;
+import org.neo4j.driver.v1.Transaction;
+import org.neo4j.driver.v1.Values;
+
+/**
+ * One bulk write of ProfileDriver or PlaylistDriver. The items that can be applied are sent in chunks, each chunk is one
+ * transaction running one UNWIND query over its rows, and the outcome of every item is kept in the order the items were
+ * sent. A chunk that fails rolls back on its own, its items are ERROR and the chunks after it still run
+ */
+class BulkWrite {
+
+	static final String OUTCOME_INVALID = "INVALID";
+	static final String OUTCOME_DUPLICATE = "DUPLICATE";
+	static final String OUTCOME_ERROR = "ERROR";
+
+	// Keeps the report of a request with every chunk failing a reasonable size
+	private static final int MAX_REPORTED_ERRORS = 100;
+
+	private final String[] outcomes;
+	private final List<Map<String, Object>> rows = new ArrayList<>();
+	private final List<Map<String, Object>> errors = new ArrayList<>();
+	private final List<Map<String, Object>> chunks = new ArrayList<>();
+	// Runs the transaction and the onCommit of every chunk, as they are unless guardChunks says otherwise
+	private BiConsumer<List<Map<String, Object>>, Runnable> chunkGuard = (chunk, write) -> write.run();
+
+	/**
+	 * @param items how many items the request has
+	 */
+	BulkWrite(int items) {
+		outcomes = new String[items];
+	}
+
+	/**
+	 * This method should leave an item out of the write, for items missing fields and repeats of an earlier item
+	 * @param index where the item is in the request
+	 * @param outcome why it was left out
+	 */
+	void skip(int index, String outcome) {
+		outcomes[index] = outcome;
+	}
+
+	/**
+	 * This method should queue an item for the write, the query finds it as row and its position as row.index
+	 * @param index where the item is in the request
+	 * @param row the parameters of the item
+	 */
+	void add(int index, Map<String, Object> row) {
+		row.put("index", index);
+		rows.add(row);
+	}
+
+	/**
+	 * This method should set what the transaction and the onCommit of every chunk run inside, for writes that have to
+	 * reach an in-memory copy in the order Neo4j committed them
+	 * @param chunkGuard gets the rows of the chunk and runs the chunk
+	 * @return this bulk write
+	 */
+	BulkWrite guardChunks(BiConsumer<List<Map<String, Object>>, Runnable> chunkGuard) {
+		this.chunkGuard = chunkGuard;
+		return this;
+	}
+
+	/**
+	 * This method should run the queued items in chunks and report what happened to every item
+	 * @param driver the driver to open the session with
+	 * @param bookmarks where the bookmark of every chunk goes, for the users the query returned
+	 * @param query the UNWIND $rows query, it returns index, userName and outcome for the rows it applied or looked at
+	 * @param chunkSize how many items go in one transaction
+	 * @param missingOutcome the outcome of the rows the query returned nothing for
+	 * @param onCommit runs with the records of every chunk once the chunk is committed
+	 * @param what what the items are, for the message
+	 * @return QUERY_OK with the report when every chunk committed, QUERY_ERROR_GENERIC with the report when any failed
+	 */
+	DbQueryStatus run(Driver driver, UserBookmarks bookmarks, String query, int chunkSize, String missingOutcome, Consumer<List<Record>> onCommit, String what) {
+		try (Session session = driver.session()) {
+			for (int from = 0; from < rows.size(); from += chunkSize) {
+				List<Map<String, Object>> chunk = rows.subList(from, Math.min(rows.size(), from + chunkSize));
+				chunkGuard.accept(chunk, () -> runChunk(session, bookmarks, query, chunk, missingOutcome, onCommit));
+			}
+		}
+
+		Map<String, Integer> counts = new LinkedHashMap<>();
+		for (String outcome : outcomes) {
+			counts.merge(outcome, 1, Integer::sum);
+		}
+		Map<String, Object> report = new HashMap<>();
+		report.put("items", outcomes.length);
+		report.put("outcomes", Arrays.asList(outcomes));
+		report.put("counts", counts);
+		report.put("errors", errors);
+		report.put("chunks", chunks);
+
+		String message = outcomes.length + " " + what + ": " + counts;
+		DbQueryStatus dbQueryStatus = new DbQueryStatus(message, counts.containsKey(OUTCOME_ERROR)
+				? DbQueryExecResult.QUERY_ERROR_GENERIC : DbQueryExecResult.QUERY_OK);
+		dbQueryStatus.setData(report);
+		return dbQueryStatus;
+	}
+
+	private void runChunk(Session session, UserBookmarks bookmarks, String query, List<Map<String, Object>> chunk, String missingOutcome,
+			Consumer<List<Record>> onCommit) {
+		long start = System.nanoTime();
+		List<Record> records;
+		try (Transaction trans = session.beginTransaction()) {
+			records = trans.run(query, Values.parameters("rows", chunk)).list();
+			trans.success();
+		} catch (Exception e) {
+			for (Map<String, Object> row : chunk) {
+				outcomes[(Integer) row.get("index")] = OUTCOME_ERROR;
+			}
+			if (errors.size() < MAX_REPORTED_ERRORS) {
+				Map<String, Object> error = new HashMap<>();
+				error.put("chunk", chunks.size());
+				error.put("firstIndex", chunk.get(0).get("index"));
+				error.put("message", e.getMessage());
+				errors.add(error);
+			}
+			addChunkStats(chunk.size(), System.nanoTime() - start, false);
+			return;
+		}
+		long elapsedNanos = System.nanoTime() - start;
+
+		for (Map<String, Object> row : chunk) {
+			outcomes[(Integer) row.get("index")] = missingOutcome;
+		}
+		String bookmark = session.lastBookmark();
+		for (Record record : records) {
+			outcomes[record.get("index").asInt()] = record.get("outcome").asString();
+			bookmarks.record(record.get("userName").asString(), bookmark);
+		}
+		addChunkStats(chunk.size(), elapsedNanos, true);
+		onCommit.accept(records);
+	}
+
+	private void addChunkStats(int items, long elapsedNanos, boolean committed) {
+		Map<String, Object> chunkStats = new HashMap<>();
+		chunkStats.put("chunk", chunks.size());
+		chunkStats.put("items", items);
+		chunkStats.put("committed", committed);
+		chunkStats.put("millis", elapsedNanos / 1_000_000.0);
+		chunkStats.put("itemsPerSecond", elapsedNanos == 0 ? 0 : Math.round(items * 1e9 / elapsedNanos));
+		chunks.add(chunkStats);
+	}
+}
@@ -0,0 +1,124 @@
+package com.eecs3311.profilemicroservice;
+
+import java.util.Arrays;
+
+/**
+ * Immutable compressed sparse row adjacency of one relationship type, kept in both directions. The edges of user u going out
+ * are outTargets[outOffsets[u] .. outOffsets[u + 1]), sorted so membership is a binary search, and the same for the edges
+ * coming in. Ten million edges take about 4 bytes per edge per direction plus 4 bytes per user per direction
+ */
+final class CsrGraph {
+
+	static final CsrGraph EMPTY = build(0, new int[0], new int[0], 0);
+
+	private final int nodeCount;
+	private final int[] outOffsets;
+	private final int[] outTargets;
+	private final int[] inOffsets;
+	private final int[] inTargets;
+
+	private CsrGraph(int nodeCount, int[][] out, int[][] in) {
+		this.nodeCount = nodeCount;
+		this.outOffsets = out[0];
+		this.outTargets = out[1];
+		this.inOffsets = in[0];
+		this.inTargets = in[1];
+	}
+
+	/**
+	 * Builds the adjacency of the first edgeCount edges src[i] -> dst[i], duplicate edges are kept once
+	 * @param nodeCount every id in src and dst is below this
+	 */
+	static CsrGraph build(int nodeCount, int[] src, int[] dst, int edgeCount) {
+		return new CsrGraph(nodeCount, rows(nodeCount, src, dst, edgeCount), rows(nodeCount, dst, src, edgeCount));
+	}
+
+	int nodeCount() {
+		return nodeCount;
+	}
+
+	int edgeCount() {
+		return outTargets.length;
+	}
+
+	boolean hasEdge(int from, int to) {
+		return from < nodeCount && Arrays.binarySearch(outTargets, outOffsets[from], outOffsets[from + 1], to) >= 0;
+	}
+
+	int outDegree(int node) {
+		return node < nodeCount ? outOffsets[node + 1] - outOffsets[node] : 0;
+	}
+
+	int inDegree(int node) {
+		return node < nodeCount ? inOffsets[node + 1] - inOffsets[node] : 0;
+	}
+
+	/**
+	 * @return a copy of the ids the node has an edge to, ascending
+	 */
+	int[] outEdges(int node) {
+		return node < nodeCount ? Arrays.copyOfRange(outTargets, outOffsets[node], outOffsets[node + 1]) : new int[0];
+	}
+
+	/**
+	 * @return a copy of the ids that have an edge to the node, ascending
+	 */
+	int[] inEdges(int node) {
+		return node < nodeCount ? Arrays.copyOfRange(inTargets, inOffsets[node], inOffsets[node + 1]) : new int[0];
+	}
+
+	/**
+	 * Adds every edge to the end of src and dst, starting at index start
+	 * @return the index after the last edge written
+	 */
+	int copyEdges(int[] src, int[] dst, int start) {
+		int n = start;
+		for (int node = 0; node < nodeCount; node++) {
+			for (int i = outOffsets[node]; i < outOffsets[node + 1]; i++) {
+				src[n] = node;
+				dst[n] = outTargets[i];
+				n++;
+			}
+		}
+		return n;
+	}
+
+	long footprintBytes() {
+		return 4L * (outOffsets.length + outTargets.length + inOffsets.length + inTargets.length);
+	}
+
+	/**
+	 * Counting sort of the edges by key, then each row is sorted and its duplicates dropped
+	 * @return the offsets and the targets
+	 */
+	private static int[][] rows(int nodeCount, int[] keys, int[] values, int edgeCount) {
+		int[] offsets = new int[nodeCount + 1];
+		for (int i = 0; i < edgeCount; i++) {
+			offsets[keys[i] + 1]++;
+		}
+		for (int node = 0; node < nodeCount; node++) {
+			offsets[node + 1] += offsets[node];
+		}
+		int[] targets = new int[edgeCount];
+		int[] next = Arrays.copyOf(offsets, nodeCount);
+		for (int i = 0; i < edgeCount; i++) {
+			targets[next[keys[i]]++] = values[i];
+		}
+
+		int unique = 0;
+		int rowStart = 0;
+		for (int node = 0; node < nodeCount; node++) {
+			int rowEnd = offsets[node + 1];
+			Arrays.sort(targets, rowStart, rowEnd);
+			offsets[node] = unique;
+			for (int i = rowStart; i < rowEnd; i++) {
+				if (unique == offsets[node] || targets[i] != targets[unique - 1]) {
+					targets[unique++] = targets[i];
+				}
+			}
+			rowStart = rowEnd;
+		}
+		offsets[nodeCount] = unique;
+		return new int[][] { offsets, unique == edgeCount ? targets : Arrays.copyOf(targets, unique) };
+	}
+}
@@ -0,0 +1,120 @@
+package com.eecs3311.profilemicroservice;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PreDestroy;
+
+import org.neo4j.driver.v1.Driver;
+import org.neo4j.driver.v1.Record;
+import org.neo4j.driver.v1.Session;
+import org.neo4j.driver.v1.Transaction;
+import org.neo4j.driver.v1.Values;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Moves the like and unlike events from Neo4j to the FavouritesOutbox. A like creates its favouriteEvent node in the
+ * same transaction as the likes relationship, so the event is committed together with the like or not at all. This
+ * relay then appends the oldest nodes to the outbox with one write and deletes them once they are on disk. A crash in
+ * between only appends them again with the same Ids, which the song service drops as duplicates
+ */
+@Component
+public class FavouriteEventRelay {
+
+	static final String LABEL = "favouriteEvent";
+
+	static final String PENDING_EVENTS_QUERY = "MATCH (e:" + LABEL + ") "
+			+ "RETURN id(e) AS id, e.eventId AS eventId, e.songId AS songId, e.shouldDecrement AS shouldDecrement "
+			+ "ORDER BY e.createdAt, id LIMIT $batchSize";
+	static final String DELETE_EVENTS_QUERY = "MATCH (e:" + LABEL + ") WHERE id(e) IN $ids DELETE e";
+
+	private final Driver driver;
+	private final FavouritesOutbox favouritesOutbox;
+	private final int batchSize;
+	private final long relayIntervalMs;
+
+	private ScheduledExecutorService relay;
+
+	@Autowired
+	public FavouriteEventRelay(Driver driver, FavouritesOutbox favouritesOutbox,
+							   @Value("${profile.outbox.batch-size:200}") int batchSize,
+							   @Value("${profile.outbox.dispatch-interval-ms:200}") long relayIntervalMs) {
+		this.driver = driver;
+		this.favouritesOutbox = favouritesOutbox;
+		this.batchSize = batchSize;
+		this.relayIntervalMs = relayIntervalMs;
+	}
+
+	/**
+	 * Starts moving the events in the background, run once at startup. The events left in Neo4j by the last run go first
+	 */
+	public void start() {
+		if (!favouritesOutbox.isEnabled()) {
+			return;
+		}
+		relay = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "favourites-outbox-relay");
+			thread.setDaemon(true);
+			return thread;
+		});
+		relay.scheduleWithFixedDelay(() -> {
+			try {
+				// Keep going while there is a backlog instead of moving one batch per interval
+				while (relay() == batchSize) {
+				}
+			} catch (Exception e) {
+				System.out.println("WARN: Could not move favourite events to the outbox: " + e.getMessage());
+			}
+		}, 0, relayIntervalMs, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * This method moves the oldest batch of events from Neo4j to the outbox
+	 * @return the number of events moved, 0 if there were none
+	 * @throws IOException if the outbox couldn't take them, they stay in Neo4j for the next try
+	 */
+	public int relay() throws IOException {
+		List<Long> ids = new ArrayList<>(batchSize);
+		List<Map<String, Object>> events = new ArrayList<>(batchSize);
+		try (Session session = driver.session()) {
+			for (Record record : session.run(PENDING_EVENTS_QUERY, Values.parameters("batchSize", batchSize)).list()) {
+				ids.add(record.get("id").asLong());
+				Map<String, Object> event = new HashMap<>();
+				event.put("eventId", record.get("eventId").asString());
+				event.put("songId", record.get("songId").asString());
+				event.put("shouldDecrement", record.get("shouldDecrement").asBoolean());
+				events.add(event);
+			}
+			if (events.isEmpty()) {
+				return 0;
+			}
+			favouritesOutbox.appendEvents(events);
+			try (Transaction trans = session.beginTransaction()) {
+				trans.run(DELETE_EVENTS_QUERY, Values.parameters("ids", ids));
+				trans.success();
+			}
+		}
+		return events.size();
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		if (relay == null) {
+			return;
+		}
+		relay.shutdown();
+		try {
+			relay.awaitTermination(5, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
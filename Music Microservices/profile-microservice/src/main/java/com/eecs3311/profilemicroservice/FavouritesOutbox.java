@@ -0,0 +1,411 @@
+package com.eecs3311.profilemicroservice;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+
+/**
+ * Durable outbox for the like and unlike events the song service has to count. The events are committed to Neo4j with
+ * the likes and FavouriteEventRelay appends them to a local file, so the request never waits on the song service. A
+ * background dispatcher sends the events in batches to /updateSongFavouritesCounts and only moves the delivered offset
+ * forward past the events the song service has answered for, retrying the first one it couldn't apply with a growing
+ * delay before any event behind it, so the events of a song are applied in order. Every event keeps its Id across
+ * retries and restarts so the song service can drop the ones it already counted
+ */
+@Component
+public class FavouritesOutbox {
+
+	private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+	private static final String RESULT_FAILED = "failed";
+	// Bytes read from the log per batch, far more than a batch of events takes
+	private static final int MAX_READ_BYTES = 1 << 20;
+	// Delivered part of the log that has to build up before the log is emptied
+	private static final long COMPACT_AFTER_BYTES = 1 << 20;
+
+	private final boolean enabled;
+	private final Path logPath;
+	private final Path offsetPath;
+	private final String songServiceUrl;
+	private final int batchSize;
+	private final long dispatchIntervalMs;
+	private final long maxBackoffMs;
+	private final boolean fsync;
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	private final OkHttpClient client = new OkHttpClient();
+	private final Object appendLock = new Object();
+	private final Object dispatchLock = new Object();
+
+	private FileChannel log;
+	private volatile long deliveredOffset;
+	private int consecutiveFailures;
+	private long nextAttemptAt;
+	private ScheduledExecutorService dispatcher;
+
+	@Autowired
+	public FavouritesOutbox(@Value("${profile.outbox.enabled:true}") boolean enabled,
+							@Value("${profile.outbox.dir:outbox}") String dir,
+							@Value("${profile.outbox.song-service-url:http://localhost:3001}") String songServiceUrl,
+							@Value("${profile.outbox.batch-size:200}") int batchSize,
+							@Value("${profile.outbox.dispatch-interval-ms:200}") long dispatchIntervalMs,
+							@Value("${profile.outbox.max-backoff-ms:30000}") long maxBackoffMs,
+							@Value("${profile.outbox.fsync:true}") boolean fsync) throws IOException {
+		this.enabled = enabled;
+		this.logPath = Paths.get(dir, "favourites.log");
+		this.offsetPath = Paths.get(dir, "favourites.offset");
+		this.songServiceUrl = songServiceUrl;
+		this.batchSize = batchSize;
+		this.dispatchIntervalMs = dispatchIntervalMs;
+		this.maxBackoffMs = maxBackoffMs;
+		this.fsync = fsync;
+		if (enabled) {
+			open();
+		}
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * This method records a like or an unlike to be sent to the song service, it returns once the event is on disk
+	 * @param songId the Id of the song that was liked or unliked
+	 * @param shouldDecrement true for an unlike
+	 * @return the Id of the event, null if the outbox is turned off
+	 */
+	public String append(String songId, boolean shouldDecrement) throws IOException {
+		if (!enabled) {
+			return null;
+		}
+		return append(UUID.randomUUID().toString(), songId, shouldDecrement);
+	}
+
+	/**
+	 * This method records many likes or unlikes at once with a single write, and a single fsync, for all of them
+	 * @param songIds the Ids of the songs that were liked or unliked, once per event
+	 * @param shouldDecrement true for unlikes
+	 * @return the Ids of the events in the order of songIds, empty if the outbox is turned off
+	 */
+	public List<String> appendAll(List<String> songIds, boolean shouldDecrement) throws IOException {
+		List<String> eventIds = new ArrayList<>(songIds.size());
+		if (!enabled || songIds.isEmpty()) {
+			return eventIds;
+		}
+		StringBuilder lines = new StringBuilder();
+		for (String songId : songIds) {
+			String eventId = UUID.randomUUID().toString();
+			eventIds.add(eventId);
+			lines.append(eventLine(eventId, songId, shouldDecrement));
+		}
+		write(lines.toString().getBytes(StandardCharsets.UTF_8));
+		return eventIds;
+	}
+
+	/**
+	 * This method records events that already have their Ids, with a single write for all of them
+	 * @param events the events, each with an eventId, a songId and shouldDecrement
+	 */
+	public void appendEvents(List<Map<String, Object>> events) throws IOException {
+		if (!enabled || events.isEmpty()) {
+			return;
+		}
+		StringBuilder lines = new StringBuilder();
+		for (Map<String, Object> event : events) {
+			lines.append(objectMapper.writeValueAsString(event)).append('\n');
+		}
+		write(lines.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	private String append(String eventId, String songId, boolean shouldDecrement) throws IOException {
+		write(eventLine(eventId, songId, shouldDecrement).getBytes(StandardCharsets.UTF_8));
+		return eventId;
+	}
+
+	private String eventLine(String eventId, String songId, boolean shouldDecrement) throws IOException {
+		Map<String, Object> event = new HashMap<>();
+		event.put("eventId", eventId);
+		event.put("songId", songId);
+		event.put("shouldDecrement", shouldDecrement);
+		return objectMapper.writeValueAsString(event) + "\n";
+	}
+
+	private void write(byte[] lines) throws IOException {
+		synchronized (appendLock) {
+			ByteBuffer buffer = ByteBuffer.wrap(lines);
+			long position = log.size();
+			while (buffer.hasRemaining()) {
+				position += log.write(buffer, position);
+			}
+			if (fsync) {
+				log.force(false);
+			}
+		}
+	}
+
+	/**
+	 * Starts the background dispatcher, run once at startup
+	 */
+	public void start() {
+		if (!enabled) {
+			return;
+		}
+		dispatcher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "favourites-outbox-dispatch");
+			thread.setDaemon(true);
+			return thread;
+		});
+		dispatcher.scheduleWithFixedDelay(this::dispatchWithBackoff, dispatchIntervalMs, dispatchIntervalMs, TimeUnit.MILLISECONDS);
+	}
+
+	private void dispatchWithBackoff() {
+		if (System.currentTimeMillis() < nextAttemptAt) {
+			return;
+		}
+		try {
+			// Keep going while there is a backlog instead of sending one batch per interval
+			while (dispatch() == batchSize) {
+			}
+			consecutiveFailures = 0;
+		} catch (Exception e) {
+			consecutiveFailures++;
+			long backoffMs = Math.min(maxBackoffMs, dispatchIntervalMs << Math.min(consecutiveFailures, 20));
+			nextAttemptAt = System.currentTimeMillis() + backoffMs;
+			System.out.println("WARN: Could not deliver favourite events to the song service, retrying in " + backoffMs + " ms: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * This method sends the next batch of events to the song service
+	 * @return the number of events in the batch, 0 if there was nothing to send
+	 * @throws IOException if the song service couldn't be reached, or couldn't apply an event of the batch this time.
+	 * The delivered offset only moves past the events before the first one that has to be sent again
+	 */
+	public int dispatch() throws IOException {
+		synchronized (dispatchLock) {
+			List<String> lines = new ArrayList<>();
+			List<Long> lineEnds = new ArrayList<>();
+			readBatch(lines, lineEnds);
+			if (lines.isEmpty()) {
+				return 0;
+			}
+
+			List<JsonNode> events = new ArrayList<>(lines.size());
+			for (String line : lines) {
+				events.add(objectMapper.readTree(line));
+			}
+			int delivered = send(events, 0, events.size());
+			if (delivered > 0) {
+				saveDeliveredOffset(lineEnds.get(delivered - 1));
+				compact();
+			}
+			if (delivered < events.size()) {
+				throw new IOException("The song service could not apply favourite event " + events.get(delivered).path("eventId").asText()
+						+ ", holding back the events after it");
+			}
+			return lines.size();
+		}
+	}
+
+	/**
+	 * Sends the events from the first position up to the second. A 400 means the song service will never take one of
+	 * them, so the events are split in halves until the ones it rejects are found and dropped, holding on to them would
+	 * block every event behind them
+	 * @return the position of the first event the song service couldn't apply and has to be sent again, to if it
+	 * answered for all of them
+	 * @throws IOException if the song service couldn't be reached
+	 */
+	private int send(List<JsonNode> events, int from, int to) throws IOException {
+		Map<String, Object> body = new HashMap<>();
+		body.put("events", events.subList(from, to));
+		Request request = new Request.Builder()
+				.url(songServiceUrl + "/updateSongFavouritesCounts")
+				.put(RequestBody.create(objectMapper.writeValueAsBytes(body), JSON))
+				.build();
+
+		try (Response response = client.newCall(request).execute()) {
+			if (response.code() == 400) {
+				if (to - from == 1) {
+					System.out.println("WARN: The song service rejected a favourite event, dropping it: " + events.get(from));
+					return to;
+				}
+				int middle = (from + to) >>> 1;
+				int delivered = send(events, from, middle);
+				return delivered < middle ? delivered : send(events, middle, to);
+			}
+			if (!response.isSuccessful()) {
+				throw new IOException("The song service answered " + response.code());
+			}
+			return firstFailed(objectMapper.readTree(response.body().byteStream()), events, from, to);
+		}
+	}
+
+	/**
+	 * @return the number of events waiting to be delivered
+	 */
+	public int getPendingEvents() throws IOException {
+		int pending = 0;
+		ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+		long position = deliveredOffset;
+		while (log.read(buffer, position) > 0) {
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				if (buffer.get() == '\n') {
+					pending++;
+				}
+			}
+			position += buffer.limit();
+			buffer.clear();
+		}
+		return pending;
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		if (!enabled) {
+			return;
+		}
+		if (dispatcher != null) {
+			dispatcher.shutdown();
+			try {
+				dispatcher.awaitTermination(5, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		try {
+			log.close();
+		} catch (IOException e) {
+			// Nothing left to lose, every event that was appended is already on disk
+		}
+	}
+
+	private void open() throws IOException {
+		Files.createDirectories(logPath.getParent());
+		log = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+		// A crash in the middle of an append leaves half a line at the end, that event was never acknowledged
+		long size = log.size();
+		long end = size;
+		ByteBuffer last = ByteBuffer.allocate(1);
+		while (end > 0) {
+			last.clear();
+			log.read(last, end - 1);
+			if (last.get(0) == '\n') {
+				break;
+			}
+			end--;
+		}
+		if (end < size) {
+			log.truncate(end);
+		}
+
+		deliveredOffset = 0;
+		if (Files.exists(offsetPath)) {
+			deliveredOffset = Long.parseLong(new String(Files.readAllBytes(offsetPath), StandardCharsets.UTF_8).trim());
+		}
+		if (deliveredOffset > end) {
+			// The log was emptied after the offset was reset, but the reset never made it to disk
+			deliveredOffset = 0;
+		}
+	}
+
+	/**
+	 * Reads up to batchSize whole lines after the delivered offset, with the offset right after every one of them
+	 */
+	private void readBatch(List<String> lines, List<Long> lineEnds) throws IOException {
+		long size = log.size();
+		int length = (int) Math.min(size - deliveredOffset, MAX_READ_BYTES);
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining() && log.read(buffer, deliveredOffset + buffer.position()) > 0) {
+		}
+		byte[] bytes = buffer.array();
+
+		int lineStart = 0;
+		for (int i = 0; i < bytes.length && lines.size() < batchSize; i++) {
+			if (bytes[i] == '\n') {
+				lines.add(new String(bytes, lineStart, i - lineStart, StandardCharsets.UTF_8));
+				lineStart = i + 1;
+				lineEnds.add(deliveredOffset + lineStart);
+			}
+		}
+	}
+
+	/**
+	 * @return the position of the first of the events sent that the song service couldn't apply this time, to if there
+	 * is none
+	 */
+	private static int firstFailed(JsonNode response, List<JsonNode> events, int from, int to) {
+		Set<String> failed = new HashSet<>();
+		for (JsonNode result : response.path("data").path("results")) {
+			if (RESULT_FAILED.equals(result.path("result").asText())) {
+				failed.add(result.path("eventId").asText());
+			}
+		}
+		for (int i = from; i < to; i++) {
+			if (failed.contains(events.get(i).path("eventId").asText())) {
+				return i;
+			}
+		}
+		return to;
+	}
+
+	private void saveDeliveredOffset(long offset) throws IOException {
+		Path tmp = offsetPath.resolveSibling(offsetPath.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			channel.write(ByteBuffer.wrap(Long.toString(offset).getBytes(StandardCharsets.UTF_8)));
+			if (fsync) {
+				channel.force(true);
+			}
+		}
+		Files.move(tmp, offsetPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		deliveredOffset = offset;
+	}
+
+	/**
+	 * Empties the log once everything in it has been delivered. The offset is reset first, a crash before the truncate
+	 * only sends those events again and the song service drops them as duplicates
+	 */
+	private void compact() throws IOException {
+		synchronized (appendLock) {
+			if (deliveredOffset < COMPACT_AFTER_BYTES || deliveredOffset != log.size()) {
+				return;
+			}
+			saveDeliveredOffset(0);
+			log.truncate(0);
+			if (fsync) {
+				log.force(true);
+			}
+		}
+	}
+}
@@ -0,0 +1,416 @@
+package com.eecs3311.profilemicroservice;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.neo4j.driver.v1.Driver;
+import org.neo4j.driver.v1.Record;
+import org.neo4j.driver.v1.Session;
+import org.neo4j.driver.v1.Values;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+
+/**
+ * Precomputed activity feed of the songs a user's friends liked, newest first. A feed is built from Neo4j the first time it
+ * is read and from then on every like and unlike is pushed into the feeds of the loaded users who follow the friend, so
+ * reading a page never goes back to the graph. Feeds keep only the latest items and only the most recently read users
+ * keep a feed at all. Following someone drops the feed so it is rebuilt with their likes, unfollowing or blocking
+ * someone takes their likes out straight away. Each of those bumps the user's generation, and a feed that was being built
+ * across one is built again rather than kept. Feeds also expire after profile.feed.ttl-seconds, so writes made to Neo4j
+ * by anything else are picked up
+ */
+@Component
+public class FriendFeed {
+
+	static final String FEED_QUERY = "MATCH (p:profile {userName: $userName})-[:follows]->(friend:profile) "
+			+ "WHERE NOT (p)-[:blocked]->(friend) "
+			+ "OPTIONAL MATCH (friend)-[l:likes]->(s:song) "
+			+ "RETURN friend.userName AS friendUserName, s.songId AS songId, s.songName AS songName, coalesce(l.likedAt, 0) AS likedAt "
+			+ "ORDER BY likedAt DESC LIMIT $limit";
+
+	private static final int GENERATION_SLOTS = 4096;
+	// Builds of a feed that keep running into follow changes before one is returned without being kept
+	private static final int LOAD_ATTEMPTS = 3;
+
+	private static final Comparator<FeedItem> NEWEST_FIRST = Comparator.comparingLong((FeedItem item) -> item.likedAt).reversed()
+			.thenComparing(item -> item.friendUserName).thenComparing(item -> item.songId);
+
+	private final Driver driver;
+	private final UserBookmarks bookmarks;
+	private final boolean enabled;
+	private final int capacity;
+	private final int replayEvents;
+
+	private final Cache<String, Feed> feeds;
+	// Reverse index of the loaded feeds, who is following each friend
+	private final Map<String, Set<String>> loadedFollowers = new ConcurrentHashMap<>();
+	// The latest likes and unlikes, replayed into a feed that was being built while they happened
+	private final ConcurrentLinkedDeque<FeedEvent> recentEvents = new ConcurrentLinkedDeque<>();
+	private final AtomicInteger recentEventCount = new AtomicInteger();
+	private final AtomicLong lastEventSeq = new AtomicLong();
+	// Generations of the users' follows, bumped by every follow, unfollow and block. Users share a slot by the hash of
+	// their name, which only costs an extra rebuild when two of them change at once
+	private final AtomicLongArray generations = new AtomicLongArray(GENERATION_SLOTS);
+
+	public FriendFeed(Driver driver, boolean enabled, int capacity, long maxUsers, int replayEvents) {
+		this(driver, enabled, capacity, maxUsers, replayEvents, 300, new UserBookmarks(false, 0, 0));
+	}
+
+	@Autowired
+	public FriendFeed(Driver driver, @Value("${profile.feed.enabled:true}") boolean enabled,
+					  @Value("${profile.feed.capacity:500}") int capacity,
+					  @Value("${profile.feed.max-users:10000}") long maxUsers,
+					  @Value("${profile.feed.replay-events:4096}") int replayEvents,
+					  @Value("${profile.feed.ttl-seconds:300}") long ttlSeconds,
+					  UserBookmarks bookmarks) {
+		this.driver = driver;
+		this.bookmarks = bookmarks;
+		this.enabled = enabled;
+		this.capacity = capacity;
+		this.replayEvents = replayEvents;
+		this.feeds = Caffeine.newBuilder()
+				.maximumSize(maxUsers)
+				.expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+				.executor(Runnable::run)
+				.removalListener((String userName, Feed feed, RemovalCause cause) -> {
+					if (feed != null) {
+						unregister(userName, feed);
+					}
+				})
+				.build();
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * @return the most items kept per user, and so the largest page
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * This method reads a page of a user's feed, building it from the graph if the user has no feed loaded
+	 * @param userName the user whose friends' likes to read
+	 * @param cursor where the previous page ended, null for the newest items
+	 * @param limit the most items to return
+	 * @return returns the status of the database after being ran with the items, newest first, and the cursor of the next
+	 * page if there is one. The cursor has to be checked with isValidCursor first
+	 */
+	public DbQueryStatus getFeed(String userName, String cursor, int limit) {
+		FeedItem after = null;
+		if (cursor != null) {
+			after = FeedItem.decodeCursor(cursor);
+			if (after == null) {
+				throw new IllegalArgumentException("Invalid cursor: " + cursor);
+			}
+		}
+
+		Feed feed;
+		try {
+			feed = enabled ? feeds.getIfPresent(userName) : null;
+			if (feed == null) {
+				feed = load(userName);
+			}
+		} catch (Exception e) {
+			return new DbQueryStatus("Error: " + e.getMessage(), DbQueryExecResult.QUERY_ERROR_GENERIC);
+		}
+
+		List<Map<String, Object>> items = new ArrayList<>(limit);
+		Iterator<FeedItem> iterator = (after == null ? feed.items : feed.items.tailSet(after, false)).iterator();
+		FeedItem last = null;
+		while (items.size() < limit && iterator.hasNext()) {
+			last = iterator.next();
+			items.add(last.toMap());
+		}
+
+		Map<String, Object> page = new HashMap<>();
+		page.put("items", items);
+		if (last != null && iterator.hasNext()) {
+			page.put("nextCursor", last.encodeCursor());
+		}
+		DbQueryStatus queryStatus = new DbQueryStatus("Friend activity feed", DbQueryExecResult.QUERY_OK);
+		queryStatus.setData(page);
+		return queryStatus;
+	}
+
+	/**
+	 * @return true if the cursor is one this service handed out
+	 */
+	public static boolean isValidCursor(String cursor) {
+		return FeedItem.decodeCursor(cursor) != null;
+	}
+
+	/**
+	 * This method pushes a like into the feeds of the loaded users who follow the user that liked the song
+	 */
+	public void onLike(String userName, String songId, String songName, long likedAt) {
+		if (!enabled) {
+			return;
+		}
+		FeedEvent event = new FeedEvent(new FeedItem(userName, songId, songName, likedAt), false);
+		remember(event);
+		for (String follower : loadedFollowers.getOrDefault(userName, Collections.emptySet())) {
+			Feed feed = feeds.getIfPresent(follower);
+			if (feed != null && feed.followees.contains(userName)) {
+				feed.apply(event);
+			}
+		}
+	}
+
+	/**
+	 * This method takes an unliked song out of the feeds of the loaded users who follow the user that unliked it
+	 */
+	public void onUnlike(String userName, String songId) {
+		if (!enabled) {
+			return;
+		}
+		FeedEvent event = new FeedEvent(new FeedItem(userName, songId, null, 0), true);
+		remember(event);
+		for (String follower : loadedFollowers.getOrDefault(userName, Collections.emptySet())) {
+			Feed feed = feeds.getIfPresent(follower);
+			if (feed != null && feed.followees.contains(userName)) {
+				feed.apply(event);
+			}
+		}
+	}
+
+	/**
+	 * This method drops the user's feed, the next read rebuilds it with the likes of the friend they just followed
+	 */
+	public void onFollow(String userName, String frndUserName) {
+		if (enabled) {
+			bumpGeneration(userName);
+			feeds.invalidate(userName);
+		}
+	}
+
+	/**
+	 * This method takes the friend's likes out of the user's feed, used for unfollowing as well as blocking
+	 */
+	public void onUnfollow(String userName, String frndUserName) {
+		if (!enabled) {
+			return;
+		}
+		bumpGeneration(userName);
+		Feed feed = feeds.getIfPresent(userName);
+		if (feed != null) {
+			feed.followees.remove(frndUserName);
+			removeFollower(frndUserName, userName);
+			feed.items.removeIf(item -> item.friendUserName.equals(frndUserName));
+		}
+	}
+
+	private Feed load(String userName) {
+		Feed feed = null;
+		for (int attempt = 0; attempt < LOAD_ATTEMPTS; attempt++) {
+			long generation = generation(userName);
+			// Anything that happens from here on is replayed into the new feed, it may not be in what the query reads
+			long replayAfter = lastEventSeq.get();
+			feed = read(userName);
+			if (!enabled) {
+				return feed;
+			}
+			if (generation(userName) != generation) {
+				// A follow, unfollow or block of the user came in while the graph was read, it may or may not be in there
+				continue;
+			}
+			Feed loaded = keep(userName, feed, replayAfter);
+			if (generation(userName) == generation) {
+				return loaded;
+			}
+			// The change came in just as the feed was kept, before onUnfollow or onFollow could find it in the cache
+			feeds.asMap().remove(userName, loaded);
+		}
+		// The user's follows keep changing, hand out the last read without keeping it
+		return feed;
+	}
+
+	Feed read(String userName) {
+		Feed feed = new Feed(capacity);
+		try (Session session = bookmarks.readSession(driver, userName)) {
+			for (Record record : session.run(FEED_QUERY, Values.parameters("userName", userName, "limit", capacity)).list()) {
+				String friendUserName = record.get("friendUserName").asString();
+				feed.followees.add(friendUserName);
+				if (!record.get("songId").isNull()) {
+					feed.add(new FeedItem(friendUserName, record.get("songId").asString(),
+							record.get("songName").isNull() ? null : record.get("songName").asString(), record.get("likedAt").asLong()));
+				}
+			}
+		}
+		// Friends whose likes didn't make it into the latest items still count for new likes
+		try (Session session = bookmarks.readSession(driver, userName)) {
+			for (Record record : session.run("MATCH (p:profile {userName: $userName})-[:follows]->(friend:profile) "
+					+ "WHERE NOT (p)-[:blocked]->(friend) RETURN friend.userName AS friendUserName", Values.parameters("userName", userName)).list()) {
+				feed.followees.add(record.get("friendUserName").asString());
+			}
+		}
+		return feed;
+	}
+
+	private Feed keep(String userName, Feed feed, long replayAfter) {
+		for (String followee : feed.followees) {
+			loadedFollowers.computeIfAbsent(followee, key -> ConcurrentHashMap.newKeySet()).add(userName);
+		}
+		Feed loaded = feeds.asMap().putIfAbsent(userName, feed);
+		if (loaded != null) {
+			// Another request built it first, that one is already getting the likes
+			return loaded;
+		}
+		// Once it is in the cache it gets every new like, these are the ones that happened while it was being built
+		for (FeedEvent event : recentEvents) {
+			if (event.seq > replayAfter && feed.followees.contains(event.item.friendUserName)) {
+				feed.apply(event);
+			}
+		}
+		return feed;
+	}
+
+	private long generation(String userName) {
+		return generations.get(generationSlot(userName));
+	}
+
+	private void bumpGeneration(String userName) {
+		generations.incrementAndGet(generationSlot(userName));
+	}
+
+	private static int generationSlot(String userName) {
+		return (userName.hashCode() & Integer.MAX_VALUE) % GENERATION_SLOTS;
+	}
+
+	private void unregister(String userName, Feed feed) {
+		Feed current = feeds.getIfPresent(userName);
+		for (String followee : feed.followees) {
+			// A feed that was rebuilt since still needs the followees it has in common with the old one
+			if (current == null || !current.followees.contains(followee)) {
+				removeFollower(followee, userName);
+			}
+		}
+	}
+
+	private void removeFollower(String followee, String userName) {
+		loadedFollowers.computeIfPresent(followee, (key, followers) -> {
+			followers.remove(userName);
+			return followers.isEmpty() ? null : followers;
+		});
+	}
+
+	private void remember(FeedEvent event) {
+		synchronized (recentEvents) {
+			event.seq = lastEventSeq.incrementAndGet();
+			recentEvents.addLast(event);
+		}
+		if (recentEventCount.incrementAndGet() > replayEvents) {
+			recentEvents.pollFirst();
+			recentEventCount.decrementAndGet();
+		}
+	}
+
+	static final class Feed {
+		final Set<String> followees = ConcurrentHashMap.newKeySet();
+		final ConcurrentSkipListSet<FeedItem> items = new ConcurrentSkipListSet<>(NEWEST_FIRST);
+		final int capacity;
+
+		Feed(int capacity) {
+			this.capacity = capacity;
+		}
+
+		void apply(FeedEvent event) {
+			if (event.unlike) {
+				items.removeIf(item -> item.friendUserName.equals(event.item.friendUserName) && item.songId.equals(event.item.songId));
+			} else {
+				add(event.item);
+			}
+		}
+
+		void add(FeedItem item) {
+			items.add(item);
+			while (items.size() > capacity) {
+				items.pollLast();
+			}
+		}
+	}
+
+	private static final class FeedEvent {
+		final FeedItem item;
+		final boolean unlike;
+		long seq;
+
+		FeedEvent(FeedItem item, boolean unlike) {
+			this.item = item;
+			this.unlike = unlike;
+		}
+	}
+
+	static final class FeedItem {
+		final String friendUserName;
+		final String songId;
+		final String songName;
+		final long likedAt;
+
+		FeedItem(String friendUserName, String songId, String songName, long likedAt) {
+			this.friendUserName = friendUserName;
+			this.songId = songId;
+			this.songName = songName;
+			this.likedAt = likedAt;
+		}
+
+		Map<String, Object> toMap() {
+			Map<String, Object> item = new HashMap<>();
+			item.put("friendUserName", friendUserName);
+			item.put("songId", songId);
+			item.put("songName", songName);
+			item.put("likedAt", likedAt);
+			return item;
+		}
+
+		/**
+		 * @return the position of this item as it is handed out to clients, the time of the like followed by the base64
+		 * friend and song Id
+		 */
+		String encodeCursor() {
+			Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+			return likedAt + "." + encoder.encodeToString(friendUserName.getBytes(StandardCharsets.UTF_8))
+					+ "." + encoder.encodeToString(songId.getBytes(StandardCharsets.UTF_8));
+		}
+
+		/**
+		 * @return the position the cursor points at, null if the string isn't a cursor this service handed out
+		 */
+		static FeedItem decodeCursor(String cursor) {
+			String[] parts = cursor.split("\\.", -1);
+			if (parts.length != 3) {
+				return null;
+			}
+			try {
+				Base64.Decoder decoder = Base64.getUrlDecoder();
+				return new FeedItem(new String(decoder.decode(parts[1]), StandardCharsets.UTF_8),
+						new String(decoder.decode(parts[2]), StandardCharsets.UTF_8), null, Long.parseLong(parts[0]));
+			} catch (IllegalArgumentException e) {
+				return null;
+			}
+		}
+	}
+}
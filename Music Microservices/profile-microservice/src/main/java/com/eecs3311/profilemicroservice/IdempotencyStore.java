@@ -0,0 +1,164 @@
+package com.eecs3311.profilemicroservice;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+/**
+ * The responses of the PUT requests that came with an Idempotency-Key header. A client that retries a request with the
+ * same key, because it timed out or the connection dropped before the answer came, gets the first response back without
+ * the request going to Neo4j again, and a retry that arrives while the first is still running waits for it. Keys are kept
+ * for ttl-seconds and at most max-keys of them, per instance of the service. A request that failed with a 5xx is
+ * forgotten so that it can be retried for real
+ */
+@Component
+public class IdempotencyStore {
+
+	public static final String HEADER = "Idempotency-Key";
+	public static final String REPLAYED_HEADER = "Idempotent-Replayed";
+	static final int MAX_KEY_LENGTH = 255;
+
+	// The same body always serializes to the same JSON, whatever order its fields came in
+	private static final ObjectMapper CANONICAL_MAPPER = new ObjectMapper()
+			.configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+	private static final byte[] NO_BODY = new byte[0];
+
+	private static final class Entry {
+		final byte[] fingerprint;
+		final CompletableFuture<ResponseEntity<ApiResponse>> response;
+
+		Entry(byte[] fingerprint, CompletableFuture<ResponseEntity<ApiResponse>> response) {
+			this.fingerprint = fingerprint;
+			this.response = response;
+		}
+	}
+
+	private final boolean enabled;
+	private final Cache<String, Entry> entries;
+	private final AtomicLong replayed = new AtomicLong();
+
+	@Autowired
+	public IdempotencyStore(@Value("${profile.idempotency.enabled:true}") boolean enabled,
+							@Value("${profile.idempotency.max-keys:10000}") long maxKeys,
+							@Value("${profile.idempotency.ttl-seconds:600}") long ttlSeconds) {
+		this.enabled = enabled;
+		this.entries = Caffeine.newBuilder()
+				.expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+				.maximumSize(maxKeys)
+				.build();
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * @return how many requests were answered from the store instead of running again
+	 */
+	public long getReplayed() {
+		return replayed.get();
+	}
+
+	/**
+	 * This method should run a request at most once per idempotency key
+	 * @param key the Idempotency-Key header, null when the client sent none and the request just runs
+	 * @param uri the endpoint, the same key sent to two endpoints is two requests
+	 * @param body the request body, a key sent again with a different body is refused
+	 * @param path the "path" of the response when the key is refused
+	 * @param request runs the request, usually through the RequestExecutor
+	 * @return the response of the first request with this key, marked with Idempotent-Replayed when it is sent again
+	 */
+	public CompletableFuture<ResponseEntity<ApiResponse>> execute(String key, String uri, Object body, String path,
+			Supplier<CompletableFuture<ResponseEntity<ApiResponse>>> request) {
+		if (!enabled || key == null) {
+			return request.get();
+		}
+		if (key.isEmpty() || key.length() > MAX_KEY_LENGTH) {
+			return CompletableFuture.completedFuture(Utils.badRequest(path,
+					String.format("%s must be between 1 and %d characters", HEADER, MAX_KEY_LENGTH)));
+		}
+
+		String storeKey = uri + ' ' + key;
+		byte[] fingerprint = fingerprint(body);
+		CompletableFuture<ResponseEntity<ApiResponse>> response = new CompletableFuture<>();
+		Entry entry = new Entry(fingerprint, response);
+		Entry first = entries.asMap().putIfAbsent(storeKey, entry);
+		if (first != null) {
+			if (!MessageDigest.isEqual(first.fingerprint, fingerprint)) {
+				return CompletableFuture.completedFuture(Utils.badRequest(path,
+						String.format("%s was already used for a different request", HEADER)));
+			}
+			replayed.incrementAndGet();
+			return first.response.thenApply(IdempotencyStore::replay);
+		}
+
+		CompletableFuture<ResponseEntity<ApiResponse>> running;
+		try {
+			running = request.get();
+		} catch (RuntimeException e) {
+			forget(storeKey, entry);
+			response.completeExceptionally(e);
+			throw e;
+		}
+		running.whenComplete((result, failure) -> {
+			if (failure != null || result.getStatusCode().is5xxServerError()) {
+				// Nothing may have been written, the retry has to go to the database
+				forget(storeKey, entry);
+			}
+			if (failure != null) {
+				response.completeExceptionally(failure);
+			} else {
+				response.complete(result);
+			}
+		});
+		return running;
+	}
+
+	/**
+	 * @return the SHA-256 digest of the body's canonical JSON, so two different bodies never pass for the same request
+	 */
+	static byte[] fingerprint(Object body) {
+		if (body == null) {
+			return NO_BODY;
+		}
+		byte[] json;
+		try {
+			json = CANONICAL_MAPPER.writeValueAsBytes(body);
+		} catch (JsonProcessingException e) {
+			json = String.valueOf(body).getBytes(StandardCharsets.UTF_8);
+		}
+		try {
+			return MessageDigest.getInstance("SHA-256").digest(json);
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform has SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private void forget(String storeKey, Entry entry) {
+		entries.asMap().remove(storeKey, entry);
+	}
+
+	private static ResponseEntity<ApiResponse> replay(ResponseEntity<ApiResponse> first) {
+		HttpHeaders headers = new HttpHeaders();
+		headers.putAll(first.getHeaders());
+		headers.set(REPLAYED_HEADER, "true");
+		return ResponseEntity.status(first.getStatusCode()).headers(headers).body(first.getBody());
+	}
+}
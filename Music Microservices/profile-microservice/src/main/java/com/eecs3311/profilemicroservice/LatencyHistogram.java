@@ -0,0 +1,111 @@
+package com.eecs3311.profilemicroservice;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts latencies in log-linear buckets the way an HdrHistogram does: every power of two is split into 16 equal
+ * buckets, so a value is never off by more than 1/16 of itself however large it is. Recording is one atomic increment
+ * and never takes a lock
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	// Enough buckets for the highest power of two a positive long can reach
+	static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder totalNanos = new LongAdder();
+
+	/**
+	 * This method should count one call that took the given time
+	 * @param nanos the time the call took, negative times are counted as 0
+	 */
+	public void record(long nanos) {
+		long value = Math.max(nanos, 0);
+		counts.incrementAndGet(bucketOf(value));
+		totalNanos.add(value);
+	}
+
+	/**
+	 * This method should copy the counts so far, calls recorded while copying may or may not be in the copy
+	 * @return the counts of every bucket and the total time
+	 */
+	public Snapshot snapshot() {
+		long[] copy = new long[BUCKETS];
+		long count = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			copy[i] = counts.get(i);
+			count += copy[i];
+		}
+		return new Snapshot(copy, count, totalNanos.sum());
+	}
+
+	static int bucketOf(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int magnitude = 63 - Long.numberOfLeadingZeros(value);
+		int subBucket = (int) (value >>> (magnitude - SUB_BUCKET_BITS)) - SUB_BUCKETS;
+		return (magnitude - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	// The largest value that is counted in the bucket
+	static long highestValueOf(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int shift = bucket / SUB_BUCKETS - 1;
+		long lowest = (long) (bucket % SUB_BUCKETS + SUB_BUCKETS) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+
+	public static class Snapshot {
+		private final long[] counts;
+		private final long count;
+		private final long totalNanos;
+
+		Snapshot(long[] counts, long count, long totalNanos) {
+			this.counts = counts;
+			this.count = count;
+			this.totalNanos = totalNanos;
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		public long getTotalNanos() {
+			return totalNanos;
+		}
+
+		/**
+		 * @param quantile between 0 and 1, 0.99 gives the p99
+		 * @return the time no more than the given share of the calls took longer than, 0 when nothing was recorded
+		 */
+		public long valueAtQuantile(double quantile) {
+			long rank = Math.max(1, (long) Math.ceil(quantile * count));
+			long seen = 0;
+			for (int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if (seen >= rank) {
+					return highestValueOf(i);
+				}
+			}
+			return 0;
+		}
+
+		/**
+		 * @return how many calls took at most the given time, a bucket that straddles it is counted when its highest value
+		 * is not over it
+		 */
+		public long countAtOrBelow(long nanos) {
+			long seen = 0;
+			for (int i = 0; i < counts.length && highestValueOf(i) <= nanos; i++) {
+				seen += counts[i];
+			}
+			return seen;
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package com.eecs3311.profilemicroservice;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.neo4j.driver.v1.Driver;
+import org.neo4j.driver.v1.Record;
+import org.neo4j.driver.v1.Session;
+import org.neo4j.driver.v1.Transaction;
+import org.neo4j.driver.v1.Values;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Removes the duplicate likes left behind from when liking a song twice added a second likes relationship. Every user
+ * keeps their first like of a song and the rest are deleted, batch-size users per transaction so the job never holds
+ * the locks of the whole graph. Each duplicate like also counted the song as a favourite once more, and with its
+ * relationship gone no unlike will ever take that back, so every like removed records a decrement for the song service
+ * in the same transaction, which FavouriteEventRelay passes on. It is a one-off, run at startup with
+ * profile.likes-compaction.on-startup=true, and running it again finds nothing to do
+ */
+@Component
+public class LikesCompaction {
+
+	static final String NEXT_PROFILES_QUERY = "MATCH (p:profile) WHERE id(p) > $after RETURN id(p) AS id ORDER BY id LIMIT $batchSize";
+
+	// Keeps the earliest like of every song, the likes without a likedAt sort last. Records an event for every like
+	// removed when $recordEvent is set
+	static final String REMOVE_DUPLICATE_LIKES_QUERY = "UNWIND $ids AS profileId "
+			+ "MATCH (p:profile)-[l:likes]->(s:song) WHERE id(p) = profileId "
+			+ "WITH p, s, l ORDER BY l.likedAt "
+			+ "WITH p, s, collect(l) AS likes WHERE size(likes) > 1 "
+			+ "FOREACH (duplicate IN tail(likes) | "
+			+ "FOREACH (ignored IN CASE WHEN $recordEvent THEN [1] ELSE [] END | "
+			+ "CREATE (:" + FavouriteEventRelay.LABEL + " {eventId: $eventId + '-' + id(duplicate), songId: s.songId, shouldDecrement: true, createdAt: timestamp()})) "
+			+ "DELETE duplicate) "
+			+ "RETURN s.songId AS songId, size(likes) - 1 AS removed";
+
+	private final Driver driver;
+	private final FavouritesOutbox favouritesOutbox;
+	private final boolean onStartup;
+	private final int batchSize;
+
+	@Autowired
+	public LikesCompaction(Driver driver, FavouritesOutbox favouritesOutbox,
+						   @Value("${profile.likes-compaction.on-startup:false}") boolean onStartup,
+						   @Value("${profile.likes-compaction.batch-size:500}") int batchSize) {
+		this.driver = driver;
+		this.favouritesOutbox = favouritesOutbox;
+		this.onStartup = onStartup;
+		this.batchSize = batchSize;
+	}
+
+	public boolean isOnStartup() {
+		return onStartup;
+	}
+
+	/**
+	 * This method should go through every profile batch-size at a time and delete their duplicate likes
+	 * @return how many likes were deleted
+	 */
+	public long compact() {
+		long after = -1;
+		long profiles = 0;
+		long removed = 0;
+		while (true) {
+			List<Long> ids = new ArrayList<>(batchSize);
+			long batchRemoved = 0;
+			try (Session session = driver.session()) {
+				try (Transaction trans = session.beginTransaction()) {
+					for (Record record : trans.run(NEXT_PROFILES_QUERY, Values.parameters("after", after, "batchSize", batchSize)).list()) {
+						ids.add(record.get("id").asLong());
+					}
+					if (ids.isEmpty()) {
+						break;
+					}
+					for (Record record : trans.run(REMOVE_DUPLICATE_LIKES_QUERY, Values.parameters("ids", ids,
+							"recordEvent", favouritesOutbox.isEnabled(), "eventId", UUID.randomUUID().toString())).list()) {
+						batchRemoved += record.get("removed").asInt();
+					}
+					// The decrements commit with the deletes, FavouriteEventRelay passes them on
+					trans.success();
+				}
+			}
+			after = ids.get(ids.size() - 1);
+			profiles += ids.size();
+			removed += batchRemoved;
+			System.out.println("INFO: Likes compaction went through " + profiles + " profiles, " + removed + " duplicate likes removed");
+		}
+		return removed;
+	}
+}
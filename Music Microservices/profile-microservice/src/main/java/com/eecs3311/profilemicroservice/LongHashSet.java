@@ -0,0 +1,135 @@
+package com.eecs3311.profilemicroservice;
+
+import java.util.Arrays;
+
+/**
+ * Set of primitive longs with open addressing and linear probing, so a set of edges costs 8 bytes a slot instead of a boxed
+ * Long and a hash map entry each. Removal shifts the following entries back, so there are no tombstones to clean up
+ */
+final class LongHashSet {
+
+	private static final long EMPTY = Long.MIN_VALUE;
+
+	private long[] slots;
+	private int size;
+
+	LongHashSet(int expected) {
+		slots = new long[tableSize(expected)];
+		Arrays.fill(slots, EMPTY);
+	}
+
+	int size() {
+		return size;
+	}
+
+	boolean contains(long key) {
+		int mask = slots.length - 1;
+		for (int i = slot(key, mask); ; i = (i + 1) & mask) {
+			if (slots[i] == key) {
+				return true;
+			}
+			if (slots[i] == EMPTY) {
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * @return true if the key wasn't in the set yet
+	 */
+	boolean add(long key) {
+		if ((size + 1) * 2 > slots.length) {
+			grow();
+		}
+		int mask = slots.length - 1;
+		int i = slot(key, mask);
+		while (slots[i] != EMPTY) {
+			if (slots[i] == key) {
+				return false;
+			}
+			i = (i + 1) & mask;
+		}
+		slots[i] = key;
+		size++;
+		return true;
+	}
+
+	/**
+	 * @return true if the key was in the set
+	 */
+	boolean remove(long key) {
+		int mask = slots.length - 1;
+		int i = slot(key, mask);
+		while (slots[i] != key) {
+			if (slots[i] == EMPTY) {
+				return false;
+			}
+			i = (i + 1) & mask;
+		}
+		// Move back every following entry that would no longer be reachable from its own slot
+		int gap = i;
+		for (int j = (gap + 1) & mask; slots[j] != EMPTY; j = (j + 1) & mask) {
+			int home = slot(slots[j], mask);
+			if (((j - home) & mask) >= ((j - gap) & mask)) {
+				slots[gap] = slots[j];
+				gap = j;
+			}
+		}
+		slots[gap] = EMPTY;
+		size--;
+		return true;
+	}
+
+	/**
+	 * @return every key in the set, in no particular order
+	 */
+	long[] toArray() {
+		long[] keys = new long[size];
+		int n = 0;
+		for (long slot : slots) {
+			if (slot != EMPTY) {
+				keys[n++] = slot;
+			}
+		}
+		return keys;
+	}
+
+	void clear() {
+		Arrays.fill(slots, EMPTY);
+		size = 0;
+	}
+
+	long footprintBytes() {
+		return 8L * slots.length;
+	}
+
+	private void grow() {
+		long[] old = slots;
+		slots = new long[old.length * 2];
+		Arrays.fill(slots, EMPTY);
+		size = 0;
+		for (long key : old) {
+			if (key != EMPTY) {
+				add(key);
+			}
+		}
+	}
+
+	private static int slot(long key, int mask) {
+		// The finalizer of MurmurHash3, edges of one user would otherwise all land next to each other
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+		return (int) key & mask;
+	}
+
+	private static int tableSize(int expected) {
+		int size = 16;
+		while (size < expected * 2) {
+			size <<= 1;
+		}
+		return size;
+	}
+}
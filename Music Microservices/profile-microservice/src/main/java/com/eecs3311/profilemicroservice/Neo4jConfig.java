@@ -0,0 +1,61 @@
+package com.eecs3311.profilemicroservice;
+
+import java.util.concurrent.TimeUnit;
+
+import org.neo4j.driver.v1.AuthTokens;
+import org.neo4j.driver.v1.Config;
+import org.neo4j.driver.v1.Driver;
+import org.neo4j.driver.v1.GraphDatabase;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Builds the one Neo4j driver the service shares, from the profile.neo4j settings in application.properties. The driver
+ * owns the connection pool, Spring closes it when the service shuts down. With a bolt+routing:// uri it sends read
+ * sessions to the followers of a cluster and write sessions to its leader. The driver counts its open sessions, see
+ * Neo4jShutdownDrain
+ */
+@Configuration
+public class Neo4jConfig {
+
+	@Value("${profile.neo4j.uri:bolt://localhost:7687}")
+	private String uri;
+
+	@Value("${profile.neo4j.username:neo4j}")
+	private String username;
+
+	@Value("${profile.neo4j.password:12345678}")
+	private String password;
+
+	@Value("${profile.neo4j.pool.max-size:100}")
+	private int maxConnectionPoolSize;
+
+	@Value("${profile.neo4j.pool.acquisition-timeout-ms:60000}")
+	private long connectionAcquisitionTimeoutMs;
+
+	@Value("${profile.neo4j.pool.max-connection-lifetime-ms:3600000}")
+	private long maxConnectionLifetimeMs;
+
+	@Value("${profile.neo4j.max-transaction-retry-ms:30000}")
+	private long maxTransactionRetryMs;
+
+	@Value("${profile.neo4j.pool.metrics-enabled:true}")
+	private boolean metricsEnabled;
+
+	@Bean(destroyMethod = "close")
+	public Driver neo4jDriver() {
+		if (metricsEnabled) {
+			// This driver version only turns its pool metrics on through a system property read when it is built
+			Neo4jDriverInternals.enableMetrics();
+		}
+		Config config = Config.build()
+				.withoutEncryption()
+				.withMaxConnectionPoolSize(maxConnectionPoolSize)
+				.withConnectionAcquisitionTimeout(connectionAcquisitionTimeoutMs, TimeUnit.MILLISECONDS)
+				.withMaxConnectionLifetime(maxConnectionLifetimeMs, TimeUnit.MILLISECONDS)
+				.withMaxTransactionRetryTime(maxTransactionRetryMs, TimeUnit.MILLISECONDS)
+				.toConfig();
+		return SessionCountingDriver.wrap(GraphDatabase.driver(uri, AuthTokens.basic(username, password), config));
+	}
+}
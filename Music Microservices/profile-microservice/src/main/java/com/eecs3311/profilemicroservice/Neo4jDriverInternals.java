@@ -0,0 +1,83 @@
+package com.eecs3311.profilemicroservice;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.neo4j.driver.internal.InternalDriver;
+import org.neo4j.driver.internal.metrics.spi.ConnectionPoolMetrics;
+import org.neo4j.driver.internal.metrics.spi.Histogram;
+import org.neo4j.driver.internal.metrics.spi.Metrics;
+import org.neo4j.driver.v1.Driver;
+
+/**
+ * The one place that uses the driver's internal API, which this driver version only offers its pool metrics through.
+ * It can change in any driver release, so every call is guarded and a driver it doesn't fit just has no metrics
+ */
+final class Neo4jDriverInternals {
+
+	private static final long NANOS_PER_MILLI = 1000000L;
+
+	private Neo4jDriverInternals() {
+	}
+
+	/**
+	 * This method turns the pool metrics on for the drivers built after it, through the system property they read
+	 */
+	static void enableMetrics() {
+		try {
+			System.setProperty(Metrics.DRIVER_METRICS_ENABLED_KEY, "true");
+		} catch (LinkageError e) {
+			System.out.println("WARN: This Neo4j driver has no pool metrics: " + e);
+		}
+	}
+
+	/**
+	 * @return true if the driver was built with its metrics turned on
+	 */
+	static boolean isMetricsEnabled(Driver driver) {
+		try {
+			return SessionCountingDriver.unwrap(driver) instanceof InternalDriver && Metrics.isMetricsEnabled();
+		} catch (LinkageError e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @return the metrics of every connection pool of the driver by the pool's name, empty if the metrics are off
+	 */
+	static Map<String, Object> poolMetrics(Driver driver) {
+		Map<String, Object> pools = new HashMap<>();
+		if (!isMetricsEnabled(driver)) {
+			return pools;
+		}
+		try {
+			for (ConnectionPoolMetrics pool : ((InternalDriver) SessionCountingDriver.unwrap(driver)).metrics().connectionPoolMetrics().values()) {
+				Map<String, Object> metrics = new HashMap<>();
+				metrics.put("status", pool.poolStatus().name());
+				metrics.put("inUse", pool.inUse());
+				metrics.put("idle", pool.idle());
+				metrics.put("creating", pool.creating());
+				metrics.put("created", pool.created());
+				metrics.put("failedToCreate", pool.failedToCreate());
+				metrics.put("closed", pool.closed());
+				metrics.put("acquiring", pool.acquiring());
+				metrics.put("acquired", pool.acquired());
+				metrics.put("timedOutToAcquire", pool.timedOutToAcquire());
+
+				Histogram acquisitionTime = pool.acquisitionTimeHistogram();
+				Map<String, Object> acquisitionTimeMs = new HashMap<>();
+				acquisitionTimeMs.put("count", acquisitionTime.totalCount());
+				acquisitionTimeMs.put("mean", acquisitionTime.mean() / NANOS_PER_MILLI);
+				acquisitionTimeMs.put("p50", (double) acquisitionTime.valueAtPercentile(50) / NANOS_PER_MILLI);
+				acquisitionTimeMs.put("p99", (double) acquisitionTime.valueAtPercentile(99) / NANOS_PER_MILLI);
+				acquisitionTimeMs.put("max", (double) acquisitionTime.max() / NANOS_PER_MILLI);
+				metrics.put("acquisitionTimeMs", acquisitionTimeMs);
+
+				pools.put(pool.uniqueName(), metrics);
+			}
+		} catch (RuntimeException | LinkageError e) {
+			System.out.println("WARN: Could not read the Neo4j driver pool metrics: " + e);
+		}
+		return pools;
+	}
+}
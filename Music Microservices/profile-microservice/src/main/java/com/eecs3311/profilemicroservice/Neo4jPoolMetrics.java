@@ -0,0 +1,37 @@
+package com.eecs3311.profilemicroservice;
+
+import java.util.Map;
+
+import org.neo4j.driver.v1.Driver;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Reads the connection pool metrics of the Neo4j driver, see Neo4jDriverInternals for how they are reached
+ */
+@Component
+public class Neo4jPoolMetrics {
+
+	private final Driver driver;
+
+	@Autowired
+	public Neo4jPoolMetrics(Driver driver) {
+		this.driver = driver;
+	}
+
+	/**
+	 * @return true if the driver was built with its metrics turned on
+	 */
+	public boolean isEnabled() {
+		return Neo4jDriverInternals.isMetricsEnabled(driver);
+	}
+
+	/**
+	 * This method takes a snapshot of every connection pool of the driver, one per server it talks to
+	 * @return the pools by their name, each with its connection counts and how long acquiring a connection took in
+	 * milliseconds. Empty if the metrics are turned off
+	 */
+	public Map<String, Object> getPoolMetrics() {
+		return Neo4jDriverInternals.poolMetrics(driver);
+	}
+}
@@ -0,0 +1,46 @@
+package com.eecs3311.profilemicroservice;
+
+import javax.annotation.PreDestroy;
+
+import org.neo4j.driver.v1.Driver;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Holds the Neo4j driver open on shutdown until the sessions still in use are closed, whether or not the pool metrics
+ * are on. Being a bean that needs the driver, Spring destroys it before it closes the driver
+ */
+@Component
+public class Neo4jShutdownDrain {
+
+	private final Driver driver;
+	private final long drainTimeoutMs;
+
+	@Autowired
+	public Neo4jShutdownDrain(Driver driver, @Value("${profile.neo4j.shutdown.drain-timeout-ms:10000}") long drainTimeoutMs) {
+		this.driver = driver;
+		this.drainTimeoutMs = drainTimeoutMs;
+	}
+
+	/**
+	 * This method waits, up to the drain timeout, for the transactions still running to close their sessions so closing
+	 * the driver doesn't cut them off
+	 */
+	@PreDestroy
+	public void drain() {
+		long deadline = System.currentTimeMillis() + drainTimeoutMs;
+		while (SessionCountingDriver.openSessions(driver) > 0 && System.currentTimeMillis() < deadline) {
+			try {
+				Thread.sleep(50);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+		int stillOpen = SessionCountingDriver.openSessions(driver);
+		if (stillOpen > 0) {
+			System.out.println("WARN: Closing the Neo4j driver with " + stillOpen + " session(s) still open");
+		}
+	}
+}
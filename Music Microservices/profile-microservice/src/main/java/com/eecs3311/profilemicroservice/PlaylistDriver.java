@@ -1,6 +1,10 @@
 package com.eecs3311.profilemicroservice;
 
+import java.util.List;
+import java.util.Map;
+
 public interface PlaylistDriver {
 	DbQueryStatus likeSong(String userName, String songId);
 	DbQueryStatus unlikeSong(String userName, String songId);
+	DbQueryStatus likeSongs(List<Map<String, String>> likes, int chunkSize);
 }
\ No newline at end of file
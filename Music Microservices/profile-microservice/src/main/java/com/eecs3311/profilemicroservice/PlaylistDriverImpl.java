@@ -1,8 +1,18 @@
 package com.eecs3311.profilemicroservice;
 
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
 import org.neo4j.driver.v1.Driver;
+import org.neo4j.driver.v1.Record;
 import org.neo4j.driver.v1.Session;
 import org.neo4j.driver.v1.StatementResult;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
 import org.neo4j.driver.v1.Transaction;
 import org.neo4j.driver.v1.Values;
@@ -10,12 +20,65 @@ import org.neo4j.driver.v1.Values;
 @Repository
 public class PlaylistDriverImpl implements PlaylistDriver {
 
-	Driver driver = ProfileMicroserviceApplication.driver;
+	static final String OUTCOME_LIKED = "LIKED";
+	static final String OUTCOME_ALREADY_LIKED = "ALREADY_LIKED";
+	static final String OUTCOME_NOT_FOUND = "NOT_FOUND";
+
+	// A song is liked at most once, liking it again changes nothing, even when several of the user's playlists include it.
+	// The outcome comes from the MERGE itself: it locks the user and the song before creating the like, so of two racing
+	// likes only the one whose ON CREATE ran sees the created flag, which is removed again before the commit.
+	// timestamp() is the same everywhere in a query. A new like records its event for the song service in the same
+	// transaction when $recordEvent is set
+	static final String LIKE_SONG_QUERY = "MATCH (p:profile {userName: $userName})-[:created]->(:playlist)-[:includes]->(s:song {songId: $songId}) "
+			+ "WITH DISTINCT p, s "
+			+ "MERGE (p)-[l:likes]->(s) ON CREATE SET l.likedAt = timestamp(), l.created = true "
+			+ "WITH s, collect(l) AS likes "
+			+ "WITH s, likes, any(l IN likes WHERE coalesce(l.created, false)) AS created "
+			+ "FOREACH (l IN likes | REMOVE l.created) "
+			+ "FOREACH (ignored IN CASE WHEN created AND $recordEvent THEN [1] ELSE [] END | "
+			+ "CREATE (:" + FavouriteEventRelay.LABEL + " {eventId: $eventId, songId: s.songId, shouldDecrement: false, createdAt: timestamp()})) "
+			+ "RETURN s.songName AS songName, timestamp() AS likedAt, "
+			+ "CASE WHEN created THEN '" + OUTCOME_LIKED + "' ELSE '" + OUTCOME_ALREADY_LIKED + "' END AS outcome";
+
+	// LIKE_SONG_QUERY for every row, the rows that have an eventId record their event
+	static final String LIKE_SONGS_QUERY = "UNWIND $rows AS row "
+			+ "MATCH (p:profile {userName: row.userName})-[:created]->(:playlist)-[:includes]->(s:song {songId: row.songId}) "
+			+ "WITH DISTINCT row.index AS index, row.userName AS userName, row.songId AS songId, row.eventId AS eventId, p, s "
+			+ "MERGE (p)-[l:likes]->(s) ON CREATE SET l.likedAt = timestamp(), l.created = true "
+			+ "WITH index, userName, songId, eventId, s, collect(l) AS likes "
+			+ "WITH index, userName, songId, eventId, s, likes, any(l IN likes WHERE coalesce(l.created, false)) AS created "
+			+ "FOREACH (l IN likes | REMOVE l.created) "
+			+ "FOREACH (ignored IN CASE WHEN created AND eventId IS NOT NULL THEN [1] ELSE [] END | "
+			+ "CREATE (:" + FavouriteEventRelay.LABEL + " {eventId: eventId, songId: songId, shouldDecrement: false, createdAt: timestamp()})) "
+			+ "RETURN index, userName, songId, s.songName AS songName, timestamp() AS likedAt, "
+			+ "CASE WHEN created THEN '" + OUTCOME_LIKED + "' ELSE '" + OUTCOME_ALREADY_LIKED + "' END AS outcome";
+	// Records an event for every like removed, when $recordEvent is set
+	static final String UNLIKE_SONG_QUERY = "MATCH (p:profile {userName: $userName})-[r:likes]->(s:song {songId: $songId}) DELETE r "
+			+ "WITH s, count(r) AS unliked "
+			+ "FOREACH (i IN CASE WHEN $recordEvent THEN range(1, unliked) ELSE [] END | "
+			+ "CREATE (:" + FavouriteEventRelay.LABEL + " {eventId: $eventId + '-' + i, songId: s.songId, shouldDecrement: true, createdAt: timestamp()}))";
+
+	private final Driver driver;
+	private final FavouritesOutbox favouritesOutbox;
+	private final FriendFeed friendFeed;
+	private final UserBookmarks bookmarks;
 
-	public static void InitPlaylistDb() {
+	public PlaylistDriverImpl(Driver driver, FavouritesOutbox favouritesOutbox, FriendFeed friendFeed) {
+		this(driver, favouritesOutbox, friendFeed, new UserBookmarks(false, 0, 0));
+	}
+
+	@Autowired
+	public PlaylistDriverImpl(Driver driver, FavouritesOutbox favouritesOutbox, FriendFeed friendFeed, UserBookmarks bookmarks) {
+		this.driver = driver;
+		this.favouritesOutbox = favouritesOutbox;
+		this.friendFeed = friendFeed;
+		this.bookmarks = bookmarks;
+	}
+
+	public void InitPlaylistDb() {
 		String queryStr;
 
-		try (Session session = ProfileMicroserviceApplication.driver.session()) {
+		try (Session session = driver.session()) {
 			try (Transaction trans = session.beginTransaction()) {
 				queryStr = "CREATE CONSTRAINT ON (nPlaylist:playlist) ASSERT exists(nPlaylist.plName)";
 				trans.run(queryStr);
@@ -23,6 +86,8 @@ public class PlaylistDriverImpl implements PlaylistDriver {
 			} catch (Exception e) {
 				if (e.getMessage().contains("An equivalent constraint already exists")) {
 					System.out.println("INFO: Playlist constraint already exist (DB likely already initialized), should be OK to continue");
+				} else if (e.getMessage().contains("requires Neo4j Enterprise Edition")) {
+					System.out.println("WARN: Playlist existence constraint needs Neo4j Enterprise Edition, continuing without it");
 				} else {
 					// something else, yuck, bye
 					throw e;
@@ -33,7 +98,8 @@ public class PlaylistDriverImpl implements PlaylistDriver {
 	}
 	/**
 	 * This method will add a liked song to the users playlist and should check for a correct path according to the database
-	 * that should store these liked songs
+	 * that should store these liked songs. Liking a song that is already liked changes nothing, so a retried request
+	 * neither adds a second like nor counts the song's favourite twice
 	 * @param userName this creates a string for the users user name to navigate to their profile in the database and make
 	 * sure they match
 	 * @param songId this assigns a song Id for every song to differentiate and navigate between them
@@ -42,14 +108,22 @@ public class PlaylistDriverImpl implements PlaylistDriver {
 	 */
 	@Override
 	public DbQueryStatus likeSong(String userName, String songId) {
-		String queryStr;
-
-		try (Session session = ProfileMicroserviceApplication.driver.session()) {
+		try (Session session = driver.session()) {
 			try (Transaction trans = session.beginTransaction()) {
-				// Corrected Cypher query
-				queryStr = "MATCH (p:profile {userName: $userName})-[:created]->(p1:playlist)-[:includes]->(s:song {songId: $songId}) CREATE (p)-[:likes]->(s)";
-				trans.run(queryStr, Values.parameters("userName", userName, "songId", songId));
+				List<Record> liked = trans.run(LIKE_SONG_QUERY, Values.parameters("userName", userName, "songId", songId,
+						"recordEvent", favouritesOutbox.isEnabled(), "eventId", UUID.randomUUID().toString())).list();
 				trans.success();
+				// The event for the song service commits with the like, FavouriteEventRelay passes it on
+				trans.close();
+				bookmarks.record(userName, session.lastBookmark());
+				if (!liked.isEmpty() && OUTCOME_ALREADY_LIKED.equals(liked.get(0).get("outcome").asString())) {
+					return new DbQueryStatus("Song already liked", DbQueryExecResult.QUERY_OK);
+				}
+				if (!liked.isEmpty()) {
+					Record like = liked.get(0);
+					friendFeed.onLike(userName, songId, like.get("songName").isNull() ? null : like.get("songName").asString(),
+							like.get("likedAt").asLong());
+				}
 				DbQueryStatus queryStatus = new DbQueryStatus("Song Liked! ", DbQueryExecResult.QUERY_OK);
 				return queryStatus;
 			} catch (Exception e) {
@@ -69,13 +143,17 @@ public class PlaylistDriverImpl implements PlaylistDriver {
 	 */
 	@Override
 	public DbQueryStatus unlikeSong(String userName, String songId) {
-		String queryStr;
-
-		try (Session session = ProfileMicroserviceApplication.driver.session()) {
+		try (Session session = driver.session()) {
 			try(Transaction trans = session.beginTransaction()) {
-				queryStr = "MATCH (p:profile {userName: $userName})-[r:likes]->(s:song {songId: $songId}) DELETE r";
-				trans.run(queryStr, Values.parameters("userName", userName, "songId", songId));
+				int unliked = trans.run(UNLIKE_SONG_QUERY, Values.parameters("userName", userName, "songId", songId,
+						"recordEvent", favouritesOutbox.isEnabled(), "eventId", UUID.randomUUID().toString()))
+						.consume().counters().relationshipsDeleted();
 				trans.success();
+				trans.close();
+				bookmarks.record(userName, session.lastBookmark());
+				if (unliked > 0) {
+					friendFeed.onUnlike(userName, songId);
+				}
 				DbQueryStatus queryStatus = new DbQueryStatus("Song Unliked! ", DbQueryExecResult.QUERY_OK);
 				return queryStatus;
 			}catch (Exception e) {
@@ -84,4 +162,46 @@ public class PlaylistDriverImpl implements PlaylistDriver {
 			}
 		}
 	}
+
+	/**
+	 * This method should like many songs at once, chunkSize of them per transaction, for importing a user's history. The
+	 * events for the song service are committed with the likes of their chunk
+	 * @param likes the likes to make, each with a userName and the songId of a song in one of the user's playlists
+	 * @param chunkSize how many likes are made in one transaction
+	 * @return returns the status of the database after being ran with the outcome of every like in the order they were
+	 * given: LIKED, ALREADY_LIKED, NOT_FOUND when the user or the song isn't there or the song isn't in their playlist, INVALID when a
+	 * field is missing, DUPLICATE when the same like came earlier in the list or ERROR when its chunk failed
+	 */
+	@Override
+	public DbQueryStatus likeSongs(List<Map<String, String>> likes, int chunkSize) {
+		BulkWrite bulkWrite = new BulkWrite(likes.size());
+		Set<List<String>> seen = new HashSet<>();
+		for (int i = 0; i < likes.size(); i++) {
+			Map<String, String> like = likes.get(i);
+			String userName = like == null ? null : like.get(ProfileController.KEY_USER_NAME);
+			String songId = like == null ? null : like.get(ProfileController.KEY_SONG_ID);
+			if (userName == null || songId == null) {
+				bulkWrite.skip(i, BulkWrite.OUTCOME_INVALID);
+			} else if (!seen.add(Arrays.asList(userName, songId))) {
+				bulkWrite.skip(i, BulkWrite.OUTCOME_DUPLICATE);
+			} else {
+				Map<String, Object> row = new HashMap<>();
+				row.put("userName", userName);
+				row.put("songId", songId);
+				if (favouritesOutbox.isEnabled()) {
+					row.put("eventId", UUID.randomUUID().toString());
+				}
+				bulkWrite.add(i, row);
+			}
+		}
+
+		return bulkWrite.run(driver, bookmarks, LIKE_SONGS_QUERY, chunkSize, OUTCOME_NOT_FOUND, chunk -> {
+			for (Record record : chunk) {
+				if (OUTCOME_LIKED.equals(record.get("outcome").asString())) {
+					friendFeed.onLike(record.get("userName").asString(), record.get("songId").asString(),
+							record.get("songName").isNull() ? null : record.get("songName").asString(), record.get("likedAt").asLong());
+				}
+			}
+		}, "likes");
+	}
 }
\ No newline at end of file
@@ -1,15 +1,16 @@
 package com.eecs3311.profilemicroservice;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
-import org.json.JSONObject;
 
 import com.eecs3311.profilemicroservice.Utils;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -20,12 +21,16 @@ import okhttp3.Request;
 import okhttp3.Response;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiFunction;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 @RestController
 @RequestMapping
@@ -42,6 +47,39 @@ public class ProfileController {
 	@Autowired
 	private final PlaylistDriverImpl playlistDriver;
 
+	@Autowired
+	private Neo4jPoolMetrics neo4jPoolMetrics;
+
+	@Autowired
+	private FriendFeed friendFeed;
+
+	@Autowired
+	private SocialGraph socialGraph;
+
+	@Autowired
+	private SongRecommender songRecommender;
+
+	@Autowired
+	private RequestExecutor requestExecutor;
+
+	@Autowired
+	private LatencyMetrics latencyMetrics;
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	@Autowired
+	private IdempotencyStore idempotencyStore;
+
+	@Value("${profile.bulk.chunk-size:500}")
+	private int defaultBulkChunkSize;
+
+	@Value("${profile.bulk.max-chunk-size:5000}")
+	private int maxBulkChunkSize;
+
+	@Value("${profile.bulk.max-items:50000}")
+	private int maxBulkItems;
+
 	OkHttpClient client = new OkHttpClient();
 
 	public ProfileController(ProfileDriverImpl profileDriver, PlaylistDriverImpl playlistDriver) {
@@ -58,67 +96,94 @@ public class ProfileController {
 	 * display an error message if exists
 	 */
 	@RequestMapping(value = "/profile", method = RequestMethod.POST)
-	public ResponseEntity<Map<String, Object>> addProfile(@RequestBody Map<String, String> params, HttpServletRequest request) { // DONE TESTED AND IT WORKS
-
-		Map<String, Object> response = new HashMap<String, Object>();
-		String userName = null;
-		String fullName = null;
-		String password = null;
-
-		userName = params.get("userName");
-		fullName = params.get("fullName");
-		password = params.get("password");
-
-		// Check for BAD_REQUEST
-		if (userName == null || fullName == null || password == null) {
-			response.put("message", "Missing required parameters");
-			return new ResponseEntity<>(response, HttpStatus.BAD_REQUEST);
-		}
+	public CompletableFuture<ResponseEntity<ApiResponse>> addProfile(@RequestBody Map<String, String> params, HttpServletRequest request) { // DONE TESTED AND IT WORKS
+		String path = Utils.getPath("POST", request);
+		return requestExecutor.execute(() -> {
+			String userName = null;
+			String fullName = null;
+			String password = null;
+
+			userName = params.get("userName");
+			fullName = params.get("fullName");
+			password = params.get("password");
+
+			// Check for BAD_REQUEST
+			if (userName == null || fullName == null || password == null) {
+				return Utils.badRequest(path, "Missing required parameters");
+			}
+
+			// Method that calls the db
+			DbQueryStatus dbQueryStatus = profileDriver.createUserProfile(userName, fullName, password);
+
+			// Response
+			return Utils.setResponseStatus(path, null, dbQueryStatus.getdbQueryExecResult(), dbQueryStatus.getData());
+		});
+	}
 
-		// Method that calls the db
-		DbQueryStatus dbQueryStatus = profileDriver.createUserProfile(userName, fullName, password);
+	/**
+	 * This method should add many profiles in one request for imports, the body is a JSON array of profiles with the same
+	 * fields as /profile. They are created chunkSize at a time, one transaction per chunk
+	 * @param profiles this reads the profiles to add, each with a userName, fullName and password
+	 * @param chunkSize this reads how many profiles go in one transaction, the configured default when not given
+	 * @param request sends a request URL to the database when profiles are imported
+	 * @return returns the request data with the outcome of every profile in the order they were sent, how many had each
+	 * outcome and how long every chunk took, display an error message if a chunk failed
+	 */
+	@RequestMapping(value = "/profiles", method = RequestMethod.POST)
+	public CompletableFuture<ResponseEntity<ApiResponse>> addProfiles(@RequestBody List<Map<String, String>> profiles,
+			@RequestParam(value = "chunkSize", required = false) Integer chunkSize, HttpServletRequest request) {
+		return bulkWrite(Utils.getPath("POST", request), profiles, chunkSize, profileDriver::createUserProfiles);
+	}
 
-		// Response
-		response.put("path", String.format("POST %s", Utils.getUrl(request)));
-		return Utils.setResponseStatus(response, dbQueryStatus.getdbQueryExecResult(), dbQueryStatus.getData());
+	/**
+	 * This method should follow many friends in one request, for importing a user's contacts, the body is a JSON array of
+	 * follows with the same fields as /followFriend. They are made chunkSize at a time, one transaction per chunk
+	 * @param follows this reads the follows to make, each with a userName and friendUserName
+	 * @param chunkSize this reads how many follows go in one transaction, the configured default when not given
+	 * @param idempotencyKey this reads the Idempotency-Key header, a request sent again with the same key gets the first
+	 * response back
+	 * @param request sends a request URL to the database when follows are imported
+	 * @return returns the request data with the outcome of every follow in the order they were sent, how many had each
+	 * outcome and how long every chunk took, display an error message if a chunk failed
+	 */
+	@RequestMapping(value = "/followFriends", method = RequestMethod.PUT)
+	public CompletableFuture<ResponseEntity<ApiResponse>> followFriends(@RequestBody List<Map<String, String>> follows,
+			@RequestParam(value = "chunkSize", required = false) Integer chunkSize,
+			@RequestHeader(value = IdempotencyStore.HEADER, required = false) String idempotencyKey, HttpServletRequest request) {
+		String path = Utils.getPath("PUT", request);
+		return idempotencyStore.execute(idempotencyKey, request.getRequestURI(), follows, path, () -> bulkWrite(path, follows, chunkSize, profileDriver::followFriends));
 	}
 
 	/**
 	 * This method should complete the follow friend procedure and store it in the database and store the data to display that
 	 * this user now follows another user.
 	 * @param params this should get and store the following parameters for this method: userName, frndUserName
+	 * @param idempotencyKey this reads the Idempotency-Key header, a request sent again with the same key gets the first
+	 * response back
 	 * @param request sends a request URL to the database when a user attempts to follow a friend
 	 * @return returns the request data and set the status whether a user profile has been successfully followed or not,
 	 *  display an error message if exists
 	 */
 	@RequestMapping(value = "/followFriend", method = RequestMethod.PUT)
-	public ResponseEntity<Map<String, Object>> followFriend(@RequestBody Map<String, String> params, HttpServletRequest request) { // TESTED AND IT WORKS
-
-		Map<String, Object> response = new HashMap<String, Object>();
-
-		String friendUserName = params.get("friendUserName");
-		String userName = params.get("userName");
-
-		// Check for BAD_REQUEST
-		if (userName == null || friendUserName == null) {
-			response.put("status", HttpStatus.BAD_REQUEST);
-			return new ResponseEntity<>(response, HttpStatus.BAD_REQUEST);
-		}
-
-		if (userName.equals(friendUserName)) {
-			response.put("status", HttpStatus.BAD_REQUEST);
-			return new ResponseEntity<>(response, HttpStatus.BAD_REQUEST);
-		}
-
-		// method that calls db
-		DbQueryStatus dbQueryStatus = profileDriver.followFriend(userName, friendUserName);
-
-		// Response
-		response.put("path", String.format("PUT %s", Utils.getUrl(request)));
-		response.put("message", dbQueryStatus.getMessage());
-		return Utils.setResponseStatus(response, dbQueryStatus.getdbQueryExecResult(), dbQueryStatus.getData());
-
-		 // TODO: replace with return statement similar to in getSongById
+	public CompletableFuture<ResponseEntity<ApiResponse>> followFriend(@RequestBody Map<String, String> params,
+			@RequestHeader(value = IdempotencyStore.HEADER, required = false) String idempotencyKey, HttpServletRequest request) { // TESTED AND IT WORKS
+		String path = Utils.getPath("PUT", request);
+		return idempotencyStore.execute(idempotencyKey, request.getRequestURI(), params, path, () -> requestExecutor.execute(() -> {
+			String friendUserName = params.get("friendUserName");
+			String userName = params.get("userName");
+
+			// Check for BAD_REQUEST
+			if (userName == null || friendUserName == null || userName.equals(friendUserName)) {
+				return Utils.badRequest(path, null);
+			}
+
+			// method that calls db
+			DbQueryStatus dbQueryStatus = profileDriver.followFriend(userName, friendUserName);
+			songRecommender.invalidate(userName);
+
+			// Response
+			return Utils.setResponseStatus(path, dbQueryStatus.getMessage(), dbQueryStatus.getdbQueryExecResult(), dbQueryStatus.getData());
+		}));
 	}
 	/**
 	 * This method should get a list of all the song titles that a friend has liked and added to their playlist, this should also
@@ -131,105 +196,200 @@ public class ProfileController {
 	 * display an error message if exists
 	 */
 	@RequestMapping(value = "/getAllFriendFavouriteSongTitles/{userName}", method = RequestMethod.GET)
-	public ResponseEntity<Map<String, Object>> getAllFriendFavouriteSongTitles(@PathVariable("userName") String userName,
+	public CompletableFuture<ResponseEntity<ApiResponse>> getAllFriendFavouriteSongTitles(@PathVariable("userName") String userName,
 			HttpServletRequest request) {
-
-		Map<String, Object> response = new HashMap<String, Object>();
-		response.put("path", String.format("GET %s", Utils.getUrl(request)));
-
-		if(userName != null) {
-			DbQueryStatus status = profileDriver.getAllSongFriendsLike(userName);
-			return Utils.setResponseStatus(response, status.getdbQueryExecResult(), status.getData()); // Use status directly
-		} else {
-			Utils.setResponseStatus(response, DbQueryExecResult.QUERY_ERROR_GENERIC, null);
-			return ResponseEntity.ok(response); // Return response for the error case
+		String path = Utils.getPath("GET", request);
+		return requestExecutor.execute(() -> {
+			if(userName != null) {
+				DbQueryStatus status = profileDriver.getAllSongFriendsLike(userName);
+				return Utils.setResponseStatus(path, null, status.getdbQueryExecResult(), status.getData()); // Use status directly
+			} else {
+				// Return response for the error case
+				return ResponseEntity.ok(Utils.setResponseStatus(path, null, DbQueryExecResult.QUERY_ERROR_GENERIC, null).getBody());
+			}
+		});
+	}
+	/**
+	 * This method should do the same as getAllFriendFavouriteSongTitles when "stream=true" is given, but write every friend
+	 * to the response as soon as Neo4j returns them instead of collecting them all first, for users with large networks.
+	 * The body has the same shape, the friends come as the fields of "data" one at a time
+	 * @param userName this gets the username of the profile that the user wants to display their favorite song titles
+	 * @param request sends a request URL to the database when a user asks for their friends' song titles
+	 * @param response the response the friends are streamed to. Its status is 200 before the first friend is written,
+	 * an error part way through only shows in the "status" and "message" at the end of the body
+	 */
+	@RequestMapping(value = "/getAllFriendFavouriteSongTitles/{userName}", method = RequestMethod.GET, params = "stream=true")
+	public void streamAllFriendFavouriteSongTitles(@PathVariable("userName") String userName,
+			HttpServletRequest request, HttpServletResponse response) throws IOException {
+		String path = Utils.getPath("GET", request);
+
+		try (JsonStreamWriter writer = JsonStreamWriter.startObject(response, objectMapper, path)) {
+			DbQueryStatus status = profileDriver.getAllSongFriendsLike(userName, (friendUserName, likedSongs) -> {
+				try {
+					writer.write(friendUserName, likedSongs);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+			writer.finish(status, Collections.emptyMap());
 		}
 	}
+	/**
+	 * This method should display a page of the songs the user's friends liked, newest first, from the precomputed feed so
+	 * it doesn't walk every friend's likes on each request
+	 * @param userName this gets the username of the profile whose friends' likes to display
+	 * @param cursor this reads the nextCursor of the previous page, left out for the newest likes
+	 * @param limit this reads how many likes to return, at most the configured feed capacity
+	 * @param request sends a request URL to the database when a user asks for their friends' activity
+	 * @return returns the request data with the items of the page, each with the friend's username, song Id, song name and
+	 * when it was liked, and the nextCursor if there are more. Display an error message if exists
+	 */
+	@RequestMapping(value = "/getFriendActivityFeed/{userName}", method = RequestMethod.GET)
+	public CompletableFuture<ResponseEntity<ApiResponse>> getFriendActivityFeed(@PathVariable("userName") String userName,
+			@RequestParam(value = "cursor", required = false) String cursor,
+			@RequestParam(value = "limit", defaultValue = "20") int limit,
+			HttpServletRequest request) {
+		String path = Utils.getPath("GET", request);
+		return requestExecutor.execute(() -> {
+			if (limit < 1 || limit > friendFeed.getCapacity()) {
+				return Utils.badRequest(path, String.format("limit must be between 1 and %d", friendFeed.getCapacity()));
+			}
+			if (cursor != null && !FriendFeed.isValidCursor(cursor)) {
+				return Utils.badRequest(path, "cursor is not a nextCursor of this feed");
+			}
+			DbQueryStatus status = friendFeed.getFeed(userName, cursor, limit);
+			return Utils.setResponseStatus(path, status.getMessage(), status.getdbQueryExecResult(), status.getData());
+		});
+	}
+	/**
+	 * This method should recommend songs to the user from what the people they follow, and the people those follow, like.
+	 * Songs liked by more and closer friends come first, songs the user already likes and blocked users are left out
+	 * @param userName this gets the username of the profile to recommend songs to
+	 * @param limit this reads how many songs to return, at most the configured maximum
+	 * @param request sends a request URL to the database when a user asks for recommended songs
+	 * @return returns the request data with the songs, each with its Id, name, score and how many friends liked it, and
+	 * whether the search was cut short by the latency budget, display an error message if exists
+	 */
+	@RequestMapping(value = "/getRecommendedSongs/{userName}", method = RequestMethod.GET)
+	public CompletableFuture<ResponseEntity<ApiResponse>> getRecommendedSongs(@PathVariable("userName") String userName,
+			@RequestParam(value = "limit", defaultValue = "10") int limit,
+			HttpServletRequest request) {
+		String path = Utils.getPath("GET", request);
+		return requestExecutor.execute(() -> {
+			if (limit < 1 || limit > songRecommender.getMaxResults()) {
+				return Utils.badRequest(path, String.format("limit must be between 1 and %d", songRecommender.getMaxResults()));
+			}
+			DbQueryStatus status = songRecommender.recommend(userName, limit);
+			return Utils.setResponseStatus(path, status.getMessage(), status.getdbQueryExecResult(), status.getData());
+		});
+	}
 	/**
 	 * This method should store the data to the database accordingly after a user has decided to unfollow a friend, this method
 	 * should also be able to completely remove the other users data from the database completely and display any error messages
 	 * with respect to the users username input and identify whether the targeted user is a valid user and if there was a typo
 	 * in the username or not.
 	 * @param params this should get and store the following parameters for this method: userName, frndUserName
+	 * @param idempotencyKey this reads the Idempotency-Key header, a request sent again with the same key gets the first
+	 * response back
 	 * @param request sends a request URL to the database when a user attempts to unfollow another friend
 	 * @return returns the request data and set the status whether the user has been successfully unfollowed or not,
 	 * display an error message if exists
 	 */
 	@RequestMapping(value = "/unfollowFriend", method = RequestMethod.PUT)
-	public ResponseEntity<Map<String, Object>> unfollowFriend(@RequestBody Map<String, String> params, HttpServletRequest request) { // TESTED AND WORKS
-
-		Map<String, Object> response = new HashMap<String, Object>();
-		response.put("path", String.format("PUT %s", Utils.getUrl(request)));
-
-		String friendUserName = params.get("friendUserName");
-		String userName = params.get("userName");
-
-		// Check for BAD_REQUEST
-		if (userName == null || friendUserName == null) {
-			response.put("status", HttpStatus.BAD_REQUEST);
-			return new ResponseEntity<>(response, HttpStatus.BAD_REQUEST);
-		}
-
-		// Call the method in profileDriver with the extracted userName and friendUserName
-		DbQueryStatus status = profileDriver.unfollowFriend(userName, friendUserName);
-		return Utils.setResponseStatus(response, status.getdbQueryExecResult(), status.getData());
+	public CompletableFuture<ResponseEntity<ApiResponse>> unfollowFriend(@RequestBody Map<String, String> params,
+			@RequestHeader(value = IdempotencyStore.HEADER, required = false) String idempotencyKey, HttpServletRequest request) { // TESTED AND WORKS
+		String path = Utils.getPath("PUT", request);
+		return idempotencyStore.execute(idempotencyKey, request.getRequestURI(), params, path, () -> requestExecutor.execute(() -> {
+			String friendUserName = params.get("friendUserName");
+			String userName = params.get("userName");
+
+			// Check for BAD_REQUEST
+			if (userName == null || friendUserName == null) {
+				return Utils.badRequest(path, null);
+			}
+
+			// Call the method in profileDriver with the extracted userName and friendUserName
+			DbQueryStatus status = profileDriver.unfollowFriend(userName, friendUserName);
+			songRecommender.invalidate(userName);
+			return Utils.setResponseStatus(path, null, status.getdbQueryExecResult(), status.getData());
+		}));
 	}
 	/**
 	 * This method should be able to identify the song that the user has liked and store it to the database accordingly, this should
 	 * also store the songs data in the database as well and be able to store the song in the users playlist
 	 * @param params this should be able to get the following parameters for this method: userName and songId
+	 * @param idempotencyKey this reads the Idempotency-Key header, a request sent again with the same key gets the first
+	 * response back without liking the song again
 	 * @param request sends a request URL to the database when a user likes a song and adds it to their playlist
 	 * @return returns the request data and set the status whether the user has been able to successfully like a song
 	 * and add it to their playlist or not, display an error message if exists
 	 */
 	@RequestMapping(value = "/likeSong", method = RequestMethod.PUT)
-	public ResponseEntity<Map<String, Object>> likeSong(@RequestBody Map<String, String> params, HttpServletRequest request) {
-
-		Map<String, Object> response = new HashMap<String, Object>();
-		response.put("path", String.format("PUT %s", Utils.getUrl(request)));
-
-		String userName = params.get("userName");
-		String songId = params.get("songId");
-
-		DbQueryStatus status; // Declare status here
-
-		if(userName != null && songId != null) {
-			status = playlistDriver.likeSong(userName, songId);
-			// Ensure that status.getData() returns a type that can be cast to JSONObject
-			Utils.setResponseStatus(response, status.getdbQueryExecResult(), (JSONObject) status.getData());
-		} else {
-			Utils.setResponseStatus(response, DbQueryExecResult.QUERY_ERROR_GENERIC, null);
-			return ResponseEntity.ok(response); // Return response for the error case
-		}
-		return Utils.setResponseStatus(response, status.getdbQueryExecResult(), status.getData());
+	public CompletableFuture<ResponseEntity<ApiResponse>> likeSong(@RequestBody Map<String, String> params,
+			@RequestHeader(value = IdempotencyStore.HEADER, required = false) String idempotencyKey, HttpServletRequest request) {
+		String path = Utils.getPath("PUT", request);
+		return idempotencyStore.execute(idempotencyKey, request.getRequestURI(), params, path, () -> requestExecutor.execute(() -> {
+			String userName = params.get("userName");
+			String songId = params.get("songId");
+
+			if(userName != null && songId != null) {
+				DbQueryStatus status = playlistDriver.likeSong(userName, songId);
+				songRecommender.invalidate(userName);
+				return Utils.setResponseStatus(path, status.getMessage(), status.getdbQueryExecResult(), status.getData());
+			} else {
+				// Return response for the error case
+				return ResponseEntity.ok(Utils.setResponseStatus(path, null, DbQueryExecResult.QUERY_ERROR_GENERIC, null).getBody());
+			}
+		}));
 	}
+	/**
+	 * This method should like many songs in one request, for importing a user's history, the body is a JSON array of likes
+	 * with the same fields as /likeSong. They are made chunkSize at a time, one transaction per chunk
+	 * @param likes this reads the likes to make, each with a userName and songId
+	 * @param chunkSize this reads how many likes go in one transaction, the configured default when not given
+	 * @param idempotencyKey this reads the Idempotency-Key header, a request sent again with the same key gets the first
+	 * response back
+	 * @param request sends a request URL to the database when likes are imported
+	 * @return returns the request data with the outcome of every like in the order they were sent, how many had each
+	 * outcome and how long every chunk took, display an error message if a chunk failed
+	 */
+	@RequestMapping(value = "/likeSongs", method = RequestMethod.PUT)
+	public CompletableFuture<ResponseEntity<ApiResponse>> likeSongs(@RequestBody List<Map<String, String>> likes,
+			@RequestParam(value = "chunkSize", required = false) Integer chunkSize,
+			@RequestHeader(value = IdempotencyStore.HEADER, required = false) String idempotencyKey, HttpServletRequest request) {
+		String path = Utils.getPath("PUT", request);
+		return idempotencyStore.execute(idempotencyKey, request.getRequestURI(), likes, path, () -> bulkWrite(path, likes, chunkSize, playlistDriver::likeSongs));
+	}
+
 	/**
 	 * This method should be able to identify the song that the user has chosen to unlike and delete from their playlist, this should
 	 * also be able to identify the song that has been selected to be deleted from the users playlist, and you are expected to be
 	 * able to delete the songs content and data completely from the database accordingly
 	 * @param params this should be able to get the following parameters for this method: userName and songId
+	 * @param idempotencyKey this reads the Idempotency-Key header, a request sent again with the same key gets the first
+	 * response back
 	 * @param request sends a request URL to the database when a user unlikes a song and deleted it from their playlist
 	 * @return returns the request data and set the status whether the user has been able to successfully unlike a song
 	 * and remove it from their playlist or not, display an error message if exists
 	 */
 	@RequestMapping(value = "/unlikeSong", method = RequestMethod.PUT)
-	public ResponseEntity<Map<String, Object>> unlikeSong(@RequestBody Map<String, String> params, HttpServletRequest request) {
-
-		Map<String, Object> response = new HashMap<String, Object>();
-		response.put("path", String.format("PUT %s", Utils.getUrl(request)));
-
-		String userName = params.get("userName");
-		String songId = params.get("songId");
-
-		if (userName == null || songId == null) {
-			response.put("status", HttpStatus.BAD_REQUEST);
-			return new ResponseEntity<>(response, HttpStatus.BAD_REQUEST);
-		}
-
-		DbQueryStatus status = playlistDriver.unlikeSong(userName, songId);
-
-		// Set the response based on the status returned from the unlikeSong method
-		return Utils.setResponseStatus(response, status.getdbQueryExecResult(), status.getData());
+	public CompletableFuture<ResponseEntity<ApiResponse>> unlikeSong(@RequestBody Map<String, String> params,
+			@RequestHeader(value = IdempotencyStore.HEADER, required = false) String idempotencyKey, HttpServletRequest request) {
+		String path = Utils.getPath("PUT", request);
+		return idempotencyStore.execute(idempotencyKey, request.getRequestURI(), params, path, () -> requestExecutor.execute(() -> {
+			String userName = params.get("userName");
+			String songId = params.get("songId");
+
+			if (userName == null || songId == null) {
+				return Utils.badRequest(path, null);
+			}
+
+			DbQueryStatus status = playlistDriver.unlikeSong(userName, songId);
+			songRecommender.invalidate(userName);
+
+			// Set the response based on the status returned from the unlikeSong method
+			return Utils.setResponseStatus(path, null, status.getdbQueryExecResult(), status.getData());
+		}));
 	}
 	/**
 	 * This method should be able to allow the user to send a song they find recommending to their friend, this should be able to
@@ -237,59 +397,184 @@ public class ProfileController {
 	 * to properly navigate and identify the song that is being sent from one friend to another
 	 * @param params this should be able to take and store the following parameters for this method:
 	 * senderUserName, receiverUserName, songId
+	 * @param idempotencyKey this reads the Idempotency-Key header, a request sent again with the same key gets the first
+	 * response back
 	 * @param request sends a request URL to the database when a user chooses and sends a song to their friend
 	 * @return returns the request data and set the status whether the user has been able to successfully send a song to
 	 * their friend or not, display an error message if exists
 	 */
 
 	@RequestMapping(value = "/sendSongToFriend", method = RequestMethod.PUT)
-	public ResponseEntity<Map<String, Object>> sendSongToFriend(@RequestBody Map<String, String> params, HttpServletRequest request) { // VARNI TESTED SEND SONG AND IT WORKS CORRECTLY AS IT SHOULD
-		Map<String, Object> response = new HashMap<>();
-		String senderUserName = params.get("senderUserName");
-		String receiverUserName = params.get("receiverUserName");
-		String songId = params.get("songId");
-
-		// Check for BAD_REQUEST
-		if (senderUserName == null || receiverUserName == null || songId == null || senderUserName.equals(receiverUserName)) {
-			response.put("status", HttpStatus.BAD_REQUEST);
-			response.put("message", "Invalid request parameters");
-			return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(response);
-		}
-
-		// Method that calls the db
-		DbQueryStatus dbQueryStatus = profileDriver.sendSongToFriend(senderUserName, receiverUserName, songId);
-
-		// Response
-		response.put("path", String.format("PUT %s", Utils.getUrl(request)));
-		response.put("message", dbQueryStatus.getMessage());
-		return Utils.setResponseStatus(response, dbQueryStatus.getdbQueryExecResult(), dbQueryStatus.getData());
-
+	public CompletableFuture<ResponseEntity<ApiResponse>> sendSongToFriend(@RequestBody Map<String, String> params,
+			@RequestHeader(value = IdempotencyStore.HEADER, required = false) String idempotencyKey, HttpServletRequest request) { // VARNI TESTED SEND SONG AND IT WORKS CORRECTLY AS IT SHOULD
+		String path = Utils.getPath("PUT", request);
+		return idempotencyStore.execute(idempotencyKey, request.getRequestURI(), params, path, () -> requestExecutor.execute(() -> {
+			String senderUserName = params.get("senderUserName");
+			String receiverUserName = params.get("receiverUserName");
+			String songId = params.get("songId");
+
+			// Check for BAD_REQUEST
+			if (senderUserName == null || receiverUserName == null || songId == null || senderUserName.equals(receiverUserName)) {
+				return Utils.badRequest(path, "Invalid request parameters");
+			}
+
+			// Method that calls the db
+			DbQueryStatus dbQueryStatus = profileDriver.sendSongToFriend(senderUserName, receiverUserName, songId);
+
+			// Response
+			return Utils.setResponseStatus(path, dbQueryStatus.getMessage(), dbQueryStatus.getdbQueryExecResult(), dbQueryStatus.getData());
+		}));
 	}
 	/**
 	 * This method should be able to allow a user to search for a another username and locate their profile, and allow them to
 	 * block whichever user they search for, this is also expected to store everything in the database accordingly
 	 * @param params this should be able to take and store the following parameters for this method: userName, friendUserName
+	 * @param idempotencyKey this reads the Idempotency-Key header, a request sent again with the same key gets the first
+	 * response back
 	 * @param request sends a request URL to the database when a user chooses a profile to block
 	 * @return returns the request data and set the status whether the user has been able to successfully navigate a profile
 	 * and block them, display an error message if exists.
 	 */
 	@RequestMapping(value = "/blockFriend", method = RequestMethod.PUT)
-	public ResponseEntity<Map<String, Object>> blockFriend(@RequestBody Map<String, String> params, HttpServletRequest request) { // VARNI TESTED BLOCK FRIEND IT WORKS
-		Map<String, Object> response = new HashMap<>();
-		String userName = params.get("userName");
-		String friendUserName = params.get("friendUserName");
-
-		// Check for BAD_REQUEST
-		if (userName == null || friendUserName == null || userName.equals(friendUserName)) {
-			response.put("status", HttpStatus.BAD_REQUEST);
-			response.put("message", "Invalid request parameters");
-			return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(response);
+	public CompletableFuture<ResponseEntity<ApiResponse>> blockFriend(@RequestBody Map<String, String> params,
+			@RequestHeader(value = IdempotencyStore.HEADER, required = false) String idempotencyKey, HttpServletRequest request) { // VARNI TESTED BLOCK FRIEND IT WORKS
+		String path = Utils.getPath("PUT", request);
+		return idempotencyStore.execute(idempotencyKey, request.getRequestURI(), params, path, () -> requestExecutor.execute(() -> {
+			String userName = params.get("userName");
+			String friendUserName = params.get("friendUserName");
+
+			// Check for BAD_REQUEST
+			if (userName == null || friendUserName == null || userName.equals(friendUserName)) {
+				return Utils.badRequest(path, "Invalid request parameters");
+			}
+			DbQueryStatus dbQueryStatus = profileDriver.blockFriend(userName, friendUserName);
+			// A block leaves out the likes of both users for each other
+			songRecommender.invalidate(userName);
+			songRecommender.invalidate(friendUserName);
+
+			// Response
+			return Utils.setResponseStatus(path, dbQueryStatus.getMessage(), dbQueryStatus.getdbQueryExecResult(), dbQueryStatus.getData());
+		}));
+	}
+
+	/**
+	 * This method should display the state of the Neo4j driver's connection pool, how many connections are in use or idle,
+	 * how long requests waited to get one and how many gave up waiting
+	 * @param request sends a request URL when the pool metrics are requested
+	 * @return returns the request data with the metrics of every connection pool, display an error message if the driver
+	 * metrics are turned off
+	 */
+	@RequestMapping(value = "/getDriverPoolMetrics", method = RequestMethod.GET)
+	public ResponseEntity<ApiResponse> getDriverPoolMetrics(HttpServletRequest request) {
+		String path = Utils.getPath("GET", request);
+		if (!neo4jPoolMetrics.isEnabled()) {
+			return Utils.setResponseStatus(path, "Driver pool metrics are turned off, set profile.neo4j.pool.metrics-enabled=true", DbQueryExecResult.QUERY_ERROR_NOT_FOUND, null);
 		}
-		DbQueryStatus dbQueryStatus = profileDriver.blockFriend(userName, friendUserName);
+		return Utils.setResponseStatus(path, null, DbQueryExecResult.QUERY_OK, neo4jPoolMetrics.getPoolMetrics());
+	}
+
+	/**
+	 * This method should report whether two users follow or have blocked each other, answered from the in-memory social graph
+	 * instead of Neo4j
+	 * @param userName this reads the username of the user asking
+	 * @param friendUserName this reads the username of the other user
+	 * @param request sends a request URL when a user checks their relationship with another user
+	 * @return returns the request data with follows, followedBy, blocked and blockedBy, display an error message if either
+	 * user doesn't exist or the social graph is turned off
+	 */
+	@RequestMapping(value = "/getRelationship", method = RequestMethod.GET)
+	public ResponseEntity<ApiResponse> getRelationship(@RequestParam("userName") String userName,
+			@RequestParam("friendUserName") String friendUserName, HttpServletRequest request) {
+		String path = Utils.getPath("GET", request);
+		if (!socialGraph.isEnabled()) {
+			return socialGraphOff(path);
+		}
+		DbQueryStatus status = socialGraph.getRelationship(userName, friendUserName);
+		return Utils.setResponseStatus(path, status.getMessage(), status.getdbQueryExecResult(), status.getData());
+	}
+
+	/**
+	 * This method should display how many followers a user has and how many users they follow
+	 * @param userName this gets the username of the profile to count for
+	 * @param request sends a request URL when a user asks for the follow counts of a profile
+	 * @return returns the request data with followers and following, display an error message if the user doesn't exist or
+	 * the social graph is turned off
+	 */
+	@RequestMapping(value = "/getFollowCounts/{userName}", method = RequestMethod.GET)
+	public ResponseEntity<ApiResponse> getFollowCounts(@PathVariable("userName") String userName, HttpServletRequest request) {
+		String path = Utils.getPath("GET", request);
+		if (!socialGraph.isEnabled()) {
+			return socialGraphOff(path);
+		}
+		DbQueryStatus status = socialGraph.getFollowCounts(userName);
+		return Utils.setResponseStatus(path, status.getMessage(), status.getdbQueryExecResult(), status.getData());
+	}
+
+	/**
+	 * This method should display the users that a user follows and that follow them back
+	 * @param userName this gets the username of the profile to list for
+	 * @param request sends a request URL when a user asks for their mutual follows
+	 * @return returns the request data with the usernames, display an error message if the user doesn't exist or the social
+	 * graph is turned off
+	 */
+	@RequestMapping(value = "/getMutualFollows/{userName}", method = RequestMethod.GET)
+	public ResponseEntity<ApiResponse> getMutualFollows(@PathVariable("userName") String userName, HttpServletRequest request) {
+		String path = Utils.getPath("GET", request);
+		if (!socialGraph.isEnabled()) {
+			return socialGraphOff(path);
+		}
+		DbQueryStatus status = socialGraph.getMutualFollows(userName);
+		return Utils.setResponseStatus(path, status.getMessage(), status.getdbQueryExecResult(), status.getData());
+	}
+
+	/**
+	 * This method should display the size of the in-memory social graph, its users, edges and the bytes it takes
+	 * @param request sends a request URL when the social graph statistics are requested
+	 * @return returns the request data with the statistics of the social graph
+	 */
+	@RequestMapping(value = "/getSocialGraphStats", method = RequestMethod.GET)
+	public ResponseEntity<ApiResponse> getSocialGraphStats(HttpServletRequest request) {
+		return Utils.setResponseStatus(Utils.getPath("GET", request), null, DbQueryExecResult.QUERY_OK, socialGraph.getStats());
+	}
+
+	/**
+	 * This method should display the latency histograms of the endpoints and of the ProfileDriver and PlaylistDriver
+	 * methods for Prometheus to scrape, see LatencyMetrics
+	 * @return returns the histograms in the Prometheus text format, NOT_FOUND when profile.metrics.enabled is false
+	 */
+	@RequestMapping(value = "/metrics", method = RequestMethod.GET, produces = "text/plain; version=0.0.4; charset=utf-8")
+	public ResponseEntity<String> getMetrics() {
+		if (!latencyMetrics.isEnabled()) {
+			return ResponseEntity.status(HttpStatus.NOT_FOUND).body("# Latency metrics are turned off, set profile.metrics.enabled=true\n");
+		}
+		return ResponseEntity.ok(latencyMetrics.toPrometheusText());
+	}
+
+	private CompletableFuture<ResponseEntity<ApiResponse>> bulkWrite(String path, List<Map<String, String>> items, Integer chunkSize,
+			BiFunction<List<Map<String, String>>, Integer, DbQueryStatus> write) {
+		return requestExecutor.execute(() -> {
+			int size = chunkSize == null ? defaultBulkChunkSize : chunkSize;
+			if (size < 1 || size > maxBulkChunkSize) {
+				return Utils.badRequest(path, String.format("chunkSize must be between 1 and %d", maxBulkChunkSize));
+			}
+			if (items.size() > maxBulkItems) {
+				return Utils.badRequest(path, String.format("At most %d items can be sent at once", maxBulkItems));
+			}
+
+			DbQueryStatus dbQueryStatus = write.apply(items, size);
+			for (Map<String, String> item : items) {
+				if (item != null && item.get(KEY_USER_NAME) != null) {
+					songRecommender.invalidate(item.get(KEY_USER_NAME));
+				}
+			}
+			// The outcome of every item is useful even when a chunk failed, so the report is always sent back
+			HttpStatus status = Utils.toHttpStatus(dbQueryStatus.getdbQueryExecResult());
+			return ResponseEntity.status(status).body(new ApiResponse(path, dbQueryStatus.getMessage(), status, dbQueryStatus.getData()));
+		});
+	}
 
-		// Response
-		response.put("path", String.format("PUT %s", Utils.getUrl(request)));
-		response.put("message", dbQueryStatus.getMessage());
-		return Utils.setResponseStatus(response, dbQueryStatus.getdbQueryExecResult(), dbQueryStatus.getData());
+	private static ResponseEntity<ApiResponse> socialGraphOff(String path) {
+		return Utils.setResponseStatus(path, "The social graph replica is turned off or still loading, set profile.social-graph.enabled=true",
+				DbQueryExecResult.QUERY_ERROR_NOT_FOUND, null);
 	}
 }
\ No newline at end of file
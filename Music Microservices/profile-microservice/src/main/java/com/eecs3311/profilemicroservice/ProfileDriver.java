@@ -1,8 +1,15 @@
 package com.eecs3311.profilemicroservice;
 
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
 public interface ProfileDriver {
 	DbQueryStatus createUserProfile(String userName, String fullName, String password);
 	DbQueryStatus followFriend(String userName, String frndUserName);
 	DbQueryStatus unfollowFriend(String userName, String frndUserName );
 	DbQueryStatus getAllSongFriendsLike(String userName);
+	DbQueryStatus getAllSongFriendsLike(String userName, BiConsumer<String, List<String>> friendSongs);
+	DbQueryStatus createUserProfiles(List<Map<String, String>> profiles, int chunkSize);
+	DbQueryStatus followFriends(List<Map<String, String>> follows, int chunkSize);
 }
\ No newline at end of file
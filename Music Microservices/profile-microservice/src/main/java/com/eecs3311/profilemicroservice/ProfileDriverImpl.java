@@ -1,15 +1,20 @@
 package com.eecs3311.profilemicroservice;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
 
 import org.neo4j.driver.v1.Driver;
 import org.neo4j.driver.v1.Record;
 import org.neo4j.driver.v1.Session;
 import org.neo4j.driver.v1.StatementResult;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
 import org.neo4j.driver.v1.Transaction;
 import org.neo4j.driver.v1.Values;
@@ -17,12 +22,83 @@ import org.neo4j.driver.v1.Values;
 @Repository
 public class ProfileDriverImpl implements ProfileDriver {
 
-	Driver driver = ProfileMicroserviceApplication.driver;
+	static final String OUTCOME_NOT_FOUND = "NOT_FOUND";
+	static final String OUTCOME_ALREADY_FOLLOWING = "ALREADY_FOLLOWING";
+	static final String OUTCOME_NOT_FOLLOWING = "NOT_FOLLOWING";
+	static final String OUTCOME_FOLLOWED = "FOLLOWED";
+	static final String OUTCOME_UNFOLLOWED = "UNFOLLOWED";
+	static final String OUTCOME_CREATED = "CREATED";
+	static final String OUTCOME_ALREADY_EXISTS = "ALREADY_EXISTS";
+
+	static final String FOLLOW_FRIEND_QUERY = "OPTIONAL MATCH (p1:profile {userName: $userName}) "
+			+ "OPTIONAL MATCH (p2:profile {userName: $frndUserName}) "
+			+ "OPTIONAL MATCH (p1)-[f:follows]->(p2) "
+			+ "WITH p1, p2, count(f) AS follows "
+			+ "FOREACH (ignored IN CASE WHEN p1 IS NOT NULL AND p2 IS NOT NULL AND follows = 0 THEN [1] ELSE [] END | "
+			+ "MERGE (p1)-[:follows]->(p2)) "
+			+ "RETURN CASE WHEN p1 IS NULL OR p2 IS NULL THEN '" + OUTCOME_NOT_FOUND + "' "
+			+ "WHEN follows > 0 THEN '" + OUTCOME_ALREADY_FOLLOWING + "' "
+			+ "ELSE '" + OUTCOME_FOLLOWED + "' END AS outcome";
+
+	// FOLLOW_FRIEND_QUERY for every row, grouping by the row's index so each row keeps its own count of follows
+	static final String FOLLOW_FRIENDS_QUERY = "UNWIND $rows AS row "
+			+ "OPTIONAL MATCH (p1:profile {userName: row.userName}) "
+			+ "OPTIONAL MATCH (p2:profile {userName: row.frndUserName}) "
+			+ "OPTIONAL MATCH (p1)-[f:follows]->(p2) "
+			+ "WITH row.index AS index, row.userName AS userName, row.frndUserName AS frndUserName, p1, p2, count(f) AS follows "
+			+ "FOREACH (ignored IN CASE WHEN p1 IS NOT NULL AND p2 IS NOT NULL AND follows = 0 THEN [1] ELSE [] END | "
+			+ "MERGE (p1)-[:follows]->(p2)) "
+			+ "RETURN index, userName, frndUserName, CASE WHEN p1 IS NULL OR p2 IS NULL THEN '" + OUTCOME_NOT_FOUND + "' "
+			+ "WHEN follows > 0 THEN '" + OUTCOME_ALREADY_FOLLOWING + "' "
+			+ "ELSE '" + OUTCOME_FOLLOWED + "' END AS outcome";
+
+	static final String CREATE_PROFILES_QUERY = "UNWIND $rows AS row "
+			+ "OPTIONAL MATCH (existing:profile {userName: row.userName}) "
+			+ "WITH row, existing IS NOT NULL AS exists "
+			+ "FOREACH (ignored IN CASE WHEN exists THEN [] ELSE [1] END | "
+			+ "CREATE (:profile {userName: row.userName, fullName: row.fullName, password: row.password})) "
+			+ "RETURN row.index AS index, row.userName AS userName, "
+			+ "CASE WHEN exists THEN '" + OUTCOME_ALREADY_EXISTS + "' ELSE '" + OUTCOME_CREATED + "' END AS outcome";
+
+	static final String FRIENDS_LIKED_SONGS_QUERY = "MATCH (p:profile {userName: $userName})-[:follows]->(friend:profile)-[:likes]->(song:song) "
+			+ "WITH DISTINCT friend, song "
+			+ "RETURN friend.userName, COLLECT(song.songName) AS likedSongs";
+
+	static final String SONG_NAME_QUERY = "MATCH (song:song {songId: $songId}) RETURN song.songName as songName";
+
+	static final String SEND_SONG_QUERY = "MATCH (sender:profile {userName: $senderUserName}), (receiver:profile {userName: $receiverUserName}), (song:song {songId: $songId}) "
+			+ "MERGE (sender)-[:sent_song]->(song)-[:received_by]->(receiver)";
+
+	static final String UNFOLLOW_FRIEND_QUERY = "OPTIONAL MATCH (p1:profile {userName: $userName}) "
+			+ "OPTIONAL MATCH (p2:profile {userName: $frndUserName}) "
+			+ "OPTIONAL MATCH (p1)-[f:follows]->(p2) "
+			+ "WITH p1, p2, collect(f) AS follows "
+			+ "FOREACH (follow IN follows | DELETE follow) "
+			+ "RETURN CASE WHEN p1 IS NULL OR p2 IS NULL THEN '" + OUTCOME_NOT_FOUND + "' "
+			+ "WHEN size(follows) = 0 THEN '" + OUTCOME_NOT_FOLLOWING + "' "
+			+ "ELSE '" + OUTCOME_UNFOLLOWED + "' END AS outcome";
+
+	private final Driver driver;
+	private final FriendFeed friendFeed;
+	private final SocialGraph socialGraph;
+	private final UserBookmarks bookmarks;
+
+	public ProfileDriverImpl(Driver driver, FriendFeed friendFeed, SocialGraph socialGraph) {
+		this(driver, friendFeed, socialGraph, new UserBookmarks(false, 0, 0));
+	}
+
+	@Autowired
+	public ProfileDriverImpl(Driver driver, FriendFeed friendFeed, SocialGraph socialGraph, UserBookmarks bookmarks) {
+		this.driver = driver;
+		this.friendFeed = friendFeed;
+		this.socialGraph = socialGraph;
+		this.bookmarks = bookmarks;
+	}
 
-	public static void InitProfileDb() {
+	public void InitProfileDb() {
 		String queryStr;
 
-		try (Session session = ProfileMicroserviceApplication.driver.session()) {
+		try (Session session = driver.session()) {
 			try (Transaction trans = session.beginTransaction()) {
 				queryStr = "CREATE CONSTRAINT ON (nProfile:profile) ASSERT exists(nProfile.userName)";
 				trans.run(queryStr);
@@ -37,6 +113,9 @@ public class ProfileDriverImpl implements ProfileDriver {
 			} catch (Exception e) {
 				if (e.getMessage().contains("An equivalent constraint already exists")) {
 					System.out.println("INFO: Profile constraints already exist (DB likely already initialized), should be OK to continue");
+				} else if (e.getMessage().contains("requires Neo4j Enterprise Edition")) {
+					// Community Edition has no existence constraints, userName is still kept unique by SchemaMigrations
+					System.out.println("WARN: Profile existence constraints need Neo4j Enterprise Edition, continuing without them");
 				} else {
 					// something else, yuck, bye
 					throw e;
@@ -57,11 +136,14 @@ public class ProfileDriverImpl implements ProfileDriver {
 	public DbQueryStatus createUserProfile(String userName, String fullName, String password) {
 		String queryStr;
 
-		try (Session session = ProfileMicroserviceApplication.driver.session()) {
+		try (Session session = driver.session()) {
 			try(Transaction trans = session.beginTransaction()) {
 				queryStr = "CREATE (p:profile {userName: $userName, fullName: $fullName, password: $password})";
 				trans.run(queryStr, Values.parameters("userName", userName, "fullName", fullName, "password", password));
 				trans.success();
+				trans.close();
+				bookmarks.record(userName, session.lastBookmark());
+				socialGraph.onProfileCreated(userName);
 				DbQueryStatus queryStatus = new DbQueryStatus("User Created! ", DbQueryExecResult.QUERY_OK);
 				return queryStatus;
 			}catch (Exception e) {
@@ -70,6 +152,89 @@ public class ProfileDriverImpl implements ProfileDriver {
 			}
 		}
 	}
+	/**
+	 * This method should create many profiles at once, chunkSize of them per transaction, for imports. Profiles whose
+	 * username is taken are left as they are
+	 * @param profiles the profiles to create, each with a userName, fullName and password
+	 * @param chunkSize how many profiles are created in one transaction
+	 * @return returns the status of the database after being ran with the outcome of every profile in the order they
+	 * were given: CREATED, ALREADY_EXISTS, INVALID when a field is missing, DUPLICATE when the username came earlier in
+	 * the list or ERROR when its chunk failed
+	 */
+	@Override
+	public DbQueryStatus createUserProfiles(List<Map<String, String>> profiles, int chunkSize) {
+		BulkWrite bulkWrite = new BulkWrite(profiles.size());
+		Set<String> seen = new HashSet<>();
+		for (int i = 0; i < profiles.size(); i++) {
+			Map<String, String> profile = profiles.get(i);
+			String userName = profile == null ? null : profile.get(ProfileController.KEY_USER_NAME);
+			if (userName == null || profile.get(ProfileController.KEY_USER_FULLNAME) == null || profile.get(ProfileController.KEY_USER_PASSWORD) == null) {
+				bulkWrite.skip(i, BulkWrite.OUTCOME_INVALID);
+			} else if (!seen.add(userName)) {
+				bulkWrite.skip(i, BulkWrite.OUTCOME_DUPLICATE);
+			} else {
+				Map<String, Object> row = new HashMap<>();
+				row.put("userName", userName);
+				row.put("fullName", profile.get(ProfileController.KEY_USER_FULLNAME));
+				row.put("password", profile.get(ProfileController.KEY_USER_PASSWORD));
+				bulkWrite.add(i, row);
+			}
+		}
+
+		return bulkWrite.run(driver, bookmarks, CREATE_PROFILES_QUERY, chunkSize, OUTCOME_NOT_FOUND, records -> {
+			for (Record record : records) {
+				if (OUTCOME_CREATED.equals(record.get("outcome").asString())) {
+					socialGraph.onProfileCreated(record.get("userName").asString());
+				}
+			}
+		}, "profiles");
+	}
+	/**
+	 * This method should follow many friends at once, chunkSize of them per transaction, for importing a user's contacts
+	 * @param follows the follows to make, each with a userName and the friendUserName to follow
+	 * @param chunkSize how many follows are made in one transaction
+	 * @return returns the status of the database after being ran with the outcome of every follow in the order they
+	 * were given: FOLLOWED, ALREADY_FOLLOWING, NOT_FOUND, INVALID when a field is missing or the user follows themselves,
+	 * DUPLICATE when the same follow came earlier in the list or ERROR when its chunk failed
+	 */
+	@Override
+	public DbQueryStatus followFriends(List<Map<String, String>> follows, int chunkSize) {
+		BulkWrite bulkWrite = new BulkWrite(follows.size());
+		Set<List<String>> seen = new HashSet<>();
+		for (int i = 0; i < follows.size(); i++) {
+			Map<String, String> follow = follows.get(i);
+			String userName = follow == null ? null : follow.get(ProfileController.KEY_USER_NAME);
+			String frndUserName = follow == null ? null : follow.get(ProfileController.KEY_FRIEND_USER_NAME);
+			if (userName == null || frndUserName == null || userName.equals(frndUserName)) {
+				bulkWrite.skip(i, BulkWrite.OUTCOME_INVALID);
+			} else if (!seen.add(Arrays.asList(userName, frndUserName))) {
+				bulkWrite.skip(i, BulkWrite.OUTCOME_DUPLICATE);
+			} else {
+				Map<String, Object> row = new HashMap<>();
+				row.put("userName", userName);
+				row.put("frndUserName", frndUserName);
+				bulkWrite.add(i, row);
+			}
+		}
+
+		bulkWrite.guardChunks((chunk, write) -> {
+			List<List<String>> pairs = new ArrayList<>(chunk.size());
+			for (Map<String, Object> row : chunk) {
+				pairs.add(Arrays.asList((String) row.get("userName"), (String) row.get("frndUserName")));
+			}
+			socialGraph.inCommitOrder(pairs, write);
+		});
+		return bulkWrite.run(driver, bookmarks, FOLLOW_FRIENDS_QUERY, chunkSize, OUTCOME_NOT_FOUND, records -> {
+			for (Record record : records) {
+				if (OUTCOME_FOLLOWED.equals(record.get("outcome").asString())) {
+					String userName = record.get("userName").asString();
+					String frndUserName = record.get("frndUserName").asString();
+					friendFeed.onFollow(userName, frndUserName);
+					socialGraph.onFollow(userName, frndUserName);
+				}
+			}
+		}, "follows");
+	}
 	/**
 	 * This method gives the users an option to follow another friend by locating their friends profile by finding their username
 	 * @param userName this will take and store the users username
@@ -79,43 +244,36 @@ public class ProfileDriverImpl implements ProfileDriver {
 	 */
 	@Override
 	public DbQueryStatus followFriend(String userName, String frndUserName) {
-		DbQueryStatus queryStatus = null;
-
 		if (userName.equals(frndUserName)) {
-			queryStatus = new DbQueryStatus("Cannot follow yourself", DbQueryExecResult.QUERY_ERROR_GENERIC);
-			return queryStatus;
+			return new DbQueryStatus("Cannot follow yourself", DbQueryExecResult.QUERY_ERROR_GENERIC);
 		}
 
-		String queryStr;
-		String checkUserExistsQuery;
-		String checkAlreadyFollowsQuery;
-
-		try (Session session = ProfileMicroserviceApplication.driver.session()) {
-			try (Transaction trans = session.beginTransaction()) {
-
-				checkUserExistsQuery = "MATCH (p:profile) WHERE p.userName = $userName OR p.userName = $frndUserName RETURN count(p) AS count";
-				StatementResult result = trans.run(checkUserExistsQuery, Values.parameters("userName", userName, "frndUserName", frndUserName));
-				if (result.single().get("count").asInt() < 2) {
-					queryStatus = new DbQueryStatus("One or both users do not exist", DbQueryExecResult.QUERY_ERROR_NOT_FOUND);
-					return queryStatus;
-				}
-				checkAlreadyFollowsQuery = "MATCH (p1:profile {userName: $userName})-[:follows]->(p2:profile {userName: $frndUserName}) RETURN count(p1) AS count";
-				result = trans.run(checkAlreadyFollowsQuery, Values.parameters("userName", userName, "frndUserName", frndUserName));
-				if (result.single().get("count").asInt() > 0) {
-					queryStatus = new DbQueryStatus("Already following this user", DbQueryExecResult.QUERY_ERROR_GENERIC);
-					return queryStatus;
+		// Holds the pair until the replica has the change, a racing write of the same pair waits for it
+		return socialGraph.inCommitOrder(userName, frndUserName, () -> {
+			try (Session session = driver.session()) {
+				try (Transaction trans = session.beginTransaction()) {
+					// One round trip: finds both users and any existing follow, only follows when both exist and it isn't there yet
+					String outcome = trans.run(FOLLOW_FRIEND_QUERY, Values.parameters("userName", userName, "frndUserName", frndUserName))
+							.single().get("outcome").asString();
+					trans.success();
+
+					switch (outcome) {
+						case OUTCOME_NOT_FOUND:
+							return new DbQueryStatus("One or both users do not exist", DbQueryExecResult.QUERY_ERROR_NOT_FOUND);
+						case OUTCOME_ALREADY_FOLLOWING:
+							return new DbQueryStatus("Already following this user", DbQueryExecResult.QUERY_ERROR_GENERIC);
+						default:
+							trans.close();
+							bookmarks.record(userName, session.lastBookmark());
+							friendFeed.onFollow(userName, frndUserName);
+							socialGraph.onFollow(userName, frndUserName);
+							return new DbQueryStatus("Friend followed successfully", DbQueryExecResult.QUERY_OK);
+					}
+				} catch (Exception e) {
+					return new DbQueryStatus("Error: " + e.getMessage(), DbQueryExecResult.QUERY_ERROR_GENERIC);
 				}
-				queryStr = "MATCH (p1:profile {userName: $userName}), (p2:profile {userName: $frndUserName}) CREATE (p1)-[:follows]->(p2)";
-				trans.run(queryStr, Values.parameters("userName", userName, "frndUserName", frndUserName));
-				trans.success();
-				queryStatus = new DbQueryStatus("Friend followed successfully", DbQueryExecResult.QUERY_OK);
-
-			} catch (Exception e) {
-				queryStatus = new DbQueryStatus("Error: " + e.getMessage(), DbQueryExecResult.QUERY_ERROR_GENERIC);
 			}
-		}
-
-		return queryStatus;
+		});
 	}
 	/**
 	 * This method gives the users an option to unfollow another user by locating their friends profile by finding their username
@@ -130,61 +288,57 @@ public class ProfileDriverImpl implements ProfileDriver {
 			return new DbQueryStatus("Cannot unfollow yourself", DbQueryExecResult.QUERY_ERROR_GENERIC);
 		}
 
-		String checkUserExistsQuery;
-		String checkRelationshipExistsQuery;
-		String queryStr;
-
-		try (Session session = ProfileMicroserviceApplication.driver.session()) {
-			try (Transaction trans = session.beginTransaction()) {
-				// Check if both user and friend exist
-				checkUserExistsQuery = "MATCH (p:profile) WHERE p.userName = $userName OR p.userName = $frndUserName RETURN count(p) AS count";
-				StatementResult userExistsResult = trans.run(checkUserExistsQuery, Values.parameters("userName", userName, "frndUserName", frndUserName));
-				if (userExistsResult.single().get("count").asInt() < 2) {
-					return new DbQueryStatus("One or both users do not exist", DbQueryExecResult.QUERY_ERROR_NOT_FOUND);
-				}
-
-				// Check if the user is currently following the friend
-				checkRelationshipExistsQuery = "MATCH (p1:profile {userName: $userName})-[f:follows]->(p2:profile {userName: $frndUserName}) RETURN count(f) AS count";
-				StatementResult relationshipExistsResult = trans.run(checkRelationshipExistsQuery, Values.parameters("userName", userName, "frndUserName", frndUserName));
-				if (relationshipExistsResult.single().get("count").asInt() == 0) {
-					return new DbQueryStatus("User is not following this friend", DbQueryExecResult.QUERY_ERROR_GENERIC);
+		// Holds the pair until the replica has the change, a racing write of the same pair waits for it
+		return socialGraph.inCommitOrder(userName, frndUserName, () -> {
+			try (Session session = driver.session()) {
+				try (Transaction trans = session.beginTransaction()) {
+					// One round trip: finds both users and deletes the follow if there is one
+					String outcome = trans.run(UNFOLLOW_FRIEND_QUERY, Values.parameters("userName", userName, "frndUserName", frndUserName))
+							.single().get("outcome").asString();
+					trans.success();
+
+					switch (outcome) {
+						case OUTCOME_NOT_FOUND:
+							return new DbQueryStatus("One or both users do not exist", DbQueryExecResult.QUERY_ERROR_NOT_FOUND);
+						case OUTCOME_NOT_FOLLOWING:
+							return new DbQueryStatus("User is not following this friend", DbQueryExecResult.QUERY_ERROR_GENERIC);
+						default:
+							trans.close();
+							bookmarks.record(userName, session.lastBookmark());
+							friendFeed.onUnfollow(userName, frndUserName);
+							socialGraph.onUnfollow(userName, frndUserName);
+							return new DbQueryStatus("Friend unfollowed successfully", DbQueryExecResult.QUERY_OK);
+					}
+				} catch (Exception e) {
+					return new DbQueryStatus("Error: " + e.getMessage(), DbQueryExecResult.QUERY_ERROR_GENERIC);
 				}
-
-				// If the relationship exists, delete it
-				queryStr = "MATCH (p1:profile {userName: $userName})-[f:follows]->(p2:profile {userName: $frndUserName}) DELETE f";
-				trans.run(queryStr, Values.parameters("userName", userName, "frndUserName", frndUserName));
-				trans.success();
-
-				return new DbQueryStatus("Friend unfollowed successfully", DbQueryExecResult.QUERY_OK);
-
-			} catch (Exception e) {
-				return new DbQueryStatus("Error: " + e.getMessage(), DbQueryExecResult.QUERY_ERROR_GENERIC);
 			}
-		}
+		});
 	}
 	/**
-	 * This method should get all the songs in a list based on the username profile searched from their playlist
+	 * This method should get all the songs in a list based on the username profile searched from their playlist. It only
+	 * reads, so it runs in a read session that may go to a follower, after the user's own latest write, and is retried by
+	 * the driver when that server goes away
 	 * @param userName this will take the username searched for to access their playlist
 	 * @return returns the status of the database after being ran and should return and display the list with all songs that
 	 * friends like, display an error message if exists
 	 */
 	@Override
 	public DbQueryStatus getAllSongFriendsLike(String userName) {
-		String queryStr;
-
-		try (Session session = ProfileMicroserviceApplication.driver.session()) {
-			try (Transaction trans = session.beginTransaction()) {
-				queryStr = "MATCH (p:profile {userName: $userName})-[:follows]->(friend:profile)-[:likes]->(song:Song) RETURN friend.userName, COLLECT(song.title) AS likedSongs";
-				StatementResult result = trans.run(queryStr, Values.parameters("userName", userName));
-				trans.success();
-				Map<String, List<String>> songs = new HashMap<>();
-
-				while (result.hasNext()) {
-					Record record = result.next();
-					String friendUserName = record.get("friend.userName").asString();
-					List<String> likedSongs = record.get("likedSongs").asList(value -> value.asString());
-					songs.put(friendUserName, likedSongs);
-				}
+		try (Session session = bookmarks.readSession(driver, userName)) {
+			try {
+				Map<String, List<String>> songs = session.readTransaction(trans -> {
+					// A retry starts over, nothing from a failed attempt is kept
+					Map<String, List<String>> friendsSongs = new HashMap<>();
+					StatementResult result = trans.run(FRIENDS_LIKED_SONGS_QUERY, Values.parameters("userName", userName));
+					while (result.hasNext()) {
+						Record record = result.next();
+						String friendUserName = record.get("friend.userName").asString();
+						List<String> likedSongs = record.get("likedSongs").asList(value -> value.asString());
+						friendsSongs.put(friendUserName, likedSongs);
+					}
+					return friendsSongs;
+				});
 
 				DbQueryStatus queryStatus = new DbQueryStatus("Friend's song list created!", DbQueryExecResult.QUERY_OK);
 				queryStatus.setData(songs);
@@ -195,6 +349,32 @@ public class ProfileDriverImpl implements ProfileDriver {
 			}
 		}
 	}
+	/**
+	 * This method should hand each friend's liked songs on as soon as the record arrives from Neo4j instead of building
+	 * the whole map, so a user with a large network costs the same memory as one with a single friend. The driver stops
+	 * reading from the connection while it holds more records than the caller has taken
+	 * @param userName this will take the username searched for to access their playlist
+	 * @param friendSongs this gets every friend's username with the names of the songs they like, one friend at a time
+	 * @return returns the status of the database after being ran, with no data since the friends were already handed on,
+	 * display an error message if exists. Friends handed on before an error are not taken back
+	 */
+	@Override
+	public DbQueryStatus getAllSongFriendsLike(String userName, BiConsumer<String, List<String>> friendSongs) {
+		try (Session session = bookmarks.readSession(driver, userName)) {
+			// Not a retried transaction function, a retry would hand the friends of the failed attempt on a second time
+			try (Transaction trans = session.beginTransaction()) {
+				StatementResult result = trans.run(FRIENDS_LIKED_SONGS_QUERY, Values.parameters("userName", userName));
+				while (result.hasNext()) {
+					Record record = result.next();
+					friendSongs.accept(record.get("friend.userName").asString(), record.get("likedSongs").asList(value -> value.asString()));
+				}
+				trans.success();
+				return new DbQueryStatus("Friend's song list created!", DbQueryExecResult.QUERY_OK);
+			} catch (Exception e) {
+				return new DbQueryStatus("Error: " + e.getMessage(), DbQueryExecResult.QUERY_ERROR_GENERIC);
+			}
+		}
+	}
 	/**
 	 * This method should allow the user to be able to send a specific song to their friend by navigating the song by sending
 	 * their friend the song ID
@@ -206,14 +386,12 @@ public class ProfileDriverImpl implements ProfileDriver {
 	 * successfully sent and to whom or not, display an error message if exists
 	 */
 	public DbQueryStatus sendSongToFriend(String senderUserName, String receiverUserName, String songId) {
-		String queryStr;
 		Map<String, Object> songData = new HashMap<>();
 
-		try (Session session = ProfileMicroserviceApplication.driver.session()) {
+		try (Session session = driver.session()) {
 			try (Transaction trans = session.beginTransaction()) {
 				// Retrieve the song name for the response (optional)
-				String getSongNameQuery = "MATCH (song:song {songId: $songId}) RETURN song.songName as songName";
-				StatementResult songResult = trans.run(getSongNameQuery, Values.parameters("songId", songId));
+				StatementResult songResult = trans.run(SONG_NAME_QUERY, Values.parameters("songId", songId));
 
 				if (songResult.hasNext()) {
 					String songName = songResult.single().get("songName").asString();
@@ -224,10 +402,10 @@ public class ProfileDriverImpl implements ProfileDriver {
 				}
 
 				// Create relationships for sending a song
-				queryStr = "MATCH (sender:profile {userName: $senderUserName}), (receiver:profile {userName: $receiverUserName}), (song:song {songId: $songId}) " +
-						"MERGE (sender)-[:sent_song]->(song)-[:received_by]->(receiver)";
-				trans.run(queryStr, Values.parameters("senderUserName", senderUserName, "receiverUserName", receiverUserName, "songId", songId));
+				trans.run(SEND_SONG_QUERY, Values.parameters("senderUserName", senderUserName, "receiverUserName", receiverUserName, "songId", songId));
 				trans.success();
+				trans.close();
+				bookmarks.record(senderUserName, session.lastBookmark());
 				DbQueryStatus queryStatus = new DbQueryStatus("Song sent successfully to " + receiverUserName + ".", DbQueryExecResult.QUERY_OK);
 				queryStatus.setData(songData);
 				return queryStatus;
@@ -244,27 +422,30 @@ public class ProfileDriverImpl implements ProfileDriver {
 	 * display an error message if exists
 	 */
 	public DbQueryStatus blockFriend(String userName, String frndUserName) {
-		String queryStr;
-		String deleteFollowRelQuery;
-		String createBlockRelQuery;
-
-		try (Session session = ProfileMicroserviceApplication.driver.session()) {
-			try (Transaction trans = session.beginTransaction()) {
-				// First, delete any existing 'follows' relationship
-				deleteFollowRelQuery = "MATCH (p1:profile {userName: $userName})-[f:follows]->(p2:profile {userName: $frndUserName}) DELETE f";
-				trans.run(deleteFollowRelQuery, Values.parameters("userName", userName, "frndUserName", frndUserName));
-
-				// Then, create a 'blocked' relationship
-				createBlockRelQuery = "MATCH (p1:profile {userName: $userName}), (p2:profile {userName: $frndUserName}) MERGE (p1)-[:blocked]->(p2)";
-				trans.run(createBlockRelQuery, Values.parameters("userName", userName, "frndUserName", frndUserName));
-				trans.success();
-				DbQueryStatus queryStatus = new DbQueryStatus("Friend Blocked!", DbQueryExecResult.QUERY_OK);
-				return queryStatus;
+		// Holds the pair until the replica has the change, a racing write of the same pair waits for it
+		return socialGraph.inCommitOrder(userName, frndUserName, () -> {
+			try (Session session = driver.session()) {
+				try (Transaction trans = session.beginTransaction()) {
+					// First, delete any existing 'follows' relationship
+					String deleteFollowRelQuery = "MATCH (p1:profile {userName: $userName})-[f:follows]->(p2:profile {userName: $frndUserName}) DELETE f";
+					trans.run(deleteFollowRelQuery, Values.parameters("userName", userName, "frndUserName", frndUserName));
+
+					// Then, create a 'blocked' relationship
+					String createBlockRelQuery = "MATCH (p1:profile {userName: $userName}), (p2:profile {userName: $frndUserName}) MERGE (p1)-[:blocked]->(p2)";
+					trans.run(createBlockRelQuery, Values.parameters("userName", userName, "frndUserName", frndUserName));
+					trans.success();
+					trans.close();
+					bookmarks.record(userName, session.lastBookmark());
+					friendFeed.onUnfollow(userName, frndUserName);
+					socialGraph.onBlock(userName, frndUserName);
+					DbQueryStatus queryStatus = new DbQueryStatus("Friend Blocked!", DbQueryExecResult.QUERY_OK);
+					return queryStatus;
 
-			} catch (Exception e) {
-				DbQueryStatus queryStatus = new DbQueryStatus("Error: " + e.getMessage(), DbQueryExecResult.QUERY_ERROR_GENERIC);
-				return queryStatus;
+				} catch (Exception e) {
+					DbQueryStatus queryStatus = new DbQueryStatus("Error: " + e.getMessage(), DbQueryExecResult.QUERY_ERROR_GENERIC);
+					return queryStatus;
+				}
 			}
-		}
+		});
 	}
 }
\ No newline at end of file
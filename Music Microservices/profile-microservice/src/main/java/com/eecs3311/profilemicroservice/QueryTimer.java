@@ -0,0 +1,94 @@
+package com.eecs3311.profilemicroservice;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.springframework.aop.framework.Advised;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.stereotype.Component;
+import org.springframework.util.ClassUtils;
+
+/**
+ * Times every ProfileDriver and PlaylistDriver method into "profile_driver_query_seconds", by the class it ran in, the
+ * method and the DbQueryExecResult it gave ("EXCEPTION" when it threw). The drivers are wrapped in a subclass proxy, so
+ * ProfileController can still inject them by their class
+ */
+@Component
+public class QueryTimer implements BeanPostProcessor {
+
+	static final String METRIC = "profile_driver_query_seconds";
+	private static final DbQueryExecResult[] OUTCOMES = DbQueryExecResult.values();
+	private static final Class<?>[] DRIVERS = {ProfileDriver.class, PlaylistDriver.class};
+
+	private final LatencyMetrics latencyMetrics;
+
+	@Autowired
+	public QueryTimer(LatencyMetrics latencyMetrics) {
+		this.latencyMetrics = latencyMetrics;
+	}
+
+	@Override
+	public Object postProcessAfterInitialization(Object bean, String beanName) {
+		if (!latencyMetrics.isEnabled() || !(bean instanceof ProfileDriver || bean instanceof PlaylistDriver)) {
+			return bean;
+		}
+
+		Class<?> targetClass = AopUtils.getTargetClass(bean);
+		// The histograms of every method by outcome, looked up by index rather than by name on each call
+		Map<Method, LatencyHistogram[]> histograms = new HashMap<>();
+		for (Class<?> driver : DRIVERS) {
+			if (!driver.isInstance(bean)) {
+				continue;
+			}
+			for (Method method : driver.getMethods()) {
+				LatencyHistogram[] byOutcome = new LatencyHistogram[OUTCOMES.length + 1];
+				histograms.put(method, byOutcome);
+				histograms.put(ClassUtils.getMostSpecificMethod(method, targetClass), byOutcome);
+			}
+		}
+
+		MethodInterceptor timer = invocation -> {
+			Method method = invocation.getMethod();
+			LatencyHistogram[] byOutcome = histograms.get(method);
+			if (byOutcome == null) {
+				return invocation.proceed();
+			}
+			long start = System.nanoTime();
+			Object result;
+			try {
+				result = invocation.proceed();
+			} catch (Throwable e) {
+				record(byOutcome, OUTCOMES.length, targetClass, method, System.nanoTime() - start);
+				throw e;
+			}
+			DbQueryExecResult outcome = result instanceof DbQueryStatus ? ((DbQueryStatus) result).getdbQueryExecResult() : DbQueryExecResult.QUERY_OK;
+			record(byOutcome, outcome.ordinal(), targetClass, method, System.nanoTime() - start);
+			return result;
+		};
+
+		if (bean instanceof Advised && !((Advised) bean).isFrozen()) {
+			((Advised) bean).addAdvice(0, timer);
+			return bean;
+		}
+		ProxyFactory proxyFactory = new ProxyFactory(bean);
+		proxyFactory.setProxyTargetClass(true);
+		proxyFactory.addAdvice(timer);
+		return proxyFactory.getProxy(targetClass.getClassLoader());
+	}
+
+	// Only outcomes that happened get a histogram. Two threads may both look it up the first time, they get the same one
+	private void record(LatencyHistogram[] byOutcome, int outcome, Class<?> targetClass, Method method, long nanos) {
+		LatencyHistogram histogram = byOutcome[outcome];
+		if (histogram == null) {
+			histogram = latencyMetrics.histogram(METRIC, "Time spent in the Neo4j driver methods", "driver", targetClass.getSimpleName(),
+					"operation", method.getName(), "outcome", outcome < OUTCOMES.length ? OUTCOMES[outcome].name() : "EXCEPTION");
+			byOutcome[outcome] = histogram;
+		}
+		histogram.record(nanos);
+	}
+}
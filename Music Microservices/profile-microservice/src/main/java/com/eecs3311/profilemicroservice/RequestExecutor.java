@@ -0,0 +1,81 @@
+package com.eecs3311.profilemicroservice;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+
+/**
+ * Runs the Neo4j work of the controller's handlers. With profile.async.enabled the work goes to a bounded pool of its own
+ * and the Tomcat thread is handed back while the database answers, so the number of requests in flight is no longer capped
+ * by Tomcat's threads. Once the pool and its queue are full new requests get a 503 straight away instead of piling up.
+ * Turned off, the work runs on the Tomcat thread as before
+ */
+@Component
+public class RequestExecutor {
+
+	private final boolean enabled;
+	private final ThreadPoolExecutor executor;
+
+	@Autowired
+	public RequestExecutor(@Value("${profile.async.enabled:false}") boolean enabled,
+						   @Value("${profile.async.threads:64}") int threads,
+						   @Value("${profile.async.queue-capacity:1000}") int queueCapacity) {
+		this.enabled = enabled;
+		if (enabled) {
+			AtomicInteger count = new AtomicInteger();
+			this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+				Thread thread = new Thread(runnable, "profile-request-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}, new ThreadPoolExecutor.AbortPolicy());
+		} else {
+			this.executor = null;
+		}
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * This method runs a handler's work, on the request pool when the async mode is on
+	 * @param handler builds the response, it must not touch the HttpServletRequest
+	 * @return the response once the handler has built it, a 503 if the request pool is full
+	 */
+	public CompletableFuture<ResponseEntity<ApiResponse>> execute(Supplier<ResponseEntity<ApiResponse>> handler) {
+		if (!enabled) {
+			return CompletableFuture.completedFuture(handler.get());
+		}
+		try {
+			return CompletableFuture.supplyAsync(handler, executor);
+		} catch (RejectedExecutionException e) {
+			ApiResponse response = new ApiResponse(null, "Too many requests in progress, try again later", HttpStatus.SERVICE_UNAVAILABLE, null);
+			return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(response));
+		}
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		if (executor == null) {
+			return;
+		}
+		executor.shutdown();
+		try {
+			executor.awaitTermination(10, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
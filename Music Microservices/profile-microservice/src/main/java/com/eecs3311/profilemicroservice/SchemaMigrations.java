@@ -0,0 +1,141 @@
+package com.eecs3311.profilemicroservice;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.neo4j.driver.v1.Driver;
+import org.neo4j.driver.v1.Record;
+import org.neo4j.driver.v1.Session;
+import org.neo4j.driver.v1.Value;
+import org.neo4j.driver.v1.Values;
+import org.neo4j.driver.v1.summary.Plan;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Brings the Neo4j schema up to date at startup. Every migration has a version, the highest one applied is kept on a
+ * schemaVersion node so a restart only runs the new ones, and each statement can safely be run again if a previous start
+ * died half way. Afterwards the hot queries are checked with EXPLAIN so a missing index stops the service from starting
+ * instead of quietly turning every lookup into a label scan
+ */
+@Component
+public class SchemaMigrations {
+
+	static final String SCHEMA_NAME = "profile";
+
+	// Append only, a migration that already shipped must never change
+	static final List<List<String>> MIGRATIONS = Arrays.asList(
+			// Version 1: index every property the service looks nodes up by
+			Arrays.asList(
+					"CREATE CONSTRAINT ON (nProfile:profile) ASSERT nProfile.userName IS UNIQUE",
+					"CREATE CONSTRAINT ON (nSong:song) ASSERT nSong.songId IS UNIQUE",
+					"CREATE INDEX ON :playlist(plName)"));
+
+	// Plan operators that mean a query reads every node (with a label) instead of seeking straight to the ones it needs
+	private static final List<String> SCAN_OPERATORS = Arrays.asList("AllNodesScan", "NodeByLabelScan");
+
+	private final Driver driver;
+	private final boolean verifyPlans;
+	private final int awaitIndexesSeconds;
+
+	@Autowired
+	public SchemaMigrations(Driver driver, @org.springframework.beans.factory.annotation.Value("${profile.schema.verify-plans:true}") boolean verifyPlans,
+							@org.springframework.beans.factory.annotation.Value("${profile.schema.await-indexes-seconds:300}") int awaitIndexesSeconds) {
+		this.driver = driver;
+		this.verifyPlans = verifyPlans;
+		this.awaitIndexesSeconds = awaitIndexesSeconds;
+	}
+
+	/**
+	 * This method applies the migrations newer than the version recorded in the database, waits for their indexes to come
+	 * online and then checks the plans of the hot queries
+	 * @return the schema version the database is at
+	 * @throws IllegalStateException if a hot query no longer uses an index
+	 */
+	public int migrate() {
+		int version = getVersion();
+		for (int next = version + 1; next <= MIGRATIONS.size(); next++) {
+			try (Session session = driver.session()) {
+				// Schema changes can't share a transaction with data writes, so every statement commits on its own
+				for (String statement : MIGRATIONS.get(next - 1)) {
+					try {
+						session.run(statement).consume();
+					} catch (Exception e) {
+						if (!e.getMessage().contains("already exists")) {
+							throw e;
+						}
+					}
+				}
+				session.run("MERGE (v:schemaVersion {name: $name}) SET v.version = $version",
+						Values.parameters("name", SCHEMA_NAME, "version", next)).consume();
+			}
+			System.out.println("INFO: Applied profile schema migration " + next);
+			version = next;
+		}
+
+		try (Session session = driver.session()) {
+			session.run("CALL db.awaitIndexes($timeout)", Values.parameters("timeout", awaitIndexesSeconds)).consume();
+		}
+		if (verifyPlans) {
+			verifyHotQueries();
+		}
+		return version;
+	}
+
+	public int getVersion() {
+		try (Session session = driver.session()) {
+			List<Record> records = session.run("MATCH (v:schemaVersion {name: $name}) RETURN v.version AS version",
+					Values.parameters("name", SCHEMA_NAME)).list();
+			return records.isEmpty() ? 0 : records.get(0).get("version").asInt();
+		}
+	}
+
+	/**
+	 * This method runs EXPLAIN on every hot query, which plans it without running it, and fails if any of them would scan
+	 * @throws IllegalStateException listing every query that would scan and the operators it would use
+	 */
+	public void verifyHotQueries() {
+		List<String> regressions = new ArrayList<>();
+		try (Session session = driver.session()) {
+			for (Map.Entry<String, Value> hotQuery : hotQueries().entrySet()) {
+				Plan plan = session.run("EXPLAIN " + hotQuery.getKey(), hotQuery.getValue()).consume().plan();
+				List<String> scans = new ArrayList<>();
+				findScans(plan, scans);
+				if (!scans.isEmpty()) {
+					regressions.add(scans + " in: " + hotQuery.getKey());
+				}
+			}
+		}
+		if (!regressions.isEmpty()) {
+			throw new IllegalStateException("Hot queries are not using index seeks, check the profile schema: " + regressions);
+		}
+	}
+
+	static Map<String, Value> hotQueries() {
+		Map<String, Value> queries = new LinkedHashMap<>();
+		Value users = Values.parameters("userName", "", "frndUserName", "");
+		queries.put(ProfileDriverImpl.FOLLOW_FRIEND_QUERY, users);
+		queries.put(ProfileDriverImpl.UNFOLLOW_FRIEND_QUERY, users);
+		queries.put(ProfileDriverImpl.FRIENDS_LIKED_SONGS_QUERY, users);
+		queries.put(ProfileDriverImpl.SONG_NAME_QUERY, Values.parameters("songId", ""));
+		queries.put(ProfileDriverImpl.SEND_SONG_QUERY, Values.parameters("senderUserName", "", "receiverUserName", "", "songId", ""));
+		Value like = Values.parameters("userName", "", "songId", "", "recordEvent", false, "eventId", "");
+		queries.put(PlaylistDriverImpl.LIKE_SONG_QUERY, like);
+		queries.put(PlaylistDriverImpl.UNLIKE_SONG_QUERY, like);
+		return queries;
+	}
+
+	private static void findScans(Plan plan, List<String> scans) {
+		for (String operator : SCAN_OPERATORS) {
+			if (plan.operatorType().startsWith(operator)) {
+				scans.add(plan.operatorType());
+			}
+		}
+		for (Plan child : plan.children()) {
+			findScans(child, scans);
+		}
+	}
+}
@@ -0,0 +1,99 @@
+package com.eecs3311.profilemicroservice;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.neo4j.driver.v1.Driver;
+import org.neo4j.driver.v1.Session;
+
+/**
+ * Wraps the Neo4j driver to count the sessions that are open, using only the public driver API. Every piece of work
+ * holds a session until it is done, so no open sessions means nothing is left to cut off when the driver is closed
+ */
+final class SessionCountingDriver implements InvocationHandler {
+
+	private final Driver driver;
+	private final AtomicInteger openSessions = new AtomicInteger();
+
+	private SessionCountingDriver(Driver driver) {
+		this.driver = driver;
+	}
+
+	/**
+	 * @return the driver, counting the sessions opened through it
+	 */
+	static Driver wrap(Driver driver) {
+		return (Driver) Proxy.newProxyInstance(Driver.class.getClassLoader(), new Class<?>[] {Driver.class}, new SessionCountingDriver(driver));
+	}
+
+	/**
+	 * @return how many sessions of the driver are open, -1 if it wasn't wrapped and they aren't counted
+	 */
+	static int openSessions(Driver driver) {
+		SessionCountingDriver counting = of(driver);
+		return counting == null ? -1 : counting.openSessions.get();
+	}
+
+	/**
+	 * @return the driver that was wrapped, the driver itself if it wasn't
+	 */
+	static Driver unwrap(Driver driver) {
+		SessionCountingDriver counting = of(driver);
+		return counting == null ? driver : counting.driver;
+	}
+
+	private static SessionCountingDriver of(Driver driver) {
+		if (Proxy.isProxyClass(driver.getClass()) && Proxy.getInvocationHandler(driver) instanceof SessionCountingDriver) {
+			return (SessionCountingDriver) Proxy.getInvocationHandler(driver);
+		}
+		return null;
+	}
+
+	@Override
+	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+		Object result = call(driver, method, args);
+		if (result instanceof Session) {
+			openSessions.incrementAndGet();
+			return counted((Session) result);
+		}
+		return result;
+	}
+
+	private Session counted(Session session) {
+		AtomicBoolean closed = new AtomicBoolean();
+		Runnable release = () -> {
+			// A session can be closed more than once, it only counts once
+			if (closed.compareAndSet(false, true)) {
+				openSessions.decrementAndGet();
+			}
+		};
+		InvocationHandler handler = (proxy, method, args) -> {
+			if (method.getName().equals("close") && method.getParameterCount() == 0) {
+				try {
+					return call(session, method, args);
+				} finally {
+					release.run();
+				}
+			}
+			Object result = call(session, method, args);
+			if (method.getName().equals("closeAsync")) {
+				return ((CompletionStage<?>) result).whenComplete((ignored, failure) -> release.run());
+			}
+			return result;
+		};
+		return (Session) Proxy.newProxyInstance(Session.class.getClassLoader(), new Class<?>[] {Session.class}, handler);
+	}
+
+	private static Object call(Object target, Method method, Object[] args) throws Throwable {
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+}
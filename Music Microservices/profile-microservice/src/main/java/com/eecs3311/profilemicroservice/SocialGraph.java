@@ -0,0 +1,607 @@
+package com.eecs3311.profilemicroservice;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+import org.neo4j.driver.v1.AccessMode;
+import org.neo4j.driver.v1.Driver;
+import org.neo4j.driver.v1.Record;
+import org.neo4j.driver.v1.Session;
+import org.neo4j.driver.v1.StatementResult;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * In-memory replica of the follows and blocked relationships, so questions like "does A follow B" or "how many followers
+ * does A have" are answered in microseconds without going to Neo4j. Users get int ids and each relationship is kept as
+ * compressed sparse rows, about 8 bytes per edge for both directions. The rows are streamed from Neo4j at startup and the
+ * follows, unfollows and blocks made through this service are written to a small overlay next to them, which is folded
+ * back into new rows once it grows past profile.social-graph.compact-after-writes. The writes of a pair of users hold
+ * the pair's lock from their transaction until the overlay has them, so they reach the replica in the order Neo4j
+ * committed them. Writes made to Neo4j by anything else are only picked up by the next load
+ */
+@Component
+public class SocialGraph {
+
+	static final String PROFILES_QUERY = "MATCH (p:profile) RETURN p.userName AS userName";
+	static final String FOLLOWS_QUERY = "MATCH (a:profile)-[:follows]->(b:profile) RETURN a.userName AS from, b.userName AS to";
+	static final String BLOCKED_QUERY = "MATCH (a:profile)-[:blocked]->(b:profile) RETURN a.userName AS from, b.userName AS to";
+	// Pairs of users share a lock by the hash of the pair, which only costs waiting when two of them write at once
+	static final int PAIR_LOCK_STRIPES = 1024;
+
+	private final Driver driver;
+	private final boolean enabled;
+	private final int compactAfterWrites;
+
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+	private final ReentrantLock[] pairLocks = new ReentrantLock[PAIR_LOCK_STRIPES];
+	private Map<String, Integer> ids = new HashMap<>();
+	private String[] names = new String[16];
+	private int userCount;
+	private Relation follows = new Relation(CsrGraph.EMPTY);
+	private Relation blocked = new Relation(CsrGraph.EMPTY);
+	private boolean loaded;
+	// Writes made while the rows are being streamed in, applied on top of them once they are
+	private List<Runnable> writesDuringLoad;
+
+	@Autowired
+	public SocialGraph(Driver driver, @Value("${profile.social-graph.enabled:true}") boolean enabled,
+					   @Value("${profile.social-graph.compact-after-writes:65536}") int compactAfterWrites) {
+		this.driver = driver;
+		this.enabled = enabled;
+		this.compactAfterWrites = compactAfterWrites;
+		for (int i = 0; i < PAIR_LOCK_STRIPES; i++) {
+			pairLocks[i] = new ReentrantLock();
+		}
+	}
+
+	/**
+	 * @return true once the replica is loaded and can answer queries
+	 */
+	public boolean isEnabled() {
+		lock.readLock().lock();
+		try {
+			return enabled && loaded;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Streams every profile and every follows and blocked relationship from Neo4j into new rows, run once at startup
+	 */
+	public void load() {
+		if (!enabled) {
+			return;
+		}
+		lock.writeLock().lock();
+		try {
+			writesDuringLoad = new ArrayList<>();
+		} finally {
+			lock.writeLock().unlock();
+		}
+
+		long start = System.nanoTime();
+		Map<String, Integer> loadedIds = new HashMap<>();
+		List<String> loadedNames = new ArrayList<>();
+		CsrGraph loadedFollows;
+		CsrGraph loadedBlocked;
+		try (Session session = driver.session(AccessMode.READ)) {
+			StatementResult profiles = session.run(PROFILES_QUERY);
+			while (profiles.hasNext()) {
+				intern(profiles.next().get("userName").asString(), loadedIds, loadedNames);
+			}
+			loadedFollows = stream(session.run(FOLLOWS_QUERY), loadedIds, loadedNames);
+			loadedBlocked = stream(session.run(BLOCKED_QUERY), loadedIds, loadedNames);
+		} catch (RuntimeException e) {
+			lock.writeLock().lock();
+			try {
+				writesDuringLoad = null;
+			} finally {
+				lock.writeLock().unlock();
+			}
+			throw e;
+		}
+
+		lock.writeLock().lock();
+		try {
+			ids = loadedIds;
+			names = loadedNames.toArray(new String[Math.max(16, loadedNames.size())]);
+			userCount = loadedNames.size();
+			follows = new Relation(loadedFollows);
+			blocked = new Relation(loadedBlocked);
+			List<Runnable> writes = writesDuringLoad;
+			writesDuringLoad = null;
+			// Follows, unfollows and blocks set the edge rather than toggle it, so one the rows already have is harmless
+			for (Runnable write : writes) {
+				write.run();
+			}
+			loaded = true;
+		} finally {
+			lock.writeLock().unlock();
+		}
+		System.out.println(String.format("INFO: Social graph replica loaded %d users, %d follows and %d blocks in %d ms, %d KB",
+				loadedNames.size(), loadedFollows.edgeCount(), loadedBlocked.edgeCount(), (System.nanoTime() - start) / 1000000,
+				getFootprintBytes() / 1024));
+	}
+
+	/**
+	 * This method should run a follow, unfollow or block of frndUserName by userName, from its transaction to its call to
+	 * onFollow, onUnfollow or onBlock, holding the pair's lock. Two writes of the same pair then reach the replica in the
+	 * order Neo4j committed them, so a follow racing an unfollow can't leave the replica following for good
+	 * @return what the write returned
+	 */
+	public <T> T inCommitOrder(String userName, String frndUserName, Supplier<T> write) {
+		List<ReentrantLock> held = lockPairs(Collections.singletonList(Arrays.asList(userName, frndUserName)));
+		try {
+			return write.get();
+		} finally {
+			unlock(held);
+		}
+	}
+
+	/**
+	 * This method is inCommitOrder for a chunk of a bulk write, holding the locks of all its pairs
+	 * @param pairs the userName and frndUserName of every write in the chunk
+	 */
+	public void inCommitOrder(Collection<List<String>> pairs, Runnable write) {
+		List<ReentrantLock> held = lockPairs(pairs);
+		try {
+			write.run();
+		} finally {
+			unlock(held);
+		}
+	}
+
+	// Taken in the order of the stripes, so two chunks sharing pairs can't each wait for the other
+	private List<ReentrantLock> lockPairs(Collection<List<String>> pairs) {
+		List<ReentrantLock> held = new ArrayList<>();
+		if (!enabled) {
+			return held;
+		}
+		TreeSet<Integer> stripes = new TreeSet<>();
+		for (List<String> pair : pairs) {
+			stripes.add((pair.hashCode() & Integer.MAX_VALUE) % PAIR_LOCK_STRIPES);
+		}
+		try {
+			for (int stripe : stripes) {
+				pairLocks[stripe].lock();
+				held.add(pairLocks[stripe]);
+			}
+		} catch (RuntimeException | Error e) {
+			unlock(held);
+			throw e;
+		}
+		return held;
+	}
+
+	private static void unlock(List<ReentrantLock> held) {
+		for (ReentrantLock pairLock : held) {
+			pairLock.unlock();
+		}
+	}
+
+	/**
+	 * This method adds a new profile so it is known to the replica before it follows anyone
+	 */
+	public void onProfileCreated(String userName) {
+		write(() -> id(userName));
+	}
+
+	/**
+	 * This method records that userName now follows frndUserName, called once the follow is committed
+	 */
+	public void onFollow(String userName, String frndUserName) {
+		write(() -> follows.add(id(userName), id(frndUserName)));
+	}
+
+	/**
+	 * This method records that userName no longer follows frndUserName, called once the unfollow is committed
+	 */
+	public void onUnfollow(String userName, String frndUserName) {
+		write(() -> follows.remove(id(userName), id(frndUserName)));
+	}
+
+	/**
+	 * This method records that userName blocked frndUserName, which also ends the follow if there was one. Blocking a user
+	 * that doesn't exist changes nothing in Neo4j, so it changes nothing here either
+	 */
+	public void onBlock(String userName, String frndUserName) {
+		write(() -> {
+			if (!ids.containsKey(userName) || !ids.containsKey(frndUserName)) {
+				return;
+			}
+			follows.remove(id(userName), id(frndUserName));
+			blocked.add(id(userName), id(frndUserName));
+		});
+	}
+
+	/**
+	 * @return true if userName follows frndUserName
+	 */
+	public boolean isFollowing(String userName, String frndUserName) {
+		lock.readLock().lock();
+		try {
+			Integer from = ids.get(userName);
+			Integer to = ids.get(frndUserName);
+			return from != null && to != null && follows.has(from, to);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return true if userName blocked frndUserName
+	 */
+	public boolean isBlocking(String userName, String frndUserName) {
+		lock.readLock().lock();
+		try {
+			Integer from = ids.get(userName);
+			Integer to = ids.get(frndUserName);
+			return from != null && to != null && blocked.has(from, to);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return true if either user blocked the other
+	 */
+	public boolean isBlockedEitherWay(String userName, String frndUserName) {
+		lock.readLock().lock();
+		try {
+			Integer a = ids.get(userName);
+			Integer b = ids.get(frndUserName);
+			return a != null && b != null && (blocked.has(a, b) || blocked.has(b, a));
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return the users userName follows, null if the replica doesn't know the user
+	 */
+	public List<String> getFollowing(String userName) {
+		lock.readLock().lock();
+		try {
+			Integer id = ids.get(userName);
+			if (id == null) {
+				return null;
+			}
+			int[] following = follows.outEdges(id);
+			List<String> userNames = new ArrayList<>(following.length);
+			for (int friend : following) {
+				userNames.add(names[friend]);
+			}
+			return userNames;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * This method should report both directions of the follows and blocked relationships between two users
+	 * @param userName the user asking
+	 * @param frndUserName the other user
+	 * @return returns the status of the replica after being ran with follows, followedBy, blocked and blockedBy, NOT_FOUND
+	 * if either user doesn't exist
+	 */
+	public DbQueryStatus getRelationship(String userName, String frndUserName) {
+		lock.readLock().lock();
+		try {
+			Integer from = ids.get(userName);
+			Integer to = ids.get(frndUserName);
+			if (from == null || to == null) {
+				return new DbQueryStatus("One or both users do not exist", DbQueryExecResult.QUERY_ERROR_NOT_FOUND);
+			}
+			Map<String, Object> relationship = new HashMap<>();
+			relationship.put("follows", follows.has(from, to));
+			relationship.put("followedBy", follows.has(to, from));
+			relationship.put("blocked", blocked.has(from, to));
+			relationship.put("blockedBy", blocked.has(to, from));
+			DbQueryStatus queryStatus = new DbQueryStatus("Relationship found", DbQueryExecResult.QUERY_OK);
+			queryStatus.setData(relationship);
+			return queryStatus;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * This method should count the followers of a user and the users they follow
+	 * @param userName the user to count for
+	 * @return returns the status of the replica after being ran with followers and following, NOT_FOUND if the user doesn't
+	 * exist
+	 */
+	public DbQueryStatus getFollowCounts(String userName) {
+		lock.readLock().lock();
+		try {
+			Integer id = ids.get(userName);
+			if (id == null) {
+				return new DbQueryStatus("User does not exist", DbQueryExecResult.QUERY_ERROR_NOT_FOUND);
+			}
+			Map<String, Object> counts = new HashMap<>();
+			counts.put("followers", follows.inDegree(id));
+			counts.put("following", follows.outDegree(id));
+			DbQueryStatus queryStatus = new DbQueryStatus("Follow counts found", DbQueryExecResult.QUERY_OK);
+			queryStatus.setData(counts);
+			return queryStatus;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * This method should list the users that a user follows and that follow them back
+	 * @param userName the user to list for
+	 * @return returns the status of the replica after being ran with the user names, NOT_FOUND if the user doesn't exist
+	 */
+	public DbQueryStatus getMutualFollows(String userName) {
+		lock.readLock().lock();
+		try {
+			Integer id = ids.get(userName);
+			if (id == null) {
+				return new DbQueryStatus("User does not exist", DbQueryExecResult.QUERY_ERROR_NOT_FOUND);
+			}
+			int[] following = follows.outEdges(id);
+			int[] followers = follows.inEdges(id);
+			List<String> mutual = new ArrayList<>();
+			for (int i = 0, j = 0; i < following.length && j < followers.length; ) {
+				if (following[i] < followers[j]) {
+					i++;
+				} else if (following[i] > followers[j]) {
+					j++;
+				} else {
+					mutual.add(names[following[i]]);
+					i++;
+					j++;
+				}
+			}
+			DbQueryStatus queryStatus = new DbQueryStatus("Mutual follows found", DbQueryExecResult.QUERY_OK);
+			queryStatus.setData(mutual);
+			return queryStatus;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return the number of users, edges, overlay entries and the bytes the rows and overlays take
+	 */
+	public Map<String, Object> getStats() {
+		lock.readLock().lock();
+		try {
+			Map<String, Object> stats = new HashMap<>();
+			stats.put("loaded", loaded);
+			stats.put("users", userCount);
+			stats.put("follows", follows.edgeCount());
+			stats.put("blocked", blocked.edgeCount());
+			stats.put("pendingWrites", follows.overlaySize() + blocked.overlaySize());
+			stats.put("footprintBytes", getFootprintBytes());
+			return stats;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return the bytes taken by the rows, the overlays and the per user delta counts, not counting the user names
+	 */
+	long getFootprintBytes() {
+		lock.readLock().lock();
+		try {
+			return follows.footprintBytes() + blocked.footprintBytes();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	private void write(Runnable write) {
+		if (!enabled) {
+			return;
+		}
+		lock.writeLock().lock();
+		try {
+			if (writesDuringLoad != null) {
+				writesDuringLoad.add(write);
+				return;
+			}
+			write.run();
+			if (follows.overlaySize() > compactAfterWrites) {
+				follows = follows.compact(userCount);
+			}
+			if (blocked.overlaySize() > compactAfterWrites) {
+				blocked = blocked.compact(userCount);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * @return the id of the user, a new one if the replica hasn't seen them yet. Only called with the write lock held
+	 */
+	private int id(String userName) {
+		Integer id = ids.get(userName);
+		if (id != null) {
+			return id;
+		}
+		id = userCount++;
+		ids.put(userName, id);
+		if (id == names.length) {
+			names = Arrays.copyOf(names, names.length * 2);
+		}
+		names[id] = userName;
+		return id;
+	}
+
+	private static int intern(String userName, Map<String, Integer> ids, List<String> names) {
+		Integer id = ids.get(userName);
+		if (id == null) {
+			id = names.size();
+			ids.put(userName, id);
+			names.add(userName);
+		}
+		return id;
+	}
+
+	private static CsrGraph stream(StatementResult result, Map<String, Integer> ids, List<String> names) {
+		int[] src = new int[1024];
+		int[] dst = new int[1024];
+		int n = 0;
+		while (result.hasNext()) {
+			Record record = result.next();
+			if (n == src.length) {
+				src = Arrays.copyOf(src, n * 2);
+				dst = Arrays.copyOf(dst, n * 2);
+			}
+			src[n] = intern(record.get("from").asString(), ids, names);
+			dst[n] = intern(record.get("to").asString(), ids, names);
+			n++;
+		}
+		return CsrGraph.build(names.size(), src, dst, n);
+	}
+
+	/**
+	 * One relationship type: the rows, plus the edges added and removed since they were built. An added edge is never in
+	 * the rows and a removed one always is, so the degree of a user is the one in the rows plus its delta
+	 */
+	static final class Relation {
+		private final CsrGraph rows;
+		private final LongHashSet added = new LongHashSet(16);
+		private final LongHashSet removed = new LongHashSet(16);
+		private int[] outDelta = new int[0];
+		private int[] inDelta = new int[0];
+
+		Relation(CsrGraph rows) {
+			this.rows = rows;
+		}
+
+		boolean has(int from, int to) {
+			long edge = edge(from, to);
+			if (added.contains(edge)) {
+				return true;
+			}
+			return !removed.contains(edge) && rows.hasEdge(from, to);
+		}
+
+		void add(int from, int to) {
+			long edge = edge(from, to);
+			if (removed.remove(edge) || (!rows.hasEdge(from, to) && added.add(edge))) {
+				delta(from, to, 1);
+			}
+		}
+
+		void remove(int from, int to) {
+			long edge = edge(from, to);
+			if (added.remove(edge) || (rows.hasEdge(from, to) && removed.add(edge))) {
+				delta(from, to, -1);
+			}
+		}
+
+		int outDegree(int node) {
+			return rows.outDegree(node) + (node < outDelta.length ? outDelta[node] : 0);
+		}
+
+		int inDegree(int node) {
+			return rows.inDegree(node) + (node < inDelta.length ? inDelta[node] : 0);
+		}
+
+		int[] outEdges(int node) {
+			return edges(node, rows.outEdges(node), true);
+		}
+
+		int[] inEdges(int node) {
+			return edges(node, rows.inEdges(node), false);
+		}
+
+		int edgeCount() {
+			return rows.edgeCount() + added.size() - removed.size();
+		}
+
+		int overlaySize() {
+			return added.size() + removed.size();
+		}
+
+		long footprintBytes() {
+			return rows.footprintBytes() + added.footprintBytes() + removed.footprintBytes() + 4L * (outDelta.length + inDelta.length);
+		}
+
+		/**
+		 * @return new rows with the overlay folded in, and an empty overlay
+		 */
+		Relation compact(int nodeCount) {
+			int edgeCount = rows.edgeCount() + added.size();
+			int[] src = new int[edgeCount];
+			int[] dst = new int[edgeCount];
+			int n = rows.copyEdges(src, dst, 0);
+			int kept = 0;
+			for (int i = 0; i < n; i++) {
+				if (!removed.contains(edge(src[i], dst[i]))) {
+					src[kept] = src[i];
+					dst[kept] = dst[i];
+					kept++;
+				}
+			}
+			for (long edge : added.toArray()) {
+				src[kept] = (int) (edge >>> 32);
+				dst[kept] = (int) edge;
+				kept++;
+			}
+			return new Relation(CsrGraph.build(nodeCount, src, dst, kept));
+		}
+
+		/**
+		 * @param out true for the edges going out of the node, false for the ones coming in
+		 */
+		private int[] edges(int node, int[] fromRows, boolean out) {
+			if (overlaySize() == 0) {
+				return fromRows;
+			}
+			int[] edges = new int[fromRows.length + added.size()];
+			int n = 0;
+			for (int other : fromRows) {
+				if (!removed.contains(out ? edge(node, other) : edge(other, node))) {
+					edges[n++] = other;
+				}
+			}
+			int kept = n;
+			for (long edge : added.toArray()) {
+				int from = (int) (edge >>> 32);
+				int to = (int) edge;
+				if (out && from == node) {
+					edges[kept++] = to;
+				} else if (!out && to == node) {
+					edges[kept++] = from;
+				}
+			}
+			edges = Arrays.copyOf(edges, kept);
+			Arrays.sort(edges);
+			return edges;
+		}
+
+		private void delta(int from, int to, int change) {
+			int size = Math.max(from, to) + 1;
+			if (size > outDelta.length) {
+				outDelta = Arrays.copyOf(outDelta, Math.max(size, outDelta.length * 2));
+				inDelta = Arrays.copyOf(inDelta, outDelta.length);
+			}
+			outDelta[from] += change;
+			inDelta[to] += change;
+		}
+
+		private static long edge(int from, int to) {
+			return ((long) from << 32) | (to & 0xffffffffL);
+		}
+	}
+}
@@ -0,0 +1,402 @@
+package com.eecs3311.profilemicroservice;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.PreDestroy;
+
+import org.neo4j.driver.v1.AccessMode;
+import org.neo4j.driver.v1.Driver;
+import org.neo4j.driver.v1.Record;
+import org.neo4j.driver.v1.Session;
+import org.neo4j.driver.v1.StatementResult;
+import org.neo4j.driver.v1.TransactionConfig;
+import org.neo4j.driver.v1.Values;
+import org.neo4j.driver.v1.exceptions.ClientException;
+import org.neo4j.driver.v1.exceptions.TransientException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+/**
+ * Recommends songs liked by the people a user follows and the people they follow, two hops out. Every liker adds their
+ * weight to the song, the full weight for a friend and a fraction of it for a friend of a friend, so songs liked by many
+ * close friends come first. Songs the user already likes and anyone who blocked the user or was blocked by them are left
+ * out. The likes are read in parallel, one query per partition of the likers on a fork-join pool. Each query adds up its
+ * scores in Neo4j and returns only its best max-results * CANDIDATES_PER_RESULT songs, and every merge of two parts is
+ * cut down to as many again, so the candidates held stay bounded however many songs the network likes. It is an
+ * approximation: a song that misses the cut of every part it is liked in is left out even if its total would have made
+ * the list, which only happens to songs spread thinly over many partitions. Every partition query runs with what is left of the latency budget as its
+ * transaction timeout, so Neo4j stops the ones still running at the deadline. Those and the partitions that hadn't
+ * started are left out and the answer is marked partial. Complete answers are cached per user for a while, and dropped
+ * when the user likes, follows or blocks through this service
+ */
+@Component
+public class SongRecommender {
+
+	static final String LIKED_SONGS_QUERY = "MATCH (p:profile {userName: $userName}) "
+			+ "OPTIONAL MATCH (p)-[:likes]->(s:song) RETURN p.userName AS userName, collect(s.songId) AS songIds";
+	// The friends of friends are cut off at maxLikers rows before they are collected, so a user whose friends follow
+	// millions only expands that many
+	static final String FRIENDS_QUERY = "MATCH (p:profile {userName: $userName})-[:follows]->(friend:profile) "
+			+ "WHERE NOT (p)-[:blocked]-(friend) "
+			+ "WITH p, friend LIMIT $maxFriends "
+			+ "WITH p, collect(friend) AS friends "
+			+ "UNWIND friends AS friend "
+			+ "OPTIONAL MATCH (friend)-[:follows]->(fof:profile) "
+			+ "WHERE fof <> p AND NOT (p)-[:blocked]-(fof) "
+			+ "WITH friends, friend, fof LIMIT $maxLikers "
+			+ "RETURN [f IN friends | f.userName] AS friends, friend.userName AS friend, collect(fof.userName)[..$maxFriends] AS friendsOfFriend";
+	// The best first, in the order of Candidate.ORDER, so the LIMIT keeps the songs that would be kept in memory
+	static final String PARTITION_QUERY = "MATCH (me:profile {userName: $userName}) "
+			+ "UNWIND $likers AS liker "
+			+ "MATCH (:profile {userName: liker.userName})-[:likes]->(s:song) "
+			+ "WHERE NOT (me)-[:likes]->(s) "
+			+ "WITH s, sum(liker.weight) AS score, count(*) AS likedBy "
+			+ "RETURN s.songId AS songId, s.songName AS songName, score, likedBy "
+			+ "ORDER BY score DESC, songId LIMIT $limit";
+	// How many candidates a part keeps for every result asked for
+	static final int CANDIDATES_PER_RESULT = 4;
+
+	private final Driver driver;
+	private final UserBookmarks bookmarks;
+	private final SocialGraph socialGraph;
+	private final int maxFriends;
+	private final int maxLikers;
+	private final double friendOfFriendWeight;
+	private final int partitionSize;
+	private final long budgetMs;
+	private final int maxResults;
+	private final int candidatesPerPart;
+
+	private final ForkJoinPool pool;
+	private final Cache<String, Map<String, Object>> cache;
+
+	public SongRecommender(Driver driver, SocialGraph socialGraph, int maxFriends, int maxLikers, double friendOfFriendWeight,
+						   int partitionSize, int parallelism, long budgetMs, int maxResults, long cacheTtlSeconds, long cacheMaxUsers) {
+		this(driver, socialGraph, maxFriends, maxLikers, friendOfFriendWeight, partitionSize, parallelism, budgetMs, maxResults,
+				cacheTtlSeconds, cacheMaxUsers, new UserBookmarks(false, 0, 0));
+	}
+
+	@Autowired
+	public SongRecommender(Driver driver, SocialGraph socialGraph,
+						   @Value("${profile.recommendations.max-friends:200}") int maxFriends,
+						   @Value("${profile.recommendations.max-likers:5000}") int maxLikers,
+						   @Value("${profile.recommendations.friend-of-friend-weight:0.5}") double friendOfFriendWeight,
+						   @Value("${profile.recommendations.partition-size:250}") int partitionSize,
+						   @Value("${profile.recommendations.parallelism:8}") int parallelism,
+						   @Value("${profile.recommendations.budget-ms:250}") long budgetMs,
+						   @Value("${profile.recommendations.max-results:50}") int maxResults,
+						   @Value("${profile.recommendations.cache-ttl-seconds:300}") long cacheTtlSeconds,
+						   @Value("${profile.recommendations.cache-max-users:10000}") long cacheMaxUsers,
+						   UserBookmarks bookmarks) {
+		this.driver = driver;
+		this.bookmarks = bookmarks;
+		this.socialGraph = socialGraph;
+		this.maxFriends = maxFriends;
+		this.maxLikers = maxLikers;
+		this.friendOfFriendWeight = friendOfFriendWeight;
+		this.partitionSize = partitionSize;
+		this.budgetMs = budgetMs;
+		this.maxResults = maxResults;
+		this.candidatesPerPart = maxResults * CANDIDATES_PER_RESULT;
+		this.pool = new ForkJoinPool(parallelism);
+		this.cache = Caffeine.newBuilder()
+				.expireAfterWrite(cacheTtlSeconds, TimeUnit.SECONDS)
+				.maximumSize(cacheMaxUsers)
+				.build();
+	}
+
+	public int getMaxResults() {
+		return maxResults;
+	}
+
+	/**
+	 * This method should recommend songs to a user from what their friends and their friends' friends like
+	 * @param userName the user to recommend songs to
+	 * @param limit the most songs to return, at most max-results
+	 * @return returns the status of the database after being ran with the songs, best first, each with its Id, name, score
+	 * and how many of the user's network liked it, and whether the latency budget cut the search short. NOT_FOUND if the
+	 * user doesn't exist
+	 */
+	public DbQueryStatus recommend(String userName, int limit) {
+		Map<String, Object> recommendations = cache.getIfPresent(userName);
+		if (recommendations == null) {
+			try {
+				recommendations = compute(userName);
+			} catch (Exception e) {
+				return new DbQueryStatus("Error: " + e.getMessage(), DbQueryExecResult.QUERY_ERROR_GENERIC);
+			}
+			if (recommendations == null) {
+				return new DbQueryStatus("User does not exist", DbQueryExecResult.QUERY_ERROR_NOT_FOUND);
+			}
+			if (!(Boolean) recommendations.get("partial")) {
+				cache.put(userName, recommendations);
+			}
+		}
+
+		List<?> songs = (List<?>) recommendations.get("songs");
+		Map<String, Object> page = new HashMap<>(recommendations);
+		page.put("songs", songs.subList(0, Math.min(limit, songs.size())));
+		DbQueryStatus queryStatus = new DbQueryStatus("Recommended songs", DbQueryExecResult.QUERY_OK);
+		queryStatus.setData(page);
+		return queryStatus;
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		pool.shutdownNow();
+	}
+
+	/**
+	 * This method drops the cached recommendations of a user, for when their likes, follows or blocks changed
+	 */
+	public void invalidate(String userName) {
+		cache.invalidate(userName);
+	}
+
+	/**
+	 * @return the songs and whether the search was cut short, null if the user doesn't exist
+	 */
+	private Map<String, Object> compute(String userName) {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(budgetMs);
+		Set<String> liked;
+		Map<String, Double> likers;
+		// Cached for minutes, so the user's own latest like or follow has to be in them
+		try (Session session = bookmarks.readSession(driver, userName)) {
+			StatementResult result = session.run(LIKED_SONGS_QUERY, Values.parameters("userName", userName));
+			if (!result.hasNext()) {
+				return null;
+			}
+			liked = new HashSet<>(result.single().get("songIds").asList(value -> value.asString()));
+			likers = socialGraph.isEnabled() ? likersFromReplica(userName) : likersFromGraph(session, userName);
+		}
+
+		List<Map<String, Object>> weightedLikers = new ArrayList<>();
+		for (Map.Entry<String, Double> liker : likers.entrySet()) {
+			Map<String, Object> entry = new HashMap<>();
+			entry.put("userName", liker.getKey());
+			entry.put("weight", liker.getValue());
+			weightedLikers.add(entry);
+		}
+		AtomicBoolean partial = new AtomicBoolean();
+		Map<String, Candidate> candidates = pool.invoke(new ScoreTask(userName, weightedLikers, 0, weightedLikers.size(), deadline, partial));
+
+		// Keeps only the best maxResults while going through the candidates, the worst of them on top to be replaced
+		PriorityQueue<Candidate> best = new PriorityQueue<>(maxResults + 1, Candidate.ORDER);
+		for (Candidate candidate : candidates.values()) {
+			if (liked.contains(candidate.songId)) {
+				continue;
+			}
+			best.add(candidate);
+			if (best.size() > maxResults) {
+				best.poll();
+			}
+		}
+		List<Candidate> ordered = new ArrayList<>(best);
+		ordered.sort(Collections.reverseOrder(Candidate.ORDER));
+		List<Map<String, Object>> songs = new ArrayList<>(ordered.size());
+		for (Candidate candidate : ordered) {
+			songs.add(candidate.toMap());
+		}
+
+		Map<String, Object> recommendations = new HashMap<>();
+		recommendations.put("songs", songs);
+		recommendations.put("partial", partial.get());
+		return recommendations;
+	}
+
+	/**
+	 * @return everyone whose likes count, with their weight, from the in-memory social graph
+	 */
+	private Map<String, Double> likersFromReplica(String userName) {
+		Map<String, Double> likers = new LinkedHashMap<>();
+		List<String> friends = socialGraph.getFollowing(userName);
+		if (friends == null) {
+			return likers;
+		}
+		List<String> kept = new ArrayList<>();
+		for (String friend : friends) {
+			if (kept.size() == maxFriends) {
+				break;
+			}
+			if (!socialGraph.isBlockedEitherWay(userName, friend)) {
+				kept.add(friend);
+				likers.put(friend, 1.0);
+			}
+		}
+		for (String friend : kept) {
+			List<String> friendsOfFriend = socialGraph.getFollowing(friend);
+			for (int i = 0; i < friendsOfFriend.size() && i < maxFriends && likers.size() < maxLikers; i++) {
+				String fof = friendsOfFriend.get(i);
+				if (!fof.equals(userName) && !likers.containsKey(fof) && !socialGraph.isBlockedEitherWay(userName, fof)) {
+					likers.put(fof, friendOfFriendWeight);
+				}
+			}
+		}
+		return likers;
+	}
+
+	/**
+	 * @return everyone whose likes count, with their weight, read from Neo4j when the social graph is turned off
+	 */
+	private Map<String, Double> likersFromGraph(Session session, String userName) {
+		Map<String, Double> likers = new LinkedHashMap<>();
+		List<Record> records = session.run(FRIENDS_QUERY, Values.parameters("userName", userName, "maxFriends", maxFriends,
+				"maxLikers", maxLikers)).list();
+		if (records.isEmpty()) {
+			return likers;
+		}
+		for (Object friend : records.get(0).get("friends").asList()) {
+			likers.put((String) friend, 1.0);
+		}
+		for (Record record : records) {
+			for (Object fof : record.get("friendsOfFriend").asList()) {
+				if (likers.size() >= maxLikers) {
+					return likers;
+				}
+				likers.putIfAbsent((String) fof, friendOfFriendWeight);
+			}
+		}
+		return likers;
+	}
+
+	/**
+	 * Splits the likers in halves until a part is small enough for one query, then adds up the scores of the parts and
+	 * keeps the best of them
+	 */
+	private final class ScoreTask extends RecursiveTask<Map<String, Candidate>> {
+		private final String userName;
+		private final List<Map<String, Object>> likers;
+		private final int from;
+		private final int to;
+		private final long deadline;
+		private final AtomicBoolean partial;
+
+		ScoreTask(String userName, List<Map<String, Object>> likers, int from, int to, long deadline, AtomicBoolean partial) {
+			this.userName = userName;
+			this.likers = likers;
+			this.from = from;
+			this.to = to;
+			this.deadline = deadline;
+			this.partial = partial;
+		}
+
+		@Override
+		protected Map<String, Candidate> compute() {
+			if (to - from > partitionSize) {
+				int middle = (from + to) >>> 1;
+				ScoreTask right = new ScoreTask(userName, likers, middle, to, deadline, partial);
+				right.fork();
+				Map<String, Candidate> scores = new ScoreTask(userName, likers, from, middle, deadline, partial).compute();
+				for (Candidate candidate : right.join().values()) {
+					scores.merge(candidate.songId, candidate, Candidate::add);
+				}
+				return best(scores);
+			}
+
+			Map<String, Candidate> scores = new HashMap<>();
+			if (from == to) {
+				return scores;
+			}
+			long remainingNanos = deadline - System.nanoTime();
+			if (remainingNanos <= 0) {
+				partial.set(true);
+				return scores;
+			}
+			// Neo4j terminates the query if it is still running at the deadline
+			TransactionConfig config = TransactionConfig.builder()
+					.withTimeout(Duration.ofMillis(Math.max(1, TimeUnit.NANOSECONDS.toMillis(remainingNanos)))).build();
+			try (Session session = driver.session(AccessMode.READ)) {
+				Map<String, Object> parameters = new HashMap<>();
+				parameters.put("userName", userName);
+				parameters.put("likers", likers.subList(from, to));
+				parameters.put("limit", candidatesPerPart);
+				StatementResult result = session.run(PARTITION_QUERY, parameters, config);
+				while (result.hasNext()) {
+					Record record = result.next();
+					Candidate candidate = new Candidate(record.get("songId").asString(),
+							record.get("songName").isNull() ? null : record.get("songName").asString(),
+							record.get("score").asDouble(), record.get("likedBy").asInt());
+					scores.merge(candidate.songId, candidate, Candidate::add);
+				}
+			} catch (ClientException | TransientException e) {
+				if (System.nanoTime() < deadline) {
+					throw e;
+				}
+				// Timed out, whatever this partition scored is left out rather than counted in part
+				partial.set(true);
+				scores.clear();
+			}
+			return scores;
+		}
+	}
+
+	/**
+	 * @return the scores cut down to the best candidatesPerPart of them
+	 */
+	private Map<String, Candidate> best(Map<String, Candidate> scores) {
+		if (scores.size() <= candidatesPerPart) {
+			return scores;
+		}
+		PriorityQueue<Candidate> best = new PriorityQueue<>(candidatesPerPart + 1, Candidate.ORDER);
+		for (Candidate candidate : scores.values()) {
+			best.add(candidate);
+			if (best.size() > candidatesPerPart) {
+				best.poll();
+			}
+		}
+		Map<String, Candidate> kept = new HashMap<>();
+		for (Candidate candidate : best) {
+			kept.put(candidate.songId, candidate);
+		}
+		return kept;
+	}
+
+	private static final class Candidate {
+		// Lowest score first, ties broken by song Id so the order is stable
+		static final Comparator<Candidate> ORDER = Comparator.comparingDouble((Candidate candidate) -> candidate.score)
+				.thenComparing(candidate -> candidate.songId, Comparator.reverseOrder());
+
+		final String songId;
+		final String songName;
+		final double score;
+		final int likedBy;
+
+		Candidate(String songId, String songName, double score, int likedBy) {
+			this.songId = songId;
+			this.songName = songName;
+			this.score = score;
+			this.likedBy = likedBy;
+		}
+
+		Candidate add(Candidate other) {
+			return new Candidate(songId, songName, score + other.score, likedBy + other.likedBy);
+		}
+
+		Map<String, Object> toMap() {
+			Map<String, Object> song = new HashMap<>();
+			song.put("songId", songId);
+			song.put("songName", songName);
+			song.put("score", score);
+			song.put("likedBy", likedBy);
+			return song;
+		}
+	}
+}
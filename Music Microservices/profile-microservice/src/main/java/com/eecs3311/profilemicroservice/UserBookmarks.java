@@ -0,0 +1,88 @@
+package com.eecs3311.profilemicroservice;
+
+import java.util.concurrent.TimeUnit;
+
+import org.neo4j.driver.v1.AccessMode;
+import org.neo4j.driver.v1.Driver;
+import org.neo4j.driver.v1.Session;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+/**
+ * The bookmark of every user's latest write. Reads run in read sessions, which a bolt+routing driver sends to the
+ * followers of a Neo4j cluster, and a follower can be behind the leader. A read session opened with the user's bookmark
+ * waits until the follower has caught up with that write, so users always see their own follows and likes while
+ * everyone else's may show up a moment later. Bookmarks are only kept for ttl-seconds, by then every follower is past
+ * them, and for at most max-users users, a user that was dropped reads without waiting
+ */
+@Component
+public class UserBookmarks {
+
+	private final boolean enabled;
+	private final Cache<String, String> bookmarks;
+
+	@Autowired
+	public UserBookmarks(@Value("${profile.bookmarks.enabled:true}") boolean enabled,
+						 @Value("${profile.bookmarks.max-users:100000}") long maxUsers,
+						 @Value("${profile.bookmarks.ttl-seconds:60}") long ttlSeconds) {
+		this.enabled = enabled;
+		this.bookmarks = Caffeine.newBuilder()
+				.expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+				.maximumSize(maxUsers)
+				.build();
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * This method should remember a write of the user, run once the write is committed
+	 * @param userName the user who wrote
+	 * @param bookmark the session's lastBookmark() after the commit, null when the server gave none
+	 */
+	public void record(String userName, String bookmark) {
+		if (!enabled || userName == null || bookmark == null) {
+			return;
+		}
+		// Two writes of the same user can finish in either order, the later transaction is the one to wait for
+		bookmarks.asMap().merge(userName, bookmark, UserBookmarks::later);
+	}
+
+	/**
+	 * @return the bookmark of the user's latest write, null if there is none to wait for
+	 */
+	public String get(String userName) {
+		return enabled ? bookmarks.getIfPresent(userName) : null;
+	}
+
+	/**
+	 * This method should open a read session that sees at least the user's own latest write
+	 * @param driver the driver to open the session with
+	 * @param userName the user the read is for
+	 * @return a READ session that starts after the user's latest write
+	 */
+	public Session readSession(Driver driver, String userName) {
+		String bookmark = get(userName);
+		return bookmark == null ? driver.session(AccessMode.READ) : driver.session(AccessMode.READ, bookmark);
+	}
+
+	// Bookmarks end in the Id of the transaction, like "neo4j:bookmark:v1:tx42", the higher one comes later
+	static String later(String current, String candidate) {
+		return transactionId(candidate) >= transactionId(current) ? candidate : current;
+	}
+
+	private static long transactionId(String bookmark) {
+		int tx = bookmark.lastIndexOf("tx");
+		try {
+			return tx < 0 ? Long.MAX_VALUE : Long.parseLong(bookmark.substring(tx + 2));
+		} catch (NumberFormatException e) {
+			// Not a format we know, the newest one wins
+			return Long.MAX_VALUE;
+		}
+	}
+}
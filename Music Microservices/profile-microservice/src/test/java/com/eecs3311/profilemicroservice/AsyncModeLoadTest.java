@@ -0,0 +1,135 @@
+package com.eecs3311.profilemicroservice;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.neo4j.driver.v1.Driver;
+import org.neo4j.driver.v1.Session;
+import org.neo4j.harness.ServerControls;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.support.GenericApplicationContext;
+
+/**
+ * Throughput of the same endpoint with the async mode off and on, with Tomcat held to a few threads. The in-process Neo4j
+ * answers in well under a millisecond, so every read gets a fixed delay as if the database were across a network
+ */
+public class AsyncModeLoadTest {
+
+	private static final int TOMCAT_THREADS = 4;
+	private static final int CLIENTS = 64;
+	private static final long ROUND_TRIP_MS = 20;
+	private static final long DURATION_MS = 3000;
+
+	private static ServerControls neo4j;
+
+	@BeforeClass
+	public static void startNeo4j() {
+		neo4j = EmbeddedNeo4j.start();
+		try (Driver driver = EmbeddedNeo4j.driver(neo4j); Session session = driver.session()) {
+			session.run("CREATE (:profile {userName: 'user0'})-[:follows]->(f:profile {userName: 'user1'})-[:likes]->(:song {songId: 's1', songName: 'Song'})");
+		}
+	}
+
+	@AfterClass
+	public static void stopNeo4j() {
+		neo4j.close();
+	}
+
+	@Test
+	public void asyncModeServesMoreRequestsWithTheSameThreads() throws Exception {
+		double blocking = measure(false);
+		double async = measure(true);
+		System.out.println(String.format("INFO: %d Tomcat threads, %d clients, %d ms per read: %.0f requests/s blocking, %.0f requests/s async",
+				TOMCAT_THREADS, CLIENTS, ROUND_TRIP_MS, blocking, async));
+		assertTrue(async > blocking * 1.5);
+	}
+
+	private double measure(boolean async) throws Exception {
+		ConfigurableApplicationContext context = new SpringApplicationBuilder(ProfileMicroserviceApplication.class)
+				.initializers(applicationContext -> ((GenericApplicationContext) applicationContext).registerBean("slowProfileDriver",
+						ProfileDriverImpl.class, () -> new SlowProfileDriver(applicationContext.getBean(Driver.class),
+								applicationContext.getBean(FriendFeed.class), applicationContext.getBean(SocialGraph.class)),
+						definition -> definition.setPrimary(true)))
+				.run("--server.port=0", "--server.tomcat.max-threads=" + TOMCAT_THREADS,
+						"--profile.async.enabled=" + async, "--profile.async.threads=" + CLIENTS,
+						"--profile.neo4j.uri=" + neo4j.boltURI(), "--profile.outbox.dir=target/outbox");
+		try {
+			URL url = new URL("http://localhost:" + context.getEnvironment().getProperty("local.server.port") + "/getAllFriendFavouriteSongTitles/user0");
+			// Warm up before measuring
+			run(url, 1000);
+			return run(url, DURATION_MS) * 1000.0 / DURATION_MS;
+		} finally {
+			context.close();
+		}
+	}
+
+	/**
+	 * Every client sends its next request as soon as the last one is answered
+	 * @return the number of successful requests
+	 */
+	private long run(URL url, long durationMs) throws Exception {
+		long end = System.currentTimeMillis() + durationMs;
+		AtomicLong completed = new AtomicLong();
+		ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+		List<Future<?>> futures = new ArrayList<>();
+		for (int i = 0; i < CLIENTS; i++) {
+			futures.add(clients.submit(() -> {
+				while (System.currentTimeMillis() < end) {
+					if (get(url) == 200) {
+						completed.incrementAndGet();
+					}
+				}
+				return null;
+			}));
+		}
+		for (Future<?> future : futures) {
+			future.get();
+		}
+		clients.shutdown();
+		clients.awaitTermination(10, TimeUnit.SECONDS);
+		return completed.get();
+	}
+
+	private static int get(URL url) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		try (InputStream in = connection.getInputStream()) {
+			while (in.read() != -1) {
+			}
+			return connection.getResponseCode();
+		} finally {
+			connection.disconnect();
+		}
+	}
+
+	private static class SlowProfileDriver extends ProfileDriverImpl {
+
+		SlowProfileDriver(Driver driver, FriendFeed friendFeed, SocialGraph socialGraph) {
+			super(driver, friendFeed, socialGraph);
+		}
+
+		@Override
+		public DbQueryStatus getAllSongFriendsLike(String userName) {
+			try {
+				Thread.sleep(ROUND_TRIP_MS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return super.getAllSongFriendsLike(userName);
+		}
+	}
+}
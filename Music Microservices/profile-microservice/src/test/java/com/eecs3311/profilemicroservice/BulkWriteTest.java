@@ -0,0 +1,188 @@
+package com.eecs3311.profilemicroservice;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.neo4j.driver.v1.Driver;
+import org.neo4j.driver.v1.Session;
+import org.neo4j.driver.v1.Values;
+import org.neo4j.harness.ServerControls;
+
+public class BulkWriteTest {
+
+	private static final int USERS = 200;
+	private static final int FOLLOWS = 1000;
+
+	private static ServerControls neo4j;
+	private static Driver driver;
+	private static ProfileDriverImpl profileDriver;
+	private static PlaylistDriverImpl playlistDriver;
+
+	@BeforeClass
+	public static void startNeo4j() throws IOException {
+		neo4j = EmbeddedNeo4j.start();
+		driver = EmbeddedNeo4j.driver(neo4j);
+		FriendFeed friendFeed = new FriendFeed(driver, false, 500, 10000, 4096);
+		profileDriver = new ProfileDriverImpl(driver, friendFeed, new SocialGraph(driver, false, 65536));
+		playlistDriver = new PlaylistDriverImpl(driver, new FavouritesOutbox(false, "target/outbox", "http://localhost:3001", 200, 200, 30000, false), friendFeed);
+		try (Session session = driver.session()) {
+			session.run("CREATE INDEX ON :profile(userName)");
+			session.run("CREATE INDEX ON :song(songId)");
+		}
+	}
+
+	@AfterClass
+	public static void stopNeo4j() {
+		driver.close();
+		neo4j.close();
+	}
+
+	@Before
+	public void setUp() {
+		try (Session session = driver.session()) {
+			session.run("MATCH (n) DETACH DELETE n");
+			session.run("UNWIND range(0, $users - 1) AS i CREATE (:profile {userName: 'user' + i, fullName: 'User ' + i, password: 'pw'})"
+					+ "-[:created]->(:playlist {plName: 'user' + i + '-favourites'})", Values.parameters("users", USERS));
+			session.run("UNWIND range(0, 9) AS i CREATE (:song {songId: 's' + i, songName: 'Song ' + i})");
+			session.run("MATCH (pl:playlist), (s:song) WHERE s.songId <> 's9' CREATE (pl)-[:includes]->(s)");
+		}
+	}
+
+	@Test
+	public void createsProfilesWithAnOutcomeForEach() {
+		List<Map<String, String>> profiles = Arrays.asList(profile("new0"), profile("user0"), profile("new1"), profile("new0"),
+				item("userName", "new2"));
+
+		DbQueryStatus status = profileDriver.createUserProfiles(profiles, 2);
+
+		assertEquals(DbQueryExecResult.QUERY_OK, status.getdbQueryExecResult());
+		assertEquals(Arrays.asList(ProfileDriverImpl.OUTCOME_CREATED, ProfileDriverImpl.OUTCOME_ALREADY_EXISTS, ProfileDriverImpl.OUTCOME_CREATED,
+				BulkWrite.OUTCOME_DUPLICATE, BulkWrite.OUTCOME_INVALID), outcomes(status));
+		// Three items were sent, two chunks of at most two
+		assertEquals(2, ((List<?>) report(status).get("chunks")).size());
+		assertEquals(1, count("MATCH (p:profile {userName: 'new0'}) RETURN count(p)"));
+		assertEquals(USERS + 2, count("MATCH (p:profile) RETURN count(p)"));
+	}
+
+	@Test
+	public void followsFriendsWithAnOutcomeForEach() {
+		profileDriver.followFriend("user0", "user2");
+		List<Map<String, String>> follows = Arrays.asList(follow("user0", "user1"), follow("user0", "user2"), follow("user0", "nobody"),
+				follow("user0", "user0"), follow("user0", "user1"), follow("user1", "user0"));
+
+		DbQueryStatus status = profileDriver.followFriends(follows, 3);
+
+		assertEquals(DbQueryExecResult.QUERY_OK, status.getdbQueryExecResult());
+		assertEquals(Arrays.asList(ProfileDriverImpl.OUTCOME_FOLLOWED, ProfileDriverImpl.OUTCOME_ALREADY_FOLLOWING, ProfileDriverImpl.OUTCOME_NOT_FOUND,
+				BulkWrite.OUTCOME_INVALID, BulkWrite.OUTCOME_DUPLICATE, ProfileDriverImpl.OUTCOME_FOLLOWED), outcomes(status));
+		assertEquals(3, count("MATCH ()-[f:follows]->() RETURN count(f)"));
+	}
+
+	@Test
+	public void likesSongsWithAnOutcomeForEach() {
+		playlistDriver.likeSong("user1", "s0");
+		List<Map<String, String>> likes = Arrays.asList(like("user0", "s0"), like("user0", "s9"), like("nobody", "s0"), like("user0", "s0"),
+				like("user1", "s0"), item("songId", "s1"));
+
+		DbQueryStatus status = playlistDriver.likeSongs(likes, 2);
+
+		assertEquals(DbQueryExecResult.QUERY_OK, status.getdbQueryExecResult());
+		assertEquals(Arrays.asList(PlaylistDriverImpl.OUTCOME_LIKED, PlaylistDriverImpl.OUTCOME_NOT_FOUND, PlaylistDriverImpl.OUTCOME_NOT_FOUND,
+				BulkWrite.OUTCOME_DUPLICATE, PlaylistDriverImpl.OUTCOME_ALREADY_LIKED, BulkWrite.OUTCOME_INVALID), outcomes(status));
+		assertEquals(2, count("MATCH ()-[l:likes]->() RETURN count(l)"));
+	}
+
+	@Test
+	public void bulkLikesCommitAnEventForEveryNewLike() throws IOException {
+		FavouritesOutbox outbox = new FavouritesOutbox(true, Files.createTempDirectory("outbox").toString(), "http://localhost:3001", 200, 200, 30000, false);
+		PlaylistDriverImpl recording = new PlaylistDriverImpl(driver, outbox, new FriendFeed(driver, false, 500, 10000, 4096));
+		recording.likeSong("user1", "s0");
+		List<Map<String, String>> likes = Arrays.asList(like("user0", "s0"), like("user1", "s0"), like("user2", "s1"), like("user2", "s9"));
+
+		recording.likeSongs(likes, 2);
+
+		// One for the single like and one for each of the two new likes, none for the like that was already there
+		assertEquals(3, count("MATCH (e:favouriteEvent {shouldDecrement: false}) RETURN count(e)"));
+		assertEquals(0, outbox.getPendingEvents());
+		assertEquals(3, new FavouriteEventRelay(driver, outbox, 200, 200).relay());
+		assertEquals(3, outbox.getPendingEvents());
+		outbox.shutdown();
+	}
+
+	@Test
+	public void bulkFollowsAreFasterThanOneAtATime() {
+		List<Map<String, String>> follows = new ArrayList<>();
+		for (int i = 0; i < FOLLOWS; i++) {
+			follows.add(follow("user" + (i % USERS), "user" + ((i % USERS + 1 + i / USERS) % USERS)));
+		}
+
+		long start = System.nanoTime();
+		for (Map<String, String> follow : follows) {
+			profileDriver.followFriend(follow.get("userName"), follow.get("friendUserName"));
+		}
+		long oneAtATimeNanos = System.nanoTime() - start;
+		assertEquals(FOLLOWS, count("MATCH ()-[f:follows]->() RETURN count(f)"));
+
+		try (Session session = driver.session()) {
+			session.run("MATCH ()-[f:follows]->() DELETE f");
+		}
+		start = System.nanoTime();
+		DbQueryStatus status = profileDriver.followFriends(follows, 500);
+		long bulkNanos = System.nanoTime() - start;
+		assertEquals(DbQueryExecResult.QUERY_OK, status.getdbQueryExecResult());
+		assertEquals(FOLLOWS, count("MATCH ()-[f:follows]->() RETURN count(f)"));
+
+		System.out.println("INFO: " + FOLLOWS + " follows one at a time took " + TimeUnit.NANOSECONDS.toMillis(oneAtATimeNanos)
+				+ " ms, in chunks of 500 " + TimeUnit.NANOSECONDS.toMillis(bulkNanos) + " ms");
+		assertTrue(bulkNanos < oneAtATimeNanos);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Map<String, Object> report(DbQueryStatus status) {
+		return (Map<String, Object>) status.getData();
+	}
+
+	@SuppressWarnings("unchecked")
+	private static List<String> outcomes(DbQueryStatus status) {
+		return (List<String>) report(status).get("outcomes");
+	}
+
+	private static long count(String query) {
+		try (Session session = driver.session()) {
+			return session.run(query).single().get(0).asLong();
+		}
+	}
+
+	private static Map<String, String> profile(String userName) {
+		return item("userName", userName, "fullName", "Full " + userName, "password", "pw");
+	}
+
+	private static Map<String, String> follow(String userName, String friendUserName) {
+		return item("userName", userName, "friendUserName", friendUserName);
+	}
+
+	private static Map<String, String> like(String userName, String songId) {
+		return item("userName", userName, "songId", songId);
+	}
+
+	private static Map<String, String> item(String... keysAndValues) {
+		Map<String, String> item = new HashMap<>();
+		for (int i = 0; i < keysAndValues.length; i += 2) {
+			item.put(keysAndValues[i], keysAndValues[i + 1]);
+		}
+		return item;
+	}
+}
@@ -0,0 +1,25 @@
+package com.eecs3311.profilemicroservice;
+
+import org.neo4j.driver.v1.Config;
+import org.neo4j.driver.v1.Driver;
+import org.neo4j.driver.v1.GraphDatabase;
+import org.neo4j.harness.ServerControls;
+import org.neo4j.harness.TestServerBuilders;
+
+/**
+ * Starts an in-process Neo4j server for the tests to run the real Cypher against, in place of the one the service
+ * talks to in production
+ */
+final class EmbeddedNeo4j {
+
+	private EmbeddedNeo4j() {
+	}
+
+	static ServerControls start() {
+		return TestServerBuilders.newInProcessBuilder().newServer();
+	}
+
+	static Driver driver(ServerControls server) {
+		return GraphDatabase.driver(server.boltURI(), Config.build().withoutEncryption().toConfig());
+	}
+}
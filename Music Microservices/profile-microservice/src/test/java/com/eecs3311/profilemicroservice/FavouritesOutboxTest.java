@@ -0,0 +1,189 @@
+package com.eecs3311.profilemicroservice;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpServer;
+
+public class FavouritesOutboxTest {
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	// What the fake song service received, one list of event Ids per batch
+	private final List<List<String>> batches = new CopyOnWriteArrayList<>();
+	// Statuses to answer with before it starts answering 200, and event Ids to report as failed once
+	private final List<Integer> failWith = new CopyOnWriteArrayList<>();
+	private final Set<String> failOnce = Collections.synchronizedSet(new HashSet<>());
+	// Event Ids that make it answer 400 to any batch they are in
+	private final Set<String> invalid = Collections.synchronizedSet(new HashSet<>());
+
+	private HttpServer songService;
+	private Path dir;
+	private FavouritesOutbox outbox;
+
+	@Before
+	public void setUp() throws IOException {
+		songService = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		songService.createContext("/updateSongFavouritesCounts", exchange -> {
+			JsonNode body;
+			try (InputStream in = exchange.getRequestBody()) {
+				body = objectMapper.readTree(in);
+			}
+			int status = failWith.isEmpty() ? 200 : failWith.remove(0);
+			for (JsonNode event : body.path("events")) {
+				if (invalid.contains(event.path("eventId").asText())) {
+					status = 400;
+				}
+			}
+			ObjectNode response = objectMapper.createObjectNode();
+			ArrayNode results = response.putObject("data").putArray("results");
+			List<String> eventIds = new ArrayList<>();
+			for (JsonNode event : body.path("events")) {
+				String eventId = event.path("eventId").asText();
+				eventIds.add(eventId);
+				results.addObject().put("eventId", eventId).put("result", status == 200 && failOnce.remove(eventId) ? "failed" : "applied");
+			}
+			if (status == 200) {
+				batches.add(eventIds);
+			}
+			byte[] bytes = objectMapper.writeValueAsBytes(response);
+			exchange.sendResponseHeaders(status, bytes.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(bytes);
+			}
+		});
+		songService.start();
+
+		dir = Files.createTempDirectory("outbox");
+		outbox = newOutbox(10);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		outbox.shutdown();
+		songService.stop(0);
+		for (Path file : Files.newDirectoryStream(dir)) {
+			Files.delete(file);
+		}
+		Files.delete(dir);
+	}
+
+	@Test
+	public void deliversInBatchesWithTheSameIdsAfterAFailure() throws IOException {
+		List<String> eventIds = new ArrayList<>();
+		for (int i = 0; i < 15; i++) {
+			eventIds.add(outbox.append("song" + i, i % 3 == 0));
+		}
+		assertEquals(15, outbox.getPendingEvents());
+
+		failWith.add(503);
+		try {
+			outbox.dispatch();
+			fail("Expected the failed delivery to be reported");
+		} catch (IOException e) {
+			assertEquals(15, outbox.getPendingEvents());
+		}
+
+		assertEquals(10, outbox.dispatch());
+		assertEquals(5, outbox.dispatch());
+		assertEquals(0, outbox.dispatch());
+		assertEquals(eventIds.subList(0, 10), batches.get(0));
+		assertEquals(eventIds.subList(10, 15), batches.get(1));
+		assertEquals(0, outbox.getPendingEvents());
+	}
+
+	@Test
+	public void keepsUndeliveredEventsAcrossRestarts() throws IOException {
+		String first = outbox.append("song1", false);
+		outbox.dispatch();
+		String second = outbox.append("song2", true);
+		outbox.shutdown();
+
+		// Half an event, as if the process died while appending it
+		Files.write(dir.resolve("favourites.log"), "{\"eventId\":\"torn".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+		outbox = newOutbox(10);
+		assertEquals(1, outbox.getPendingEvents());
+		assertEquals(1, outbox.dispatch());
+		assertEquals(Collections.singletonList(first), batches.get(0));
+		assertEquals(Collections.singletonList(second), batches.get(1));
+	}
+
+	@Test
+	public void retriesAFailedEventBeforeTheEventsAfterIt() throws IOException {
+		String first = outbox.append("song0", false);
+		String failed = outbox.append("song1", false);
+		String last = outbox.append("song1", true);
+		failOnce.add(failed);
+
+		try {
+			outbox.dispatch();
+			fail("Expected the failed event to be reported");
+		} catch (IOException e) {
+			// Only the event before it counts as delivered, the unlike of the same song has to wait for the like
+			assertEquals(2, outbox.getPendingEvents());
+		}
+		assertEquals(2, outbox.dispatch());
+		assertEquals(Arrays.asList(first, failed, last), batches.get(0));
+		assertEquals(Arrays.asList(failed, last), batches.get(1));
+		assertEquals(0, outbox.getPendingEvents());
+	}
+
+	@Test
+	public void dropsOnlyTheEventsTheSongServiceRejects() throws IOException {
+		List<String> eventIds = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			eventIds.add(outbox.append("song" + i, false));
+		}
+		invalid.add(eventIds.get(3));
+
+		assertEquals(5, outbox.dispatch());
+		assertEquals(0, outbox.getPendingEvents());
+		List<String> delivered = new ArrayList<>();
+		for (List<String> batch : batches) {
+			delivered.addAll(batch);
+		}
+		assertEquals(Arrays.asList(eventIds.get(0), eventIds.get(1), eventIds.get(2), eventIds.get(4)), delivered);
+	}
+
+	@Test
+	public void appendsManyEventsAtOnce() throws IOException {
+		String first = outbox.append("song0", false);
+		List<String> eventIds = outbox.appendAll(Arrays.asList("song1", "song2", "song1"), false);
+		assertEquals(3, eventIds.size());
+		assertEquals(4, outbox.getPendingEvents());
+
+		assertEquals(4, outbox.dispatch());
+		List<String> expected = new ArrayList<>();
+		expected.add(first);
+		expected.addAll(eventIds);
+		assertEquals(expected, batches.get(0));
+	}
+
+	private FavouritesOutbox newOutbox(int batchSize) throws IOException {
+		return new FavouritesOutbox(true, dir.toString(), "http://localhost:" + songService.getAddress().getPort(), batchSize, 200, 30000, false);
+	}
+}
@@ -0,0 +1,161 @@
+package com.eecs3311.profilemicroservice;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.neo4j.driver.v1.Driver;
+import org.neo4j.driver.v1.Session;
+import org.neo4j.driver.v1.StatementResult;
+import org.neo4j.driver.v1.Transaction;
+import org.neo4j.driver.v1.Values;
+import org.neo4j.harness.ServerControls;
+
+public class FollowFriendTest {
+
+	private static final int USERS = 50;
+	private static final int ROUNDS = 1000;
+
+	private static ServerControls neo4j;
+	private static Driver driver;
+	private static ProfileDriverImpl profileDriver;
+
+	@BeforeClass
+	public static void startNeo4j() {
+		neo4j = EmbeddedNeo4j.start();
+		driver = EmbeddedNeo4j.driver(neo4j);
+		profileDriver = new ProfileDriverImpl(driver, new FriendFeed(driver, false, 500, 10000, 4096), new SocialGraph(driver, false, 65536));
+		try (Session session = driver.session()) {
+			session.run("CREATE INDEX ON :profile(userName)");
+		}
+	}
+
+	@AfterClass
+	public static void stopNeo4j() {
+		driver.close();
+		neo4j.close();
+	}
+
+	@Before
+	public void setUp() {
+		try (Session session = driver.session()) {
+			session.run("MATCH (n) DETACH DELETE n");
+			session.run("UNWIND range(0, $users - 1) AS i CREATE (:profile {userName: 'user' + i, fullName: 'User ' + i, password: 'pw'})",
+					Values.parameters("users", USERS));
+		}
+	}
+
+	@Test
+	public void followKeepsEveryOutcome() {
+		assertEquals(DbQueryExecResult.QUERY_OK, profileDriver.followFriend("user0", "user1").getdbQueryExecResult());
+		assertEquals(1, followCount("user0", "user1"));
+
+		DbQueryStatus again = profileDriver.followFriend("user0", "user1");
+		assertEquals(DbQueryExecResult.QUERY_ERROR_GENERIC, again.getdbQueryExecResult());
+		assertEquals("Already following this user", again.getMessage());
+		assertEquals(1, followCount("user0", "user1"));
+
+		assertEquals(DbQueryExecResult.QUERY_ERROR_NOT_FOUND, profileDriver.followFriend("user0", "nobody").getdbQueryExecResult());
+		assertEquals(DbQueryExecResult.QUERY_ERROR_NOT_FOUND, profileDriver.followFriend("nobody", "user0").getdbQueryExecResult());
+		assertEquals("Cannot follow yourself", profileDriver.followFriend("user0", "user0").getMessage());
+	}
+
+	@Test
+	public void unfollowKeepsEveryOutcome() {
+		profileDriver.followFriend("user0", "user1");
+
+		assertEquals(DbQueryExecResult.QUERY_OK, profileDriver.unfollowFriend("user0", "user1").getdbQueryExecResult());
+		assertEquals(0, followCount("user0", "user1"));
+
+		DbQueryStatus again = profileDriver.unfollowFriend("user0", "user1");
+		assertEquals(DbQueryExecResult.QUERY_ERROR_GENERIC, again.getdbQueryExecResult());
+		assertEquals("User is not following this friend", again.getMessage());
+
+		assertEquals(DbQueryExecResult.QUERY_ERROR_NOT_FOUND, profileDriver.unfollowFriend("nobody", "user1").getdbQueryExecResult());
+		assertEquals("Cannot unfollow yourself", profileDriver.unfollowFriend("user0", "user0").getMessage());
+	}
+
+	@Test
+	public void singleStatementIsFasterThanThreeRoundTrips() {
+		// Warm up both so the plans are cached before measuring
+		measure(false, 200);
+		measure(true, 200);
+
+		long[] threeRoundTrips = measure(false, ROUNDS);
+		long[] singleStatement = measure(true, ROUNDS);
+
+		report("three statements", threeRoundTrips);
+		report("one statement", singleStatement);
+		assertTrue(percentile(singleStatement, 50) <= percentile(threeRoundTrips, 50));
+	}
+
+	/**
+	 * Follows then unfollows random pairs, either through ProfileDriverImpl or the way it used to be done, with a count, a
+	 * relationship check and then the write each sent separately
+	 */
+	private long[] measure(boolean singleStatement, int rounds) {
+		Random random = new Random(3311);
+		long[] latencies = new long[rounds * 2];
+		for (int i = 0; i < rounds; i++) {
+			String userName = "user" + random.nextInt(USERS);
+			String frndUserName = "user" + ((Integer.parseInt(userName.substring(4)) + 1 + random.nextInt(USERS - 1)) % USERS);
+
+			long start = System.nanoTime();
+			if (singleStatement) {
+				profileDriver.followFriend(userName, frndUserName);
+			} else {
+				threeStatements(userName, frndUserName, "CREATE (p1)-[:follows]->(p2)");
+			}
+			latencies[i * 2] = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			if (singleStatement) {
+				profileDriver.unfollowFriend(userName, frndUserName);
+			} else {
+				threeStatements(userName, frndUserName, "MATCH (p1)-[f:follows]->(p2) DELETE f");
+			}
+			latencies[i * 2 + 1] = System.nanoTime() - start;
+		}
+		Arrays.sort(latencies);
+		return latencies;
+	}
+
+	private void threeStatements(String userName, String frndUserName, String write) {
+		try (Session session = driver.session(); Transaction trans = session.beginTransaction()) {
+			StatementResult result = trans.run("MATCH (p:profile) WHERE p.userName = $userName OR p.userName = $frndUserName RETURN count(p) AS count",
+					Values.parameters("userName", userName, "frndUserName", frndUserName));
+			if (result.single().get("count").asInt() < 2) {
+				return;
+			}
+			trans.run("MATCH (p1:profile {userName: $userName})-[f:follows]->(p2:profile {userName: $frndUserName}) RETURN count(f) AS count",
+					Values.parameters("userName", userName, "frndUserName", frndUserName)).single();
+			trans.run("MATCH (p1:profile {userName: $userName}), (p2:profile {userName: $frndUserName}) " + write,
+					Values.parameters("userName", userName, "frndUserName", frndUserName));
+			trans.success();
+		}
+	}
+
+	private int followCount(String userName, String frndUserName) {
+		try (Session session = driver.session()) {
+			return session.run("MATCH (:profile {userName: $userName})-[f:follows]->(:profile {userName: $frndUserName}) RETURN count(f) AS count",
+					Values.parameters("userName", userName, "frndUserName", frndUserName)).single().get("count").asInt();
+		}
+	}
+
+	private long percentile(long[] sortedLatencies, double percentile) {
+		return sortedLatencies[(int) Math.ceil(percentile / 100 * sortedLatencies.length) - 1];
+	}
+
+	private void report(String label, long[] sortedLatencies) {
+		System.out.println(String.format("INFO: follow/unfollow with %s: p50 %d us, p99 %d us", label,
+				TimeUnit.NANOSECONDS.toMicros(percentile(sortedLatencies, 50)),
+				TimeUnit.NANOSECONDS.toMicros(percentile(sortedLatencies, 99))));
+	}
+}
@@ -0,0 +1,193 @@
+package com.eecs3311.profilemicroservice;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.driver.v1.Driver;
+import org.neo4j.driver.v1.Record;
+import org.neo4j.driver.v1.Session;
+import org.neo4j.driver.v1.Values;
+import org.neo4j.harness.ServerControls;
+
+public class FriendFeedTest {
+
+	private ServerControls neo4j;
+	private Driver driver;
+	private FriendFeed friendFeed;
+	private ProfileDriverImpl profileDriver;
+	private PlaylistDriverImpl playlistDriver;
+
+	@Before
+	public void setUp() throws IOException {
+		neo4j = EmbeddedNeo4j.start();
+		driver = EmbeddedNeo4j.driver(neo4j);
+		friendFeed = new FriendFeed(driver, true, 500, 10000, 4096);
+		profileDriver = new ProfileDriverImpl(driver, friendFeed, new SocialGraph(driver, false, 65536));
+		playlistDriver = new PlaylistDriverImpl(driver, new FavouritesOutbox(false, "target/outbox", "http://localhost:3001", 200, 200, 30000, false), friendFeed);
+
+		try (Session session = driver.session()) {
+			for (String userName : Arrays.asList("alice", "bob", "carol", "dave")) {
+				session.run("CREATE (p:profile {userName: $userName})-[:created]->(:playlist {plName: $plName})",
+						Values.parameters("userName", userName, "plName", userName + "-favorites"));
+			}
+			for (int i = 0; i < 8; i++) {
+				session.run("CREATE (:song {songId: $songId, songName: $songName})", Values.parameters("songId", "s" + i, "songName", "Song " + i));
+			}
+			// Every song is in every playlist, so anyone can like any song
+			session.run("MATCH (pl:playlist), (s:song) CREATE (pl)-[:includes]->(s)");
+		}
+	}
+
+	@After
+	public void tearDown() {
+		driver.close();
+		neo4j.close();
+	}
+
+	@Test
+	public void pagesThroughEveryLikeNewestFirst() {
+		profileDriver.followFriend("alice", "bob");
+		profileDriver.followFriend("alice", "carol");
+		for (int i = 0; i < 5; i++) {
+			playlistDriver.likeSong(i % 2 == 0 ? "bob" : "carol", "s" + i);
+		}
+
+		List<String> seen = new ArrayList<>();
+		String cursor = null;
+		int pages = 0;
+		do {
+			Map<String, Object> page = page("alice", cursor, 2);
+			seen.addAll(items(page));
+			cursor = (String) page.get("nextCursor");
+			pages++;
+		} while (cursor != null);
+
+		assertEquals(3, pages);
+		assertEquals(fromGraph("alice"), seen);
+		assertFalse(FriendFeed.isValidCursor("not-a-cursor"));
+	}
+
+	@Test
+	public void staysInStepWithTheGraph() {
+		profileDriver.followFriend("alice", "bob");
+		profileDriver.followFriend("alice", "carol");
+		playlistDriver.likeSong("bob", "s0");
+		playlistDriver.likeSong("carol", "s1");
+		playlistDriver.likeSong("dave", "s2");
+		// Loads the feed, from here on it is only kept up to date by the hooks
+		assertEquals(fromGraph("alice"), all("alice"));
+
+		playlistDriver.likeSong("bob", "s3");
+		assertEquals("bob/s3", all("alice").get(0));
+		assertEquals(fromGraph("alice"), all("alice"));
+
+		playlistDriver.unlikeSong("carol", "s1");
+		assertEquals(fromGraph("alice"), all("alice"));
+
+		profileDriver.followFriend("alice", "dave");
+		assertEquals(fromGraph("alice"), all("alice"));
+
+		profileDriver.unfollowFriend("alice", "carol");
+		playlistDriver.likeSong("carol", "s4");
+		assertEquals(fromGraph("alice"), all("alice"));
+
+		profileDriver.blockFriend("alice", "bob");
+		playlistDriver.likeSong("bob", "s5");
+		assertEquals(fromGraph("alice"), all("alice"));
+		assertFalse(all("alice").contains("bob/s0"));
+		assertEquals(Arrays.asList("dave/s2"), all("alice"));
+	}
+
+	@Test
+	public void doesNotKeepAFeedBuiltAcrossAnUnfollow() throws IOException {
+		AtomicBoolean unfollowed = new AtomicBoolean();
+		ProfileDriverImpl[] profiles = new ProfileDriverImpl[1];
+		FriendFeed racing = new FriendFeed(driver, true, 500, 10000, 4096) {
+			@Override
+			Feed read(String userName) {
+				Feed feed = super.read(userName);
+				// The unfollow commits after the graph was read and before the feed is kept
+				if (unfollowed.compareAndSet(false, true)) {
+					profiles[0].unfollowFriend("alice", "bob");
+				}
+				return feed;
+			}
+		};
+		profiles[0] = new ProfileDriverImpl(driver, racing, new SocialGraph(driver, false, 65536));
+		PlaylistDriverImpl likes = new PlaylistDriverImpl(driver, new FavouritesOutbox(false, "target/outbox", "http://localhost:3001", 200, 200, 30000, false), racing);
+		profiles[0].followFriend("alice", "bob");
+		likes.likeSong("bob", "s0");
+
+		assertEquals(Collections.emptyList(), items(page(racing, "alice", null, 10)));
+		likes.likeSong("bob", "s1");
+		assertEquals(Collections.emptyList(), items(page(racing, "alice", null, 10)));
+	}
+
+	@Test
+	public void keepsOnlyTheLatestLikes() throws IOException {
+		FriendFeed small = new FriendFeed(driver, true, 3, 10000, 4096);
+		PlaylistDriverImpl likes = new PlaylistDriverImpl(driver, new FavouritesOutbox(false, "target/outbox", "http://localhost:3001", 200, 200, 30000, false), small);
+		new ProfileDriverImpl(driver, small, new SocialGraph(driver, false, 65536)).followFriend("alice", "bob");
+		likes.likeSong("bob", "s0");
+		assertEquals(1, items(page(small, "alice", null, 3)).size());
+
+		for (int i = 1; i < 6; i++) {
+			likes.likeSong("bob", "s" + i);
+		}
+		Map<String, Object> page = page(small, "alice", null, 3);
+		assertEquals(fromGraph("alice").subList(0, 3), items(page));
+		assertNull(page.get("nextCursor"));
+	}
+
+	private List<String> all(String userName) {
+		return items(page(userName, null, 500));
+	}
+
+	private Map<String, Object> page(String userName, String cursor, int limit) {
+		return page(friendFeed, userName, cursor, limit);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Map<String, Object> page(FriendFeed friendFeed, String userName, String cursor, int limit) {
+		DbQueryStatus status = friendFeed.getFeed(userName, cursor, limit);
+		assertEquals(DbQueryExecResult.QUERY_OK, status.getdbQueryExecResult());
+		return (Map<String, Object>) status.getData();
+	}
+
+	@SuppressWarnings("unchecked")
+	private static List<String> items(Map<String, Object> page) {
+		List<String> items = new ArrayList<>();
+		for (Map<String, Object> item : (List<Map<String, Object>>) page.get("items")) {
+			items.add(item.get("friendUserName") + "/" + item.get("songId"));
+		}
+		return items;
+	}
+
+	/**
+	 * The whole feed straight from the graph, in the order the feed keeps it
+	 */
+	private List<String> fromGraph(String userName) {
+		List<String> items = new ArrayList<>();
+		try (Session session = driver.session()) {
+			for (Record record : session.run("MATCH (p:profile {userName: $userName})-[:follows]->(friend:profile)-[l:likes]->(s:song) "
+					+ "WHERE NOT (p)-[:blocked]->(friend) "
+					+ "RETURN friend.userName + '/' + s.songId AS item ORDER BY l.likedAt DESC, friend.userName, s.songId",
+					Values.parameters("userName", userName)).list()) {
+				items.add(record.get("item").asString());
+			}
+		}
+		return items;
+	}
+}
@@ -0,0 +1,128 @@
+package com.eecs3311.profilemicroservice;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+public class IdempotencyStoreTest {
+
+	private static final String URI = "/likeSong";
+	private static final String PATH = "PUT http://localhost:3002/likeSong";
+
+	private final IdempotencyStore store = new IdempotencyStore(true, 100, 600);
+	private final AtomicInteger calls = new AtomicInteger();
+
+	@Test
+	public void aRetryGetsTheFirstResponseWithoutRunningAgain() {
+		Map<String, String> body = Collections.singletonMap("songId", "s1");
+
+		ResponseEntity<ApiResponse> first = store.execute("key-1", URI, body, PATH, () -> respond(HttpStatus.OK)).join();
+		ResponseEntity<ApiResponse> retry = store.execute("key-1", URI, body, PATH, () -> respond(HttpStatus.OK)).join();
+
+		assertEquals(1, calls.get());
+		assertEquals(first.getBody(), retry.getBody());
+		assertNull(first.getHeaders().getFirst(IdempotencyStore.REPLAYED_HEADER));
+		assertEquals("true", retry.getHeaders().getFirst(IdempotencyStore.REPLAYED_HEADER));
+		assertEquals(1, store.getReplayed());
+
+		// The same key on another endpoint, or no key at all, is a request of its own
+		store.execute("key-1", "/unlikeSong", body, PATH, () -> respond(HttpStatus.OK)).join();
+		store.execute(null, URI, body, PATH, () -> respond(HttpStatus.OK)).join();
+		assertEquals(3, calls.get());
+	}
+
+	@Test
+	public void aKeyCantBeUsedForADifferentRequest() {
+		store.execute("key-1", URI, Collections.singletonMap("songId", "s1"), PATH, () -> respond(HttpStatus.OK)).join();
+
+		ResponseEntity<ApiResponse> other = store.execute("key-1", URI, Collections.singletonMap("songId", "s2"), PATH,
+				() -> respond(HttpStatus.OK)).join();
+		ResponseEntity<ApiResponse> tooLong = store.execute(String.join("", Collections.nCopies(IdempotencyStore.MAX_KEY_LENGTH + 1, "k")), URI,
+				null, PATH, () -> respond(HttpStatus.OK)).join();
+
+		assertEquals(HttpStatus.BAD_REQUEST, other.getStatusCode());
+		assertEquals(HttpStatus.BAD_REQUEST, tooLong.getStatusCode());
+		assertEquals(1, calls.get());
+	}
+
+	@Test
+	public void bodiesWithTheSameHashCodeAreDifferentRequests() {
+		// "Aa" and "BB" have the same hashCode, so these two maps do too
+		Map<String, String> first = Collections.singletonMap("songId", "Aa");
+		Map<String, String> second = Collections.singletonMap("songId", "BB");
+		assertEquals(first.hashCode(), second.hashCode());
+
+		store.execute("key-1", URI, first, PATH, () -> respond(HttpStatus.OK)).join();
+		ResponseEntity<ApiResponse> other = store.execute("key-1", URI, second, PATH, () -> respond(HttpStatus.OK)).join();
+
+		assertEquals(HttpStatus.BAD_REQUEST, other.getStatusCode());
+		assertEquals(1, calls.get());
+	}
+
+	@Test
+	public void theOrderOfTheFieldsDoesNotMakeADifferentRequest() {
+		Map<String, String> body = new LinkedHashMap<>();
+		body.put("userName", "user0");
+		body.put("songId", "s1");
+		Map<String, String> reordered = new LinkedHashMap<>();
+		reordered.put("songId", "s1");
+		reordered.put("userName", "user0");
+
+		store.execute("key-1", URI, body, PATH, () -> respond(HttpStatus.OK)).join();
+		ResponseEntity<ApiResponse> retry = store.execute("key-1", URI, reordered, PATH, () -> respond(HttpStatus.OK)).join();
+
+		assertEquals("true", retry.getHeaders().getFirst(IdempotencyStore.REPLAYED_HEADER));
+		assertEquals(1, calls.get());
+	}
+
+	@Test
+	public void failedRequestsAreRunAgain() {
+		assertEquals(HttpStatus.INTERNAL_SERVER_ERROR,
+				store.execute("key-1", URI, null, PATH, () -> respond(HttpStatus.INTERNAL_SERVER_ERROR)).join().getStatusCode());
+		assertEquals(HttpStatus.OK, store.execute("key-1", URI, null, PATH, () -> respond(HttpStatus.OK)).join().getStatusCode());
+		// A 404 is the answer, it is not retried
+		store.execute("key-2", URI, null, PATH, () -> respond(HttpStatus.NOT_FOUND)).join();
+		store.execute("key-2", URI, null, PATH, () -> respond(HttpStatus.OK)).join();
+		assertEquals(3, calls.get());
+	}
+
+	@Test
+	public void aRetryWhileTheFirstIsRunningWaitsForIt() {
+		CompletableFuture<ResponseEntity<ApiResponse>> running = new CompletableFuture<>();
+
+		CompletableFuture<ResponseEntity<ApiResponse>> first = store.execute("key-1", URI, null, PATH, () -> {
+			calls.incrementAndGet();
+			return running;
+		});
+		CompletableFuture<ResponseEntity<ApiResponse>> retry = store.execute("key-1", URI, null, PATH, () -> respond(HttpStatus.OK));
+		assertFalse(retry.isDone());
+
+		running.complete(ResponseEntity.ok(new ApiResponse(PATH, "Song Liked! ", HttpStatus.OK, null)));
+		assertEquals(HttpStatus.OK, retry.join().getStatusCode());
+		assertEquals(first.join().getBody(), retry.join().getBody());
+		assertEquals(1, calls.get());
+	}
+
+	@Test
+	public void turnedOffEveryRequestRuns() {
+		IdempotencyStore off = new IdempotencyStore(false, 100, 600);
+		off.execute("key-1", URI, null, PATH, () -> respond(HttpStatus.OK)).join();
+		off.execute("key-1", URI, null, PATH, () -> respond(HttpStatus.OK)).join();
+		assertEquals(2, calls.get());
+	}
+
+	private CompletableFuture<ResponseEntity<ApiResponse>> respond(HttpStatus status) {
+		int call = calls.incrementAndGet();
+		return CompletableFuture.completedFuture(ResponseEntity.status(status).body(new ApiResponse(PATH, "call " + call, status, null)));
+	}
+}
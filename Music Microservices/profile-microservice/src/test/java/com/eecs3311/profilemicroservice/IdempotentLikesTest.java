@@ -0,0 +1,160 @@
+package com.eecs3311.profilemicroservice;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.neo4j.driver.v1.Driver;
+import org.neo4j.driver.v1.Session;
+import org.neo4j.driver.v1.Values;
+import org.neo4j.harness.ServerControls;
+
+public class IdempotentLikesTest {
+
+	private static final int USERS = 5;
+
+	private static ServerControls neo4j;
+	private static Driver driver;
+
+	private FavouritesOutbox outbox;
+	private ProfileDriverImpl profileDriver;
+	private PlaylistDriverImpl playlistDriver;
+
+	@BeforeClass
+	public static void startNeo4j() {
+		neo4j = EmbeddedNeo4j.start();
+		driver = EmbeddedNeo4j.driver(neo4j);
+	}
+
+	@AfterClass
+	public static void stopNeo4j() {
+		driver.close();
+		neo4j.close();
+	}
+
+	@Before
+	public void setUp() throws IOException {
+		try (Session session = driver.session()) {
+			session.run("MATCH (n) DETACH DELETE n");
+			session.run("UNWIND range(0, $users - 1) AS i CREATE (:profile {userName: 'user' + i, password: 'pw'})"
+					+ "-[:created]->(:playlist {plName: 'user' + i + '-favourites'})", Values.parameters("users", USERS));
+			session.run("UNWIND range(0, 2) AS i CREATE (:song {songId: 's' + i, songName: 'Song ' + i})");
+			session.run("MATCH (pl:playlist), (s:song) CREATE (pl)-[:includes]->(s)");
+			// A second playlist with the same song used to give a second like in the same request
+			session.run("MATCH (p:profile {userName: 'user0'}), (s:song {songId: 's0'}) CREATE (p)-[:created]->(:playlist {plName: 'mix'})-[:includes]->(s)");
+		}
+		outbox = new FavouritesOutbox(true, Files.createTempDirectory("outbox").toString(), "http://localhost:3001", 200, 200, 30000, false);
+		FriendFeed friendFeed = new FriendFeed(driver, false, 500, 10000, 4096);
+		profileDriver = new ProfileDriverImpl(driver, friendFeed, new SocialGraph(driver, false, 65536));
+		playlistDriver = new PlaylistDriverImpl(driver, outbox, friendFeed);
+	}
+
+	@Test
+	public void likingASongAgainChangesNothing() throws IOException {
+		DbQueryStatus first = playlistDriver.likeSong("user0", "s0");
+		DbQueryStatus again = playlistDriver.likeSong("user0", "s0");
+
+		assertEquals(DbQueryExecResult.QUERY_OK, first.getdbQueryExecResult());
+		assertEquals(DbQueryExecResult.QUERY_OK, again.getdbQueryExecResult());
+		assertEquals("Song already liked", again.getMessage());
+		assertEquals(1, likes("user0"));
+		// The event was committed with the like and only reaches the outbox through the relay
+		assertEquals(1, count("MATCH (e:favouriteEvent {songId: 's0', shouldDecrement: false}) RETURN count(e)"));
+		assertEquals(0, outbox.getPendingEvents());
+		assertEquals(1, new FavouriteEventRelay(driver, outbox, 200, 200).relay());
+		assertEquals(1, outbox.getPendingEvents());
+		assertEquals(0, count("MATCH (e:favouriteEvent) RETURN count(e)"));
+
+		assertEquals(DbQueryExecResult.QUERY_OK, playlistDriver.unlikeSong("user0", "s0").getdbQueryExecResult());
+		assertEquals(0, likes("user0"));
+		assertEquals(DbQueryExecResult.QUERY_OK, playlistDriver.likeSong("user0", "s0").getdbQueryExecResult());
+		assertEquals(1, likes("user0"));
+	}
+
+	@Test
+	public void racingLikesReportOneLike() throws Exception {
+		int racers = 8;
+		ExecutorService pool = Executors.newFixedThreadPool(racers);
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<DbQueryStatus>> likes = new ArrayList<>();
+		try {
+			for (int i = 0; i < racers; i++) {
+				likes.add(pool.submit(() -> {
+					start.await();
+					return playlistDriver.likeSong("user1", "s1");
+				}));
+			}
+			start.countDown();
+			int liked = 0;
+			for (Future<DbQueryStatus> like : likes) {
+				DbQueryStatus status = like.get(30, TimeUnit.SECONDS);
+				assertEquals(DbQueryExecResult.QUERY_OK, status.getdbQueryExecResult());
+				liked += "Song Liked! ".equals(status.getMessage()) ? 1 : 0;
+			}
+			assertEquals(1, liked);
+		} finally {
+			pool.shutdownNow();
+		}
+		assertEquals(1, likes("user1"));
+		assertEquals(1, count("MATCH (e:favouriteEvent {songId: 's1'}) RETURN count(e)"));
+		assertEquals(0, count("MATCH ()-[l:likes]->() WHERE exists(l.created) RETURN count(l)"));
+	}
+
+	@Test
+	public void compactionKeepsOneLikeOfEverySong() throws IOException {
+		try (Session session = driver.session()) {
+			// What retries left behind before likes were merged, user0 and user3 liked s0 three times and s1 twice
+			session.run("MATCH (p:profile), (s:song) WHERE p.userName IN ['user0', 'user3'] AND s.songId IN ['s0', 's1'] "
+					+ "UNWIND range(1, CASE s.songId WHEN 's0' THEN 3 ELSE 2 END) AS i CREATE (p)-[:likes {likedAt: i}]->(s)");
+			session.run("MATCH (p:profile {userName: 'user1'}), (s:song {songId: 's2'}) CREATE (p)-[:likes {likedAt: 1}]->(s)");
+			session.run("MATCH (p:profile {userName: 'user4'}), (f:profile) WHERE f.userName IN ['user0', 'user3'] CREATE (p)-[:follows]->(f)");
+		}
+		assertEquals(5, likes("user0"));
+		// Friends' songs are listed once however many times they were liked
+		assertEquals(2, songs("user4").get("user0").size());
+
+		long removed = new LikesCompaction(driver, outbox, true, 2).compact();
+
+		assertEquals(6, removed);
+		assertEquals(2, likes("user0"));
+		assertEquals(2, likes("user3"));
+		assertEquals(1, likes("user1"));
+		assertEquals(2, count("MATCH (:profile {userName: 'user0'})-[:likes {likedAt: 1}]->(s:song) RETURN count(s)"));
+		// The decrements were committed with the deletes and reach the outbox through the relay
+		assertEquals(6, count("MATCH (e:favouriteEvent {shouldDecrement: true}) RETURN count(e)"));
+		assertEquals(0, outbox.getPendingEvents());
+		assertEquals(6, new FavouriteEventRelay(driver, outbox, 200, 200).relay());
+		assertEquals(6, outbox.getPendingEvents());
+		assertEquals(2, songs("user4").get("user3").size());
+
+		assertEquals(0, new LikesCompaction(driver, outbox, true, 2).compact());
+	}
+
+	@SuppressWarnings("unchecked")
+	private Map<String, List<String>> songs(String userName) {
+		return (Map<String, List<String>>) profileDriver.getAllSongFriendsLike(userName).getData();
+	}
+
+	private static long likes(String userName) {
+		return count("MATCH (:profile {userName: '" + userName + "'})-[l:likes]->() RETURN count(l)");
+	}
+
+	private static long count(String query) {
+		try (Session session = driver.session()) {
+			return session.run(query).single().get(0).asLong();
+		}
+	}
+}
@@ -0,0 +1,91 @@
+package com.eecs3311.profilemicroservice;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.neo4j.driver.v1.Driver;
+import org.neo4j.driver.v1.Session;
+import org.neo4j.harness.ServerControls;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+public class LatencyMetricsTest {
+
+	private static ServerControls neo4j;
+
+	@BeforeClass
+	public static void startNeo4j() {
+		neo4j = EmbeddedNeo4j.start();
+		try (Driver driver = EmbeddedNeo4j.driver(neo4j); Session session = driver.session()) {
+			session.run("CREATE (:profile {userName: 'user0'}), (:profile {userName: 'user1'})");
+		}
+	}
+
+	@AfterClass
+	public static void stopNeo4j() {
+		neo4j.close();
+	}
+
+	@Test
+	public void endpointsAndDriverMethodsAreExported() throws Exception {
+		ConfigurableApplicationContext context = new SpringApplicationBuilder(ProfileMicroserviceApplication.class)
+				.run("--server.port=0", "--profile.neo4j.uri=" + neo4j.boltURI(), "--profile.outbox.dir=target/outbox");
+		try {
+			String baseUrl = "http://localhost:" + context.getEnvironment().getProperty("local.server.port");
+			String follow = "{\"userName\": \"user0\", \"friendUserName\": \"user1\"}";
+			assertEquals(200, call("PUT", baseUrl + "/followFriend", follow));
+			assertEquals(500, call("PUT", baseUrl + "/followFriend", follow));
+			assertEquals(400, call("PUT", baseUrl + "/followFriend", "{\"userName\": \"user0\"}"));
+
+			HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + "/metrics").openConnection();
+			assertEquals(200, connection.getResponseCode());
+			String metrics = read(connection.getInputStream());
+
+			assertTrue(metrics.contains("# TYPE profile_http_server_requests_seconds histogram\n"));
+			assertTrue(metrics.contains("profile_http_server_requests_seconds_count{method=\"PUT\",endpoint=\"/followFriend\",status=\"200\"} 1\n"));
+			assertTrue(metrics.contains("profile_http_server_requests_seconds_count{method=\"PUT\",endpoint=\"/followFriend\",status=\"500\"} 1\n"));
+			assertTrue(metrics.contains("profile_http_server_requests_seconds_count{method=\"PUT\",endpoint=\"/followFriend\",status=\"400\"} 1\n"));
+			// The bad request never reaches the driver
+			assertTrue(metrics.contains("profile_driver_query_seconds_count{driver=\"ProfileDriverImpl\",operation=\"followFriend\",outcome=\"QUERY_OK\"} 1\n"));
+			assertTrue(metrics.contains("profile_driver_query_seconds_count{driver=\"ProfileDriverImpl\",operation=\"followFriend\",outcome=\"QUERY_ERROR_GENERIC\"} 1\n"));
+			assertTrue(metrics.contains("profile_driver_query_seconds_quantiles{driver=\"ProfileDriverImpl\",operation=\"followFriend\",outcome=\"QUERY_OK\",quantile=\"0.5\"} "));
+		} finally {
+			context.close();
+		}
+	}
+
+	private static int call(String method, String url, String body) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+		connection.setRequestMethod(method);
+		connection.setDoOutput(true);
+		connection.setRequestProperty("Content-Type", "application/json");
+		try (OutputStream out = connection.getOutputStream()) {
+			out.write(body.getBytes(StandardCharsets.UTF_8));
+		}
+		int status = connection.getResponseCode();
+		read(status < 400 ? connection.getInputStream() : connection.getErrorStream());
+		return status;
+	}
+
+	private static String read(InputStream in) throws IOException {
+		try (InputStream stream = in) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			for (int read; (read = stream.read(buffer)) != -1; ) {
+				out.write(buffer, 0, read);
+			}
+			return new String(out.toByteArray(), StandardCharsets.UTF_8);
+		}
+	}
+}
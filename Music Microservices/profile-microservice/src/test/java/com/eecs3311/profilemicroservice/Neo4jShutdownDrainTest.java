@@ -0,0 +1,57 @@
+package com.eecs3311.profilemicroservice;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.neo4j.driver.v1.Driver;
+import org.neo4j.driver.v1.Session;
+import org.neo4j.driver.v1.Transaction;
+import org.neo4j.harness.ServerControls;
+
+public class Neo4jShutdownDrainTest {
+
+	private static ServerControls neo4j;
+	private static Driver driver;
+
+	@BeforeClass
+	public static void startNeo4j() {
+		neo4j = EmbeddedNeo4j.start();
+		// Built without the pool metrics, draining doesn't need them
+		driver = SessionCountingDriver.wrap(EmbeddedNeo4j.driver(neo4j));
+	}
+
+	@AfterClass
+	public static void stopNeo4j() {
+		driver.close();
+		neo4j.close();
+	}
+
+	@Test
+	public void waitsForTheOpenSessionsWithoutMetrics() throws Exception {
+		Session session = driver.session();
+		Transaction trans = session.beginTransaction();
+		trans.run("CREATE (:profile {userName: 'draining'})");
+		assertEquals(1, SessionCountingDriver.openSessions(driver));
+
+		CompletableFuture<Void> drained = CompletableFuture.runAsync(() -> new Neo4jShutdownDrain(driver, 10000).drain());
+		Thread.sleep(200);
+		assertFalse(drained.isDone());
+
+		trans.success();
+		trans.close();
+		session.close();
+		session.close();
+		drained.get(5, TimeUnit.SECONDS);
+		assertEquals(0, SessionCountingDriver.openSessions(driver));
+
+		try (Session check = driver.session()) {
+			assertEquals(1, check.run("MATCH (p:profile {userName: 'draining'}) RETURN count(p)").single().get(0).asLong());
+		}
+	}
+}
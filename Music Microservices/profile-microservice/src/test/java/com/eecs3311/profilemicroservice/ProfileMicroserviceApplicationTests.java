@@ -1,16 +1,60 @@
 package com.eecs3311.profilemicroservice;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.neo4j.harness.ServerControls;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.context.junit4.SpringRunner;
 
 @RunWith(SpringRunner.class)
-@SpringBootTest
+@SpringBootTest(properties = "profile.outbox.dir=target/outbox")
 public class ProfileMicroserviceApplicationTests {
 
+	private static ServerControls neo4j;
+
+	@Autowired
+	private ProfileDriverImpl profileDriver;
+
+	@Autowired
+	private Neo4jPoolMetrics neo4jPoolMetrics;
+
+	@BeforeClass
+	public static void startNeo4j() {
+		neo4j = EmbeddedNeo4j.start();
+		System.setProperty("profile.neo4j.uri", neo4j.boltURI().toString());
+	}
+
+	@AfterClass
+	public static void stopNeo4j() {
+		System.clearProperty("profile.neo4j.uri");
+		neo4j.close();
+	}
+
 	@Test
 	public void contextLoads() {
 	}
 
+	@Test
+	@SuppressWarnings("unchecked")
+	public void reportsDriverPoolMetrics() {
+		assertEquals(DbQueryExecResult.QUERY_OK, profileDriver.createUserProfile("poolUser", "Pool User", "password").getdbQueryExecResult());
+
+		assertTrue(neo4jPoolMetrics.isEnabled());
+		Map<String, Object> pools = neo4jPoolMetrics.getPoolMetrics();
+		assertFalse(pools.isEmpty());
+		Map<String, Object> pool = (Map<String, Object>) pools.values().iterator().next();
+		assertEquals(0, pool.get("inUse"));
+		assertTrue((Long) pool.get("acquired") > 0);
+		assertTrue(((Map<String, Object>) pool.get("acquisitionTimeMs")).containsKey("p99"));
+	}
+
 }
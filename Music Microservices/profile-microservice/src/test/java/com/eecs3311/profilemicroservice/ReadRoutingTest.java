@@ -0,0 +1,159 @@
+package com.eecs3311.profilemicroservice;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.neo4j.driver.v1.AccessMode;
+import org.neo4j.driver.v1.Driver;
+import org.neo4j.driver.v1.Session;
+import org.neo4j.driver.v1.Values;
+import org.neo4j.harness.ServerControls;
+
+public class ReadRoutingTest {
+
+	private static ServerControls neo4j;
+	private static Driver cluster;
+
+	private RoutingDriverStandIn routing;
+	private UserBookmarks bookmarks;
+	private ProfileDriverImpl profileDriver;
+	private PlaylistDriverImpl playlistDriver;
+
+	@BeforeClass
+	public static void startNeo4j() {
+		neo4j = EmbeddedNeo4j.start();
+		cluster = EmbeddedNeo4j.driver(neo4j);
+	}
+
+	@AfterClass
+	public static void stopNeo4j() {
+		cluster.close();
+		neo4j.close();
+	}
+
+	@Before
+	public void setUp() throws IOException {
+		try (Session session = cluster.session()) {
+			session.run("MATCH (n) DETACH DELETE n");
+			for (String userName : Arrays.asList("alice", "bob", "carol")) {
+				session.run("CREATE (:profile {userName: $userName, password: 'pw'})-[:created]->(:playlist {plName: $plName})",
+						Values.parameters("userName", userName, "plName", userName + "-favourites"));
+			}
+			session.run("CREATE (:song {songId: 's1', songName: 'Song 1'})");
+			session.run("MATCH (pl:playlist), (s:song) CREATE (pl)-[:includes]->(s)");
+		}
+		routing = new RoutingDriverStandIn(cluster);
+		bookmarks = new UserBookmarks(true, 1000, 60);
+		FriendFeed friendFeed = new FriendFeed(routing.driver, false, 500, 10000, 4096);
+		profileDriver = new ProfileDriverImpl(routing.driver, friendFeed, new SocialGraph(routing.driver, false, 65536), bookmarks);
+		playlistDriver = new PlaylistDriverImpl(routing.driver, new FavouritesOutbox(false, "target/outbox", "http://localhost:3001", 200, 200, 30000, false),
+				friendFeed, bookmarks);
+	}
+
+	@After
+	public void tearDown() {
+		routing.sessions.clear();
+	}
+
+	@Test
+	public void readsWaitForTheUsersOwnLatestWrite() {
+		assertEquals(DbQueryExecResult.QUERY_OK, profileDriver.followFriend("alice", "bob").getdbQueryExecResult());
+		RoutingDriverStandIn.Opened follow = routing.last();
+		assertEquals(AccessMode.WRITE, follow.mode);
+		assertNotNull(follow.lastBookmark);
+		assertEquals(follow.lastBookmark, bookmarks.get("alice"));
+
+		assertEquals(DbQueryExecResult.QUERY_OK, profileDriver.getAllSongFriendsLike("alice").getdbQueryExecResult());
+		assertEquals(AccessMode.READ, routing.last().mode);
+		assertEquals(follow.lastBookmark, routing.last().bookmark);
+
+		// Nothing of carol's to wait for, any follower will do
+		assertEquals(DbQueryExecResult.QUERY_OK, profileDriver.getAllSongFriendsLike("carol").getdbQueryExecResult());
+		assertEquals(AccessMode.READ, routing.last().mode);
+		assertNull(routing.last().bookmark);
+	}
+
+	@Test
+	public void feedsAndRecommendationsWaitForTheUsersOwnLatestWrite() {
+		FriendFeed friendFeed = new FriendFeed(routing.driver, true, 500, 10000, 4096, 300, bookmarks);
+		SongRecommender recommender = new SongRecommender(routing.driver, new SocialGraph(routing.driver, false, 65536),
+				200, 5000, 0.5, 250, 2, 5000, 50, 300, 10000, bookmarks);
+		try {
+			assertEquals(DbQueryExecResult.QUERY_OK, profileDriver.followFriend("alice", "bob").getdbQueryExecResult());
+			String follow = bookmarks.get("alice");
+
+			routing.sessions.clear();
+			assertEquals(DbQueryExecResult.QUERY_OK, friendFeed.getFeed("alice", null, 10).getdbQueryExecResult());
+			assertEquals(2, routing.sessions.size());
+			for (RoutingDriverStandIn.Opened read : routing.sessions) {
+				assertEquals(AccessMode.READ, read.mode);
+				assertEquals(follow, read.bookmark);
+			}
+
+			routing.sessions.clear();
+			assertEquals(DbQueryExecResult.QUERY_OK, recommender.recommend("alice", 10).getdbQueryExecResult());
+			assertEquals(AccessMode.READ, routing.sessions.get(0).mode);
+			assertEquals(follow, routing.sessions.get(0).bookmark);
+		} finally {
+			recommender.shutdown();
+		}
+	}
+
+	@Test
+	public void everyKindOfWriteMovesTheUsersBookmark() {
+		playlistDriver.likeSong("alice", "s1");
+		String like = bookmarks.get("alice");
+		assertNotNull(like);
+
+		playlistDriver.likeSongs(Collections.singletonList(Collections.singletonMap("userName", "bob")), 10);
+		assertNull(bookmarks.get("bob"));
+		profileDriver.followFriends(Collections.singletonList(follow("bob", "alice")), 10);
+		assertNotNull(bookmarks.get("bob"));
+
+		playlistDriver.unlikeSong("alice", "s1");
+		String unlike = bookmarks.get("alice");
+		assertEquals(routing.last().lastBookmark, unlike);
+		assertNotEquals(like, unlike);
+		assertEquals(unlike, UserBookmarks.later(unlike, like));
+	}
+
+	@Test
+	public void readsAreRetriedWhenTheFollowerGoesAway() {
+		routing.failingReads.set(2);
+
+		DbQueryStatus status = profileDriver.getAllSongFriendsLike("alice");
+
+		assertEquals(DbQueryExecResult.QUERY_OK, status.getdbQueryExecResult());
+		assertEquals(3, routing.readAttempts.get());
+	}
+
+	@Test
+	public void theLaterBookmarkWins() {
+		assertEquals("neo4j:bookmark:v1:tx12", UserBookmarks.later("neo4j:bookmark:v1:tx9", "neo4j:bookmark:v1:tx12"));
+		assertEquals("neo4j:bookmark:v1:tx12", UserBookmarks.later("neo4j:bookmark:v1:tx12", "neo4j:bookmark:v1:tx9"));
+
+		UserBookmarks disabled = new UserBookmarks(false, 1000, 60);
+		disabled.record("alice", "neo4j:bookmark:v1:tx12");
+		assertNull(disabled.get("alice"));
+	}
+
+	private static Map<String, String> follow(String userName, String friendUserName) {
+		Map<String, String> follow = new HashMap<>();
+		follow.put("userName", userName);
+		follow.put("friendUserName", friendUserName);
+		return follow;
+	}
+}
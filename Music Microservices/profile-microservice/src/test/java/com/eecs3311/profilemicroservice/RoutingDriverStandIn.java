@@ -0,0 +1,97 @@
+package com.eecs3311.profilemicroservice;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.neo4j.driver.v1.AccessMode;
+import org.neo4j.driver.v1.Driver;
+import org.neo4j.driver.v1.Session;
+import org.neo4j.driver.v1.TransactionWork;
+import org.neo4j.driver.v1.exceptions.SessionExpiredException;
+
+/**
+ * Stands in for a bolt+routing driver in front of a cluster. Every session still runs against the one in-process
+ * server, but the stand-in records whether it was opened for reading or writing and with which bookmark, the way a
+ * routing driver decides between the leader and a follower, and it can make the followers go away for the first few
+ * read attempts to see that reads are retried
+ */
+final class RoutingDriverStandIn {
+
+	/**
+	 * A session that was opened, with the bookmark the server gave it once it was closed
+	 */
+	static final class Opened {
+		final AccessMode mode;
+		final String bookmark;
+		String lastBookmark;
+
+		Opened(AccessMode mode, String bookmark) {
+			this.mode = mode;
+			this.bookmark = bookmark;
+		}
+	}
+
+	final List<Opened> sessions = Collections.synchronizedList(new ArrayList<>());
+	final AtomicInteger readAttempts = new AtomicInteger();
+	final AtomicInteger failingReads = new AtomicInteger();
+	final Driver driver;
+
+	RoutingDriverStandIn(Driver cluster) {
+		driver = (Driver) Proxy.newProxyInstance(Driver.class.getClassLoader(), new Class<?>[] {Driver.class}, (proxy, method, args) -> {
+			if (!method.getName().equals("session")) {
+				return invoke(cluster, method, args);
+			}
+			AccessMode mode = AccessMode.WRITE;
+			String bookmark = null;
+			for (Object arg : args == null ? new Object[0] : args) {
+				if (arg instanceof AccessMode) {
+					mode = (AccessMode) arg;
+				} else if (arg instanceof String) {
+					bookmark = (String) arg;
+				}
+			}
+			Opened opened = new Opened(mode, bookmark);
+			sessions.add(opened);
+			return session((Session) invoke(cluster, method, args), opened);
+		});
+	}
+
+	Opened last() {
+		return sessions.get(sessions.size() - 1);
+	}
+
+	private Session session(Session session, Opened opened) {
+		InvocationHandler handler = (proxy, method, args) -> {
+			if (method.getName().equals("readTransaction")) {
+				TransactionWork<?> work = (TransactionWork<?>) args[0];
+				// The driver retries the whole function when the server it was sent to goes away
+				args[0] = (TransactionWork<Object>) trans -> {
+					readAttempts.incrementAndGet();
+					if (failingReads.getAndUpdate(left -> Math.max(0, left - 1)) > 0) {
+						throw new SessionExpiredException("The follower went away");
+					}
+					return work.execute(trans);
+				};
+			}
+			if (method.getName().equals("close")) {
+				opened.lastBookmark = session.lastBookmark();
+			}
+			return invoke(session, method, args);
+		};
+		return (Session) Proxy.newProxyInstance(Session.class.getClassLoader(), new Class<?>[] {Session.class}, handler);
+	}
+
+	private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+}
@@ -0,0 +1,87 @@
+package com.eecs3311.profilemicroservice;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.driver.v1.Driver;
+import org.neo4j.driver.v1.Session;
+import org.neo4j.driver.v1.Values;
+import org.neo4j.driver.v1.summary.Plan;
+import org.neo4j.harness.ServerControls;
+
+public class SchemaMigrationsTest {
+
+	private ServerControls neo4j;
+	private Driver driver;
+	private SchemaMigrations schemaMigrations;
+
+	@Before
+	public void setUp() {
+		neo4j = EmbeddedNeo4j.start();
+		driver = EmbeddedNeo4j.driver(neo4j);
+		schemaMigrations = new SchemaMigrations(driver, true, 60);
+	}
+
+	@After
+	public void tearDown() {
+		driver.close();
+		neo4j.close();
+	}
+
+	@Test
+	public void migratesOnceAndCanRunAgain() {
+		assertEquals(0, schemaMigrations.getVersion());
+		assertEquals(SchemaMigrations.MIGRATIONS.size(), schemaMigrations.migrate());
+		assertEquals(SchemaMigrations.MIGRATIONS.size(), schemaMigrations.getVersion());
+
+		// A second start finds nothing left to do
+		assertEquals(SchemaMigrations.MIGRATIONS.size(), schemaMigrations.migrate());
+
+		// And a start that died before recording its version can apply the same statements again
+		try (Session session = driver.session()) {
+			session.run("MATCH (v:schemaVersion) DETACH DELETE v");
+		}
+		assertEquals(SchemaMigrations.MIGRATIONS.size(), schemaMigrations.migrate());
+	}
+
+	@Test
+	public void songLookupsUseTheUniqueIndex() {
+		schemaMigrations.migrate();
+
+		try (Session session = driver.session()) {
+			Plan plan = session.run("EXPLAIN " + ProfileDriverImpl.SONG_NAME_QUERY, Values.parameters("songId", "")).consume().plan();
+			assertTrue(usesOperator(plan, "NodeUniqueIndexSeek"));
+		}
+	}
+
+	@Test
+	public void failsFastWhenAnIndexGoesMissing() {
+		schemaMigrations.migrate();
+		try (Session session = driver.session()) {
+			session.run("DROP CONSTRAINT ON (nSong:song) ASSERT nSong.songId IS UNIQUE").consume();
+		}
+
+		try {
+			schemaMigrations.verifyHotQueries();
+			fail("Expected the song lookups to be reported as label scans");
+		} catch (IllegalStateException e) {
+			assertTrue(e.getMessage().contains(ProfileDriverImpl.SONG_NAME_QUERY));
+		}
+	}
+
+	private static boolean usesOperator(Plan plan, String operator) {
+		if (plan.operatorType().startsWith(operator)) {
+			return true;
+		}
+		for (Plan child : plan.children()) {
+			if (usesOperator(child, operator)) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
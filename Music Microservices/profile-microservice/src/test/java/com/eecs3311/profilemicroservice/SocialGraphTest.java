@@ -0,0 +1,204 @@
+package com.eecs3311.profilemicroservice;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.driver.v1.Driver;
+import org.neo4j.driver.v1.Record;
+import org.neo4j.driver.v1.Session;
+import org.neo4j.driver.v1.Values;
+import org.neo4j.harness.ServerControls;
+
+public class SocialGraphTest {
+
+	private static final int USERS = 40;
+
+	private ServerControls neo4j;
+	private Driver driver;
+
+	@Before
+	public void setUp() {
+		neo4j = EmbeddedNeo4j.start();
+		driver = EmbeddedNeo4j.driver(neo4j);
+	}
+
+	@After
+	public void tearDown() {
+		driver.close();
+		neo4j.close();
+	}
+
+	@Test
+	public void matchesNeo4jAfterRandomWrites() {
+		Random random = new Random(3311);
+		try (Session session = driver.session()) {
+			for (int i = 0; i < USERS; i++) {
+				session.run("CREATE (:profile {userName: $userName})", Values.parameters("userName", "user" + i));
+			}
+			// Edges that are already there when the replica starts, including a duplicate follow
+			for (int i = 0; i < 200; i++) {
+				session.run("MATCH (a:profile {userName: $a}), (b:profile {userName: $b}) CREATE (a)-[:follows]->(b)",
+						Values.parameters("a", "user" + random.nextInt(USERS), "b", "user" + random.nextInt(USERS)));
+			}
+			session.run("MATCH (a:profile {userName: 'user0'}), (b:profile {userName: 'user1'}) CREATE (a)-[:follows]->(b), (a)-[:follows]->(b)");
+		}
+
+		// A small overlay so the writes below fold it back into the rows a few times
+		SocialGraph socialGraph = new SocialGraph(driver, true, 16);
+		socialGraph.load();
+		ProfileDriverImpl profileDriver = new ProfileDriverImpl(driver, new FriendFeed(driver, false, 500, 10000, 4096), socialGraph);
+		profileDriver.createUserProfile("newcomer", "New Comer", "password");
+		for (int i = 0; i < 400; i++) {
+			String userName = i % 10 == 0 ? "newcomer" : "user" + random.nextInt(USERS);
+			String frndUserName = "user" + random.nextInt(USERS);
+			int action = random.nextInt(10);
+			if (action < 6) {
+				profileDriver.followFriend(userName, frndUserName);
+			} else if (action < 9) {
+				profileDriver.unfollowFriend(userName, frndUserName);
+			} else {
+				profileDriver.blockFriend(userName, frndUserName);
+			}
+		}
+		profileDriver.blockFriend("user0", "nobody");
+
+		assertMatchesNeo4j(socialGraph);
+		// And a replica started from scratch reads back the same graph
+		SocialGraph reloaded = new SocialGraph(driver, true, 16);
+		reloaded.load();
+		assertMatchesNeo4j(reloaded);
+		assertEquals(socialGraph.getStats().get("follows"), reloaded.getStats().get("follows"));
+	}
+
+	@Test
+	public void aRacingUnfollowReachesTheReplicaAfterTheFollow() throws Exception {
+		try (Session session = driver.session()) {
+			session.run("CREATE (:profile {userName: 'a'}), (:profile {userName: 'b'})");
+		}
+		CountDownLatch followCommitted = new CountDownLatch(1);
+		CountDownLatch unfollowDone = new CountDownLatch(1);
+		// The unfollow starts once the follow is committed, and the follow's callback waits for it to finish. Holding
+		// the pair, the unfollow can't finish first, so the callback gives up waiting and goes on
+		SocialGraph socialGraph = new SocialGraph(driver, true, 16) {
+			@Override
+			public void onFollow(String userName, String frndUserName) {
+				followCommitted.countDown();
+				try {
+					unfollowDone.await(2, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				super.onFollow(userName, frndUserName);
+			}
+		};
+		socialGraph.load();
+		ProfileDriverImpl profileDriver = new ProfileDriverImpl(driver, new FriendFeed(driver, false, 500, 10000, 4096), socialGraph);
+
+		ExecutorService pool = Executors.newSingleThreadExecutor();
+		try {
+			Future<DbQueryStatus> follow = pool.submit(() -> profileDriver.followFriend("a", "b"));
+			assertTrue(followCommitted.await(10, TimeUnit.SECONDS));
+			assertEquals(DbQueryExecResult.QUERY_OK, profileDriver.unfollowFriend("a", "b").getdbQueryExecResult());
+			unfollowDone.countDown();
+			assertEquals(DbQueryExecResult.QUERY_OK, follow.get(10, TimeUnit.SECONDS).getdbQueryExecResult());
+		} finally {
+			pool.shutdownNow();
+		}
+
+		assertTrue(edges("follows").isEmpty());
+		assertEquals(false, socialGraph.isFollowing("a", "b"));
+	}
+
+	@Test
+	public void reportsFootprintForTenMillionEdges() {
+		int users = 1000000;
+		int edges = 10000000;
+		Random random = new Random(3311);
+		int[] src = new int[edges];
+		int[] dst = new int[edges];
+		for (int i = 0; i < edges; i++) {
+			src[i] = random.nextInt(users);
+			// Skewed so a few users have most of the followers, like a real follow graph
+			dst[i] = (int) (users * Math.pow(random.nextDouble(), 3));
+		}
+		long start = System.nanoTime();
+		CsrGraph graph = CsrGraph.build(users, src, dst, edges);
+		long buildMs = (System.nanoTime() - start) / 1000000;
+
+		// Lookups of random pairs, about one in ten is an edge
+		long[] latencies = new long[100000];
+		int found = 0;
+		for (int i = 0; i < latencies.length; i++) {
+			int edge = random.nextInt(edges);
+			int from = src[edge];
+			int to = i % 10 == 0 ? dst[edge] : random.nextInt(users);
+			long before = System.nanoTime();
+			found += graph.hasEdge(from, to) ? 1 : 0;
+			latencies[i] = System.nanoTime() - before;
+		}
+		Arrays.sort(latencies);
+
+		long footprint = graph.footprintBytes();
+		System.out.println(String.format("INFO: social graph with %d users and %d follows: %d MB (%.1f bytes per edge), built in %d ms, "
+				+ "membership p50 %d ns, p99 %d ns, %d found", users, graph.edgeCount(), footprint >> 20,
+				(double) footprint / graph.edgeCount(), buildMs, latencies[latencies.length / 2], latencies[latencies.length * 99 / 100], found));
+		// Two ints per edge and two per user, a HashMap<String, Set<String>> of the same graph takes well over ten times this
+		assertTrue(footprint <= 8L * graph.edgeCount() + 8L * (users + 1));
+	}
+
+	private void assertMatchesNeo4j(SocialGraph socialGraph) {
+		Set<String> follows = edges("follows");
+		Set<String> blocked = edges("blocked");
+		List<String> userNames = new ArrayList<>();
+		for (int i = 0; i < USERS; i++) {
+			userNames.add("user" + i);
+		}
+		userNames.add("newcomer");
+
+		for (String a : userNames) {
+			int following = 0;
+			int followers = 0;
+			Set<String> mutual = new HashSet<>();
+			for (String b : userNames) {
+				assertEquals(a + " follows " + b, follows.contains(a + "->" + b), socialGraph.isFollowing(a, b));
+				assertEquals(a + " blocked " + b, blocked.contains(a + "->" + b), socialGraph.isBlocking(a, b));
+				following += follows.contains(a + "->" + b) ? 1 : 0;
+				followers += follows.contains(b + "->" + a) ? 1 : 0;
+				if (follows.contains(a + "->" + b) && follows.contains(b + "->" + a)) {
+					mutual.add(b);
+				}
+			}
+			Map<?, ?> counts = (Map<?, ?>) socialGraph.getFollowCounts(a).getData();
+			assertEquals(following, counts.get("following"));
+			assertEquals(followers, counts.get("followers"));
+			assertEquals(mutual, new HashSet<>((List<?>) socialGraph.getMutualFollows(a).getData()));
+		}
+		assertEquals(DbQueryExecResult.QUERY_ERROR_NOT_FOUND, socialGraph.getFollowCounts("nobody").getdbQueryExecResult());
+	}
+
+	private Set<String> edges(String type) {
+		Set<String> edges = new HashSet<>();
+		try (Session session = driver.session()) {
+			for (Record record : session.run("MATCH (a:profile)-[:" + type + "]->(b:profile) RETURN a.userName + '->' + b.userName AS edge").list()) {
+				edges.add(record.get("edge").asString());
+			}
+		}
+		return edges;
+	}
+}
@@ -0,0 +1,121 @@
+package com.eecs3311.profilemicroservice;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.driver.v1.Driver;
+import org.neo4j.driver.v1.Session;
+import org.neo4j.driver.v1.Values;
+import org.neo4j.harness.ServerControls;
+
+public class SongRecommenderTest {
+
+	private ServerControls neo4j;
+	private Driver driver;
+	private final List<SongRecommender> recommenders = new ArrayList<>();
+
+	@Before
+	public void setUp() {
+		neo4j = EmbeddedNeo4j.start();
+		driver = EmbeddedNeo4j.driver(neo4j);
+		try (Session session = driver.session()) {
+			session.run("CREATE (me:profile {userName: 'me'}), (a:profile {userName: 'a'}), (b:profile {userName: 'b'}), "
+					+ "(c:profile {userName: 'c'}), (d:profile {userName: 'd'}), (y:profile {userName: 'y'}), (z:profile {userName: 'z'}), "
+					+ "(me)-[:follows]->(a), (me)-[:follows]->(b), (a)-[:follows]->(c), (b)-[:follows]->(c), (b)-[:follows]->(d), "
+					+ "(a)-[:follows]->(z), (b)-[:follows]->(y), (a)-[:follows]->(me), "
+					// z blocked me and I blocked y, neither of their likes count
+					+ "(z)-[:blocked]->(me), (me)-[:blocked]->(y)");
+			for (String like : Arrays.asList("a:s1", "a:s2", "b:s1", "c:s3", "d:s3", "d:s4", "z:s5", "y:s6", "me:s2")) {
+				String[] parts = like.split(":");
+				session.run("MERGE (s:song {songId: $songId}) ON CREATE SET s.songName = $songId "
+						+ "WITH s MATCH (p:profile {userName: $userName}) CREATE (p)-[:likes]->(s)",
+						Values.parameters("songId", parts[1], "userName", parts[0]));
+			}
+		}
+	}
+
+	@After
+	public void tearDown() {
+		for (SongRecommender recommender : recommenders) {
+			recommender.shutdown();
+		}
+		driver.close();
+		neo4j.close();
+	}
+
+	@Test
+	public void scoresByDistanceAndLeavesOutLikedAndBlocked() {
+		SocialGraph socialGraph = new SocialGraph(driver, true, 65536);
+		socialGraph.load();
+		// Partitions of one liker, so the scores of a song are added up across forked tasks
+		for (SongRecommender recommender : Arrays.asList(recommender(socialGraph, 1, 10000), recommender(new SocialGraph(driver, false, 65536), 1, 10000))) {
+			Map<String, Object> recommendations = recommend(recommender, "me", 10);
+			assertEquals(false, recommendations.get("partial"));
+			assertEquals(Arrays.asList("s1 2.0 2", "s3 1.0 2", "s4 0.5 1"), songs(recommendations));
+		}
+		assertEquals(DbQueryExecResult.QUERY_ERROR_NOT_FOUND, recommender(socialGraph, 1, 10000).recommend("nobody", 10).getdbQueryExecResult());
+	}
+
+	@Test
+	public void keepsOnlyTheBestCandidatesOfEveryPart() {
+		try (Session session = driver.session()) {
+			// d likes many more songs than a part keeps with max-results 1
+			session.run("MATCH (d:profile {userName: 'd'}) UNWIND range(0, 9) AS i "
+					+ "CREATE (d)-[:likes]->(:song {songId: 'x' + i, songName: 'x' + i})");
+		}
+		SongRecommender recommender = new SongRecommender(driver, new SocialGraph(driver, false, 65536), 200, 5000, 0.5, 1, 4, 10000, 1, 300, 10000);
+		recommenders.add(recommender);
+		Map<String, Object> recommendations = recommend(recommender, "me", 1);
+		assertEquals(false, recommendations.get("partial"));
+		assertEquals(Arrays.asList("s1 2.0 2"), songs(recommendations));
+	}
+
+	@Test
+	public void cachesCompleteAnswersOnly() {
+		SongRecommender recommender = recommender(new SocialGraph(driver, false, 65536), 250, 10000);
+		assertEquals(Arrays.asList("s1 2.0 2"), songs(recommend(recommender, "me", 1)));
+		try (Session session = driver.session()) {
+			session.run("MATCH (c:profile {userName: 'c'}), (s:song {songId: 's4'}) CREATE (c)-[:likes]->(s)");
+		}
+		// Still the cached answer, s4 only moves up once it expires
+		assertEquals(Arrays.asList("s1 2.0 2", "s3 1.0 2", "s4 0.5 1"), songs(recommend(recommender, "me", 10)));
+		// Or once a like, follow or block of the user drops it
+		recommender.invalidate("me");
+		assertEquals(Arrays.asList("s1 2.0 2", "s3 1.0 2", "s4 1.0 2"), songs(recommend(recommender, "me", 10)));
+
+		SongRecommender outOfTime = recommender(new SocialGraph(driver, false, 65536), 1, 0);
+		Map<String, Object> recommendations = recommend(outOfTime, "me", 10);
+		assertEquals(true, recommendations.get("partial"));
+		assertTrue(songs(recommendations).size() < 3);
+	}
+
+	private SongRecommender recommender(SocialGraph socialGraph, int partitionSize, long budgetMs) {
+		SongRecommender recommender = new SongRecommender(driver, socialGraph, 200, 5000, 0.5, partitionSize, 4, budgetMs, 50, 300, 10000);
+		recommenders.add(recommender);
+		return recommender;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Map<String, Object> recommend(SongRecommender recommender, String userName, int limit) {
+		DbQueryStatus status = recommender.recommend(userName, limit);
+		assertEquals(DbQueryExecResult.QUERY_OK, status.getdbQueryExecResult());
+		return (Map<String, Object>) status.getData();
+	}
+
+	@SuppressWarnings("unchecked")
+	private static List<String> songs(Map<String, Object> recommendations) {
+		List<String> songs = new ArrayList<>();
+		for (Map<String, Object> song : (List<Map<String, Object>>) recommendations.get("songs")) {
+			songs.add(song.get("songId") + " " + song.get("score") + " " + song.get("likedBy"));
+		}
+		return songs;
+	}
+}
@@ -0,0 +1,102 @@
+package com.eecs3311.profilemicroservice;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.neo4j.driver.v1.Driver;
+import org.neo4j.driver.v1.Session;
+import org.neo4j.driver.v1.Values;
+import org.neo4j.harness.ServerControls;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class StreamingFriendSongsTest {
+
+	private static final int FRIENDS = 2000;
+	private static final int LIKES = 5;
+
+	private static ServerControls neo4j;
+	private static ConfigurableApplicationContext context;
+	private static String baseUrl;
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+
+	@BeforeClass
+	public static void start() {
+		neo4j = EmbeddedNeo4j.start();
+		try (Driver driver = EmbeddedNeo4j.driver(neo4j); Session session = driver.session()) {
+			session.run("CREATE (:profile {userName: 'user0', password: 'pw'}), (:profile {userName: 'loner', password: 'pw'})");
+			session.run("UNWIND range(0, $likes - 1) AS i CREATE (:song {songId: 's' + i, songName: 'Song ' + i})", Values.parameters("likes", LIKES));
+			session.run("MATCH (me:profile {userName: 'user0'}) UNWIND range(1, $friends) AS i "
+					+ "CREATE (me)-[:follows]->(:profile {userName: 'friend' + i, password: 'pw'})", Values.parameters("friends", FRIENDS));
+			session.run("MATCH (friend:profile), (s:song) WHERE friend.userName STARTS WITH 'friend' CREATE (friend)-[:likes]->(s)");
+		}
+		context = new SpringApplicationBuilder(ProfileMicroserviceApplication.class)
+				.run("--server.port=0", "--profile.neo4j.uri=" + neo4j.boltURI(), "--profile.outbox.dir=target/outbox");
+		baseUrl = "http://localhost:" + context.getEnvironment().getProperty("local.server.port");
+	}
+
+	@AfterClass
+	public static void stop() {
+		context.close();
+		neo4j.close();
+	}
+
+	@Test
+	public void streamedResponseHasTheSameFriendsAsTheCollectedOne() throws IOException {
+		JsonNode collected = get("/getAllFriendFavouriteSongTitles/user0", null);
+		JsonNode streamed = get("/getAllFriendFavouriteSongTitles/user0?stream=true", "chunked");
+
+		assertEquals(FRIENDS, collected.get("data").size());
+		assertEquals(LIKES, collected.get("data").get("friend1").size());
+		assertEquals(toMap(collected.get("data")), toMap(streamed.get("data")));
+		assertEquals("OK", streamed.get("status").asText());
+	}
+
+	@Test
+	public void streamingNoFriendsGivesAnEmptyObject() throws IOException {
+		JsonNode streamed = get("/getAllFriendFavouriteSongTitles/loner?stream=true", "chunked");
+
+		assertEquals(0, streamed.get("data").size());
+		assertEquals("OK", streamed.get("status").asText());
+	}
+
+	private JsonNode get(String path, String transferEncoding) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+		try (InputStream in = connection.getInputStream()) {
+			assertEquals(200, connection.getResponseCode());
+			if (transferEncoding != null) {
+				// No Content-Length, the body went out while it was being written
+				assertEquals(transferEncoding, connection.getHeaderField("Transfer-Encoding"));
+			}
+			return objectMapper.readTree(in);
+		} finally {
+			connection.disconnect();
+		}
+	}
+
+	private static Map<String, List<String>> toMap(JsonNode data) {
+		Map<String, List<String>> friends = new TreeMap<>();
+		data.fields().forEachRemaining(field -> {
+			List<String> songs = new ArrayList<>();
+			field.getValue().forEach(song -> songs.add(song.asText()));
+			songs.sort(null);
+			friends.put(field.getKey(), songs);
+		});
+		return friends;
+	}
+}
@@ -0,0 +1,43 @@
+package com.eecs3311.songmicroservice;
+
+import org.springframework.http.HttpStatus;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+/**
+ * The body of every JSON response of the controllers, built once by Utils.setResponseStatus and never changed after.
+ * Fields left null are not written, so a response only has the fields the old maps used to have
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@JsonPropertyOrder({"path", "message", "status", "data"})
+public class ApiResponse {
+
+	private final String path;
+	private final String message;
+	private final HttpStatus status;
+	private final Object data;
+
+	public ApiResponse(String path, String message, HttpStatus status, Object data) {
+		this.path = path;
+		this.message = message;
+		this.status = status;
+		this.data = data;
+	}
+
+	public String getPath() {
+		return path;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+
+	public HttpStatus getStatus() {
+		return status;
+	}
+
+	public Object getData() {
+		return data;
+	}
+}
@@ -0,0 +1,276 @@
+package com.eecs3311.songmicroservice;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Repository;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
+/**
+ * Read-through cache in front of SongDalImpl. Found songs are kept in a size and TTL bounded cache, ids that don't exist
+ * are remembered for a shorter time in a separate negative cache. Every write goes to the database first and then updates
+ * or invalidates the cached entry, so the cache never serves a song older than its last write through this service.
+ * Entries are keyed by the normalized (lower case) Id so every spelling of an Id hits the same entry.
+ * Turn it off with song.cache.enabled=false, every call is then passed straight through
+ */
+@Primary
+@Repository
+public class CachingSongDal implements SongDal {
+
+	private final SongDalImpl songDal;
+	private final boolean enabled;
+
+	private final Cache<String, Song> songs;
+	private final Cache<String, Boolean> missingSongIds;
+	// The batch lookups in flight, a write to one of their songs takes the token away so the stale result isn't cached
+	private final Map<String, Object> loadTokens = new ConcurrentHashMap<>();
+
+	@Autowired
+	public CachingSongDal(SongDalImpl songDal,
+						  @Value("${song.cache.enabled:true}") boolean enabled,
+						  @Value("${song.cache.maximum-size:10000}") long maximumSize,
+						  @Value("${song.cache.ttl-seconds:300}") long ttlSeconds,
+						  @Value("${song.cache.negative-ttl-seconds:30}") long negativeTtlSeconds) {
+		this.songDal = songDal;
+		this.enabled = enabled;
+		this.songs = Caffeine.newBuilder()
+				.maximumSize(maximumSize)
+				.expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+				.recordStats()
+				.build();
+		this.missingSongIds = Caffeine.newBuilder()
+				.maximumSize(maximumSize)
+				.expireAfterWrite(negativeTtlSeconds, TimeUnit.SECONDS)
+				.recordStats()
+				.build();
+	}
+
+	@Override
+	public DbQueryStatus addSong(Song songToAdd) {
+		DbQueryStatus dbQueryStatus = songDal.addSong(songToAdd);
+		if (enabled && dbQueryStatus.getdbQueryExecResult() == DbQueryExecResult.QUERY_OK) {
+			String key = cacheKey(songToAdd.getId());
+			missingSongIds.invalidate(key);
+			songs.put(key, copyOf(songToAdd, songToAdd.getSongAmountFavourites()));
+		}
+		return dbQueryStatus;
+	}
+
+	@Override
+	public DbQueryStatus addSongs(List<Song> songsToAdd, boolean ordered) {
+		// New songs get fresh Ids, nothing cached can refer to them yet
+		return songDal.addSongs(songsToAdd, ordered);
+	}
+
+	@Override
+	public DbQueryStatus findSongById(String songId) {
+		if (!enabled) {
+			return songDal.findSongById(songId);
+		}
+		String cacheKey = cacheKey(songId);
+		if (missingSongIds.getIfPresent(cacheKey) != null) {
+			return new DbQueryStatus("Song not found in DB :(", DbQueryExecResult.QUERY_ERROR_NOT_FOUND);
+		}
+
+		DbQueryStatus[] loaded = new DbQueryStatus[1];
+		Song song = songs.get(cacheKey, key -> {
+			loaded[0] = songDal.findSongById(songId);
+			return loaded[0].getdbQueryExecResult() == DbQueryExecResult.QUERY_OK ? (Song) loaded[0].getData() : null;
+		});
+
+		if (loaded[0] != null) {
+			// Cache miss, hand back whatever the database said
+			if (loaded[0].getdbQueryExecResult() == DbQueryExecResult.QUERY_ERROR_NOT_FOUND) {
+				missingSongIds.put(cacheKey, Boolean.TRUE);
+			}
+			return loaded[0];
+		}
+
+		DbQueryStatus dbQueryStatus = new DbQueryStatus("Song found in DB!", DbQueryExecResult.QUERY_OK);
+		dbQueryStatus.setData(song);
+		return dbQueryStatus;
+	}
+
+	@Override
+	public DbQueryStatus getSongTitleById(String songId) {
+		if (!enabled) {
+			return songDal.getSongTitleById(songId);
+		}
+
+		// Titles are served from the same cached songs, a miss loads and caches the whole song
+		DbQueryStatus found = findSongById(songId);
+		switch (found.getdbQueryExecResult()) {
+			case QUERY_OK:
+				DbQueryStatus dbQueryStatus = new DbQueryStatus("Song found in DB", DbQueryExecResult.QUERY_OK);
+				dbQueryStatus.setData(((Song) found.getData()).getSongName());
+				return dbQueryStatus;
+			case QUERY_ERROR_NOT_FOUND:
+				return new DbQueryStatus("No song found in DB", DbQueryExecResult.QUERY_ERROR_NOT_FOUND);
+			default:
+				return new DbQueryStatus("Error occurred while accessing the database", DbQueryExecResult.QUERY_ERROR_GENERIC);
+		}
+	}
+
+	@Override
+	public DbQueryStatus findSongsByIds(List<String> songIds, boolean titlesOnly) {
+		if (!enabled) {
+			return songDal.findSongsByIds(songIds, titlesOnly);
+		}
+
+		Object token = new Object();
+		List<String> misses = new ArrayList<>();
+		try {
+			Map<String, Song> found = new HashMap<>();
+			for (String songId : songIds) {
+				String key = cacheKey(songId);
+				Song song = songs.getIfPresent(key);
+				if (song != null) {
+					found.put(key, song);
+				} else if (missingSongIds.getIfPresent(key) == null) {
+					misses.add(songId);
+					loadTokens.put(key, token);
+				}
+			}
+
+			// One $in query for everything the cache couldn't answer, always whole songs so they can be cached
+			if (!misses.isEmpty()) {
+				Map<String, Song> loaded = songDal.findSongs(misses, false);
+				for (String songId : misses) {
+					String key = cacheKey(songId);
+					Song song = SongDalImpl.normalizedId(songId) == null ? null : loaded.get(key);
+					if (song == null) {
+						if (loadTokens.remove(key, token)) {
+							missingSongIds.put(key, Boolean.TRUE);
+						}
+					} else {
+						// Keep an entry a concurrent read put in, and cache nothing if a write came in while we were querying.
+						// The compute is atomic with the writes' invalidations of the entry
+						found.put(key, song);
+						songs.asMap().compute(key, (k, cached) -> cached != null ? cached : loadTokens.remove(k, token) ? song : null);
+					}
+				}
+			}
+
+			DbQueryStatus dbQueryStatus = new DbQueryStatus("Songs looked up in DB", DbQueryExecResult.QUERY_OK);
+			dbQueryStatus.setData(SongDalImpl.toBatchEntries(songIds, found, titlesOnly));
+			return dbQueryStatus;
+		} catch (Exception e) {
+			return new DbQueryStatus("Error occurred during database query", DbQueryExecResult.QUERY_ERROR_GENERIC);
+		} finally {
+			for (String songId : misses) {
+				loadTokens.remove(cacheKey(songId), token);
+			}
+		}
+	}
+
+	@Override
+	public DbQueryStatus listSongs(String songArtistFullName, String songAlbum, String songNamePrefix, SongCursor after, int limit,
+								   Consumer<Song> consumer) {
+		// Listing walks the catalog once, caching those songs would only push the popular ones out
+		return songDal.listSongs(songArtistFullName, songAlbum, songNamePrefix, after, limit, consumer);
+	}
+
+	@Override
+	public DbQueryStatus deleteSongById(String songId) {
+		DbQueryStatus dbQueryStatus = songDal.deleteSongById(songId);
+		if (enabled) {
+			String key = cacheKey(songId);
+			loadTokens.remove(key);
+			songs.invalidate(key);
+			if (dbQueryStatus.getdbQueryExecResult() != DbQueryExecResult.QUERY_ERROR_GENERIC) {
+				missingSongIds.put(key, Boolean.TRUE);
+			}
+		}
+		return dbQueryStatus;
+	}
+
+	@Override
+	public DbQueryStatus updateSongFavouritesCount(String songId, boolean shouldDecrement) {
+		return updated(songId, songDal.updateSongFavouritesCount(songId, shouldDecrement));
+	}
+
+	@Override
+	public DbQueryStatus updateSongFavouritesCount(String songId, boolean shouldDecrement, String eventId) {
+		return updated(songId, songDal.updateSongFavouritesCount(songId, shouldDecrement, eventId));
+	}
+
+	private DbQueryStatus updated(String songId, DbQueryStatus dbQueryStatus) {
+		if (!enabled) {
+			return dbQueryStatus;
+		}
+
+		String cacheKey = cacheKey(songId);
+		loadTokens.remove(cacheKey);
+		if (dbQueryStatus.getdbQueryExecResult() == DbQueryExecResult.QUERY_OK && dbQueryStatus.getData() instanceof Long) {
+			// Swap in a copy with the new count, readers may still be serializing the old instance
+			long favouritesCount = (Long) dbQueryStatus.getData();
+			songs.asMap().computeIfPresent(cacheKey, (key, cached) -> copyOf(cached, favouritesCount));
+		} else if (dbQueryStatus.getdbQueryExecResult() == DbQueryExecResult.QUERY_ERROR_NOT_FOUND) {
+			songs.invalidate(cacheKey);
+			missingSongIds.put(cacheKey, Boolean.TRUE);
+		}
+		return dbQueryStatus;
+	}
+
+	/**
+	 * This method drops whatever is cached for a song, for writes that reached the mongoDB without going through this class
+	 * @param songId the Id of the song that was written
+	 */
+	public void invalidate(String songId) {
+		songDal.forgetSongLookup(songId);
+		if (enabled) {
+			String key = cacheKey(songId);
+			loadTokens.remove(key);
+			songs.invalidate(key);
+			missingSongIds.invalidate(key);
+		}
+	}
+
+	// Ids that aren't valid ObjectIds never match a song, they are remembered as missing as they were sent
+	private static String cacheKey(String songId) {
+		String normalizedId = SongDalImpl.normalizedId(songId);
+		return normalizedId == null ? songId : normalizedId;
+	}
+
+	/**
+	 * This method reports how well the cache is doing
+	 * @return the hit, miss and eviction counters of the song cache and the negative lookup cache, and the counters of the
+	 * single-flight behind them, which keeps working when the cache is off
+	 */
+	public Map<String, Object> getCacheStats() {
+		Map<String, Object> stats = new HashMap<>();
+		stats.put("enabled", enabled);
+		stats.put("songs", toMap(songs.stats(), songs.estimatedSize()));
+		stats.put("missingSongIds", toMap(missingSongIds.stats(), missingSongIds.estimatedSize()));
+		stats.put("singleFlight", songDal.getSingleFlightStats());
+		return stats;
+	}
+
+	private static Map<String, Object> toMap(CacheStats cacheStats, long size) {
+		Map<String, Object> stats = new HashMap<>();
+		stats.put("size", size);
+		stats.put("hits", cacheStats.hitCount());
+		stats.put("misses", cacheStats.missCount());
+		stats.put("evictions", cacheStats.evictionCount());
+		stats.put("hitRate", cacheStats.hitRate());
+		return stats;
+	}
+
+	private static Song copyOf(Song song, long favouritesCount) {
+		Song copy = new Song(song.getSongName(), song.getSongArtistFullName(), song.getSongAlbum());
+		copy.setId(song._id);
+		copy.setSongAmountFavourites(favouritesCount);
+		return copy;
+	}
+}
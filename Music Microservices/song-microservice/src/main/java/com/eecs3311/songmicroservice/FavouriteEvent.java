@@ -0,0 +1,56 @@
+package com.eecs3311.songmicroservice;
+
+import java.util.Map;
+
+/**
+ * One like or unlike sent over by the profile service. The event Id is picked by the sender and stays the same on every
+ * retry, so an event that arrives twice is only counted once
+ */
+public class FavouriteEvent {
+
+	public static final String KEY_EVENT_ID = "eventId";
+	public static final String KEY_SONG_ID = "songId";
+	public static final String KEY_SHOULD_DECREMENT = "shouldDecrement";
+
+	private final String eventId;
+	private final String songId;
+	private final boolean shouldDecrement;
+
+	public FavouriteEvent(String eventId, String songId, boolean shouldDecrement) {
+		this.eventId = eventId;
+		this.songId = songId;
+		this.shouldDecrement = shouldDecrement;
+	}
+
+	public String getEventId() {
+		return eventId;
+	}
+
+	public String getSongId() {
+		return songId;
+	}
+
+	public boolean isShouldDecrement() {
+		return shouldDecrement;
+	}
+
+	/**
+	 * @param fields an event as it was read from a request body
+	 * @return the event, null if a field is missing or shouldDecrement isn't true or false
+	 */
+	public static FavouriteEvent fromMap(Map<String, Object> fields) {
+		Object eventId = fields.get(KEY_EVENT_ID);
+		Object songId = fields.get(KEY_SONG_ID);
+		Object shouldDecrement = fields.get(KEY_SHOULD_DECREMENT);
+		if (!(eventId instanceof String) || ((String) eventId).isEmpty() || !(songId instanceof String) || ((String) songId).isEmpty()) {
+			return null;
+		}
+		if (shouldDecrement instanceof Boolean) {
+			return new FavouriteEvent((String) eventId, (String) songId, (Boolean) shouldDecrement);
+		}
+		if ("true".equals(shouldDecrement) || "false".equals(shouldDecrement)) {
+			return new FavouriteEvent((String) eventId, (String) songId, Boolean.parseBoolean((String) shouldDecrement));
+		}
+		return null;
+	}
+}
@@ -0,0 +1,333 @@
+package com.eecs3311.songmicroservice;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+/**
+ * Applies batches of favourite events from the profile service exactly once, as long as the write-behind buffer is off.
+ * A delivery first claims an event Id in its own collection, so only one delivery applies it at a time. The count
+ * change then adds the event Id to the song's favouriteEventsInFlight in the same update, so an event can't be counted
+ * twice even if the delivery dies before marking its claim done. A claim left pending that long is taken over after the
+ * lease, and the records expire after the retention period, which only has to outlast the sender's retries
+ */
+@Component
+public class FavouriteEventLog {
+
+	static final String COLLECTION = "favouriteEvents";
+
+	public static final String RESULT_APPLIED = "applied";
+	public static final String RESULT_DUPLICATE = "duplicate";
+	public static final String RESULT_NOT_FOUND = "not_found";
+	public static final String RESULT_REJECTED = "rejected";
+	public static final String RESULT_FAILED = "failed";
+
+	private static final String STATE_PENDING = "pending";
+	private static final String STATE_DONE = "done";
+
+	private final MongoTemplate db;
+	private final SongDal songDal;
+	private final long retentionHours;
+	private final long claimLeaseMs;
+
+	@Autowired
+	public FavouriteEventLog(MongoTemplate mongoTemplate, SongDal songDal,
+							 @Value("${song.favourites.events.retention-hours:168}") long retentionHours,
+							 @Value("${song.favourites.events.claim-lease-seconds:60}") long claimLeaseSeconds) {
+		this.db = mongoTemplate;
+		this.songDal = songDal;
+		this.retentionHours = retentionHours;
+		this.claimLeaseMs = TimeUnit.SECONDS.toMillis(claimLeaseSeconds);
+	}
+
+	/**
+	 * Creates the index that expires old event Ids. Safe to run on every startup
+	 */
+	public void initEventLog() {
+		db.indexOps(COLLECTION).ensureIndex(new Index().on("appliedAt", Sort.Direction.ASC)
+				.expire(retentionHours, TimeUnit.HOURS).named("appliedAt_ttl"));
+	}
+
+	/**
+	 * This method applies a batch of like and unlike events to the favourite counts, skipping the ones that were already
+	 * applied. The event Ids are looked up and claimed with one query and one insertMany, then every claimed event goes
+	 * through updateSongFavouritesCount so the cache and the leaderboard see it like any other update. The claims are
+	 * only marked done once their events were applied
+	 * @param events the events in the order they happened
+	 * @return returns the status of the database after being ran with the result of every event: applied, duplicate,
+	 * not_found, rejected when an unlike would take the count below 0, or failed when it should be sent again. The whole
+	 * batch fails if the event Ids couldn't be claimed, then nothing was applied and all of it should be sent again
+	 */
+	public DbQueryStatus applyEvents(List<FavouriteEvent> events) {
+		// Tags the event Ids claimed by this delivery, to tell them apart from a copy of the batch delivered at the same time
+		String deliveryId = UUID.randomUUID().toString();
+		Map<String, Document> markers;
+		Set<Integer> owned;
+		List<Integer> firsts = new ArrayList<>();
+		try {
+			markers = markers(eventIds(events));
+			Set<String> seen = new HashSet<>();
+			List<Integer> toClaim = new ArrayList<>();
+			for (int i = 0; i < events.size(); i++) {
+				String eventId = events.get(i).getEventId();
+				if (seen.add(eventId)) {
+					firsts.add(i);
+					if (!markers.containsKey(eventId)) {
+						toClaim.add(i);
+					}
+				}
+			}
+			owned = claim(events, toClaim, deliveryId, markers);
+		} catch (Exception e) {
+			release(deliveryId);
+			return new DbQueryStatus("Error occurred while recording the favourite events", DbQueryExecResult.QUERY_ERROR_GENERIC);
+		}
+
+		String[] outcomes = new String[events.size()];
+		Arrays.fill(outcomes, RESULT_DUPLICATE);
+		// The finished events by the delivery that holds their claim
+		Map<String, List<String>> done = new HashMap<>();
+		int applied = 0;
+		for (int i : firsts) {
+			FavouriteEvent event = events.get(i);
+			Document marker = markers.get(event.getEventId());
+			String result = owned.contains(i) ? apply(event) : resume(event, marker, deliveryId);
+			// Read after resume, which moves a claim it takes over to this delivery
+			String owner = owned.contains(i) || marker == null ? deliveryId : marker.getString("deliveryId");
+			if (!RESULT_FAILED.equals(result)) {
+				done.computeIfAbsent(owner, key -> new ArrayList<>()).add(event.getEventId());
+			}
+			if (RESULT_APPLIED.equals(result)) {
+				applied++;
+			}
+			outcomes[i] = result;
+		}
+		markDone(events, done);
+
+		List<Map<String, Object>> results = new ArrayList<>(events.size());
+		for (int i = 0; i < events.size(); i++) {
+			results.add(result(events.get(i).getEventId(), outcomes[i]));
+		}
+		Map<String, Object> data = new HashMap<>();
+		data.put("applied", applied);
+		data.put("results", results);
+		DbQueryStatus dbQueryStatus = new DbQueryStatus("Applied the favourite events", DbQueryExecResult.QUERY_OK);
+		dbQueryStatus.setData(data);
+		return dbQueryStatus;
+	}
+
+	private Map<String, Document> markers(List<String> eventIds) {
+		Map<String, Document> markers = new HashMap<>();
+		for (Document document : db.find(new Query(Criteria.where("_id").in(eventIds)), Document.class, COLLECTION)) {
+			markers.put(document.getString("_id"), document);
+		}
+		return markers;
+	}
+
+	/**
+	 * Claims the event Ids with one insertMany
+	 * @param markers the records already found, the ones another delivery claimed first are added to it
+	 * @return the positions of the events this delivery claimed, the only ones it may apply
+	 */
+	private Set<Integer> claim(List<FavouriteEvent> events, List<Integer> toClaim, String deliveryId, Map<String, Document> markers) {
+		Set<Integer> claimed = new HashSet<>(toClaim);
+		if (toClaim.isEmpty()) {
+			return claimed;
+		}
+		try {
+			BulkOperations bulkOps = db.bulkOps(BulkOperations.BulkMode.UNORDERED, COLLECTION);
+			for (int i : toClaim) {
+				bulkOps.insert(marker(events.get(i), deliveryId));
+			}
+			bulkOps.execute();
+			return claimed;
+		} catch (DuplicateKeyException | BulkOperationException e) {
+			// Another delivery of some of these events got in first, and the server may have stopped at that first
+			// duplicate. Read back whose every event Id is and claim the ones nobody has
+			Map<String, Document> found = markers(eventIds(events, toClaim));
+			claimed.clear();
+			for (int i : toClaim) {
+				String eventId = events.get(i).getEventId();
+				Document marker = found.get(eventId);
+				if (marker == null) {
+					try {
+						db.insert(marker(events.get(i), deliveryId), COLLECTION);
+						claimed.add(i);
+					} catch (DuplicateKeyException duplicate) {
+						// Lost the race for this one too, its owner is read back when it is resumed
+						markers.putAll(markers(Collections.singletonList(eventId)));
+					}
+				} else if (deliveryId.equals(marker.getString("deliveryId"))) {
+					claimed.add(i);
+				} else {
+					markers.put(eventId, marker);
+				}
+			}
+			return claimed;
+		}
+	}
+
+	private static Document marker(FavouriteEvent event, String deliveryId) {
+		Date now = new Date();
+		return new Document("_id", event.getEventId()).append("songId", event.getSongId())
+				.append(FavouriteEvent.KEY_SHOULD_DECREMENT, event.isShouldDecrement())
+				.append("deliveryId", deliveryId).append("state", STATE_PENDING)
+				.append("claimedAt", now).append("appliedAt", now);
+	}
+
+	private static List<String> eventIds(List<FavouriteEvent> events) {
+		List<String> eventIds = new ArrayList<>(events.size());
+		for (FavouriteEvent event : events) {
+			eventIds.add(event.getEventId());
+		}
+		return eventIds;
+	}
+
+	private static List<String> eventIds(List<FavouriteEvent> events, List<Integer> positions) {
+		List<String> eventIds = new ArrayList<>(positions.size());
+		for (int i : positions) {
+			eventIds.add(events.get(i).getEventId());
+		}
+		return eventIds;
+	}
+
+	/**
+	 * Finishes an event another delivery claimed. If that delivery already applied it, only marking it done is left.
+	 * If its claim is older than the lease, the delivery is taken to be gone and the claim is moved to this one to apply
+	 * the event
+	 * @return duplicate if it was applied, failed while another delivery may still be applying it
+	 */
+	private String resume(FavouriteEvent event, Document marker, String deliveryId) {
+		if (marker == null || !STATE_PENDING.equals(marker.getString("state"))) {
+			return RESULT_DUPLICATE;
+		}
+		try {
+			if (db.exists(new Query(Criteria.where("_id").is(event.getSongId()).and(Song.KEY_FAVOURITE_EVENTS_IN_FLIGHT).is(event.getEventId())), Song.class)) {
+				return RESULT_DUPLICATE;
+			}
+			Date claimedAt = marker.getDate("claimedAt");
+			if (claimedAt == null || System.currentTimeMillis() - claimedAt.getTime() < claimLeaseMs) {
+				return RESULT_FAILED;
+			}
+			Query query = new Query(Criteria.where("_id").is(event.getEventId()).and("state").is(STATE_PENDING)
+					.and("deliveryId").is(marker.getString("deliveryId")));
+			Update update = new Update().set("deliveryId", deliveryId).set("claimedAt", new Date());
+			if (db.updateFirst(query, update, COLLECTION).getModifiedCount() == 0) {
+				return RESULT_FAILED;
+			}
+			marker.put("deliveryId", deliveryId);
+		} catch (Exception e) {
+			return RESULT_FAILED;
+		}
+		return apply(event);
+	}
+
+	private String apply(FavouriteEvent event) {
+		DbQueryStatus dbQueryStatus = songDal.updateSongFavouritesCount(event.getSongId(), event.isShouldDecrement(), event.getEventId());
+		switch (dbQueryStatus.getdbQueryExecResult()) {
+			case QUERY_OK:
+				// No new count means the song already had the event
+				return dbQueryStatus.getData() == null ? RESULT_DUPLICATE : RESULT_APPLIED;
+			case QUERY_ERROR_NOT_FOUND:
+				return RESULT_NOT_FOUND;
+			default:
+				if (event.isShouldDecrement() && hasNoFavourites(event.getSongId())) {
+					return RESULT_REJECTED;
+				}
+				// Give up the claim so the retry isn't taken for a duplicate
+				try {
+					db.remove(new Query(Criteria.where("_id").is(event.getEventId()).and("state").is(STATE_PENDING)), COLLECTION);
+				} catch (Exception e) {
+					System.out.println("WARN: Could not release failed favourite event " + event.getEventId() + ": " + e.getMessage());
+				}
+				return RESULT_FAILED;
+		}
+	}
+
+	private boolean hasNoFavourites(String songId) {
+		try {
+			return db.exists(new Query(Criteria.where("_id").is(songId).and(Song.KEY_SONG_AMOUNT_FAVOURITES).lte(0)), Song.class);
+		} catch (Exception e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Marks the claims of the finished events done, as long as they are still held by the delivery that was seen holding
+	 * them, then takes the ones that are done off their songs. The counts already hold them, so a failure here only
+	 * leaves the claims for the next delivery or the lease to finish
+	 * @param done the finished event Ids by the delivery that holds their claim
+	 */
+	private void markDone(List<FavouriteEvent> events, Map<String, List<String>> done) {
+		if (done.isEmpty()) {
+			return;
+		}
+		List<String> eventIds = new ArrayList<>();
+		try {
+			for (Map.Entry<String, List<String>> owner : done.entrySet()) {
+				eventIds.addAll(owner.getValue());
+				db.updateMulti(new Query(Criteria.where("_id").in(owner.getValue()).and("state").is(STATE_PENDING).and("deliveryId").is(owner.getKey())),
+						new Update().set("state", STATE_DONE).set("appliedAt", new Date()), COLLECTION);
+			}
+			Query doneQuery = new Query(Criteria.where("_id").in(eventIds).and("state").is(STATE_DONE));
+			doneQuery.fields().include("_id");
+			List<Object> doneIds = new ArrayList<>();
+			for (Document document : db.find(doneQuery, Document.class, COLLECTION)) {
+				doneIds.add(document.getString("_id"));
+			}
+			if (doneIds.isEmpty()) {
+				return;
+			}
+			Set<String> songIds = new HashSet<>();
+			for (FavouriteEvent event : events) {
+				songIds.add(event.getSongId());
+			}
+			db.updateMulti(new Query(Criteria.where("_id").in(songIds)),
+					new Update().pullAll(Song.KEY_FAVOURITE_EVENTS_IN_FLIGHT, doneIds.toArray()), Song.class);
+		} catch (Exception e) {
+			System.out.println("WARN: Could not mark " + eventIds.size() + " favourite event(s) done: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Gives up the claims of a delivery that failed before applying anything, so the whole batch can be sent again as if
+	 * it never arrived
+	 */
+	private void release(String deliveryId) {
+		try {
+			db.remove(new Query(Criteria.where("deliveryId").is(deliveryId).and("state").is(STATE_PENDING)), COLLECTION);
+		} catch (Exception e) {
+			// Those claims are taken over once their lease runs out
+			System.out.println("WARN: Could not release the favourite events of a failed delivery: " + e.getMessage());
+		}
+	}
+
+	private static Map<String, Object> result(String eventId, String result) {
+		Map<String, Object> entry = new HashMap<>();
+		entry.put(FavouriteEvent.KEY_EVENT_ID, eventId);
+		entry.put("result", result);
+		return entry;
+	}
+}
@@ -0,0 +1,271 @@
+package com.eecs3311.songmicroservice;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import com.mongodb.MongoBulkWriteException;
+
+/**
+ * Optional write-behind buffer for favourite counts. Every song that is liked or unliked gets a counter seeded once from
+ * mongoDB, likes and unlikes change it with a compare-and-set that never takes it below 0, and the difference to what
+ * mongoDB holds is written as one bulkWrite of $inc operations every flush interval, or sooner once enough songs have
+ * counters. While a song has a counter its count is read from it, so reads are never behind, nor ahead while a flush is
+ * running. A counter that stayed unchanged for a whole flush interval after its last write is retired and reads go back
+ * to mongoDB. Disabled by default, turn it on with song.favourites.write-behind.enabled=true
+ */
+@Component
+public class FavouritesWriteBehind {
+
+	// What add answers when the song isn't in mongoDB
+	public static final long NO_SONG = -1;
+	// What add answers when a decrement would take the count below 0, nothing changed
+	public static final long BELOW_ZERO = -2;
+
+	// The counts a counter holds before it is seeded and once it is retired, a real count is never negative
+	private static final long UNSEEDED = Long.MIN_VALUE;
+	private static final long RETIRED = Long.MIN_VALUE + 1;
+
+	private final MongoTemplate db;
+	private final boolean enabled;
+	private final int maxPendingSongs;
+
+	// The counters of the songs liked or unliked lately
+	private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+
+	private final AtomicBoolean flushRequested = new AtomicBoolean();
+	private final ScheduledExecutorService flusher;
+
+	@Autowired
+	public FavouritesWriteBehind(MongoTemplate mongoTemplate,
+								 @Value("${song.favourites.write-behind.enabled:false}") boolean enabled,
+								 @Value("${song.favourites.write-behind.flush-interval-ms:250}") long flushIntervalMs,
+								 @Value("${song.favourites.write-behind.max-pending-songs:500}") int maxPendingSongs) {
+		this.db = mongoTemplate;
+		this.enabled = enabled;
+		this.maxPendingSongs = maxPendingSongs;
+
+		if (enabled) {
+			this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "favourites-write-behind");
+				thread.setDaemon(true);
+				return thread;
+			});
+			this.flusher.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+		} else {
+			this.flusher = null;
+		}
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * This method records a like (+1) or unlike (-1) for a song, only going to the database the first time the song is
+	 * seen to seed its counter
+	 * @param songId the Id of the song being liked/unliked
+	 * @param delta the change to apply to the song's favourites count
+	 * @return the song's favourites count with the change, NO_SONG if the song doesn't exist or BELOW_ZERO if the count
+	 * would go below 0 and was left alone
+	 */
+	public long add(String songId, long delta) {
+		return add(songId, delta, () -> persistedCount(songId));
+	}
+
+	/**
+	 * This method is add with the song's count in mongoDB given by the caller, for callers that already read it
+	 * @param persistedCount gives the songAmountFavourites in mongoDB, or null if the song doesn't exist, only asked for
+	 * when the song has no counter yet
+	 */
+	public long add(String songId, long delta, Supplier<Long> persistedCount) {
+		while (true) {
+			Counter counter = counters.get(songId);
+			if (counter == null) {
+				counter = counters.computeIfAbsent(songId, key -> new Counter());
+				if (counters.size() >= maxPendingSongs && flushRequested.compareAndSet(false, true)) {
+					flusher.execute(this::flushQuietly);
+				}
+			}
+			long count = counter.count.get();
+			if (count == RETIRED) {
+				// Retired by a flush or the song was deleted, a new counter is seeded from mongoDB
+				counters.remove(songId, counter);
+				continue;
+			}
+			if (count == UNSEEDED) {
+				Long persisted = persistedCount.get();
+				if (persisted == null) {
+					if (counter.count.compareAndSet(UNSEEDED, RETIRED)) {
+						counters.remove(songId, counter);
+					}
+					return NO_SONG;
+				}
+				counter.seed(persisted);
+				continue;
+			}
+			long next = count + delta;
+			if (next < 0) {
+				return BELOW_ZERO;
+			}
+			if (counter.count.compareAndSet(count, next)) {
+				return next;
+			}
+		}
+	}
+
+	/**
+	 * @return true if the song has a counter, so add won't need its count from mongoDB
+	 */
+	public boolean isTracked(String songId) {
+		Counter counter = counters.get(songId);
+		return counter != null && counter.count.get() >= 0;
+	}
+
+	/**
+	 * This method returns a song's favourites count including the changes that haven't reached mongoDB yet
+	 * @param songId the Id of the song to look up
+	 * @param persisted the songAmountFavourites read from mongoDB
+	 * @return the count of the song's counter, the persisted count when it has none
+	 */
+	public long favouritesCount(String songId, long persisted) {
+		Counter counter = counters.get(songId);
+		long count = counter == null ? UNSEEDED : counter.count.get();
+		return count < 0 ? persisted : count;
+	}
+
+	/**
+	 * This method drops the counter of a song, used when the song itself is deleted
+	 * @param songId the Id of the song to forget
+	 */
+	public void discard(String songId) {
+		Counter counter = counters.remove(songId);
+		if (counter != null) {
+			counter.count.set(RETIRED);
+		}
+	}
+
+	/**
+	 * This method writes the change of every counter since the last flush to mongoDB in a single bulkWrite. A change is
+	 * only marked as flushed once its write succeeds, so a failed flush is retried on the next round. The bulkWrite is
+	 * ordered and stops at the first error, the changes written before it are marked as flushed so the retry doesn't
+	 * apply them a second time
+	 */
+	public synchronized void flush() {
+		flushRequested.set(false);
+
+		List<Counter> flushing = new ArrayList<>();
+		List<Long> observed = new ArrayList<>();
+		BulkOperations bulkOps = db.bulkOps(BulkOperations.BulkMode.ORDERED, Song.class);
+		for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+			Counter counter = entry.getValue();
+			long count = counter.count.get();
+			if (count < 0) {
+				continue;
+			}
+			long delta = count - counter.flushed;
+			if (delta == 0) {
+				// Retired only after a whole interval without changes, so a read that got the count from mongoDB just
+				// before the last write went out doesn't fall back to it
+				if (counter.idle && counter.count.compareAndSet(count, RETIRED)) {
+					counters.remove(entry.getKey(), counter);
+				}
+				counter.idle = true;
+				continue;
+			}
+			counter.idle = false;
+			bulkOps.updateOne(new Query(Criteria.where("_id").is(entry.getKey())), new Update().inc(Song.KEY_SONG_AMOUNT_FAVOURITES, delta));
+			flushing.add(counter);
+			observed.add(count);
+		}
+
+		if (flushing.isEmpty()) {
+			return;
+		}
+		try {
+			bulkOps.execute();
+		} catch (DataAccessException e) {
+			markFlushed(flushing, observed, failedIndex(e));
+			throw e;
+		}
+		markFlushed(flushing, observed, flushing.size());
+	}
+
+	// The index of the operation the ordered bulkWrite stopped at, 0 when it isn't known and nothing can be assumed written
+	private static int failedIndex(DataAccessException e) {
+		if (e instanceof BulkOperationException) {
+			BulkOperationException bulk = (BulkOperationException) e;
+			return bulk.getErrors().isEmpty() ? 0 : bulk.getErrors().get(0).getIndex();
+		}
+		if (e.getCause() instanceof MongoBulkWriteException) {
+			MongoBulkWriteException bulk = (MongoBulkWriteException) e.getCause();
+			return bulk.getWriteErrors().isEmpty() ? 0 : bulk.getWriteErrors().get(0).getIndex();
+		}
+		return 0;
+	}
+
+	private static void markFlushed(List<Counter> flushing, List<Long> observed, int failedIndex) {
+		for (int i = 0; i < flushing.size() && i < failedIndex; i++) {
+			flushing.get(i).flushed = observed.get(i);
+		}
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		if (flusher != null) {
+			flusher.shutdown();
+			flush();
+		}
+	}
+
+	private Long persistedCount(String songId) {
+		Query query = new Query(Criteria.where("_id").is(songId));
+		query.fields().include(Song.KEY_SONG_AMOUNT_FAVOURITES);
+		Song persisted = db.findOne(query, Song.class);
+		return persisted == null ? null : persisted.getSongAmountFavourites();
+	}
+
+	private void flushQuietly() {
+		try {
+			flush();
+		} catch (Exception e) {
+			System.out.println("WARN: Failed to flush favourite counts, will retry: " + e.getMessage());
+		}
+	}
+
+	private static final class Counter {
+		// The song's favourites count with every accepted change, UNSEEDED or RETIRED when it isn't one
+		final AtomicLong count = new AtomicLong(UNSEEDED);
+		// Only written by the flusher once seeded, the count that is in mongoDB
+		volatile long flushed;
+		// Only used by the flusher, true when the last flush found nothing to write
+		boolean idle;
+
+		synchronized void seed(long persisted) {
+			if (count.get() == UNSEEDED) {
+				flushed = persisted;
+				count.set(persisted);
+			}
+		}
+	}
+}
@@ -0,0 +1,123 @@
+package com.eecs3311.songmicroservice;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Writes a list response straight to the HTTP response while the items are still being read from the database, so a
+ * request only ever holds the item being written instead of the whole list. The body has the same shape as the responses
+ * built with Utils.setResponseStatus, with the list under "data", or with an object under "data" whose fields are
+ * written one at a time for responses that are keyed by name
+ */
+public class JsonStreamWriter implements Closeable {
+
+	private final JsonGenerator generator;
+	private final boolean objectData;
+	private boolean finished;
+
+	private JsonStreamWriter(JsonGenerator generator, boolean objectData) {
+		this.generator = generator;
+		this.objectData = objectData;
+	}
+
+	/**
+	 * This method starts a 200 OK response and opens the "data" list
+	 * @param response the response to write to
+	 * @param objectMapper the mapper used to serialize every item
+	 * @param path the path of the request, same as the "path" of every other response
+	 * @return the writer to hand the items to
+	 */
+	public static JsonStreamWriter start(HttpServletResponse response, ObjectMapper objectMapper, String path) throws IOException {
+		JsonGenerator generator = startResponse(response, objectMapper, path);
+		generator.writeStartArray();
+		return new JsonStreamWriter(generator, false);
+	}
+
+	/**
+	 * This method starts a 200 OK response and opens the "data" object, its fields are written with write(name, value)
+	 * @param response the response to write to
+	 * @param objectMapper the mapper used to serialize every value
+	 * @param path the path of the request, same as the "path" of every other response
+	 * @return the writer to hand the fields to
+	 */
+	public static JsonStreamWriter startObject(HttpServletResponse response, ObjectMapper objectMapper, String path) throws IOException {
+		JsonGenerator generator = startResponse(response, objectMapper, path);
+		generator.writeStartObject();
+		return new JsonStreamWriter(generator, true);
+	}
+
+	public void write(Object item) throws IOException {
+		generator.writeObject(item);
+	}
+
+	public void write(String name, Object value) throws IOException {
+		generator.writeObjectField(name, value);
+	}
+
+	/**
+	 * This method closes the "data" list and writes the fields that are only known once every item has been written
+	 * @param dbQueryStatus the outcome of the query, its message and result go into "message" and "status". The HTTP
+	 * status has already been sent, so a failure part way through is only reported in the body
+	 * @param extraFields any other fields to add, like the cursor of the next page
+	 */
+	public void finish(DbQueryStatus dbQueryStatus, Map<String, Object> extraFields) throws IOException {
+		if (objectData) {
+			generator.writeEndObject();
+		} else {
+			generator.writeEndArray();
+		}
+		for (Map.Entry<String, Object> field : extraFields.entrySet()) {
+			generator.writeObjectField(field.getKey(), field.getValue());
+		}
+		generator.writeStringField("message", dbQueryStatus.getMessage());
+		generator.writeObjectField("status", toHttpStatus(dbQueryStatus.getdbQueryExecResult()));
+		generator.writeEndObject();
+		finished = true;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (!finished) {
+			// Try not to leave the client with half a JSON document
+			try {
+				finish(new DbQueryStatus("Response ended early", DbQueryExecResult.QUERY_ERROR_GENERIC), Collections.emptyMap());
+			} catch (IOException e) {
+				// The client is gone or an item was cut off part way, nothing more can be written
+			}
+		}
+		generator.close();
+	}
+
+	private static JsonGenerator startResponse(HttpServletResponse response, ObjectMapper objectMapper, String path) throws IOException {
+		response.setStatus(HttpStatus.OK.value());
+		response.setContentType(MediaType.APPLICATION_JSON_UTF8_VALUE);
+
+		JsonGenerator generator = objectMapper.getFactory().createGenerator(response.getOutputStream(), JsonEncoding.UTF8);
+		generator.writeStartObject();
+		generator.writeStringField("path", path);
+		generator.writeFieldName("data");
+		return generator;
+	}
+
+	private static HttpStatus toHttpStatus(DbQueryExecResult dbQueryExecResult) {
+		switch (dbQueryExecResult) {
+			case QUERY_OK:
+				return HttpStatus.OK;
+			case QUERY_ERROR_NOT_FOUND:
+				return HttpStatus.NOT_FOUND;
+			default:
+				return HttpStatus.INTERNAL_SERVER_ERROR;
+		}
+	}
+}
@@ -0,0 +1,122 @@
+package com.eecs3311.songmicroservice;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Every latency histogram of the service, one per metric and set of labels, written out in the Prometheus text format
+ * by /metrics. RequestTimer times the endpoints and QueryTimer the SongDal methods. Turn it off with
+ * song.metrics.enabled=false, nothing is then timed
+ */
+@Component
+public class LatencyMetrics {
+
+	// The "le" buckets the histograms are exported with, from 100us to 10s
+	private static final long[] BUCKET_NANOS = {100000L, 250000L, 500000L, 1000000L, 2500000L, 5000000L, 10000000L, 25000000L,
+			50000000L, 100000000L, 250000000L, 500000000L, 1000000000L, 2500000000L, 5000000000L, 10000000000L};
+	private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+	private final boolean enabled;
+	private final ConcurrentMap<String, String> help = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, ConcurrentMap<String, LatencyHistogram>> metrics = new ConcurrentHashMap<>();
+
+	@Autowired
+	public LatencyMetrics(@Value("${song.metrics.enabled:true}") boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * This method should give the histogram of a metric with the given labels, creating it the first time. Callers on a
+	 * hot path should keep the histogram rather than look it up for every call
+	 * @param name the name of the metric in seconds, like "song_dal_query_seconds"
+	 * @param description the HELP line of the metric
+	 * @param labels the label names and values one after the other, like "operation", "findSongById"
+	 * @return the histogram to record the calls in
+	 */
+	public LatencyHistogram histogram(String name, String description, String... labels) {
+		help.putIfAbsent(name, description);
+		ConcurrentMap<String, LatencyHistogram> series = metrics.computeIfAbsent(name, key -> new ConcurrentHashMap<>());
+		String labelText = labelText(labels);
+		LatencyHistogram histogram = series.get(labelText);
+		return histogram != null ? histogram : series.computeIfAbsent(labelText, key -> new LatencyHistogram());
+	}
+
+	/**
+	 * This method should write every histogram in the Prometheus text format. Each one gets the usual _bucket, _sum and
+	 * _count lines, and its p50, p90, p99 and p999 at full resolution in a "_quantiles" gauge next to it
+	 * @return the text of the /metrics endpoint
+	 */
+	public String toPrometheusText() {
+		StringBuilder text = new StringBuilder();
+		for (Map.Entry<String, ConcurrentMap<String, LatencyHistogram>> metric : new TreeMap<>(metrics).entrySet()) {
+			String name = metric.getKey();
+			Map<String, LatencyHistogram.Snapshot> snapshots = new TreeMap<>();
+			for (Map.Entry<String, LatencyHistogram> series : metric.getValue().entrySet()) {
+				snapshots.put(series.getKey(), series.getValue().snapshot());
+			}
+
+			text.append("# HELP ").append(name).append(' ').append(help.get(name)).append('\n');
+			text.append("# TYPE ").append(name).append(" histogram\n");
+			for (Map.Entry<String, LatencyHistogram.Snapshot> series : snapshots.entrySet()) {
+				String labels = series.getKey();
+				LatencyHistogram.Snapshot snapshot = series.getValue();
+				String separator = labels.isEmpty() ? "" : ",";
+				for (long bucketNanos : BUCKET_NANOS) {
+					text.append(name).append("_bucket{").append(labels).append(separator).append("le=\"").append(seconds(bucketNanos))
+							.append("\"} ").append(snapshot.countAtOrBelow(bucketNanos)).append('\n');
+				}
+				text.append(name).append("_bucket{").append(labels).append(separator).append("le=\"+Inf\"} ").append(snapshot.getCount()).append('\n');
+				text.append(name).append("_sum{").append(labels).append("} ").append(seconds(snapshot.getTotalNanos())).append('\n');
+				text.append(name).append("_count{").append(labels).append("} ").append(snapshot.getCount()).append('\n');
+			}
+
+			text.append("# HELP ").append(name).append("_quantiles ").append(help.get(name)).append(", quantiles at full resolution\n");
+			text.append("# TYPE ").append(name).append("_quantiles gauge\n");
+			for (Map.Entry<String, LatencyHistogram.Snapshot> series : snapshots.entrySet()) {
+				String separator = series.getKey().isEmpty() ? "" : ",";
+				for (double quantile : QUANTILES) {
+					text.append(name).append("_quantiles{").append(series.getKey()).append(separator).append("quantile=\"").append(quantile)
+							.append("\"} ").append(seconds(series.getValue().valueAtQuantile(quantile))).append('\n');
+				}
+			}
+		}
+		return text.toString();
+	}
+
+	private static String labelText(String[] labels) {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i + 1 < labels.length; i += 2) {
+			if (text.length() > 0) {
+				text.append(',');
+			}
+			text.append(labels[i]).append("=\"");
+			String value = labels[i + 1] == null ? "" : labels[i + 1];
+			for (int j = 0; j < value.length(); j++) {
+				char c = value.charAt(j);
+				if (c == '\\' || c == '"') {
+					text.append('\\').append(c);
+				} else if (c == '\n') {
+					text.append("\\n");
+				} else {
+					text.append(c);
+				}
+			}
+			text.append('"');
+		}
+		return text.toString();
+	}
+
+	private static String seconds(long nanos) {
+		return Double.toString(nanos / 1e9);
+	}
+}
@@ -0,0 +1,23 @@
+package com.eecs3311.songmicroservice;
+
+import org.springframework.http.HttpStatus;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * A page of a list with the cursor of the next page, which is written as null on the last page
+ */
+public class PageResponse extends ApiResponse {
+
+	@JsonInclude(JsonInclude.Include.ALWAYS)
+	private final String nextCursor;
+
+	public PageResponse(String path, String message, HttpStatus status, Object data, String nextCursor) {
+		super(path, message, status, data);
+		this.nextCursor = nextCursor;
+	}
+
+	public String getNextCursor() {
+		return nextCursor;
+	}
+}
@@ -0,0 +1,193 @@
+package com.eecs3311.songmicroservice;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * The song endpoints of SongController under /reactive, served by ReactiveSongDalImpl. Every handler returns a Mono so
+ * the Tomcat thread is handed back as soon as the query is sent and no thread waits on the mongoDB. Only there with the
+ * reactive profile. Writes here drop the song from the CachingSongDal cache, reads don't use it
+ */
+@Profile("reactive")
+@RestController
+@RequestMapping("/reactive")
+public class ReactiveSongController {
+
+	private final ReactiveSongDal songDal;
+	private final CachingSongDal songCache;
+
+	@Value("${song.list.max-limit:500}")
+	private int maxListLimit;
+
+	@Value("${song.batch.max-ids:200}")
+	private int maxBatchIds;
+
+	@Autowired
+	public ReactiveSongController(ReactiveSongDal songDal, CachingSongDal songCache) {
+		this.songDal = songDal;
+		this.songCache = songCache;
+	}
+
+	/**
+	 * This method should be able to find a song based on the Id the user inputs, like /getSongById
+	 * @param songId this reads the input of the user for the Id of the song
+	 * @param request sends a request URL to the database when a user searches for a song from the mongoDB based on its Id
+	 * @return returns the request data and set the status whether the song has been located, display an error message if
+	 * exists
+	 */
+	@RequestMapping(value = "/getSongById/{songId}", method = RequestMethod.GET)
+	public Mono<ResponseEntity<ApiResponse>> getSongById(@PathVariable("songId") String songId, HttpServletRequest request) {
+		String path = Utils.getPath("GET", request);
+		return songDal.findSongById(songId).map(dbQueryStatus -> toResponse(path, dbQueryStatus, true));
+	}
+
+	/**
+	 * This method should be able to display the song name based on the Id given by the user, like /getSongTitleById
+	 * @param songId this reads the input of the song Id from the user to get the title
+	 * @param request sends a request URL to the database when a user searches for a songs title name given its respective Id
+	 * @return returns the request data and set the status whether the song title has been found, display an error message
+	 * if exists
+	 */
+	@RequestMapping(value = "/getSongTitleById/{songId}", method = RequestMethod.GET)
+	public Mono<ResponseEntity<ApiResponse>> getSongTitleById(@PathVariable("songId") String songId, HttpServletRequest request) {
+		String path = Utils.getPath("GET", request);
+		return songDal.getSongTitleById(songId).map(dbQueryStatus -> toResponse(path, dbQueryStatus, false));
+	}
+
+	/**
+	 * This method should be able to look up many songs in one request, like /getSongsByIds
+	 * @param songIds this reads the Ids of the songs to look up, either repeated or comma separated
+	 * @param titlesOnly this will only return the song names when the caller doesn't need the whole song
+	 * @param request sends a request URL to the database when a user looks up several songs at once
+	 * @return returns the request data and set the status with one entry per requested song Id, display an error message if
+	 * too many Ids were given or if any other error exists
+	 */
+	@RequestMapping(value = "/getSongsByIds", method = RequestMethod.GET)
+	public Mono<ResponseEntity<ApiResponse>> getSongsByIds(@RequestParam("songIds") List<String> songIds,
+																   @RequestParam(value = "titlesOnly", defaultValue = "false") boolean titlesOnly,
+																   HttpServletRequest request) {
+		String path = Utils.getPath("GET", request);
+		if (songIds.isEmpty() || songIds.size() > maxBatchIds) {
+			return Mono.just(Utils.badRequest(path, String.format("Between 1 and %d song Ids must be given", maxBatchIds)));
+		}
+		return songDal.findSongsByIds(songIds, titlesOnly).map(dbQueryStatus -> toResponse(path, dbQueryStatus, true));
+	}
+
+	/**
+	 * This method should let a user browse the catalog one page at a time, like /listSongs. The page is sent once it has
+	 * been read in full rather than streamed, it is never bigger than song.list.max-limit songs
+	 * @param after this reads the "nextCursor" of the previous page, the first page is returned when not given
+	 * @param limit this reads the most songs to return on the page
+	 * @param songArtistFullName this will only list songs by this artist when given
+	 * @param songAlbum this will only list songs from this album when given
+	 * @param songNamePrefix this will only list songs whose name starts with it when given, sorted by song name
+	 * @param request sends a request URL to the database when a user browses or searches the catalog
+	 * @return returns the request data with the songs under "data" and the cursor of the next page under "nextCursor" (null
+	 * on the last page), a bad cursor or limit is answered with BAD_REQUEST
+	 */
+	@RequestMapping(value = "/listSongs", method = RequestMethod.GET)
+	public Mono<ResponseEntity<ApiResponse>> listSongs(@RequestParam(value = "after", required = false) String after,
+															   @RequestParam(value = "limit", defaultValue = "50") int limit,
+															   @RequestParam(value = "songArtistFullName", required = false) String songArtistFullName,
+															   @RequestParam(value = "songAlbum", required = false) String songAlbum,
+															   @RequestParam(value = "songNamePrefix", required = false) String songNamePrefix,
+															   HttpServletRequest request) {
+		String path = Utils.getPath("GET", request);
+
+		SongCursor cursor = after == null ? null : SongCursor.decode(after);
+		boolean badCursor = after != null && (cursor == null || (songNamePrefix != null && cursor.getLastSongName() == null));
+		if (badCursor || limit < 1 || limit > maxListLimit) {
+			return Mono.just(Utils.badRequest(path, badCursor ? "The cursor is not valid for this search" : String.format("limit must be between 1 and %d", maxListLimit)));
+		}
+
+		List<Song> songs = new ArrayList<>();
+		return songDal.listSongs(songArtistFullName, songAlbum, songNamePrefix, cursor, limit, songs::add)
+				.map(dbQueryStatus -> {
+					HttpStatus status = Utils.toHttpStatus(dbQueryStatus.getdbQueryExecResult());
+					return ResponseEntity.status(status).body(new PageResponse(path, dbQueryStatus.getMessage(), status,
+							status == HttpStatus.OK ? songs : null, (String) dbQueryStatus.getData()));
+				});
+	}
+
+	/**
+	 * This method should be able to delete a song from the mongoDB given its Id, like /deleteSongById
+	 * @param songId this reads the input of the song Id from the user to delete the song
+	 * @param request sends a request URL to the database when a user searches for a song to delete from the database
+	 * @return returns the request data and set the status whether the song has been deleted, display an error message if
+	 * exists
+	 */
+	@RequestMapping(value = "/deleteSongById/{songId}", method = RequestMethod.DELETE)
+	public Mono<ResponseEntity<ApiResponse>> deleteSongById(@PathVariable("songId") String songId, HttpServletRequest request) {
+		String path = Utils.getPath("DELETE", request);
+		return songDal.deleteSongById(songId).map(dbQueryStatus -> {
+			songCache.invalidate(songId);
+			return toResponse(path, dbQueryStatus, true);
+		});
+	}
+
+	/**
+	 * This method should add a song to the mongoDB, like /addSong
+	 * @param params this reads the songName, songArtistFullName and songAlbum of the new song
+	 * @param request sends a request URL to the database when the user attempts to add a song to the mongoDB
+	 * @return returns the request data and set the status whether the song has been added, BAD_REQUEST when a field is
+	 * missing
+	 */
+	@RequestMapping(value = "/addSong", method = RequestMethod.POST)
+	public Mono<ResponseEntity<ApiResponse>> addSong(@RequestBody Map<String, String> params, HttpServletRequest request) {
+		String path = Utils.getPath("POST", request);
+
+		String songName = params.get("songName");
+		String songArtistFullName = params.get("songArtistFullName");
+		String songAlbum = params.get("songAlbum");
+		if (!Song.hasRequiredFields(songName, songArtistFullName, songAlbum)) {
+			return Mono.just(Utils.badRequest(path, "Missing or empty required parameters"));
+		}
+
+		return songDal.addSong(new Song(songName, songArtistFullName, songAlbum))
+				.map(dbQueryStatus -> Utils.setResponseStatus(path, null, dbQueryStatus.getdbQueryExecResult(), dbQueryStatus.getData()));
+	}
+
+	/**
+	 * This method should increment or decrement the number of users that liked a song, like /updateSongFavouritesCount
+	 * @param params this reads the songId and shouldDecrement, true or false
+	 * @param request sends a request URL to the database when the user inputs a songId to search
+	 * @return returns the request data and set the status with the new count, BAD_REQUEST when a parameter is missing,
+	 * display an error message if exists
+	 */
+	@RequestMapping(value = "/updateSongFavouritesCount", method = RequestMethod.PUT)
+	public Mono<ResponseEntity<ApiResponse>> updateFavouritesCount(@RequestBody Map<String, String> params, HttpServletRequest request) {
+		String path = Utils.getPath("PUT", request);
+
+		String shouldDecrement = params.get("shouldDecrement");
+		String songId = params.get("songId");
+		if (songId == null || songId.isEmpty() || shouldDecrement == null || (!shouldDecrement.equals("true") && !shouldDecrement.equals("false"))) {
+			return Mono.just(Utils.badRequest(path, "Invalid or missing parameters"));
+		}
+
+		return songDal.updateSongFavouritesCount(songId, Boolean.parseBoolean(shouldDecrement)).map(dbQueryStatus -> {
+			songCache.invalidate(songId);
+			return toResponse(path, dbQueryStatus, true);
+		});
+	}
+
+	private static ResponseEntity<ApiResponse> toResponse(String path, DbQueryStatus dbQueryStatus, boolean withMessage) {
+		return Utils.setResponseStatus(path, withMessage ? dbQueryStatus.getMessage() : null, dbQueryStatus.getdbQueryExecResult(), dbQueryStatus.getData());
+	}
+}
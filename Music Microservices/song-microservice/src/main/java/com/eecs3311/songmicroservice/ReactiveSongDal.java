@@ -0,0 +1,20 @@
+package com.eecs3311.songmicroservice;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * The operations of SongDal without blocking the calling thread, every status is the same one SongDal would give
+ */
+public interface ReactiveSongDal {
+	Mono<DbQueryStatus> addSong(Song songToAdd);
+	Mono<DbQueryStatus> addSongs(List<Song> songsToAdd, boolean ordered);
+	Mono<DbQueryStatus> findSongById(String songId);
+	Mono<DbQueryStatus> getSongTitleById(String songId);
+	Mono<DbQueryStatus> findSongsByIds(List<String> songIds, boolean titlesOnly);
+	Mono<DbQueryStatus> listSongs(String songArtistFullName, String songAlbum, String songNamePrefix, SongCursor after, int limit, Consumer<Song> consumer);
+	Mono<DbQueryStatus> deleteSongById(String songId);
+	Mono<DbQueryStatus> updateSongFavouritesCount(String songId, boolean shouldDecrement);
+}
@@ -0,0 +1,295 @@
+package com.eecs3311.songmicroservice;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Repository;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.client.model.InsertManyOptions;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * SongDalImpl on the reactive mongoDB driver, nothing here waits for the database so one thread can have many queries in
+ * flight. Only created with the reactive profile, ReactiveSongController serves it. Favourite counts go through the same
+ * write-behind buffer and leaderboard as SongDalImpl, so both can be used side by side
+ */
+@Profile("reactive")
+@Repository
+public class ReactiveSongDalImpl implements ReactiveSongDal {
+
+	private final ReactiveMongoTemplate db;
+	private final FavouritesWriteBehind favouritesWriteBehind;
+	private final SongLeaderboard songLeaderboard;
+
+	@Autowired
+	public ReactiveSongDalImpl(ReactiveMongoTemplate reactiveMongoTemplate, FavouritesWriteBehind favouritesWriteBehind, SongLeaderboard songLeaderboard) {
+		this.db = reactiveMongoTemplate;
+		this.favouritesWriteBehind = favouritesWriteBehind;
+		this.songLeaderboard = songLeaderboard;
+	}
+
+	/**
+	 * This method adds the specified song to the mongoDB
+	 * @param songToAdd this stores the data of the song chosen to add to the database
+	 * @return returns the status of the database once the song has been added or not, display an error message if exists
+	 */
+	@Override
+	public Mono<DbQueryStatus> addSong(Song songToAdd) {
+		return db.insert(songToAdd)
+				.map(song -> {
+					DbQueryStatus dbQueryStatus = new DbQueryStatus("Added the song", DbQueryExecResult.QUERY_OK);
+					dbQueryStatus.setData(song);
+					return dbQueryStatus;
+				})
+				.onErrorResume(e -> status("Error occurred while adding song", DbQueryExecResult.QUERY_ERROR_GENERIC));
+	}
+
+	/**
+	 * This method adds many songs to the mongoDB with one insertMany instead of one insert per song
+	 * @param songsToAdd this stores the songs to add, already checked with Song.hasRequiredFields
+	 * @param ordered this will stop at the first song that fails to insert instead of carrying on with the rest
+	 * @return returns the status of the database with the number of inserted songs and the position and error of every song
+	 * that wasn't inserted
+	 */
+	@Override
+	public Mono<DbQueryStatus> addSongs(List<Song> songsToAdd, boolean ordered) {
+		List<Document> documents = new ArrayList<>(songsToAdd.size());
+		for (Song song : songsToAdd) {
+			Document document = new Document();
+			db.getConverter().write(song, document);
+			documents.add(document);
+		}
+
+		Map<String, Object> result = new HashMap<>();
+		List<Map<String, Object>> failures = new ArrayList<>();
+		result.put("failures", failures);
+
+		return Mono.from(db.getCollection(db.getCollectionName(Song.class)).insertMany(documents, new InsertManyOptions().ordered(ordered)))
+				.map(success -> documents.size())
+				.onErrorResume(MongoBulkWriteException.class, e -> Mono.just(SongDalImpl.addBulkWriteFailures(e, songsToAdd.size(), ordered, failures)))
+				.onErrorResume(e -> {
+					for (int i = 0; i < songsToAdd.size(); i++) {
+						failures.add(SongDalImpl.failure(i, "Error occurred while adding songs"));
+					}
+					return Mono.just(0);
+				})
+				.map(inserted -> {
+					result.put("inserted", inserted);
+					DbQueryStatus dbQueryStatus = failures.isEmpty()
+							? new DbQueryStatus("Added the songs", DbQueryExecResult.QUERY_OK)
+							: new DbQueryStatus("Some songs could not be added", DbQueryExecResult.QUERY_ERROR_GENERIC);
+					dbQueryStatus.setData(result);
+					return dbQueryStatus;
+				});
+	}
+
+	/**
+	 * This method should be able to find a specific song given the Id of the song to search for
+	 * @param songId this reads the input of the song Id to search for
+	 * @return returns the status of the database with the song when it was found, display an error message if exists
+	 */
+	@Override
+	public Mono<DbQueryStatus> findSongById(String songId) {
+		return db.findById(songId, Song.class)
+				.map(song -> {
+					DbQueryStatus dbQueryStatus = new DbQueryStatus("Song found in DB!", DbQueryExecResult.QUERY_OK);
+					dbQueryStatus.setData(withPendingFavourites(song));
+					return dbQueryStatus;
+				})
+				.switchIfEmpty(status("Song not found in DB :(", DbQueryExecResult.QUERY_ERROR_NOT_FOUND))
+				.onErrorResume(e -> status("Error occurred during database query", DbQueryExecResult.QUERY_ERROR_GENERIC));
+	}
+
+	/**
+	 * This method should be able to return the name of the song based on the given Id of the song to get
+	 * @param songId this reads the input of the song Id to search for
+	 * @return returns the status of the database with the song name when it was found, display an error message if exists
+	 */
+	@Override
+	public Mono<DbQueryStatus> getSongTitleById(String songId) {
+		return db.findById(songId, Song.class)
+				.map(song -> {
+					DbQueryStatus dbQueryStatus = new DbQueryStatus("Song found in DB", DbQueryExecResult.QUERY_OK);
+					dbQueryStatus.setData(song.getSongName());
+					return dbQueryStatus;
+				})
+				.switchIfEmpty(status("No song found in DB", DbQueryExecResult.QUERY_ERROR_NOT_FOUND))
+				.onErrorResume(e -> status("Error occurred while accessing the database", DbQueryExecResult.QUERY_ERROR_GENERIC));
+	}
+
+	/**
+	 * This method should be able to find many songs at once with a single $in query instead of one query per song
+	 * @param songIds this reads the Ids of the songs to search for, in the order the caller wants them back
+	 * @param titlesOnly this will only fetch and return the song names when the caller doesn't need the whole song
+	 * @return returns the status of the database with one entry per requested Id, in request order, display an error
+	 * message if exists
+	 */
+	@Override
+	public Mono<DbQueryStatus> findSongsByIds(List<String> songIds, boolean titlesOnly) {
+		Query query = SongDalImpl.findSongsQuery(songIds, titlesOnly);
+		Mono<Map<String, Song>> found = query == null
+				? Mono.just(new HashMap<>())
+				: db.find(query, Song.class)
+						.map(song -> titlesOnly ? song : withPendingFavourites(song))
+						.collectMap(Song::getId, song -> song, HashMap::new);
+
+		return found
+				.map(songs -> {
+					DbQueryStatus dbQueryStatus = new DbQueryStatus("Songs looked up in DB", DbQueryExecResult.QUERY_OK);
+					dbQueryStatus.setData(SongDalImpl.toBatchEntries(songIds, songs, titlesOnly));
+					return dbQueryStatus;
+				})
+				.onErrorResume(e -> status("Error occurred during database query", DbQueryExecResult.QUERY_ERROR_GENERIC));
+	}
+
+	/**
+	 * This method should page through the catalog the same way SongDalImpl.listSongs does, every song is handed to the
+	 * consumer as it arrives from the mongoDB
+	 * @param songArtistFullName this will only list songs by this artist when given
+	 * @param songAlbum this will only list songs from this album when given
+	 * @param songNamePrefix this will only list songs whose name starts with it when given, the songs are then sorted by name
+	 * @param after this is the cursor of the previous page, null for the first page
+	 * @param limit this is the most songs to return
+	 * @param consumer this receives every song of the page in order
+	 * @return returns the status of the database once the page has been read with the cursor of the next page as data,
+	 * null when this was the last page, display an error message if exists
+	 */
+	@Override
+	public Mono<DbQueryStatus> listSongs(String songArtistFullName, String songAlbum, String songNamePrefix, SongCursor after, int limit,
+										 Consumer<Song> consumer) {
+		boolean sortByName = songNamePrefix != null;
+		Query query = SongDalImpl.listSongsQuery(songArtistFullName, songAlbum, songNamePrefix, after, limit);
+
+		return Mono.defer(() -> {
+			Song[] last = new Song[1];
+			int[] count = new int[1];
+			return db.find(query, Song.class)
+					.doOnNext(song -> {
+						consumer.accept(withPendingFavourites(song));
+						last[0] = song;
+						count[0]++;
+					})
+					.then(Mono.fromSupplier(() -> {
+						DbQueryStatus dbQueryStatus = new DbQueryStatus("Songs listed from DB", DbQueryExecResult.QUERY_OK);
+						if (count[0] == limit) {
+							dbQueryStatus.setData(new SongCursor(last[0]._id, sortByName ? last[0].getSongName() : null).encode());
+						}
+						return dbQueryStatus;
+					}));
+		}).onErrorResume(e -> status("Error occurred during database query", DbQueryExecResult.QUERY_ERROR_GENERIC));
+	}
+
+	/**
+	 * This method should be able to delete a song from the mongoDB given its relative Id
+	 * @param songId this reads the input of the song Id to search for and delete
+	 * @return returns the status of the database once the song has been deleted or not, display an error message if exists
+	 */
+	@Override
+	public Mono<DbQueryStatus> deleteSongById(String songId) {
+		return db.findById(songId, Song.class)
+				.flatMap(song -> db.remove(song).map(deleted -> {
+					if (favouritesWriteBehind.isEnabled()) {
+						favouritesWriteBehind.discard(songId);
+					}
+					songLeaderboard.remove(songId);
+					return new DbQueryStatus(String.format("Removed song with ID: %s from DB", songId), DbQueryExecResult.QUERY_OK);
+				}))
+				.switchIfEmpty(status(String.format("No song found in DB with ID: %s", songId), DbQueryExecResult.QUERY_ERROR_NOT_FOUND))
+				.onErrorResume(e -> status("Error occurred while accessing the database", DbQueryExecResult.QUERY_ERROR_GENERIC));
+	}
+
+	/**
+	 * This method should update the number of users that liked a song the same way SongDalImpl.updateSongFavouritesCount
+	 * does, with a single conditional $inc or through the write-behind buffer when it is enabled
+	 * @param songId this reads the input of the song Id
+	 * @param shouldDecrement this will decrement the count if a user decides to unlike and remove the song from their playlist
+	 * @return returns the status of the database with the new count, NOT_FOUND for a missing song and an error when the
+	 * count is already 0 and should be decremented
+	 */
+	@Override
+	public Mono<DbQueryStatus> updateSongFavouritesCount(String songId, boolean shouldDecrement) {
+		if (favouritesWriteBehind.isEnabled()) {
+			return bufferSongFavouritesCount(songId, shouldDecrement);
+		}
+
+		Query query = new Query(Criteria.where("_id").is(songId));
+		if (shouldDecrement) {
+			query.addCriteria(Criteria.where(Song.KEY_SONG_AMOUNT_FAVOURITES).gt(0));
+		}
+		query.fields().include(Song.KEY_SONG_AMOUNT_FAVOURITES);
+		Update update = new Update().inc(Song.KEY_SONG_AMOUNT_FAVOURITES, shouldDecrement ? -1 : 1);
+
+		return db.findAndModify(query, update, FindAndModifyOptions.options().returnNew(true), Song.class)
+				.map(updated -> {
+					DbQueryStatus dbQueryStatus = new DbQueryStatus(favouritesMessage(songId, shouldDecrement), DbQueryExecResult.QUERY_OK);
+					dbQueryStatus.setData(updated.getSongAmountFavourites());
+					songLeaderboard.onFavouritesChanged(songId, updated.getSongAmountFavourites());
+					return dbQueryStatus;
+				})
+				// Nothing matched, only now pay for a second round trip to tell a missing song apart from an underflow
+				.switchIfEmpty(Mono.defer(() -> db.exists(new Query(Criteria.where("_id").is(songId)), Song.class)
+						.map(exists -> exists
+								? new DbQueryStatus("Cannot decrement favourites: Song with ID " + songId + " already has 0 favourites", DbQueryExecResult.QUERY_ERROR_GENERIC)
+								: new DbQueryStatus("No song found in DB with ID: " + songId, DbQueryExecResult.QUERY_ERROR_NOT_FOUND))))
+				.onErrorResume(e -> status("Error occurred while updating the song's favourites in the database", DbQueryExecResult.QUERY_ERROR_GENERIC));
+	}
+
+	private Mono<DbQueryStatus> bufferSongFavouritesCount(String songId, boolean shouldDecrement) {
+		long adjustment = shouldDecrement ? -1 : 1;
+		Mono<Long> favouritesCount;
+		if (favouritesWriteBehind.isTracked(songId)) {
+			// The counter is in memory, only a counter retired in the meantime makes add read mongoDB
+			favouritesCount = Mono.fromSupplier(() -> favouritesWriteBehind.add(songId, adjustment));
+		} else {
+			// Seeds the counter from a non-blocking read
+			Query query = new Query(Criteria.where("_id").is(songId));
+			query.fields().include(Song.KEY_SONG_AMOUNT_FAVOURITES);
+			favouritesCount = db.findOne(query, Song.class)
+					.map(persisted -> favouritesWriteBehind.add(songId, adjustment, persisted::getSongAmountFavourites))
+					.defaultIfEmpty(FavouritesWriteBehind.NO_SONG);
+		}
+
+		return favouritesCount
+				.map(count -> {
+					if (count == FavouritesWriteBehind.NO_SONG) {
+						return new DbQueryStatus("No song found in DB with ID: " + songId, DbQueryExecResult.QUERY_ERROR_NOT_FOUND);
+					}
+					if (count == FavouritesWriteBehind.BELOW_ZERO) {
+						return new DbQueryStatus("Cannot decrement favourites: Song with ID " + songId + " already has 0 favourites", DbQueryExecResult.QUERY_ERROR_GENERIC);
+					}
+					DbQueryStatus dbQueryStatus = new DbQueryStatus(favouritesMessage(songId, shouldDecrement), DbQueryExecResult.QUERY_OK);
+					dbQueryStatus.setData(count);
+					songLeaderboard.onFavouritesChanged(songId, count);
+					return dbQueryStatus;
+				})
+				.onErrorResume(e -> status("Error occurred while updating the song's favourites in the database", DbQueryExecResult.QUERY_ERROR_GENERIC));
+	}
+
+	private Song withPendingFavourites(Song song) {
+		if (favouritesWriteBehind.isEnabled()) {
+			song.setSongAmountFavourites(favouritesWriteBehind.favouritesCount(song.getId(), song.getSongAmountFavourites()));
+		}
+		return song;
+	}
+
+	private static String favouritesMessage(String songId, boolean shouldDecrement) {
+		return shouldDecrement ? "Decreased favourite count by 1 for song ID " + songId : "Increased favourite count by 1 for song ID " + songId;
+	}
+
+	private static Mono<DbQueryStatus> status(String message, DbQueryExecResult dbQueryExecResult) {
+		return Mono.fromSupplier(() -> new DbQueryStatus(message, dbQueryExecResult));
+	}
+}
@@ -0,0 +1,60 @@
+package com.eecs3311.songmicroservice;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+/**
+ * Times every controller endpoint into "song_http_server_requests_seconds", by HTTP method, mapped path and response
+ * status. The clock starts when the handler is picked and stops when the response is complete, so the time an async or
+ * reactive handler spends off the Tomcat thread is counted too. Added by WebConfig when song.metrics.enabled is true
+ */
+public class RequestTimer implements HandlerInterceptor {
+
+	static final String METRIC = "song_http_server_requests_seconds";
+	private static final String START_ATTRIBUTE = RequestTimer.class.getName() + ".start";
+
+	private final LatencyMetrics latencyMetrics;
+	// By "METHOD pattern status", so a request only builds the key and does no label escaping
+	private final ConcurrentMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+
+	public RequestTimer(LatencyMetrics latencyMetrics) {
+		this.latencyMetrics = latencyMetrics;
+	}
+
+	@Override
+	public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+		// An async request comes through here again when its result is dispatched, it keeps its first start time
+		if (request.getAttribute(START_ATTRIBUTE) == null) {
+			request.setAttribute(START_ATTRIBUTE, System.nanoTime());
+		}
+		return true;
+	}
+
+	@Override
+	public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+		Object start = request.getAttribute(START_ATTRIBUTE);
+		if (start == null || !(handler instanceof HandlerMethod)) {
+			return;
+		}
+		long nanos = System.nanoTime() - (Long) start;
+
+		Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+		String endpoint = pattern == null ? ((HandlerMethod) handler).getMethod().getName() : pattern.toString();
+		int status = ex != null ? HttpServletResponse.SC_INTERNAL_SERVER_ERROR : response.getStatus();
+
+		String key = request.getMethod() + ' ' + endpoint + ' ' + status;
+		LatencyHistogram histogram = histograms.get(key);
+		if (histogram == null) {
+			histogram = histograms.computeIfAbsent(key, k -> latencyMetrics.histogram(METRIC, "Time spent serving the HTTP endpoints",
+					"method", request.getMethod(), "endpoint", endpoint, "status", Integer.toString(status)));
+		}
+		histogram.record(nanos);
+	}
+}
@@ -0,0 +1,127 @@
+package com.eecs3311.songmicroservice;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lets concurrent calls for the same key share one call: the first caller runs it and callers that arrive while it runs
+ * wait for its result, or its exception, instead of running their own. Nothing is kept once the call returns, so this is
+ * not a cache and behaves the same with or without one in front of it. Waiting is bounded, a caller that waited
+ * maxWaitMillis for someone else's call gets a TimeoutException
+ */
+public class SingleFlight<K, V> {
+
+	private final boolean enabled;
+	private final long maxWaitMillis;
+	private final ConcurrentHashMap<K, CompletableFuture<V>> flights = new ConcurrentHashMap<>();
+
+	private final LongAdder calls = new LongAdder();
+	private final LongAdder sharedCalls = new LongAdder();
+	private final LongAdder timeouts = new LongAdder();
+
+	/**
+	 * @param enabled false runs every call on its own, only counting them
+	 * @param maxWaitMillis how long a caller waits for a call another caller is running
+	 */
+	public SingleFlight(boolean enabled, long maxWaitMillis) {
+		this.enabled = enabled;
+		this.maxWaitMillis = maxWaitMillis;
+	}
+
+	/**
+	 * This method should run the call, or wait for the one already running for the same key and return what it returned
+	 * @param key what the call looks up, calls for equal keys are shared
+	 * @param call the lookup, only run when no call for the key is running
+	 * @return what the call returned, null included
+	 * @throws Exception whatever the call threw, for every caller that shared it, or a TimeoutException when the call
+	 * another caller is running took longer than maxWaitMillis
+	 */
+	public V execute(K key, Callable<V> call) throws Exception {
+		if (!enabled) {
+			calls.increment();
+			return call.call();
+		}
+
+		CompletableFuture<V> flight = new CompletableFuture<>();
+		CompletableFuture<V> running = flights.putIfAbsent(key, flight);
+		if (running == null) {
+			return lead(key, flight, call);
+		}
+		return follow(key, running);
+	}
+
+	/**
+	 * This method should make callers that come after it start a call of their own instead of joining the running one,
+	 * for when the data behind the key was just written. Callers already waiting still get the running call's result
+	 * @param key the key that was written
+	 */
+	public void forget(K key) {
+		flights.remove(key);
+	}
+
+	/**
+	 * This method reports how much sharing saved
+	 * @return the calls that were run, the calls that were saved by sharing one that was running, the callers that gave up
+	 * waiting and the calls running right now
+	 */
+	public Map<String, Object> getStats() {
+		Map<String, Object> stats = new HashMap<>();
+		stats.put("enabled", enabled);
+		stats.put("calls", calls.sum());
+		stats.put("savedCalls", sharedCalls.sum());
+		stats.put("timeouts", timeouts.sum());
+		stats.put("inFlight", flights.size());
+		return stats;
+	}
+
+	private V lead(K key, CompletableFuture<V> flight, Callable<V> call) throws Exception {
+		calls.increment();
+		V result;
+		try {
+			result = call.call();
+		} catch (Throwable e) {
+			finish(key, flight);
+			flight.completeExceptionally(e);
+			throw e;
+		}
+		// Out of the map before completing, a caller arriving from now on starts a fresh call instead of taking this result
+		finish(key, flight);
+		flight.complete(result);
+		return result;
+	}
+
+	private V follow(K key, CompletableFuture<V> running) throws Exception {
+		try {
+			V result = running.get(maxWaitMillis, TimeUnit.MILLISECONDS);
+			sharedCalls.increment();
+			return result;
+		} catch (ExecutionException e) {
+			sharedCalls.increment();
+			Throwable cause = e.getCause();
+			if (cause instanceof Exception) {
+				throw (Exception) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw e;
+		} catch (TimeoutException e) {
+			timeouts.increment();
+			throw new TimeoutException("Waited more than " + maxWaitMillis + " ms for the running call for " + key);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw e;
+		}
+	}
+
+	private void finish(K key, CompletableFuture<V> flight) {
+		flights.remove(key, flight);
+	}
+}
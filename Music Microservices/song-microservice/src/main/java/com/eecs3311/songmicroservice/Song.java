@@ -23,6 +23,9 @@ public class Song {
 	public static final String KEY_SONG_NAME = "songName";
 	public static final String KEY_SONG_ARTIST_FULL_NAME = "songArtistFullName";
 	public static final String KEY_SONG_ALBUM = "songAlbum";	
+	public static final String KEY_SONG_AMOUNT_FAVOURITES = "songAmountFavourites";
+	// Favourite event Ids applied to the count but not yet marked done in the FavouriteEventLog, only set by mongoDB updates
+	public static final String KEY_FAVOURITE_EVENTS_IN_FLIGHT = "favouriteEventsInFlight";
 
 
 	public Song(String songName, String songArtistFullName, String songAlbum) {
@@ -64,6 +67,15 @@ public class Song {
 		this.songAmountFavourites = songAmountFavourites;
 	}
 
+	/**
+	 * The rules every new song has to pass, shared by /addSong and /addSongs
+	 * @return true when the name, artist and album are all given and not empty
+	 */
+	public static boolean hasRequiredFields(String songName, String songArtistFullName, String songAlbum) {
+		return songName != null && !songName.isEmpty() && songArtistFullName != null && !songArtistFullName.isEmpty()
+				&& songAlbum != null && !songAlbum.isEmpty();
+	}
+
 	// ObjectId needs to be converted to string
 	public String getId() {
 		return _id.toHexString();
@@ -0,0 +1,165 @@
+package com.eecs3311.songmicroservice;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Streams songs from a request body into the mongoDB. The body is either a JSON array of songs or NDJSON (one song per
+ * line), it is parsed one song at a time so only the current chunk is ever held in memory
+ */
+@Component
+public class SongBulkIngest {
+
+	// Enough to see what went wrong without the report growing with the catalog
+	static final int MAX_REPORTED_FAILURES = 1000;
+
+	private final SongDal songDal;
+	private final ObjectMapper objectMapper;
+
+	@Autowired
+	public SongBulkIngest(SongDal songDal, ObjectMapper objectMapper) {
+		this.songDal = songDal;
+		this.objectMapper = objectMapper;
+	}
+
+	/**
+	 * This method reads songs from the stream, checks them with the same rules as /addSong and inserts the valid ones
+	 * with one insertMany per chunk
+	 * @param body the request body, a JSON array or NDJSON
+	 * @param chunkSize how many songs go into one insertMany
+	 * @param ordered this will make each insertMany stop at its first failing song
+	 * @return returns the status after the whole stream was read, with the number of rows read and inserted, the
+	 * throughput of every chunk and the row number and error of every row that wasn't inserted
+	 */
+	public DbQueryStatus ingest(InputStream body, int chunkSize, boolean ordered) {
+		Report report = new Report();
+		List<Song> chunk = new ArrayList<>(chunkSize);
+		List<Long> chunkRows = new ArrayList<>(chunkSize);
+
+		try (JsonParser parser = objectMapper.getFactory().createParser(body)) {
+			JsonToken token = parser.nextToken();
+			boolean array = token == JsonToken.START_ARRAY;
+			if (array) {
+				token = parser.nextToken();
+			}
+
+			while (token != null && token != JsonToken.END_ARRAY) {
+				long row = report.rows++;
+				JsonNode node = objectMapper.readTree(parser);
+				Song song = toSong(node);
+				if (song == null) {
+					report.fail(row, "Missing or empty required parameters");
+				} else {
+					chunk.add(song);
+					chunkRows.add(row);
+					if (chunk.size() == chunkSize) {
+						insertChunk(chunk, chunkRows, ordered, report);
+					}
+				}
+				token = parser.nextToken();
+			}
+			if (array && token == null) {
+				throw new JsonParseException(parser, "Unexpected end of input, the JSON array was never closed");
+			}
+
+			insertChunk(chunk, chunkRows, ordered, report);
+		} catch (IOException e) {
+			// Whatever was parsed before the bad input still goes in, the report says where reading stopped
+			insertChunk(chunk, chunkRows, ordered, report);
+			DbQueryStatus dbQueryStatus = new DbQueryStatus("Could not read songs after row " + report.rows + ": " + e.getMessage(),
+					DbQueryExecResult.QUERY_ERROR_GENERIC);
+			dbQueryStatus.setData(report.toMap());
+			return dbQueryStatus;
+		}
+
+		String message = "Added " + report.inserted + " songs" + (report.failed == 0 ? "" : ", " + report.failed + " rows failed");
+		DbQueryStatus dbQueryStatus = new DbQueryStatus(message, DbQueryExecResult.QUERY_OK);
+		dbQueryStatus.setData(report.toMap());
+		return dbQueryStatus;
+	}
+
+	private static Song toSong(JsonNode node) {
+		if (node == null || !node.isObject()) {
+			return null;
+		}
+		String songName = text(node, Song.KEY_SONG_NAME);
+		String songArtistFullName = text(node, Song.KEY_SONG_ARTIST_FULL_NAME);
+		String songAlbum = text(node, Song.KEY_SONG_ALBUM);
+		return Song.hasRequiredFields(songName, songArtistFullName, songAlbum) ? new Song(songName, songArtistFullName, songAlbum) : null;
+	}
+
+	private static String text(JsonNode node, String field) {
+		JsonNode value = node.get(field);
+		return value == null || value.isNull() ? null : value.asText();
+	}
+
+	@SuppressWarnings("unchecked")
+	private void insertChunk(List<Song> chunk, List<Long> chunkRows, boolean ordered, Report report) {
+		if (chunk.isEmpty()) {
+			return;
+		}
+
+		long start = System.nanoTime();
+		DbQueryStatus dbQueryStatus = songDal.addSongs(chunk, ordered);
+		long elapsedNanos = System.nanoTime() - start;
+
+		Map<String, Object> result = (Map<String, Object>) dbQueryStatus.getData();
+		int inserted = ((Number) result.get("inserted")).intValue();
+		for (Map<String, Object> failure : (List<Map<String, Object>>) result.get("failures")) {
+			report.fail(chunkRows.get((Integer) failure.get("index")), (String) failure.get("message"));
+		}
+		report.inserted += inserted;
+
+		Map<String, Object> chunkStats = new HashMap<>();
+		chunkStats.put("chunk", report.chunks.size());
+		chunkStats.put("songs", chunk.size());
+		chunkStats.put("inserted", inserted);
+		chunkStats.put("millis", elapsedNanos / 1_000_000.0);
+		chunkStats.put("songsPerSecond", elapsedNanos == 0 ? 0 : Math.round(chunk.size() * 1e9 / elapsedNanos));
+		report.chunks.add(chunkStats);
+
+		chunk.clear();
+		chunkRows.clear();
+	}
+
+	private static final class Report {
+		long rows;
+		long inserted;
+		long failed;
+		final List<Map<String, Object>> failures = new ArrayList<>();
+		final List<Map<String, Object>> chunks = new ArrayList<>();
+
+		void fail(long row, String message) {
+			failed++;
+			if (failures.size() < MAX_REPORTED_FAILURES) {
+				Map<String, Object> failure = new HashMap<>();
+				failure.put("row", row);
+				failure.put("message", message);
+				failures.add(failure);
+			}
+		}
+
+		Map<String, Object> toMap() {
+			Map<String, Object> report = new HashMap<>();
+			report.put("rows", rows);
+			report.put("inserted", inserted);
+			report.put("failed", failed);
+			report.put("failures", failures);
+			report.put("chunks", chunks);
+			return report;
+		}
+	}
+}
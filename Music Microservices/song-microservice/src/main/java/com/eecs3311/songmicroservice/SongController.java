@@ -1,19 +1,26 @@
 package com.eecs3311.songmicroservice;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.json.JSONObject;
 import okhttp3.FormBody;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import java.io.IOException;
-import java.util.HashMap;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 // DONE FILE DO NOT TOUCH
 import okhttp3.Call;
 import okhttp3.OkHttpClient;
@@ -22,6 +29,7 @@ import okhttp3.Response;
 
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 @RestController
 @RequestMapping
@@ -30,11 +38,48 @@ public class SongController {
 	@Autowired
 	private final SongDal songDal;
 
+	@Autowired
+	private final CachingSongDal songCache;
+
+	@Autowired
+	private SongBulkIngest songBulkIngest;
+
+	@Autowired
+	private SongLeaderboard songLeaderboard;
+
+	@Autowired
+	private FavouriteEventLog favouriteEventLog;
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	@Autowired
+	private RequestExecutor requestExecutor;
+
+	@Autowired
+	private LatencyMetrics latencyMetrics;
+
+	@Value("${song.list.max-limit:500}")
+	private int maxListLimit;
+
+	@Value("${song.batch.max-ids:200}")
+	private int maxBatchIds;
+
+	@Value("${song.ingest.chunk-size:1000}")
+	private int defaultIngestChunkSize;
+
+	@Value("${song.ingest.max-chunk-size:10000}")
+	private int maxIngestChunkSize;
+
+	@Value("${song.favourites.events.max-batch:500}")
+	private int maxFavouriteEvents;
+
 	private OkHttpClient client = new OkHttpClient();
 
 
-	public SongController(SongDal songDal) {
+	public SongController(SongDal songDal, CachingSongDal songCache) {
 		this.songDal = songDal;
+		this.songCache = songCache;
 	}
 
 	/**
@@ -53,19 +98,13 @@ public class SongController {
 	 * song Id from the user or not, display an error message if exists
 	 */
 	@RequestMapping(value = "/getSongById/{songId}", method = RequestMethod.GET)
-	public ResponseEntity<Map<String, Object>> getSongById(@PathVariable("songId") String songId,
+	public CompletableFuture<ResponseEntity<ApiResponse>> getSongById(@PathVariable("songId") String songId,
 														   HttpServletRequest request) { 	// DONE DO NOT TOUCH // TESTED WITH CURL
-
-		Map<String, Object> response = new HashMap<String, Object>();
-		response.put("path", String.format("GET %s", Utils.getUrl(request)));
-
-		DbQueryStatus dbQueryStatus = songDal.findSongById(songId);
-
-		// TODO: uncomment these two lines when you have completed the implementation of findSongById in SongDal
-		response.put("message", dbQueryStatus.getMessage());
-
-
-		return Utils.setResponseStatus(response, dbQueryStatus.getdbQueryExecResult(), dbQueryStatus.getData()); // TODO: remove when the above 2 lines are uncommented
+		String path = Utils.getPath("GET", request);
+		return requestExecutor.execute(() -> {
+			DbQueryStatus dbQueryStatus = songDal.findSongById(songId);
+			return Utils.setResponseStatus(path, dbQueryStatus.getMessage(), dbQueryStatus.getdbQueryExecResult(), dbQueryStatus.getData());
+		});
 	}
 	/**
 	 * This method should be able to display the song name based on the Id given by the user and store it to the mongoDB accordingly
@@ -75,15 +114,81 @@ public class SongController {
 	 * song Id or not, display an error message if exists
 	 */
 	@RequestMapping(value = "/getSongTitleById/{songId}", method = RequestMethod.GET)
-	public ResponseEntity<Map<String, Object>> getSongTitleById(@PathVariable("songId") String songId,
+	public CompletableFuture<ResponseEntity<ApiResponse>> getSongTitleById(@PathVariable("songId") String songId,
 																HttpServletRequest request) { // DONE DO NOT TOUCH // TESTED WITH CURL
+		String path = Utils.getPath("GET", request);
+		return requestExecutor.execute(() -> {
+			DbQueryStatus dbQueryStatus = songDal.getSongTitleById(songId);
+			return Utils.setResponseStatus(path, null, dbQueryStatus.getdbQueryExecResult(), dbQueryStatus.getData());
+		});
+	}
 
-		Map<String, Object> response = new HashMap<String, Object>();
-		response.put("path", String.format("GET %s", Utils.getUrl(request)));
-		// TODO: add any other values to the map following the example in getSongById
-		DbQueryStatus dbQueryStatus = songDal.getSongTitleById(songId);
+	/**
+	 * This method should be able to look up many songs in one request instead of one /getSongById call per song, the songs
+	 * come back in the same order as the Ids were given and missing songs are reported per entry
+	 * @param songIds this reads the Ids of the songs to look up, either repeated or comma separated
+	 * @param titlesOnly this will only return the song names when the caller doesn't need the whole song
+	 * @param request sends a request URL to the database when a user looks up several songs at once
+	 * @return returns the request data and set the status with one entry per requested song Id, display an error message if
+	 * too many Ids were given or if any other error exists
+	 */
+	@RequestMapping(value = "/getSongsByIds", method = RequestMethod.GET)
+	public CompletableFuture<ResponseEntity<ApiResponse>> getSongsByIds(@RequestParam("songIds") List<String> songIds,
+															 @RequestParam(value = "titlesOnly", defaultValue = "false") boolean titlesOnly,
+															 HttpServletRequest request) {
+		String path = Utils.getPath("GET", request);
+		return requestExecutor.execute(() -> {
+			if (songIds.isEmpty() || songIds.size() > maxBatchIds) {
+				return Utils.badRequest(path, String.format("Between 1 and %d song Ids must be given", maxBatchIds));
+			}
+
+			DbQueryStatus dbQueryStatus = songDal.findSongsByIds(songIds, titlesOnly);
+			return Utils.setResponseStatus(path, dbQueryStatus.getMessage(), dbQueryStatus.getdbQueryExecResult(), dbQueryStatus.getData());
+		});
+	}
 
-		return Utils.setResponseStatus(response, dbQueryStatus.getdbQueryExecResult(), dbQueryStatus.getData()); // TODO: replace with return statement similar to in getSongById
+	/**
+	 * This method should let a user browse the catalog one page at a time, optionally searching by artist, album or the start
+	 * of the song name. Each page is streamed to the client as the songs are read from the mongoDB, and the next page is
+	 * asked for with the "nextCursor" of the previous one so a deep page costs the same as the first
+	 * @param after this reads the "nextCursor" of the previous page, the first page is returned when not given
+	 * @param limit this reads the most songs to return on the page
+	 * @param songArtistFullName this will only list songs by this artist when given
+	 * @param songAlbum this will only list songs from this album when given
+	 * @param songNamePrefix this will only list songs whose name starts with it when given, sorted by song name
+	 * @param request sends a request URL to the database when a user browses or searches the catalog
+	 * @param response the response the page is streamed to, with the songs under "data" and the cursor of the next page under
+	 * "nextCursor" (null on the last page), a bad cursor or limit is answered with BAD_REQUEST
+	 */
+	@RequestMapping(value = "/listSongs", method = RequestMethod.GET)
+	public void listSongs(@RequestParam(value = "after", required = false) String after,
+						  @RequestParam(value = "limit", defaultValue = "50") int limit,
+						  @RequestParam(value = "songArtistFullName", required = false) String songArtistFullName,
+						  @RequestParam(value = "songAlbum", required = false) String songAlbum,
+						  @RequestParam(value = "songNamePrefix", required = false) String songNamePrefix,
+						  HttpServletRequest request, HttpServletResponse response) throws IOException {
+		String path = Utils.getPath("GET", request);
+
+		SongCursor cursor = after == null ? null : SongCursor.decode(after);
+		boolean badCursor = after != null && (cursor == null || (songNamePrefix != null && cursor.getLastSongName() == null));
+		if (badCursor || limit < 1 || limit > maxListLimit) {
+			ApiResponse body = Utils.badRequest(path, badCursor ? "The cursor is not valid for this search" : String.format("limit must be between 1 and %d", maxListLimit)).getBody();
+			response.setStatus(HttpStatus.BAD_REQUEST.value());
+			response.setContentType(MediaType.APPLICATION_JSON_UTF8_VALUE);
+			Utils.responseWriter(ApiResponse.class).writeValue(response.getOutputStream(), body);
+			return;
+		}
+
+		try (JsonStreamWriter writer = JsonStreamWriter.start(response, objectMapper, path)) {
+			DbQueryStatus dbQueryStatus = songDal.listSongs(songArtistFullName, songAlbum, songNamePrefix, cursor, limit, song -> {
+				try {
+					writer.write(song);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+			writer.finish(dbQueryStatus, Collections.singletonMap("nextCursor", dbQueryStatus.getData()));
+		}
 	}
 
 	/**
@@ -95,18 +200,16 @@ public class SongController {
 	 * mongoDB with its given Id respectively, display an error message if exists
 	 */
 	@RequestMapping(value = "/deleteSongById/{songId}", method = RequestMethod.DELETE)
-	public ResponseEntity<Map<String, Object>> deleteSongById(@PathVariable("songId") String songId, HttpServletRequest request) {
-		Map<String, Object> response = new HashMap<String, Object>();
-		response.put("path", String.format("DELETE %s", Utils.getUrl(request)));
-
-		if (songId == null || songId.isEmpty()) { // Check if songId is null or empty
-			response.put("message", "The data provided has not been fully completed");
-			return Utils.setResponseStatus(response, DbQueryExecResult.QUERY_ERROR_GENERIC, null);
-		} else {
-			DbQueryStatus deleteSong = songDal.deleteSongById(songId);
-			response.put("message", deleteSong.getMessage());
-			return Utils.setResponseStatus(response, deleteSong.getdbQueryExecResult(), null);
-		}
+	public CompletableFuture<ResponseEntity<ApiResponse>> deleteSongById(@PathVariable("songId") String songId, HttpServletRequest request) {
+		String path = Utils.getPath("DELETE", request);
+		return requestExecutor.execute(() -> {
+			if (songId == null || songId.isEmpty()) { // Check if songId is null or empty
+				return Utils.setResponseStatus(path, "The data provided has not been fully completed", DbQueryExecResult.QUERY_ERROR_GENERIC, null);
+			} else {
+				DbQueryStatus deleteSong = songDal.deleteSongById(songId);
+				return Utils.setResponseStatus(path, deleteSong.getMessage(), deleteSong.getdbQueryExecResult(), null);
+			}
+		});
 	}
 	/**
 	 * This method should allow the user to be able to add a song to their playlist, which then should be correctly added to the
@@ -117,24 +220,49 @@ public class SongController {
 	 * display an error message if exists
 	 */
 	@RequestMapping(value = "/addSong", method = RequestMethod.POST)
-	public ResponseEntity<Map<String, Object>> addSong(@RequestBody Map<String, String> params, HttpServletRequest request) {
-		Map<String, Object> response = new HashMap<>();
-
-		String songName = params.get("songName");
-		String songArtistFullName = params.get("songArtistFullName");
-		String songAlbum = params.get("songAlbum");
+	public CompletableFuture<ResponseEntity<ApiResponse>> addSong(@RequestBody Map<String, String> params, HttpServletRequest request) {
+		String path = Utils.getPath("POST", request);
+		return requestExecutor.execute(() -> {
+			String songName = params.get("songName");
+			String songArtistFullName = params.get("songArtistFullName");
+			String songAlbum = params.get("songAlbum");
+
+			// Enhanced parameter validation
+			if (!Song.hasRequiredFields(songName, songArtistFullName, songAlbum)) {
+				return Utils.badRequest(path, "Missing or empty required parameters");
+			}
+
+			// Refactor object creation and database call
+			DbQueryStatus dbQueryStatus = songDal.addSong(new Song(songName, songArtistFullName, songAlbum));
+			return Utils.setResponseStatus(path, null, dbQueryStatus.getdbQueryExecResult(), dbQueryStatus.getData());
+		});
+	}
 
-		// Enhanced parameter validation
-		if (songName == null || songName.isEmpty() || songArtistFullName == null || songArtistFullName.isEmpty() || songAlbum == null || songAlbum.isEmpty()) {
-			response.put("message", "Missing or empty required parameters");
-			return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(response);
+	/**
+	 * This method should allow a whole catalog to be added to the mongoDB in one request, the body is a JSON array of songs
+	 * or NDJSON with one song per line and is read while it is being uploaded instead of being buffered first. Every song
+	 * is checked with the same rules as /addSong and the valid ones are inserted with one insertMany per chunk
+	 * @param chunkSize this reads how many songs go into one insertMany, the configured default when not given
+	 * @param ordered this will make each insertMany stop at its first failing song instead of carrying on
+	 * @param request sends a request URL to the database and carries the songs to add in its body
+	 * @return returns the request data and set the status with the number of songs read and inserted, the throughput of
+	 * every chunk and the row number and error of every song that wasn't added
+	 */
+	@RequestMapping(value = "/addSongs", method = RequestMethod.POST)
+	public ResponseEntity<ApiResponse> addSongs(@RequestParam(value = "chunkSize", required = false) Integer chunkSize,
+														@RequestParam(value = "ordered", defaultValue = "false") boolean ordered,
+														HttpServletRequest request) throws IOException {
+		String path = Utils.getPath("POST", request);
+
+		int size = chunkSize == null ? defaultIngestChunkSize : chunkSize;
+		if (size < 1 || size > maxIngestChunkSize) {
+			return Utils.badRequest(path, String.format("chunkSize must be between 1 and %d", maxIngestChunkSize));
 		}
 
-		// Refactor object creation and database call
-		DbQueryStatus dbQueryStatus = songDal.addSong(new Song(songName, songArtistFullName, songAlbum));
-
-		response.put("path", String.format("POST %s", Utils.getUrl(request)));
-		return Utils.setResponseStatus(response, dbQueryStatus.getdbQueryExecResult(), dbQueryStatus.getData());
+		DbQueryStatus dbQueryStatus = songBulkIngest.ingest(request.getInputStream(), size, ordered);
+		// The report is useful even when reading failed part way, so it is always sent back
+		HttpStatus status = Utils.toHttpStatus(dbQueryStatus.getdbQueryExecResult());
+		return ResponseEntity.status(status).body(new ApiResponse(path, dbQueryStatus.getMessage(), status, dbQueryStatus.getData()));
 	}
 
 	/**
@@ -150,26 +278,94 @@ public class SongController {
 	 * counter of likes/unlikes correctly displayed, updated, and stored to the mongoDB
 	 */
 	@RequestMapping(value = "/updateSongFavouritesCount", method = RequestMethod.PUT)
-	public ResponseEntity<Map<String, Object>> updateFavouritesCount(@RequestBody Map<String, String> params, HttpServletRequest request) {
-
-		Map<String, Object> response = new HashMap<>();
+	public CompletableFuture<ResponseEntity<ApiResponse>> updateFavouritesCount(@RequestBody Map<String, String> params, HttpServletRequest request) {
+		String path = Utils.getPath("PUT", request);
+		return requestExecutor.execute(() -> {
+			String shouldDecrement = params.get("shouldDecrement");
+			String songId = params.get("songId");
+
+			if (songId == null || songId.isEmpty() || shouldDecrement == null || (!shouldDecrement.equals("true") && !shouldDecrement.equals("false"))) {
+				return Utils.badRequest(path, "Invalid or missing parameters");
+			}
+
+			DbQueryStatus dbQueryStatus = songDal.updateSongFavouritesCount(songId, Boolean.parseBoolean(shouldDecrement));
+			return Utils.setResponseStatus(path, dbQueryStatus.getMessage(), dbQueryStatus.getdbQueryExecResult(), dbQueryStatus.getData());
+		});
+	}
 
-		String shouldDecrement = params.get("shouldDecrement");
-		String songId = params.get("songId");
+	/**
+	 * This method should apply a batch of like and unlike events sent by the profile service, every event carries an Id
+	 * so that sending the same batch again after a timeout doesn't count any like twice
+	 * @param params this should have "events", a list of events with the following parameters: eventId, songId,
+	 * shouldDecrement
+	 * @param request sends a request URL to the database when the profile service delivers its favourite events
+	 * @return returns the request data with the result of every event, BAD_REQUEST if an event is malformed or the batch
+	 * is too big, display an error message if exists
+	 */
+	@RequestMapping(value = "/updateSongFavouritesCounts", method = RequestMethod.PUT)
+	public CompletableFuture<ResponseEntity<ApiResponse>> updateFavouritesCounts(@RequestBody Map<String, Object> params, HttpServletRequest request) {
+		String path = Utils.getPath("PUT", request);
+		return requestExecutor.execute(() -> {
+			Object eventList = params.get("events");
+			if (!(eventList instanceof List) || ((List<?>) eventList).isEmpty() || ((List<?>) eventList).size() > maxFavouriteEvents) {
+				return Utils.badRequest(path, String.format("events must be a list of 1 to %d events", maxFavouriteEvents));
+			}
+
+			List<FavouriteEvent> events = new ArrayList<>();
+			for (Object fields : (List<?>) eventList) {
+				@SuppressWarnings("unchecked")
+				FavouriteEvent event = fields instanceof Map ? FavouriteEvent.fromMap((Map<String, Object>) fields) : null;
+				if (event == null) {
+					return Utils.badRequest(path, "Every event needs an eventId, a songId and shouldDecrement set to true or false");
+				}
+				events.add(event);
+			}
+
+			DbQueryStatus dbQueryStatus = favouriteEventLog.applyEvents(events);
+			return Utils.setResponseStatus(path, dbQueryStatus.getMessage(), dbQueryStatus.getdbQueryExecResult(), dbQueryStatus.getData());
+		});
+	}
 
+	/**
+	 * This method should display the trending chart of the songs that the most users have liked, the chart is kept in memory
+	 * so this never has to sort the songs in the mongoDB
+	 * @param limit this reads how many songs to return, at most the configured chart size
+	 * @param request sends a request URL when a user asks for the most liked songs
+	 * @return returns the request data with the songs ordered from most to least favourited, each with its Id, name and
+	 * favourites count
+	 */
+	@RequestMapping(value = "/getTopFavouritedSongs", method = RequestMethod.GET)
+	public ResponseEntity<ApiResponse> getTopFavouritedSongs(@RequestParam(value = "limit", defaultValue = "10") int limit,
+																	 HttpServletRequest request) {
+		String path = Utils.getPath("GET", request);
 
-		if (songId == null || songId.isEmpty() || shouldDecrement == null || (!shouldDecrement.equals("true") && !shouldDecrement.equals("false"))) {
-			response.put("message", "Invalid or missing parameters");
-			return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(response);
+		if (limit < 1 || limit > songLeaderboard.getSize()) {
+			return Utils.badRequest(path, String.format("limit must be between 1 and %d", songLeaderboard.getSize()));
 		}
+		return Utils.setResponseStatus(path, null, DbQueryExecResult.QUERY_OK, songLeaderboard.getTopSongs(limit));
+	}
 
+	/**
+	 * This method should display the hit, miss and eviction counters of the song cache that sits in front of the mongoDB
+	 * @param request sends a request URL when the cache statistics are requested
+	 * @return returns the request data with the statistics of the song cache and the negative lookup cache
+	 */
+	@RequestMapping(value = "/getSongCacheStats", method = RequestMethod.GET)
+	public ResponseEntity<ApiResponse> getSongCacheStats(HttpServletRequest request) {
+		return Utils.setResponseStatus(Utils.getPath("GET", request), null, DbQueryExecResult.QUERY_OK, songCache.getCacheStats());
+	}
 
-		DbQueryStatus dbQueryStatus = songDal.updateSongFavouritesCount(songId, Boolean.parseBoolean(shouldDecrement));
-
-
-		response.put("path", String.format("PUT %s", Utils.getUrl(request)));
-		response.put("message", dbQueryStatus.getMessage());
-		return Utils.setResponseStatus(response, dbQueryStatus.getdbQueryExecResult(), dbQueryStatus.getData());
+	/**
+	 * This method should display the latency histograms of the endpoints and of the SongDal methods for Prometheus to
+	 * scrape, see LatencyMetrics
+	 * @return returns the histograms in the Prometheus text format, NOT_FOUND when song.metrics.enabled is false
+	 */
+	@RequestMapping(value = "/metrics", method = RequestMethod.GET, produces = "text/plain; version=0.0.4; charset=utf-8")
+	public ResponseEntity<String> getMetrics() {
+		if (!latencyMetrics.isEnabled()) {
+			return ResponseEntity.status(HttpStatus.NOT_FOUND).body("# Latency metrics are turned off, set song.metrics.enabled=true\n");
+		}
+		return ResponseEntity.ok(latencyMetrics.toPrometheusText());
 	}
 
 }
\ No newline at end of file
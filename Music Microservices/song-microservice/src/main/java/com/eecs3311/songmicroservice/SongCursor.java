@@ -0,0 +1,60 @@
+package com.eecs3311.songmicroservice;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import org.bson.types.ObjectId;
+
+/**
+ * Opaque keyset cursor for paging through songs. It holds the Id of the last song on a page and, for songName prefix
+ * searches that are sorted by name, that song's name as well. The next page starts right after it, so no page ever
+ * pays to skip over the ones before it
+ */
+public class SongCursor {
+
+	private final ObjectId lastId;
+	private final String lastSongName;
+
+	public SongCursor(ObjectId lastId, String lastSongName) {
+		this.lastId = lastId;
+		this.lastSongName = lastSongName;
+	}
+
+	public ObjectId getLastId() {
+		return lastId;
+	}
+
+	public String getLastSongName() {
+		return lastSongName;
+	}
+
+	/**
+	 * @return the cursor as it is handed out to clients, the hex Id optionally followed by a dot and the base64 name
+	 */
+	public String encode() {
+		if (lastSongName == null) {
+			return lastId.toHexString();
+		}
+		return lastId.toHexString() + "." + Base64.getUrlEncoder().withoutPadding().encodeToString(lastSongName.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * @param cursor a cursor previously returned by encode
+	 * @return the decoded cursor, null if the string isn't a cursor this service handed out
+	 */
+	public static SongCursor decode(String cursor) {
+		int dot = cursor.indexOf('.');
+		String id = dot < 0 ? cursor : cursor.substring(0, dot);
+		if (!ObjectId.isValid(id)) {
+			return null;
+		}
+		if (dot < 0) {
+			return new SongCursor(new ObjectId(id), null);
+		}
+		try {
+			return new SongCursor(new ObjectId(id), new String(Base64.getUrlDecoder().decode(cursor.substring(dot + 1)), StandardCharsets.UTF_8));
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+}
@@ -1,9 +1,16 @@
 package com.eecs3311.songmicroservice;
 
+import java.util.List;
+import java.util.function.Consumer;
+
 public interface SongDal {
 	DbQueryStatus addSong(Song songToAdd);
+	DbQueryStatus addSongs(List<Song> songsToAdd, boolean ordered);
 	DbQueryStatus findSongById(String songId);
 	DbQueryStatus getSongTitleById(String songId);
+	DbQueryStatus findSongsByIds(List<String> songIds, boolean titlesOnly);
+	DbQueryStatus listSongs(String songArtistFullName, String songAlbum, String songNamePrefix, SongCursor after, int limit, Consumer<Song> consumer);
 	DbQueryStatus deleteSongById(String songId);	
 	DbQueryStatus updateSongFavouritesCount(String songId, boolean shouldDecrement);
+	DbQueryStatus updateSongFavouritesCount(String songId, boolean shouldDecrement, String eventId);
 }
@@ -1,13 +1,35 @@
 package com.eecs3311.songmicroservice;
 // DO NOT TOUCH CAUSE IT WORKS
 // IF IT WORKS IT WORK OK
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
 import org.bson.types.ObjectId;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
 import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.IndexOperations;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.util.CloseableIterator;
 import org.springframework.stereotype.Repository;
 
+import com.mongodb.BulkWriteError;
+import com.mongodb.MongoBulkWriteException;
+
 
 
 
@@ -15,10 +37,35 @@ import org.springframework.stereotype.Repository;
 public class SongDalImpl implements SongDal {
 
 	private final MongoTemplate db;
+	private final FavouritesWriteBehind favouritesWriteBehind;
+	private final SongLeaderboard songLeaderboard;
+	private final SingleFlight<String, Song> songLookups;
+
+	public SongDalImpl(MongoTemplate mongoTemplate, FavouritesWriteBehind favouritesWriteBehind, SongLeaderboard songLeaderboard) {
+		this(mongoTemplate, favouritesWriteBehind, songLeaderboard, true, 5000);
+	}
 
 	@Autowired
-	public SongDalImpl(MongoTemplate mongoTemplate) {
+	public SongDalImpl(MongoTemplate mongoTemplate, FavouritesWriteBehind favouritesWriteBehind, SongLeaderboard songLeaderboard,
+					   @Value("${song.single-flight.enabled:true}") boolean singleFlightEnabled,
+					   @Value("${song.single-flight.max-wait-ms:5000}") long singleFlightMaxWaitMs) {
 		this.db = mongoTemplate;
+		this.favouritesWriteBehind = favouritesWriteBehind;
+		this.songLeaderboard = songLeaderboard;
+		this.songLookups = new SingleFlight<>(singleFlightEnabled, singleFlightMaxWaitMs);
+	}
+
+	/**
+	 * Creates the indexes the catalog listing and search rely on, every index ends in _id so a keyset page is a single
+	 * index range scan no matter how deep the cursor is. The favourites index lets SongLeaderboard read only the top of the
+	 * chart. Safe to run on every startup
+	 */
+	public void initSongDb() {
+		IndexOperations indexOps = this.db.indexOps(Song.class);
+		indexOps.ensureIndex(new Index().on(Song.KEY_SONG_ARTIST_FULL_NAME, Sort.Direction.ASC).on("_id", Sort.Direction.ASC).named("artist_id"));
+		indexOps.ensureIndex(new Index().on(Song.KEY_SONG_ALBUM, Sort.Direction.ASC).on("_id", Sort.Direction.ASC).named("album_id"));
+		indexOps.ensureIndex(new Index().on(Song.KEY_SONG_NAME, Sort.Direction.ASC).on("_id", Sort.Direction.ASC).named("name_id"));
+		indexOps.ensureIndex(new Index().on(Song.KEY_SONG_AMOUNT_FAVOURITES, Sort.Direction.DESC).on("_id", Sort.Direction.ASC).named("favourites_id"));
 	}
 
 	/**
@@ -31,6 +78,7 @@ public class SongDalImpl implements SongDal {
 	public DbQueryStatus addSong(Song songToAdd) {
 		try {
 			db.insert(songToAdd);
+			songLookups.forget(songToAdd.getId());
 			DbQueryStatus dbQueryStatus = new DbQueryStatus("Added the song", DbQueryExecResult.QUERY_OK);
 			dbQueryStatus.setData(songToAdd);
 			return dbQueryStatus;
@@ -39,6 +87,80 @@ public class SongDalImpl implements SongDal {
 			return new DbQueryStatus("Error occurred while adding song", DbQueryExecResult.QUERY_ERROR_GENERIC);
 		}
 	}
+	/**
+	 * This method adds many songs to the mongoDB with one insertMany instead of one insert per song
+	 * @param songsToAdd this stores the songs to add, already checked with Song.hasRequiredFields
+	 * @param ordered this will stop at the first song that fails to insert instead of carrying on with the rest
+	 * @return returns the status of the database after being ran with the number of inserted songs and the position and
+	 * error of every song that wasn't inserted
+	 */
+	@Override
+	public DbQueryStatus addSongs(List<Song> songsToAdd, boolean ordered) {
+		Map<String, Object> result = new HashMap<>();
+		List<Map<String, Object>> failures = new ArrayList<>();
+		result.put("failures", failures);
+
+		try {
+			BulkOperations bulkOps = this.db.bulkOps(ordered ? BulkOperations.BulkMode.ORDERED : BulkOperations.BulkMode.UNORDERED, Song.class);
+			bulkOps.insert(songsToAdd);
+			result.put("inserted", bulkOps.execute().getInsertedCount());
+		} catch (BulkOperationException e) {
+			result.put("inserted", e.getResult().getInsertedCount());
+			int lastFailed = -1;
+			for (BulkWriteError error : e.getErrors()) {
+				failures.add(failure(error.getIndex(), error.getMessage()));
+				lastFailed = Math.max(lastFailed, error.getIndex());
+			}
+			if (ordered) {
+				// An ordered insertMany gives up at the first error, the rest of the songs were never tried
+				for (int i = lastFailed + 1; i < songsToAdd.size(); i++) {
+					failures.add(failure(i, "Not inserted, an earlier song in the ordered batch failed"));
+				}
+			}
+		} catch (Exception e) {
+			if (e.getCause() instanceof MongoBulkWriteException) {
+				// The driver's error was translated before BulkOperations could see it, a duplicate key arrives this way
+				result.put("inserted", addBulkWriteFailures((MongoBulkWriteException) e.getCause(), songsToAdd.size(), ordered, failures));
+			} else {
+				result.put("inserted", 0);
+				for (int i = 0; i < songsToAdd.size(); i++) {
+					failures.add(failure(i, "Error occurred while adding songs"));
+				}
+			}
+		}
+
+		DbQueryStatus dbQueryStatus = failures.isEmpty()
+				? new DbQueryStatus("Added the songs", DbQueryExecResult.QUERY_OK)
+				: new DbQueryStatus("Some songs could not be added", DbQueryExecResult.QUERY_ERROR_GENERIC);
+		dbQueryStatus.setData(result);
+		return dbQueryStatus;
+	}
+
+	/**
+	 * Reports every song of a failed insertMany that wasn't inserted, shared with ReactiveSongDalImpl
+	 * @return the number of songs that were inserted
+	 */
+	static int addBulkWriteFailures(MongoBulkWriteException e, int batchSize, boolean ordered, List<Map<String, Object>> failures) {
+		int lastFailed = -1;
+		for (com.mongodb.bulk.BulkWriteError error : e.getWriteErrors()) {
+			failures.add(failure(error.getIndex(), error.getMessage()));
+			lastFailed = Math.max(lastFailed, error.getIndex());
+		}
+		if (ordered) {
+			for (int i = lastFailed + 1; i < batchSize; i++) {
+				failures.add(failure(i, "Not inserted, an earlier song in the ordered batch failed"));
+			}
+		}
+		return e.getWriteResult().getInsertedCount();
+	}
+
+	static Map<String, Object> failure(int index, String message) {
+		Map<String, Object> failure = new HashMap<>();
+		failure.put("index", index);
+		failure.put("message", message);
+		return failure;
+	}
+
 	/**
 	 * This method should be able to find a specific song given the Id of the song to search for
 	 * @param songId this reads the input of the song Id to search for
@@ -48,7 +170,8 @@ public class SongDalImpl implements SongDal {
 	@Override
 	public DbQueryStatus findSongById(String songId) {
 		try {
-			Song song = db.findById(songId, Song.class);
+			// Concurrent lookups of the same song share one query, a trending song is read once per round trip
+			Song song = songLookups.execute(songId, () -> loadSong(songId));
 
 			if (song == null) {
 				return new DbQueryStatus("Song not found in DB :(", DbQueryExecResult.QUERY_ERROR_NOT_FOUND);
@@ -57,10 +180,38 @@ public class SongDalImpl implements SongDal {
 			DbQueryStatus dbQueryStatus = new DbQueryStatus("Song found in DB!", DbQueryExecResult.QUERY_OK);
 			dbQueryStatus.setData(song);
 			return dbQueryStatus;
+		} catch (TimeoutException e) {
+			return new DbQueryStatus("Timed out waiting for the song to be read from the database", DbQueryExecResult.QUERY_ERROR_GENERIC);
 		} catch (Exception e) {
 			return new DbQueryStatus("Error occurred during database query", DbQueryExecResult.QUERY_ERROR_GENERIC);
 		}
 	}
+
+	// Shared by every caller of the lookup, so the pending favourites are added here, once
+	private Song loadSong(String songId) {
+		Song song = db.findById(songId, Song.class);
+		if (song != null && favouritesWriteBehind.isEnabled()) {
+			song.setSongAmountFavourites(favouritesWriteBehind.favouritesCount(songId, song.getSongAmountFavourites()));
+		}
+		return song;
+	}
+
+	/**
+	 * This method reports how many findSongById queries were saved by sharing one that was already running
+	 * @return the counters of the single-flight in front of findSongById
+	 */
+	public Map<String, Object> getSingleFlightStats() {
+		return songLookups.getStats();
+	}
+
+	/**
+	 * This method makes the next findSongById of the song read the mongoDB instead of joining a lookup that may have started
+	 * before a write that didn't go through this class
+	 * @param songId the Id of the song that was written
+	 */
+	public void forgetSongLookup(String songId) {
+		songLookups.forget(songId);
+	}
 	/**
 	 * This method should be able to return the name of the song based on the given Id of the song to get
 	 * @param songId this reads the input of the song Id to search for
@@ -85,6 +236,181 @@ public class SongDalImpl implements SongDal {
 		}
 	}
 
+	/**
+	 * This method should be able to find many songs at once with a single $in query instead of one query per song
+	 * @param songIds this reads the Ids of the songs to search for, in the order the caller wants them back
+	 * @param titlesOnly this will only fetch and return the song names when the caller doesn't need the whole song
+	 * @return returns the status of the database after being ran with one entry per requested Id, in request order, each
+	 * entry saying whether that song was found, display an error message if exists
+	 */
+	@Override
+	public DbQueryStatus findSongsByIds(List<String> songIds, boolean titlesOnly) {
+		try {
+			Map<String, Song> found = findSongs(songIds, titlesOnly);
+			DbQueryStatus dbQueryStatus = new DbQueryStatus("Songs looked up in DB", DbQueryExecResult.QUERY_OK);
+			dbQueryStatus.setData(toBatchEntries(songIds, found, titlesOnly));
+			return dbQueryStatus;
+		} catch (Exception e) {
+			return new DbQueryStatus("Error occurred during database query", DbQueryExecResult.QUERY_ERROR_GENERIC);
+		}
+	}
+
+	/**
+	 * Looks up the given songs with one $in query, Ids that aren't valid ObjectIds can't exist and are skipped
+	 * @return the songs that were found keyed by their normalized Id
+	 */
+	Map<String, Song> findSongs(Collection<String> songIds, boolean titlesOnly) {
+		Map<String, Song> found = new HashMap<>();
+		Query query = findSongsQuery(songIds, titlesOnly);
+		if (query == null) {
+			return found;
+		}
+
+		for (Song song : this.db.find(query, Song.class)) {
+			if (favouritesWriteBehind.isEnabled() && !titlesOnly) {
+				song.setSongAmountFavourites(favouritesWriteBehind.favouritesCount(song.getId(), song.getSongAmountFavourites()));
+			}
+			found.put(song.getId(), song);
+		}
+		return found;
+	}
+
+	/**
+	 * Builds the $in query of a batch lookup, shared with ReactiveSongDalImpl
+	 * @return the query, null when none of the Ids can be an ObjectId so there is nothing to look up
+	 */
+	static Query findSongsQuery(Collection<String> songIds, boolean titlesOnly) {
+		Set<ObjectId> objectIds = new LinkedHashSet<>();
+		for (String songId : songIds) {
+			if (ObjectId.isValid(songId)) {
+				objectIds.add(new ObjectId(songId));
+			}
+		}
+		if (objectIds.isEmpty()) {
+			return null;
+		}
+
+		Query query = new Query(Criteria.where("_id").in(objectIds));
+		if (titlesOnly) {
+			query.fields().include(Song.KEY_SONG_NAME);
+		}
+		return query;
+	}
+
+	/**
+	 * This method should page through the catalog, optionally narrowed down by artist, album or the start of the song name.
+	 * Pages are found by starting after the last song of the previous page rather than by skipping, and every song is
+	 * handed to the consumer as it is read from the mongoDB cursor instead of being collected first
+	 * @param songArtistFullName this will only list songs by this artist when given
+	 * @param songAlbum this will only list songs from this album when given
+	 * @param songNamePrefix this will only list songs whose name starts with it when given, the songs are then sorted by name
+	 * @param after this is the cursor of the previous page, null for the first page
+	 * @param limit this is the most songs to return
+	 * @param consumer this receives every song of the page in order
+	 * @return returns the status of the database after being ran with the cursor of the next page as data, null when this
+	 * was the last page, display an error message if exists
+	 */
+	@Override
+	public DbQueryStatus listSongs(String songArtistFullName, String songAlbum, String songNamePrefix, SongCursor after, int limit,
+								   Consumer<Song> consumer) {
+		boolean sortByName = songNamePrefix != null;
+		Query query = listSongsQuery(songArtistFullName, songAlbum, songNamePrefix, after, limit);
+
+		try (CloseableIterator<Song> songs = this.db.stream(query, Song.class)) {
+			Song last = null;
+			int count = 0;
+			while (songs.hasNext()) {
+				last = songs.next();
+				if (favouritesWriteBehind.isEnabled()) {
+					last.setSongAmountFavourites(favouritesWriteBehind.favouritesCount(last.getId(), last.getSongAmountFavourites()));
+				}
+				consumer.accept(last);
+				count++;
+			}
+
+			DbQueryStatus dbQueryStatus = new DbQueryStatus("Songs listed from DB", DbQueryExecResult.QUERY_OK);
+			if (count == limit) {
+				dbQueryStatus.setData(new SongCursor(last._id, sortByName ? last.getSongName() : null).encode());
+			}
+			return dbQueryStatus;
+		} catch (Exception e) {
+			return new DbQueryStatus("Error occurred during database query", DbQueryExecResult.QUERY_ERROR_GENERIC);
+		}
+	}
+
+	/**
+	 * Builds the keyset query of one catalog page, shared with ReactiveSongDalImpl
+	 */
+	static Query listSongsQuery(String songArtistFullName, String songAlbum, String songNamePrefix, SongCursor after, int limit) {
+		boolean sortByName = songNamePrefix != null;
+		List<Criteria> criteria = new ArrayList<>();
+		if (songArtistFullName != null) {
+			criteria.add(Criteria.where(Song.KEY_SONG_ARTIST_FULL_NAME).is(songArtistFullName));
+		}
+		if (songAlbum != null) {
+			criteria.add(Criteria.where(Song.KEY_SONG_ALBUM).is(songAlbum));
+		}
+		if (sortByName) {
+			// A plain anchored prefix is what lets mongoDB turn the regex into a range on the name index
+			criteria.add(Criteria.where(Song.KEY_SONG_NAME).regex("^" + escapeRegex(songNamePrefix)));
+		}
+		if (after != null) {
+			if (sortByName) {
+				criteria.add(new Criteria().orOperator(
+						Criteria.where(Song.KEY_SONG_NAME).gt(after.getLastSongName()),
+						Criteria.where(Song.KEY_SONG_NAME).is(after.getLastSongName()).and("_id").gt(after.getLastId())));
+			} else {
+				criteria.add(Criteria.where("_id").gt(after.getLastId()));
+			}
+		}
+
+		Query query = new Query();
+		if (!criteria.isEmpty()) {
+			query.addCriteria(new Criteria().andOperator(criteria.toArray(new Criteria[0])));
+		}
+		query.with(sortByName ? Sort.by(Song.KEY_SONG_NAME, "_id") : Sort.by("_id")).limit(limit);
+		return query;
+	}
+
+	private static String escapeRegex(String literal) {
+		StringBuilder escaped = new StringBuilder(literal.length() + 8);
+		for (char c : literal.toCharArray()) {
+			if ("\\^$.|?*+()[]{}".indexOf(c) >= 0) {
+				escaped.append('\\');
+			}
+			escaped.append(c);
+		}
+		return escaped.toString();
+	}
+
+	/**
+	 * Ids are stored as ObjectIds, so the same song can be asked for with upper or lower case hex
+	 * @return the lower case hex form of the Id, null if it can't be an ObjectId
+	 */
+	static String normalizedId(String songId) {
+		return ObjectId.isValid(songId) ? songId.toLowerCase() : null;
+	}
+
+	/**
+	 * Builds the per-Id entries of a batch lookup in request order, duplicates in the request are answered every time
+	 */
+	static List<Map<String, Object>> toBatchEntries(List<String> songIds, Map<String, Song> found, boolean titlesOnly) {
+		List<Map<String, Object>> entries = new ArrayList<>(songIds.size());
+		for (String songId : songIds) {
+			String normalizedId = normalizedId(songId);
+			Song song = normalizedId == null ? null : found.get(normalizedId);
+
+			Map<String, Object> entry = new HashMap<>();
+			entry.put("songId", songId);
+			entry.put("found", song != null);
+			if (song != null) {
+				entry.put(titlesOnly ? Song.KEY_SONG_NAME : "song", titlesOnly ? song.getSongName() : song);
+			}
+			entries.add(entry);
+		}
+		return entries;
+	}
+
 	/**
 	 * This method should be able to delete a song from the mongoDB given its relative Id
 	 * @param songId this reads the input of the song Id to search for and delete
@@ -104,6 +430,11 @@ public class SongDalImpl implements SongDal {
 
 			// Remove the song from the database
 			this.db.remove(song);
+			if (favouritesWriteBehind.isEnabled()) {
+				favouritesWriteBehind.discard(songId);
+			}
+			songLeaderboard.remove(songId);
+			songLookups.forget(songId);
 			String successMessage = String.format("Removed song with ID: %s from DB", songId);
 			return new DbQueryStatus(successMessage, DbQueryExecResult.QUERY_OK);
 		} catch (Exception e) {
@@ -123,25 +454,92 @@ public class SongDalImpl implements SongDal {
 	 */
 	@Override
 	public DbQueryStatus updateSongFavouritesCount(String songId, boolean shouldDecrement) {
+		return updateSongFavouritesCount(songId, shouldDecrement, null);
+	}
+
+	/**
+	 * This method is updateSongFavouritesCount for one event of the FavouriteEventLog. The event Id is added to the song's
+	 * favouriteEventsInFlight by the same update that changes the count, so the change is applied once however many times
+	 * the event is sent. With the write-behind buffer on, the change only lives in memory until the next flush and the
+	 * event Id isn't recorded
+	 * @param songId this reads the input of the song Id
+	 * @param shouldDecrement this will decrement the count if a user decides to unlike and remove the song from their playlist
+	 * @param eventId the Id of the event, null for a change that isn't one
+	 * @return returns the same statuses as updateSongFavouritesCount, and QUERY_OK without data if the event was already
+	 * applied
+	 */
+	@Override
+	public DbQueryStatus updateSongFavouritesCount(String songId, boolean shouldDecrement, String eventId) {
+		DbQueryStatus dbQueryStatus = favouritesWriteBehind.isEnabled() ? bufferSongFavouritesCount(songId, shouldDecrement)
+				: storeSongFavouritesCount(songId, shouldDecrement, eventId);
+		// A lookup that started before the change would hand out the old count to whoever joins it from now on
+		songLookups.forget(songId);
+		return dbQueryStatus;
+	}
+
+	private DbQueryStatus storeSongFavouritesCount(String songId, boolean shouldDecrement, String eventId) {
 		try {
-			Song exist = db.findById(songId, Song.class);
-			if (exist == null) {
-				return new DbQueryStatus("No song found in DB with ID: " + songId, DbQueryExecResult.QUERY_ERROR_NOT_FOUND);
+			// Single conditional $inc so concurrent likes can't overwrite each other, a decrement only matches while the
+			// count is still above 0
+			Query query = new Query(Criteria.where("_id").is(songId));
+			if (shouldDecrement) {
+				query.addCriteria(Criteria.where(Song.KEY_SONG_AMOUNT_FAVOURITES).gt(0));
+			}
+			if (eventId != null) {
+				query.addCriteria(Criteria.where(Song.KEY_FAVOURITE_EVENTS_IN_FLIGHT).ne(eventId));
+			}
+			query.fields().include(Song.KEY_SONG_AMOUNT_FAVOURITES);
+
+			Update update = new Update().inc(Song.KEY_SONG_AMOUNT_FAVOURITES, shouldDecrement ? -1 : 1);
+			if (eventId != null) {
+				update.addToSet(Song.KEY_FAVOURITE_EVENTS_IN_FLIGHT, eventId);
 			}
+			Song updated = this.db.findAndModify(query, update, FindAndModifyOptions.options().returnNew(true), Song.class);
 
-			long favouritesCount = exist.getSongAmountFavourites(); // Changed to 'long'
-			if (favouritesCount == 0 && shouldDecrement) {
+			if (updated == null) {
+				// Nothing matched, only now pay for a second round trip to tell a missing song apart from an underflow
+				if (!this.db.exists(new Query(Criteria.where("_id").is(songId)), Song.class)) {
+					return new DbQueryStatus("No song found in DB with ID: " + songId, DbQueryExecResult.QUERY_ERROR_NOT_FOUND);
+				}
+				if (eventId != null && this.db.exists(new Query(Criteria.where("_id").is(songId).and(Song.KEY_FAVOURITE_EVENTS_IN_FLIGHT).is(eventId)), Song.class)) {
+					return new DbQueryStatus("Favourite event " + eventId + " was already applied to song ID " + songId, DbQueryExecResult.QUERY_OK);
+				}
 				return new DbQueryStatus("Cannot decrement favourites: Song with ID " + songId + " already has 0 favourites", DbQueryExecResult.QUERY_ERROR_GENERIC);
 			}
 
-			long adjustment = shouldDecrement ? -1 : 1;
-			exist.setSongAmountFavourites(favouritesCount + adjustment);
+			String message = shouldDecrement ? "Decreased favourite count by 1 for song ID " + songId : "Increased favourite count by 1 for song ID " + songId;
+			DbQueryStatus dbQueryStatus = new DbQueryStatus(message, DbQueryExecResult.QUERY_OK);
+			dbQueryStatus.setData(updated.getSongAmountFavourites());
+			songLeaderboard.onFavouritesChanged(songId, updated.getSongAmountFavourites());
+			return dbQueryStatus;
+		} catch (Exception e) {
+			return new DbQueryStatus("Error occurred while updating the song's favourites in the database", DbQueryExecResult.QUERY_ERROR_GENERIC);
+		}
+	}
 
-			Query query = new Query(Criteria.where("_id").is(songId));
-			this.db.findAndReplace(query, exist);
+	/**
+	 * This method is the write-behind version of updateSongFavouritesCount, the change is only recorded in memory and
+	 * reaches the mongoDB with the next flush of FavouritesWriteBehind
+	 * @param songId this reads the input of the song Id
+	 * @param shouldDecrement this will decrement the count if a user decides to unlike and remove the song from their playlist
+	 * @return returns the same statuses as updateSongFavouritesCount, with the count the change made as data
+	 */
+	private DbQueryStatus bufferSongFavouritesCount(String songId, boolean shouldDecrement) {
+		try {
+			// Checked and changed in one step, so two unlikes of the last favourite can't both succeed
+			long favouritesCount = favouritesWriteBehind.add(songId, shouldDecrement ? -1 : 1);
+			if (favouritesCount == FavouritesWriteBehind.NO_SONG) {
+				return new DbQueryStatus("No song found in DB with ID: " + songId, DbQueryExecResult.QUERY_ERROR_NOT_FOUND);
+			}
+			if (favouritesCount == FavouritesWriteBehind.BELOW_ZERO) {
+				return new DbQueryStatus("Cannot decrement favourites: Song with ID " + songId + " already has 0 favourites", DbQueryExecResult.QUERY_ERROR_GENERIC);
+			}
 
 			String message = shouldDecrement ? "Decreased favourite count by 1 for song ID " + songId : "Increased favourite count by 1 for song ID " + songId;
-			return new DbQueryStatus(message, DbQueryExecResult.QUERY_OK);
+			DbQueryStatus dbQueryStatus = new DbQueryStatus(message, DbQueryExecResult.QUERY_OK);
+			dbQueryStatus.setData(favouritesCount);
+			songLeaderboard.onFavouritesChanged(songId, favouritesCount);
+			return dbQueryStatus;
 		} catch (Exception e) {
 			return new DbQueryStatus("Error occurred while updating the song's favourites in the database", DbQueryExecResult.QUERY_ERROR_GENERIC);
 		}
@@ -0,0 +1,205 @@
+package com.eecs3311.songmicroservice;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+/**
+ * In-memory chart of the most favourited songs. It is seeded from an indexed query, kept up to date from every change to
+ * a favourites count and periodically rebuilt from the mongoDB so it can't drift. It tracks a few more songs than it serves
+ * so that a song dropping out of the top can usually be replaced without going back to the database
+ */
+@Component
+public class SongLeaderboard {
+
+	private static final Comparator<Entry> BY_FAVOURITES = Comparator.comparingLong((Entry entry) -> entry.favourites).reversed()
+			.thenComparing(entry -> entry.songId);
+
+	private final MongoTemplate db;
+	private final FavouritesWriteBehind favouritesWriteBehind;
+	private final int size;
+	private final int capacity;
+	private final long reconcileIntervalSeconds;
+
+	private volatile ConcurrentSkipListSet<Entry> ranking = new ConcurrentSkipListSet<>(BY_FAVOURITES);
+	private volatile Map<String, Entry> entries = new ConcurrentHashMap<>();
+	// Lowest count in a full ranking, anything at or below it can't get in so it is skipped without locking
+	private volatile long minimumToEnter = Long.MIN_VALUE;
+
+	private ScheduledExecutorService reconciler;
+
+	@Autowired
+	public SongLeaderboard(MongoTemplate mongoTemplate, FavouritesWriteBehind favouritesWriteBehind,
+						   @Value("${song.leaderboard.size:100}") int size,
+						   @Value("${song.leaderboard.reconcile-interval-seconds:60}") long reconcileIntervalSeconds) {
+		this.db = mongoTemplate;
+		this.favouritesWriteBehind = favouritesWriteBehind;
+		this.size = size;
+		this.capacity = size * 2;
+		this.reconcileIntervalSeconds = reconcileIntervalSeconds;
+	}
+
+	/**
+	 * Seeds the chart from the mongoDB and starts the periodic reconciliation, run once at startup
+	 */
+	public void start() {
+		reconcile();
+		reconciler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "song-leaderboard-reconcile");
+			thread.setDaemon(true);
+			return thread;
+		});
+		reconciler.scheduleWithFixedDelay(() -> {
+			try {
+				reconcile();
+			} catch (Exception e) {
+				System.out.println("WARN: Failed to reconcile the song leaderboard, will retry: " + e.getMessage());
+			}
+		}, reconcileIntervalSeconds, reconcileIntervalSeconds, TimeUnit.SECONDS);
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		if (reconciler != null) {
+			reconciler.shutdown();
+		}
+	}
+
+	/**
+	 * This method rebuilds the chart from the songs with the highest favourites count in the mongoDB, using the
+	 * songAmountFavourites index so only the songs that make the chart are read
+	 */
+	public void reconcile() {
+		Query query = new Query().with(Sort.by(Sort.Direction.DESC, Song.KEY_SONG_AMOUNT_FAVOURITES).and(Sort.by("_id"))).limit(capacity);
+		query.fields().include(Song.KEY_SONG_NAME).include(Song.KEY_SONG_AMOUNT_FAVOURITES);
+
+		ConcurrentSkipListSet<Entry> rebuilt = new ConcurrentSkipListSet<>(BY_FAVOURITES);
+		Map<String, Entry> rebuiltEntries = new ConcurrentHashMap<>();
+		for (Song song : db.find(query, Song.class)) {
+			long favourites = song.getSongAmountFavourites();
+			if (favouritesWriteBehind.isEnabled()) {
+				favourites = favouritesWriteBehind.favouritesCount(song.getId(), favourites);
+			}
+			Entry entry = new Entry(song.getId(), song.getSongName(), favourites);
+			rebuilt.add(entry);
+			rebuiltEntries.put(entry.songId, entry);
+		}
+
+		synchronized (this) {
+			ranking = rebuilt;
+			entries = rebuiltEntries;
+			updateMinimumToEnter();
+		}
+	}
+
+	/**
+	 * This method is told about every new favourites count, a song already on the chart moves, any other song only gets
+	 * in when it beats the lowest song being tracked
+	 * @param songId the Id of the song whose count changed
+	 * @param favourites the new favourites count of the song
+	 */
+	public void onFavouritesChanged(String songId, long favourites) {
+		if (favourites <= minimumToEnter && !entries.containsKey(songId)) {
+			return;
+		}
+
+		String songName = null;
+		if (!entries.containsKey(songId)) {
+			// Only songs entering the chart pay for this lookup, done before taking the lock
+			Query query = new Query(Criteria.where("_id").is(songId));
+			query.fields().include(Song.KEY_SONG_NAME);
+			Song song = db.findOne(query, Song.class);
+			if (song == null) {
+				return;
+			}
+			songName = song.getSongName();
+		}
+
+		synchronized (this) {
+			Entry previous = entries.get(songId);
+			if (previous == null && songName == null) {
+				// Dropped out while we weren't holding the lock, it will be picked up again by the next reconcile
+				return;
+			}
+			if (previous != null) {
+				ranking.remove(previous);
+				songName = previous.songName;
+			}
+			Entry entry = new Entry(songId, songName, favourites);
+			ranking.add(entry);
+			entries.put(songId, entry);
+
+			while (ranking.size() > capacity) {
+				Entry last = ranking.pollLast();
+				entries.remove(last.songId);
+			}
+			updateMinimumToEnter();
+		}
+	}
+
+	public synchronized void remove(String songId) {
+		Entry previous = entries.remove(songId);
+		if (previous != null) {
+			ranking.remove(previous);
+			updateMinimumToEnter();
+		}
+	}
+
+	/**
+	 * This method reads the top of the chart without touching the database
+	 * @param limit the most songs to return, never more than the configured chart size
+	 * @return the songs with the most favourites, highest first
+	 */
+	public List<Map<String, Object>> getTopSongs(int limit) {
+		int count = Math.min(limit, size);
+		List<Map<String, Object>> topSongs = new ArrayList<>(count);
+		Iterator<Entry> iterator = ranking.iterator();
+		while (topSongs.size() < count && iterator.hasNext()) {
+			Entry entry = iterator.next();
+			Map<String, Object> song = new HashMap<>();
+			song.put("id", entry.songId);
+			song.put(Song.KEY_SONG_NAME, entry.songName);
+			song.put(Song.KEY_SONG_AMOUNT_FAVOURITES, entry.favourites);
+			topSongs.add(song);
+		}
+		return topSongs;
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	private void updateMinimumToEnter() {
+		minimumToEnter = ranking.size() < capacity ? Long.MIN_VALUE : ranking.last().favourites;
+	}
+
+	private static final class Entry {
+		final String songId;
+		final String songName;
+		final long favourites;
+
+		Entry(String songId, String songName, long favourites) {
+			this.songId = songId;
+			this.songName = songName;
+			this.favourites = favourites;
+		}
+	}
+}
@@ -2,12 +2,18 @@ package com.eecs3311.songmicroservice;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.ConfigurableApplicationContext;
 
 @SpringBootApplication
 public class SongMicroserviceApplication {
 
 	public static void main(String[] args) {
-		SpringApplication.run(SongMicroserviceApplication.class, args);
+		ConfigurableApplicationContext context = SpringApplication.run(SongMicroserviceApplication.class, args);
+
+		context.getBean(SongDalImpl.class).initSongDb();
+		context.getBean(FavouriteEventLog.class).initEventLog();
+		context.getBean(SongLeaderboard.class).start();
+
 		System.out.println("Song Microservice is running on port 3001");
 	}
 }
@@ -4,10 +4,25 @@ import javax.servlet.http.HttpServletRequest;
 
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
 
-import java.util.Map;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
 
 public class Utils {
+
+	// Configured like the mapper Spring builds, but leaves the servlet stream open for Spring to flush
+	private static final ObjectMapper RESPONSE_MAPPER = Jackson2ObjectMapperBuilder.json()
+			.featuresToDisable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+			.build();
+
+	private static final ClassValue<ObjectWriter> RESPONSE_WRITERS = new ClassValue<ObjectWriter>() {
+		@Override
+		protected ObjectWriter computeValue(Class<?> responseClass) {
+			return RESPONSE_MAPPER.writerFor(responseClass);
+		}
+	};
 	
 	// Used to determine path that was called from within each REST route, you don't need to modify this
 	public static String getUrl(HttpServletRequest req) {
@@ -20,25 +35,50 @@ public class Utils {
 		return requestUrl;
 	}
 	
-	// Sets the response status and data for a response from the server. You might not always be able to use this function
-	public static ResponseEntity<Map<String, Object>> setResponseStatus(Map<String, Object> response, DbQueryExecResult dbQueryExecResult, Object data) {	
-		HttpStatus status = HttpStatus.NOT_IMPLEMENTED; // default value of HTTP 501 NOT IMPLEMENTED
+	/**
+	 * Same as "METHOD " + getUrl(req) without String.format and the copies of the URL getUrl makes on the way
+	 * @return the "path" of the response, like "GET http://localhost:3001/getSongById/1"
+	 */
+	public static String getPath(String method, HttpServletRequest req) {
+		StringBuffer requestUrl = req.getRequestURL();
+		String queryString = req.getQueryString();
+
+		StringBuilder path = new StringBuilder(method.length() + 2 + requestUrl.length() + (queryString == null ? 0 : queryString.length()));
+		path.append(method).append(' ').append(requestUrl);
+		if (queryString != null) {
+			path.append('?').append(queryString);
+		}
+		return path.toString();
+	}
+
+	public static HttpStatus toHttpStatus(DbQueryExecResult dbQueryExecResult) {
 		switch (dbQueryExecResult) {
 			case QUERY_OK:
-				status = HttpStatus.OK;
-				if (data != null) {
-					response.put("data", data);
-				}
-				break;
+				return HttpStatus.OK;
 			case QUERY_ERROR_NOT_FOUND:
-				status = HttpStatus.NOT_FOUND;
-				break;
+				return HttpStatus.NOT_FOUND;
 			case QUERY_ERROR_GENERIC:
-				status = HttpStatus.INTERNAL_SERVER_ERROR;
-				break;
+				return HttpStatus.INTERNAL_SERVER_ERROR;
+			default:
+				return HttpStatus.NOT_IMPLEMENTED;
 		}
-		response.put("status", status);
-		
-		return ResponseEntity.status(status).body(response);
+	}
+
+	// Sets the response status and data for a response from the server, the data is only sent back when the query succeeded
+	public static ResponseEntity<ApiResponse> setResponseStatus(String path, String message, DbQueryExecResult dbQueryExecResult, Object data) {
+		HttpStatus status = toHttpStatus(dbQueryExecResult);
+		return ResponseEntity.status(status).body(new ApiResponse(path, message, status, status == HttpStatus.OK ? data : null));
+	}
+
+	public static ResponseEntity<ApiResponse> badRequest(String path, String message) {
+		return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new ApiResponse(path, message, HttpStatus.BAD_REQUEST, null));
+	}
+
+	/**
+	 * The writer ApiResponseConverter serializes a response with. Each one is built once per response class with its
+	 * serializer already looked up, instead of a new writer per response
+	 */
+	public static ObjectWriter responseWriter(Class<?> responseClass) {
+		return RESPONSE_WRITERS.get(responseClass);
 	}
 }
\ No newline at end of file
@@ -0,0 +1,32 @@
+package com.eecs3311.songmicroservice;
+
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * Puts ApiResponseConverter ahead of Spring's Jackson converter, so it is the one that writes the controllers' responses,
+ * and times the endpoints with RequestTimer
+ */
+@Configuration
+public class WebConfig implements WebMvcConfigurer {
+
+	@Autowired
+	private LatencyMetrics latencyMetrics;
+
+	@Override
+	public void addInterceptors(InterceptorRegistry registry) {
+		if (latencyMetrics.isEnabled()) {
+			registry.addInterceptor(new RequestTimer(latencyMetrics));
+		}
+	}
+
+	@Override
+	public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+		converters.add(0, new ApiResponseConverter());
+	}
+}
@@ -0,0 +1,192 @@
+package com.eecs3311.songmicroservice;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.types.ObjectId;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import com.mongodb.MongoClient;
+import com.mongodb.ServerAddress;
+
+import de.bwaldvogel.mongo.MongoServer;
+import de.bwaldvogel.mongo.backend.memory.MemoryBackend;
+
+public class CachingSongDalTest {
+
+	private MongoServer server;
+	private MongoClient client;
+	private MongoTemplate db;
+	private SongDalImpl songDalImpl;
+
+	@Before
+	public void setUp() {
+		server = new MongoServer(new MemoryBackend());
+		InetSocketAddress address = server.bind();
+		client = new MongoClient(new ServerAddress(address));
+		db = new MongoTemplate(client, "eecs3311-test");
+		FavouritesWriteBehind writeBehind = new FavouritesWriteBehind(db, false, 250, 500);
+		songDalImpl = new SongDalImpl(db, writeBehind, new SongLeaderboard(db, writeBehind, 100, 60));
+	}
+
+	@After
+	public void tearDown() {
+		client.close();
+		server.shutdownNow();
+	}
+
+	@Test
+	public void writesThroughTheCacheAreNeverServedStale() {
+		CachingSongDal songDal = cachingSongDal(true);
+		Song song = new Song("Song", "Artist", "Album");
+		songDal.addSong(song);
+		String songId = song.getId();
+
+		assertEquals("Song", songDal.getSongTitleById(songId).getData());
+		songDal.updateSongFavouritesCount(songId, false);
+		assertEquals(1, ((Song) songDal.findSongById(songId).getData()).getSongAmountFavourites());
+
+		songDal.deleteSongById(songId);
+		assertEquals(DbQueryExecResult.QUERY_ERROR_NOT_FOUND, songDal.findSongById(songId).getdbQueryExecResult());
+		assertEquals(DbQueryExecResult.QUERY_ERROR_NOT_FOUND, songDal.getSongTitleById(songId).getdbQueryExecResult());
+	}
+
+	@Test
+	public void remembersMissingIds() {
+		CachingSongDal songDal = cachingSongDal(true);
+		String missingId = new ObjectId().toHexString();
+
+		assertEquals(DbQueryExecResult.QUERY_ERROR_NOT_FOUND, songDal.findSongById(missingId).getdbQueryExecResult());
+		assertEquals(DbQueryExecResult.QUERY_ERROR_NOT_FOUND, songDal.findSongById(missingId).getdbQueryExecResult());
+
+		Map<?, ?> missingStats = (Map<?, ?>) songDal.getCacheStats().get("missingSongIds");
+		assertEquals(1L, missingStats.get("hits"));
+	}
+
+	@Test
+	public void batchLookupKeepsRequestOrderAndReportsMissingIds() {
+		Song first = new Song("First", "Artist", "Album");
+		Song second = new Song("Second", "Artist", "Album");
+		db.insert(first);
+		db.insert(second);
+		String missingId = new ObjectId().toHexString();
+		List<String> songIds = Arrays.asList(second.getId(), missingId, "not-an-id", first.getId(), second.getId());
+
+		for (boolean enabled : new boolean[] { false, true }) {
+			CachingSongDal songDal = cachingSongDal(enabled);
+			// Warm part of the cache so the batch mixes hits and misses
+			songDal.findSongById(first.getId());
+
+			List<?> titles = (List<?>) songDal.findSongsByIds(songIds, true).getData();
+			assertEquals(5, titles.size());
+			assertEquals("Second", ((Map<?, ?>) titles.get(0)).get("songName"));
+			assertEquals(false, ((Map<?, ?>) titles.get(1)).get("found"));
+			assertEquals(false, ((Map<?, ?>) titles.get(2)).get("found"));
+			assertEquals("First", ((Map<?, ?>) titles.get(3)).get("songName"));
+			assertEquals("Second", ((Map<?, ?>) titles.get(4)).get("songName"));
+
+			List<?> songs = (List<?>) songDal.findSongsByIds(songIds, false).getData();
+			assertEquals(first.getId(), ((Song) ((Map<?, ?>) songs.get(3)).get("song")).getId());
+		}
+	}
+
+	@Test
+	public void idsInAnyCaseShareOneEntry() {
+		CachingSongDal songDal = cachingSongDal(true);
+		Song song = new Song("Song", "Artist", "Album");
+		db.insert(song);
+		String upperCaseId = song.getId().toUpperCase();
+
+		songDal.findSongsByIds(Arrays.asList(upperCaseId), true);
+		assertEquals("Song", songDal.getSongTitleById(upperCaseId).getData());
+
+		// A write that went around the cache, invalidated by the Id as mongoDB has it
+		db.updateFirst(new Query(Criteria.where("_id").is(song.getId())), new Update().set(Song.KEY_SONG_NAME, "Renamed"), Song.class);
+		songDal.invalidate(song.getId());
+
+		assertEquals("Renamed", songDal.getSongTitleById(upperCaseId).getData());
+		assertEquals("Renamed", ((Map<?, ?>) ((List<?>) songDal.findSongsByIds(Arrays.asList(upperCaseId), true).getData()).get(0)).get("songName"));
+	}
+
+	@Test
+	public void aWriteDuringABatchLookupIsNotUndone() {
+		Song song = new Song("Song", "Artist", "Album");
+		db.insert(song);
+		CachingSongDal[] songDal = new CachingSongDal[1];
+		FavouritesWriteBehind writeBehind = new FavouritesWriteBehind(db, false, 250, 500);
+		SongDalImpl writingDuringQuery = new SongDalImpl(db, writeBehind, new SongLeaderboard(db, writeBehind, 100, 60)) {
+			@Override
+			Map<String, Song> findSongs(Collection<String> songIds, boolean titlesOnly) {
+				Map<String, Song> found = super.findSongs(songIds, titlesOnly);
+				// The song is liked after the query read it but before its result is cached
+				songDal[0].updateSongFavouritesCount(song.getId(), false);
+				return found;
+			}
+		};
+		songDal[0] = new CachingSongDal(writingDuringQuery, true, 1000, 300, 30);
+
+		songDal[0].findSongsByIds(Arrays.asList(song.getId()), false);
+
+		assertEquals(1, ((Song) songDal[0].findSongById(song.getId()).getData()).getSongAmountFavourites());
+	}
+
+	@Test
+	public void comparesLatencyWithCacheOnAndOff() {
+		List<String> songIds = new ArrayList<>();
+		for (int i = 0; i < 200; i++) {
+			Song song = new Song("Song " + i, "Artist", "Album");
+			db.insert(song);
+			songIds.add(song.getId());
+		}
+
+		long[] uncached = measureReads(cachingSongDal(false), songIds);
+		long[] cached = measureReads(cachingSongDal(true), songIds);
+
+		report("cache off", uncached);
+		report("cache on", cached);
+		assertTrue(percentile(cached, 50) <= percentile(uncached, 50));
+	}
+
+	private CachingSongDal cachingSongDal(boolean enabled) {
+		return new CachingSongDal(songDalImpl, enabled, 1000, 300, 30);
+	}
+
+	private long[] measureReads(SongDal songDal, List<String> songIds) {
+		// Skewed towards a few popular songs, like the real read traffic
+		Random random = new Random(3311);
+		long[] latencies = new long[5000];
+		for (int i = 0; i < latencies.length; i++) {
+			String songId = songIds.get((int) (songIds.size() * Math.pow(random.nextDouble(), 3)));
+			long start = System.nanoTime();
+			songDal.findSongById(songId);
+			latencies[i] = System.nanoTime() - start;
+		}
+		Arrays.sort(latencies);
+		return latencies;
+	}
+
+	private long percentile(long[] sortedLatencies, double percentile) {
+		return sortedLatencies[(int) Math.ceil(percentile / 100 * sortedLatencies.length) - 1];
+	}
+
+	private void report(String label, long[] sortedLatencies) {
+		System.out.println(String.format("INFO: findSongById with %s: p50 %d us, p99 %d us", label,
+				TimeUnit.NANOSECONDS.toMicros(percentile(sortedLatencies, 50)),
+				TimeUnit.NANOSECONDS.toMicros(percentile(sortedLatencies, 99))));
+	}
+}
@@ -0,0 +1,131 @@
+package com.eecs3311.songmicroservice;
+
+import static org.junit.Assert.assertEquals;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import com.mongodb.MongoClient;
+import com.mongodb.ServerAddress;
+
+import de.bwaldvogel.mongo.MongoServer;
+import de.bwaldvogel.mongo.backend.memory.MemoryBackend;
+
+public class FavouriteEventLogTest {
+
+	private MongoServer server;
+	private MongoClient client;
+	private MongoTemplate db;
+	private FavouriteEventLog favouriteEventLog;
+	private String songId;
+
+	@Before
+	public void setUp() {
+		server = new MongoServer(new MemoryBackend());
+		InetSocketAddress address = server.bind();
+		client = new MongoClient(new ServerAddress(address));
+		db = new MongoTemplate(client, "eecs3311-test");
+		FavouritesWriteBehind writeBehind = new FavouritesWriteBehind(db, false, 250, 500);
+		SongDalImpl songDal = new SongDalImpl(db, writeBehind, new SongLeaderboard(db, writeBehind, 100, 60));
+		favouriteEventLog = new FavouriteEventLog(db, songDal, 168, 60);
+		favouriteEventLog.initEventLog();
+
+		Song song = new Song("Song", "Artist", "Album");
+		db.insert(song);
+		songId = song.getId();
+	}
+
+	@After
+	public void tearDown() {
+		client.close();
+		server.shutdownNow();
+	}
+
+	@Test
+	public void appliesEveryEventOnce() {
+		List<FavouriteEvent> events = Arrays.asList(
+				new FavouriteEvent("e1", songId, false),
+				new FavouriteEvent("e2", songId, false),
+				new FavouriteEvent("e3", songId, true));
+
+		assertEquals(Arrays.asList("applied", "applied", "applied"), results(favouriteEventLog.applyEvents(events)));
+		assertEquals(1, favourites());
+
+		// The sender timed out and sends the same batch again, with one new event
+		List<FavouriteEvent> retry = new ArrayList<>(events);
+		retry.add(new FavouriteEvent("e4", songId, false));
+		assertEquals(Arrays.asList("duplicate", "duplicate", "duplicate", "applied"), results(favouriteEventLog.applyEvents(retry)));
+		assertEquals(2, favourites());
+	}
+
+	@Test
+	public void reportsEventsThatCannotBeApplied() {
+		List<FavouriteEvent> events = Arrays.asList(
+				new FavouriteEvent("e1", songId, true),
+				new FavouriteEvent("e2", new ObjectId().toHexString(), false),
+				new FavouriteEvent("e3", songId, false),
+				new FavouriteEvent("e3", songId, false));
+
+		assertEquals(Arrays.asList("rejected", "not_found", "applied", "duplicate"), results(favouriteEventLog.applyEvents(events)));
+		assertEquals(1, favourites());
+	}
+
+	@Test
+	public void finishesTheEventsOfADeliveryThatDied() {
+		// One delivery died after applying e1 and another right after claiming e2, both long enough ago to be taken over
+		Date longAgo = new Date(System.currentTimeMillis() - 3600000);
+		db.insert(claim("e1", longAgo), FavouriteEventLog.COLLECTION);
+		db.insert(claim("e2", longAgo), FavouriteEventLog.COLLECTION);
+		db.updateFirst(new Query(Criteria.where("_id").is(songId)),
+				new Update().inc(Song.KEY_SONG_AMOUNT_FAVOURITES, 1).addToSet(Song.KEY_FAVOURITE_EVENTS_IN_FLIGHT, "e1"), Song.class);
+		// While a claim made just now belongs to a delivery that may still be applying it
+		db.insert(claim("e3", new Date()), FavouriteEventLog.COLLECTION);
+
+		List<FavouriteEvent> events = Arrays.asList(
+				new FavouriteEvent("e1", songId, false),
+				new FavouriteEvent("e2", songId, false),
+				new FavouriteEvent("e3", songId, false));
+		assertEquals(Arrays.asList("duplicate", "applied", "failed"), results(favouriteEventLog.applyEvents(events)));
+		assertEquals(2, favourites());
+		assertEquals(Arrays.asList("duplicate", "duplicate", "failed"), results(favouriteEventLog.applyEvents(events)));
+		assertEquals(2, favourites());
+
+		// Only the claim still pending is left on the song
+		Document song = db.findById(new ObjectId(songId), Document.class, "songs");
+		assertEquals(Collections.emptyList(), song.get(Song.KEY_FAVOURITE_EVENTS_IN_FLIGHT));
+	}
+
+	private Document claim(String eventId, Date claimedAt) {
+		return new Document("_id", eventId).append("songId", songId).append(FavouriteEvent.KEY_SHOULD_DECREMENT, false)
+				.append("deliveryId", "gone").append("state", "pending").append("claimedAt", claimedAt).append("appliedAt", claimedAt);
+	}
+
+	private long favourites() {
+		return db.findById(songId, Song.class).getSongAmountFavourites();
+	}
+
+	@SuppressWarnings("unchecked")
+	private static List<String> results(DbQueryStatus dbQueryStatus) {
+		assertEquals(DbQueryExecResult.QUERY_OK, dbQueryStatus.getdbQueryExecResult());
+		List<String> results = new ArrayList<>();
+		for (Map<String, Object> result : (List<Map<String, Object>>) ((Map<String, Object>) dbQueryStatus.getData()).get("results")) {
+			results.add((String) result.get("result"));
+		}
+		return results;
+	}
+}
@@ -0,0 +1,207 @@
+package com.eecs3311.songmicroservice;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import com.mongodb.MongoClient;
+import com.mongodb.ServerAddress;
+
+import de.bwaldvogel.mongo.MongoServer;
+import de.bwaldvogel.mongo.backend.memory.MemoryBackend;
+
+public class FavouritesWriteBehindTest {
+
+	private MongoServer server;
+	private MongoClient client;
+	private MongoTemplate db;
+	private FavouritesWriteBehind writeBehind;
+	private SongDalImpl songDal;
+
+	@Before
+	public void setUp() {
+		server = new MongoServer(new MemoryBackend());
+		InetSocketAddress address = server.bind();
+		client = new MongoClient(new ServerAddress(address));
+		db = new MongoTemplate(client, "eecs3311-test");
+		// Long interval so the test decides when flushes happen
+		writeBehind = new FavouritesWriteBehind(db, true, 60_000, 10_000);
+		songDal = new SongDalImpl(db, writeBehind, new SongLeaderboard(db, writeBehind, 100, 60));
+	}
+
+	@After
+	public void tearDown() {
+		writeBehind.shutdown();
+		client.close();
+		server.shutdownNow();
+	}
+
+	@Test
+	public void readsSeePendingDeltasBeforeFlush() {
+		String songId = addSong().getId();
+
+		songDal.updateSongFavouritesCount(songId, false);
+		songDal.updateSongFavouritesCount(songId, false);
+		DbQueryStatus unliked = songDal.updateSongFavouritesCount(songId, true);
+
+		assertEquals(1L, unliked.getData());
+		assertEquals(0, db.findById(songId, Song.class).getSongAmountFavourites());
+		assertEquals(1, ((Song) songDal.findSongById(songId).getData()).getSongAmountFavourites());
+	}
+
+	@Test
+	public void flushWritesSummedDeltasInOneBatch() throws Exception {
+		String first = addSong().getId();
+		String second = addSong().getId();
+
+		ExecutorService pool = Executors.newFixedThreadPool(16);
+		List<Future<?>> writers = new ArrayList<>();
+		for (int i = 0; i < 16; i++) {
+			writers.add(pool.submit(() -> {
+				for (int j = 0; j < 100; j++) {
+					writeBehind.add(first, 1);
+					writeBehind.add(second, j % 2 == 0 ? 1 : -1);
+				}
+			}));
+		}
+		for (Future<?> writer : writers) {
+			writer.get();
+		}
+		pool.shutdown();
+
+		writeBehind.flush();
+
+		assertEquals(1600, db.findById(first, Song.class).getSongAmountFavourites());
+		assertEquals(0, db.findById(second, Song.class).getSongAmountFavourites());
+		assertEquals(1600, writeBehind.favouritesCount(first, 0));
+		assertEquals(1600, ((Song) songDal.findSongById(first).getData()).getSongAmountFavourites());
+	}
+
+	@Test
+	public void racingUnlikesOfTheLastFavouriteOnlyTakeItOnce() throws Exception {
+		String songId = addSong().getId();
+		songDal.updateSongFavouritesCount(songId, false);
+
+		ExecutorService pool = Executors.newFixedThreadPool(8);
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<DbQueryStatus>> unlikes = new ArrayList<>();
+		for (int i = 0; i < 8; i++) {
+			unlikes.add(pool.submit(() -> {
+				start.await();
+				return songDal.updateSongFavouritesCount(songId, true);
+			}));
+		}
+		start.countDown();
+		int unliked = 0;
+		for (Future<DbQueryStatus> unlike : unlikes) {
+			DbQueryStatus status = unlike.get();
+			if (status.getdbQueryExecResult() == DbQueryExecResult.QUERY_OK) {
+				assertEquals(0L, status.getData());
+				unliked++;
+			}
+		}
+		pool.shutdown();
+
+		assertEquals(1, unliked);
+		assertEquals(0, ((Song) songDal.findSongById(songId).getData()).getSongAmountFavourites());
+	}
+
+	@Test
+	public void retiredCountersAreSeededAgainFromMongo() {
+		String songId = addSong().getId();
+		assertEquals(1, writeBehind.add(songId, 1));
+		writeBehind.flush();
+		assertTrue(writeBehind.isTracked(songId));
+
+		// Unchanged for a whole interval after its last write, reads go back to mongoDB
+		writeBehind.flush();
+		writeBehind.flush();
+		assertFalse(writeBehind.isTracked(songId));
+		assertEquals(1, ((Song) songDal.findSongById(songId).getData()).getSongAmountFavourites());
+
+		assertEquals(2, writeBehind.add(songId, 1));
+		writeBehind.flush();
+		assertEquals(2, db.findById(songId, Song.class).getSongAmountFavourites());
+
+		songDal.deleteSongById(songId);
+		assertEquals(FavouritesWriteBehind.NO_SONG, writeBehind.add(songId, 1));
+	}
+
+	@Test
+	public void keepsErrorResultsAndFlushesOnShutdown() {
+		String songId = addSong().getId();
+
+		assertEquals(DbQueryExecResult.QUERY_ERROR_GENERIC, songDal.updateSongFavouritesCount(songId, true).getdbQueryExecResult());
+		assertEquals(DbQueryExecResult.QUERY_ERROR_NOT_FOUND,
+				songDal.updateSongFavouritesCount(new ObjectId().toHexString(), false).getdbQueryExecResult());
+
+		songDal.updateSongFavouritesCount(songId, false);
+		writeBehind.shutdown();
+
+		assertEquals(1, db.findById(songId, Song.class).getSongAmountFavourites());
+	}
+
+	@Test
+	public void partialFlushFailureOnlyRetriesWhatWasNotWritten() {
+		List<String> songIds = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			songIds.add(addSong().getId());
+		}
+		// A count that $inc can't be applied to fails its operation and stops the ordered bulkWrite there. The in-memory
+		// server carries on past the error where mongoDB wouldn't, so the broken song is the last one the flush sends,
+		// the pending songs are sent in the iteration order of a map with the same keys
+		Map<String, Boolean> flushOrder = new ConcurrentHashMap<>();
+		for (String songId : songIds) {
+			flushOrder.put(songId, true);
+		}
+		String broken = null;
+		for (String songId : flushOrder.keySet()) {
+			broken = songId;
+		}
+		for (String songId : songIds) {
+			writeBehind.add(songId, 2);
+		}
+		db.getCollection("songs").updateOne(new Document("_id", new ObjectId(broken)),
+				new Document("$set", new Document(Song.KEY_SONG_AMOUNT_FAVOURITES, "broken")));
+
+		try {
+			writeBehind.flush();
+			fail("The broken song should have failed the flush");
+		} catch (DataAccessException e) {
+			// Expected
+		}
+		db.getCollection("songs").updateOne(new Document("_id", new ObjectId(broken)),
+				new Document("$set", new Document(Song.KEY_SONG_AMOUNT_FAVOURITES, 0L)));
+		writeBehind.flush();
+
+		for (String songId : songIds) {
+			assertEquals(2, db.findById(songId, Song.class).getSongAmountFavourites());
+			assertEquals(2, writeBehind.favouritesCount(songId, 0));
+		}
+	}
+
+	private Song addSong() {
+		Song song = new Song("Song", "Artist", "Album");
+		db.insert(song);
+		return song;
+	}
+}
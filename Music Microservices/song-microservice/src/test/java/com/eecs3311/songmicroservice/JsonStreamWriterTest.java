@@ -0,0 +1,62 @@
+package com.eecs3311.songmicroservice;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class JsonStreamWriterTest {
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+
+	@Test
+	public void writesAListUnderData() throws IOException {
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		try (JsonStreamWriter writer = JsonStreamWriter.start(response, objectMapper, "GET /list")) {
+			writer.write("a");
+			writer.write("b");
+			writer.finish(new DbQueryStatus("Listed", DbQueryExecResult.QUERY_OK), Collections.singletonMap("nextCursor", "c"));
+		}
+
+		JsonNode body = objectMapper.readTree(response.getContentAsByteArray());
+		assertEquals(200, response.getStatus());
+		assertEquals("GET /list", body.get("path").asText());
+		assertEquals(Arrays.asList("a", "b"), Arrays.asList(body.get("data").get(0).asText(), body.get("data").get(1).asText()));
+		assertEquals("c", body.get("nextCursor").asText());
+		assertEquals("OK", body.get("status").asText());
+	}
+
+	@Test
+	public void writesAnObjectUnderDataOneFieldAtATime() throws IOException {
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		try (JsonStreamWriter writer = JsonStreamWriter.startObject(response, objectMapper, "GET /byName")) {
+			writer.write("first", Arrays.asList(1, 2));
+			writer.write("second", Collections.emptyList());
+			writer.finish(new DbQueryStatus("Listed", DbQueryExecResult.QUERY_OK), Collections.emptyMap());
+		}
+
+		JsonNode body = objectMapper.readTree(response.getContentAsByteArray());
+		assertEquals(2, body.get("data").get("first").size());
+		assertEquals(0, body.get("data").get("second").size());
+		assertEquals("Listed", body.get("message").asText());
+	}
+
+	@Test
+	public void closingEarlyStillEndsTheDocument() throws IOException {
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		try (JsonStreamWriter writer = JsonStreamWriter.startObject(response, objectMapper, "GET /byName")) {
+			writer.write("first", Arrays.asList(1, 2));
+		}
+
+		JsonNode body = objectMapper.readTree(response.getContentAsByteArray());
+		assertEquals(1, body.get("data").size());
+		assertEquals("INTERNAL_SERVER_ERROR", body.get("status").asText());
+	}
+}
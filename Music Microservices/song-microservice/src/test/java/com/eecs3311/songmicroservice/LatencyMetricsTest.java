@@ -0,0 +1,139 @@
+package com.eecs3311.songmicroservice;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import de.bwaldvogel.mongo.MongoServer;
+import de.bwaldvogel.mongo.backend.memory.MemoryBackend;
+
+public class LatencyMetricsTest {
+
+	@Test
+	public void quantilesAreWithinASixteenthOfTheRecordedValue() {
+		Random random = new Random(42);
+		for (int i = 0; i < 1000; i++) {
+			long value = (long) Math.pow(10, random.nextDouble() * 12);
+			LatencyHistogram histogram = new LatencyHistogram();
+			histogram.record(value);
+			long reported = histogram.snapshot().valueAtQuantile(0.5);
+			assertTrue(value + " was reported as " + reported, reported >= value && reported - value <= value / 16);
+		}
+
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (long micros = 1; micros <= 1000; micros++) {
+			histogram.record(micros * 1000);
+		}
+		LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+		assertEquals(1000, snapshot.getCount());
+		assertEquals(500500000L, snapshot.getTotalNanos());
+		assertWithinASixteenth(500000, snapshot.valueAtQuantile(0.5));
+		assertWithinASixteenth(990000, snapshot.valueAtQuantile(0.99));
+		assertWithinASixteenth(1000000, snapshot.valueAtQuantile(1));
+		assertEquals(Long.MAX_VALUE, LatencyHistogram.highestValueOf(LatencyHistogram.bucketOf(Long.MAX_VALUE)));
+	}
+
+	@Test
+	public void concurrentRecordingLosesNothing() throws Exception {
+		LatencyHistogram histogram = new LatencyHistogram();
+		ExecutorService writers = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<?>> done = new ArrayList<>();
+			for (int i = 0; i < 8; i++) {
+				done.add(writers.submit(() -> {
+					for (int j = 0; j < 100000; j++) {
+						histogram.record(j % 64);
+					}
+				}));
+			}
+			for (Future<?> future : done) {
+				future.get();
+			}
+		} finally {
+			writers.shutdown();
+		}
+		assertEquals(800000, histogram.snapshot().getCount());
+		assertEquals(800000, histogram.snapshot().countAtOrBelow(63));
+	}
+
+	@Test
+	public void endpointsAndSongDalMethodsAreExported() throws Exception {
+		MongoServer server = new MongoServer(new MemoryBackend());
+		InetSocketAddress address = server.bind();
+		ConfigurableApplicationContext context = new SpringApplicationBuilder(SongMicroserviceApplication.class)
+				.run("--server.port=0", "--spring.data.mongodb.host=" + address.getHostString(), "--spring.data.mongodb.port=" + address.getPort());
+		try {
+			String baseUrl = "http://localhost:" + context.getEnvironment().getProperty("local.server.port");
+			assertEquals(200, call("POST", baseUrl + "/addSong", "{\"songName\": \"Song\", \"songArtistFullName\": \"Artist\", \"songAlbum\": \"Album\"}"));
+			for (int i = 0; i < 3; i++) {
+				assertEquals(404, call("GET", baseUrl + "/getSongById/5d61728193528481fe5a3122", null));
+			}
+
+			HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + "/metrics").openConnection();
+			assertEquals(200, connection.getResponseCode());
+			assertTrue(connection.getContentType().startsWith("text/plain"));
+			String metrics = read(connection.getInputStream());
+
+			assertTrue(metrics.contains("# TYPE song_http_server_requests_seconds histogram\n"));
+			assertTrue(metrics.contains("song_http_server_requests_seconds_count{method=\"GET\",endpoint=\"/getSongById/{songId}\",status=\"404\"} 3\n"));
+			assertTrue(metrics.contains("song_http_server_requests_seconds_bucket{method=\"GET\",endpoint=\"/getSongById/{songId}\",status=\"404\",le=\"+Inf\"} 3\n"));
+			assertTrue(metrics.contains("song_http_server_requests_seconds_count{method=\"POST\",endpoint=\"/addSong\",status=\"200\"} 1\n"));
+			// Only the first miss reaches the mongoDB, the other two are answered by the negative cache
+			assertTrue(metrics.contains("song_dal_query_seconds_count{dal=\"CachingSongDal\",operation=\"findSongById\",outcome=\"QUERY_ERROR_NOT_FOUND\"} 3\n"));
+			assertTrue(metrics.contains("song_dal_query_seconds_count{dal=\"SongDalImpl\",operation=\"findSongById\",outcome=\"QUERY_ERROR_NOT_FOUND\"} 1\n"));
+			assertTrue(metrics.contains("song_dal_query_seconds_count{dal=\"SongDalImpl\",operation=\"addSong\",outcome=\"QUERY_OK\"} 1\n"));
+			assertTrue(metrics.contains("song_dal_query_seconds_quantiles{dal=\"SongDalImpl\",operation=\"addSong\",outcome=\"QUERY_OK\",quantile=\"0.99\"} "));
+		} finally {
+			context.close();
+			server.shutdownNow();
+		}
+	}
+
+	private static void assertWithinASixteenth(long expected, long actual) {
+		assertTrue(expected + " was reported as " + actual, Math.abs(actual - expected) <= expected / 16);
+	}
+
+	private static int call(String method, String url, String body) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+		connection.setRequestMethod(method);
+		if (body != null) {
+			connection.setDoOutput(true);
+			connection.setRequestProperty("Content-Type", "application/json");
+			try (OutputStream out = connection.getOutputStream()) {
+				out.write(body.getBytes(StandardCharsets.UTF_8));
+			}
+		}
+		int status = connection.getResponseCode();
+		read(status < 400 ? connection.getInputStream() : connection.getErrorStream());
+		return status;
+	}
+
+	private static String read(InputStream in) throws IOException {
+		try (InputStream stream = in) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			for (int read; (read = stream.read(buffer)) != -1; ) {
+				out.write(buffer, 0, read);
+			}
+			return new String(out.toByteArray(), StandardCharsets.UTF_8);
+		}
+	}
+}
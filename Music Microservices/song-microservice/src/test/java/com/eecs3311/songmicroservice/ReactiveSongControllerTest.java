@@ -0,0 +1,136 @@
+package com.eecs3311.songmicroservice;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import de.bwaldvogel.mongo.MongoServer;
+import de.bwaldvogel.mongo.backend.memory.MemoryBackend;
+
+public class ReactiveSongControllerTest {
+
+	private static final int TOMCAT_THREADS = 2;
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+
+	private MongoServer server;
+	private ConfigurableApplicationContext context;
+	private String baseUrl;
+
+	@Before
+	public void setUp() {
+		server = new MongoServer(new MemoryBackend());
+		InetSocketAddress address = server.bind();
+		context = new SpringApplicationBuilder(SongMicroserviceApplication.class)
+				.run("--server.port=0", "--server.tomcat.max-threads=" + TOMCAT_THREADS, "--spring.profiles.active=reactive",
+						"--spring.data.mongodb.host=" + address.getHostString(), "--spring.data.mongodb.port=" + address.getPort());
+		baseUrl = "http://localhost:" + context.getEnvironment().getProperty("local.server.port");
+	}
+
+	@After
+	public void tearDown() {
+		context.close();
+		server.shutdownNow();
+	}
+
+	@Test
+	public void servesMoreConcurrentRequestsThanTomcatHasThreads() throws Exception {
+		String songId = addSong();
+
+		ExecutorService clients = Executors.newFixedThreadPool(32);
+		try {
+			List<Future<Integer>> responses = new ArrayList<>();
+			for (int i = 0; i < 32; i++) {
+				responses.add(clients.submit(() -> call("GET", "/reactive/getSongById/" + songId, null).status));
+			}
+			for (Future<Integer> response : responses) {
+				assertEquals(200, (int) response.get());
+			}
+		} finally {
+			clients.shutdown();
+		}
+
+		assertEquals(404, call("GET", "/reactive/getSongById/" + new org.bson.types.ObjectId().toHexString(), null).status);
+		assertEquals(400, call("GET", "/reactive/listSongs?limit=0", null).status);
+		Response page = call("GET", "/reactive/listSongs?limit=10", null);
+		assertEquals(1, ((List<?>) page.body.get("data")).size());
+	}
+
+	@Test
+	public void writesDropTheSongFromTheCache() throws Exception {
+		String songId = addSong();
+		// Cached by the blocking endpoint
+		assertEquals(0, favourites(call("GET", "/getSongById/" + songId, null)));
+
+		Response updated = call("PUT", "/reactive/updateSongFavouritesCount", "{\"songId\": \"" + songId + "\", \"shouldDecrement\": \"false\"}");
+		assertEquals(200, updated.status);
+		assertEquals(1, favourites(call("GET", "/getSongById/" + songId, null)));
+
+		assertEquals(200, call("DELETE", "/reactive/deleteSongById/" + songId, null).status);
+		assertEquals(404, call("GET", "/getSongById/" + songId, null).status);
+	}
+
+	private String addSong() throws IOException {
+		Response added = call("POST", "/reactive/addSong", "{\"songName\": \"Song\", \"songArtistFullName\": \"Artist\", \"songAlbum\": \"Album\"}");
+		assertEquals(200, added.status);
+		String songId = (String) ((Map<?, ?>) added.body.get("data")).get("id");
+		assertTrue(songId != null);
+		return songId;
+	}
+
+	private static int favourites(Response response) {
+		assertEquals(200, response.status);
+		return ((Number) ((Map<?, ?>) response.body.get("data")).get("songAmountFavourites")).intValue();
+	}
+
+	private Response call(String method, String path, String body) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+		connection.setRequestMethod(method);
+		if (body != null) {
+			connection.setDoOutput(true);
+			connection.setRequestProperty("Content-Type", "application/json");
+			try (OutputStream out = connection.getOutputStream()) {
+				out.write(body.getBytes(StandardCharsets.UTF_8));
+			}
+		}
+		try {
+			int status = connection.getResponseCode();
+			try (InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+				return new Response(status, objectMapper.readValue(in, Map.class));
+			}
+		} finally {
+			connection.disconnect();
+		}
+	}
+
+	private static class Response {
+		final int status;
+		final Map<?, ?> body;
+
+		Response(int status, Map<?, ?> body) {
+			this.status = status;
+			this.body = body;
+		}
+	}
+}
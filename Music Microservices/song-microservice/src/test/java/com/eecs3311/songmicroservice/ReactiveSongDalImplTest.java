@@ -0,0 +1,177 @@
+package com.eecs3311.songmicroservice;
+
+import static org.junit.Assert.assertEquals;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.bson.types.ObjectId;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.MongoClient;
+import com.mongodb.ServerAddress;
+import com.mongodb.reactivestreams.client.MongoClients;
+
+import de.bwaldvogel.mongo.MongoServer;
+import de.bwaldvogel.mongo.backend.memory.MemoryBackend;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * Runs the same operations through SongDalImpl and ReactiveSongDalImpl, each on a server of its own, and expects the
+ * same status, message and data every time
+ */
+public class ReactiveSongDalImplTest {
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+
+	private MongoServer server;
+	private MongoServer reactiveServer;
+	private MongoClient client;
+	private MongoClient reactiveServerClient;
+	private com.mongodb.reactivestreams.client.MongoClient reactiveClient;
+	private final List<FavouritesWriteBehind> writeBehinds = new ArrayList<>();
+
+	@Before
+	public void setUp() {
+		server = new MongoServer(new MemoryBackend());
+		InetSocketAddress address = server.bind();
+		client = new MongoClient(new ServerAddress(address));
+		reactiveServer = new MongoServer(new MemoryBackend());
+		InetSocketAddress reactiveAddress = reactiveServer.bind();
+		reactiveServerClient = new MongoClient(new ServerAddress(reactiveAddress));
+		reactiveClient = MongoClients.create("mongodb://" + reactiveAddress.getHostString() + ":" + reactiveAddress.getPort());
+	}
+
+	@After
+	public void tearDown() {
+		for (FavouritesWriteBehind writeBehind : writeBehinds) {
+			writeBehind.shutdown();
+		}
+		reactiveClient.close();
+		reactiveServerClient.close();
+		client.close();
+		reactiveServer.shutdownNow();
+		server.shutdownNow();
+	}
+
+	@Test
+	public void givesTheSameStatusesAsSongDalImpl() throws JsonProcessingException {
+		for (boolean writeBehind : Arrays.asList(false, true)) {
+			String database = "eecs3311-test-" + writeBehind;
+			MongoTemplate blockingDb = new MongoTemplate(client, database);
+			MongoTemplate reactiveDb = new MongoTemplate(reactiveServerClient, database);
+			SongDalImpl blocking = new SongDalImpl(blockingDb, writeBehind(blockingDb, writeBehind), leaderboard(blockingDb));
+			ReactiveSongDalImpl reactive = new ReactiveSongDalImpl(new ReactiveMongoTemplate(reactiveClient, database),
+					writeBehind(reactiveDb, writeBehind), leaderboard(reactiveDb));
+
+			List<String> songIds = new ArrayList<>();
+			List<Song> catalog = new ArrayList<>();
+			for (int i = 0; i < 7; i++) {
+				ObjectId id = new ObjectId();
+				songIds.add(id.toHexString());
+				catalog.add(song(id, "Song " + i, i % 2 == 0 ? "Artist A" : "Artist B"));
+			}
+			String songId = songIds.get(0);
+			String missingId = new ObjectId().toHexString();
+
+			assertSame(blocking.addSong(catalog.get(0)), reactive.addSong(copy(catalog.get(0))));
+			assertSame(blocking.addSongs(catalog.subList(1, 7), true), reactive.addSongs(copies(catalog.subList(1, 7)), true));
+			// The first song is already there, so the whole ordered batch after it is reported
+			assertSame(blocking.addSongs(catalog.subList(0, 3), true), reactive.addSongs(copies(catalog.subList(0, 3)), true));
+			assertSame(blocking.addSongs(catalog.subList(0, 3), false), reactive.addSongs(copies(catalog.subList(0, 3)), false));
+
+			for (String id : Arrays.asList(songId, missingId, "not-an-id")) {
+				assertSame(blocking.findSongById(id), reactive.findSongById(id));
+				assertSame(blocking.getSongTitleById(id), reactive.getSongTitleById(id));
+			}
+			List<String> batch = Arrays.asList(songIds.get(2), missingId, "not-an-id", songIds.get(2).toUpperCase(), songId);
+			assertSame(blocking.findSongsByIds(batch, false), reactive.findSongsByIds(batch, false));
+			assertSame(blocking.findSongsByIds(batch, true), reactive.findSongsByIds(batch, true));
+			assertSame(blocking.findSongsByIds(Arrays.asList("not-an-id"), false), reactive.findSongsByIds(Arrays.asList("not-an-id"), false));
+
+			for (boolean shouldDecrement : Arrays.asList(false, false, true, true, true)) {
+				assertSame(blocking.updateSongFavouritesCount(songId, shouldDecrement), reactive.updateSongFavouritesCount(songId, shouldDecrement));
+			}
+			assertSame(blocking.updateSongFavouritesCount(songId, false), reactive.updateSongFavouritesCount(songId, false));
+			assertSame(blocking.findSongById(songId), reactive.findSongById(songId));
+			assertSame(blocking.updateSongFavouritesCount(missingId, false), reactive.updateSongFavouritesCount(missingId, false));
+
+			assertEquals(listAll(blocking::listSongs, "Artist A", null), listAll(reactive::listSongs, "Artist A", null));
+			assertEquals(listAll(blocking::listSongs, null, "Song"), listAll(reactive::listSongs, null, "Song"));
+
+			assertSame(blocking.deleteSongById(songId), reactive.deleteSongById(songId));
+			assertSame(blocking.deleteSongById(songId), reactive.deleteSongById(songId));
+			assertSame(blocking.findSongById(songId), reactive.findSongById(songId));
+		}
+	}
+
+	private interface Lister<T> {
+		T list(String songArtistFullName, String songAlbum, String songNamePrefix, SongCursor after, int limit, Consumer<Song> consumer);
+	}
+
+	/**
+	 * Reads every page three songs at a time
+	 * @return the names of the songs and the cursors in the order they were handed out
+	 */
+	@SuppressWarnings("unchecked")
+	private static <T> List<String> listAll(Lister<T> lister, String songArtistFullName, String songNamePrefix) {
+		Function<T, DbQueryStatus> result = status -> status instanceof Mono ? ((Mono<DbQueryStatus>) status).block() : (DbQueryStatus) status;
+		List<String> listed = new ArrayList<>();
+		SongCursor after = null;
+		do {
+			DbQueryStatus dbQueryStatus = result.apply(lister.list(songArtistFullName, null, songNamePrefix, after, 3,
+					song -> listed.add(song.getSongName() + " " + song.getSongAmountFavourites())));
+			assertEquals(DbQueryExecResult.QUERY_OK, dbQueryStatus.getdbQueryExecResult());
+			listed.add(String.valueOf(dbQueryStatus.getData()));
+			after = dbQueryStatus.getData() == null ? null : SongCursor.decode((String) dbQueryStatus.getData());
+		} while (after != null);
+		return listed;
+	}
+
+	private void assertSame(DbQueryStatus expected, Mono<DbQueryStatus> actual) throws JsonProcessingException {
+		DbQueryStatus reactive = actual.block();
+		assertEquals(expected.getMessage(), reactive.getMessage());
+		assertEquals(expected.getdbQueryExecResult(), reactive.getdbQueryExecResult());
+		assertEquals(objectMapper.writeValueAsString(expected.getData()), objectMapper.writeValueAsString(reactive.getData()));
+	}
+
+	private FavouritesWriteBehind writeBehind(MongoTemplate db, boolean enabled) {
+		// Never flushed during the test, so every count read has to add the pending deltas
+		FavouritesWriteBehind writeBehind = new FavouritesWriteBehind(db, enabled, 60000, 500);
+		writeBehinds.add(writeBehind);
+		return writeBehind;
+	}
+
+	private static SongLeaderboard leaderboard(MongoTemplate db) {
+		return new SongLeaderboard(db, new FavouritesWriteBehind(db, false, 250, 500), 100, 60);
+	}
+
+	private static Song song(ObjectId id, String songName, String songArtistFullName) {
+		Song song = new Song(songName, songArtistFullName, "Album");
+		song.setId(id);
+		return song;
+	}
+
+	private static Song copy(Song song) {
+		return song(song._id, song.getSongName(), song.getSongArtistFullName());
+	}
+
+	private static List<Song> copies(List<Song> songs) {
+		List<Song> copies = new ArrayList<>();
+		for (Song song : songs) {
+			copies.add(copy(song));
+		}
+		return copies;
+	}
+}
@@ -0,0 +1,96 @@
+package com.eecs3311.songmicroservice;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.types.ObjectId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Builds and writes the response of a found song the way the controllers did with a HashMap per request ("legacy") and
+ * the way they do now with an ApiResponse and a cached writer ("typed"). Run by ResponseSerializationBenchmarkTest, or
+ * on its own with the JMH runner from the test classpath
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ResponseSerializationBenchmark {
+
+	// Throws the bytes away so only the response pipeline is measured
+	private static final OutputStream DISCARD = new OutputStream() {
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+	};
+
+	// The mapper MappingJackson2HttpMessageConverter wrote the maps with, it asks it for a new writer on every response
+	private final ObjectMapper springMapper = Jackson2ObjectMapperBuilder.json().build();
+
+	private MockHttpServletRequest request;
+	private Song song;
+
+	@Setup
+	public void setUp() {
+		request = new MockHttpServletRequest("GET", "/getSongById/5d61728193528481fe5a3122");
+		request.setServerPort(3001);
+		song = new Song("Never Gonna Give You Up", "Rick Astley", "Whenever You Need Somebody");
+		song.setId(new ObjectId("5d61728193528481fe5a3122"));
+	}
+
+	@Benchmark
+	public ResponseEntity<?> legacy() throws IOException {
+		Map<String, Object> response = new HashMap<String, Object>();
+		response.put("path", String.format("GET %s", Utils.getUrl(request)));
+		response.put("message", "OK");
+		ResponseEntity<Map<String, Object>> entity = legacySetResponseStatus(response, DbQueryExecResult.QUERY_OK, song);
+		springMapper.writer().writeValue(DISCARD, entity.getBody());
+		return entity;
+	}
+
+	@Benchmark
+	public ResponseEntity<?> typed() throws IOException {
+		ResponseEntity<ApiResponse> entity = Utils.setResponseStatus(Utils.getPath("GET", request), "OK", DbQueryExecResult.QUERY_OK, song);
+		Utils.responseWriter(entity.getBody().getClass()).writeValue(DISCARD, entity.getBody());
+		return entity;
+	}
+
+	// Utils.setResponseStatus before the controllers moved to ApiResponse
+	private static ResponseEntity<Map<String, Object>> legacySetResponseStatus(Map<String, Object> response, DbQueryExecResult dbQueryExecResult, Object data) {
+		HttpStatus status = HttpStatus.NOT_IMPLEMENTED;
+		switch (dbQueryExecResult) {
+			case QUERY_OK:
+				status = HttpStatus.OK;
+				if (data != null) {
+					response.put("data", data);
+				}
+				break;
+			case QUERY_ERROR_NOT_FOUND:
+				status = HttpStatus.NOT_FOUND;
+				break;
+			case QUERY_ERROR_GENERIC:
+				status = HttpStatus.INTERNAL_SERVER_ERROR;
+				break;
+		}
+		response.put("status", status);
+		return ResponseEntity.status(status).body(response);
+	}
+}
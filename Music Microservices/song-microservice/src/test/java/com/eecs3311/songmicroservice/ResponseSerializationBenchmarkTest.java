@@ -0,0 +1,72 @@
+package com.eecs3311.songmicroservice;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Runs ResponseSerializationBenchmark for a short while in the test JVM and prints the time and the bytes allocated per
+ * response of both pipelines
+ */
+public class ResponseSerializationBenchmarkTest {
+
+	@Test
+	public void typedResponsesWriteTheSameJson() throws Exception {
+		ResponseSerializationBenchmark benchmark = new ResponseSerializationBenchmark();
+		benchmark.setUp();
+		ObjectMapper objectMapper = new ObjectMapper();
+
+		Map<?, ?> legacy = objectMapper.readValue(objectMapper.writeValueAsBytes(benchmark.legacy().getBody()), Map.class);
+		ByteArrayOutputStream typed = new ByteArrayOutputStream();
+		Object body = benchmark.typed().getBody();
+		Utils.responseWriter(body.getClass()).writeValue(typed, body);
+		assertEquals(legacy, objectMapper.readValue(typed.toByteArray(), Map.class));
+	}
+
+	@Test
+	public void typedResponsesAllocateLess() throws Exception {
+		Options options = new OptionsBuilder()
+				.include(ResponseSerializationBenchmark.class.getName())
+				.forks(0)
+				.warmupIterations(3)
+				.warmupTime(TimeValue.milliseconds(300))
+				.measurementIterations(5)
+				.measurementTime(TimeValue.milliseconds(300))
+				.addProfiler(GCProfiler.class)
+				.shouldFailOnError(true)
+				.build();
+		Collection<RunResult> results = new Runner(options).run();
+
+		Map<String, Double> bytesPerResponse = new HashMap<>();
+		for (RunResult result : results) {
+			String benchmark = result.getParams().getBenchmark();
+			benchmark = benchmark.substring(benchmark.lastIndexOf('.') + 1);
+			double nanos = result.getPrimaryResult().getScore();
+			double bytes = Double.NaN;
+			for (Map.Entry<String, Result> secondary : result.getSecondaryResults().entrySet()) {
+				if (secondary.getKey().endsWith("gc.alloc.rate.norm")) {
+					bytes = secondary.getValue().getScore();
+				}
+			}
+			bytesPerResponse.put(benchmark, bytes);
+			System.out.println(String.format("INFO: %s responses took %.0f ns and allocated %.0f bytes each", benchmark, nanos, bytes));
+		}
+
+		assertTrue(bytesPerResponse.get("typed") < bytesPerResponse.get("legacy"));
+	}
+}
@@ -0,0 +1,199 @@
+package com.eecs3311.songmicroservice;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import com.mongodb.MongoClient;
+import com.mongodb.ServerAddress;
+
+import de.bwaldvogel.mongo.MongoServer;
+import de.bwaldvogel.mongo.backend.memory.MemoryBackend;
+
+public class SingleFlightTest {
+
+	private static final int CALLERS = 16;
+
+	private ExecutorService executor;
+
+	@Before
+	public void setUp() {
+		executor = Executors.newFixedThreadPool(CALLERS + 1);
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void concurrentCallersShareOneCall() throws Exception {
+		SingleFlight<String, Object> singleFlight = new SingleFlight<>(true, 5000);
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicInteger calls = new AtomicInteger();
+		Object result = new Object();
+
+		List<Future<Object>> callers = startCallers(singleFlight, () -> {
+			calls.incrementAndGet();
+			release.await();
+			return result;
+		});
+		release.countDown();
+
+		for (Future<Object> caller : callers) {
+			assertSame(result, caller.get(5, TimeUnit.SECONDS));
+		}
+		assertEquals(1, calls.get());
+		assertEquals(1L, singleFlight.getStats().get("calls"));
+		assertEquals((long) CALLERS - 1, singleFlight.getStats().get("savedCalls"));
+		assertEquals(0, singleFlight.getStats().get("inFlight"));
+	}
+
+	@Test
+	public void everyCallerGetsTheErrorOfTheSharedCall() throws Exception {
+		SingleFlight<String, Object> singleFlight = new SingleFlight<>(true, 5000);
+		CountDownLatch release = new CountDownLatch(1);
+		IllegalStateException failure = new IllegalStateException("connection reset");
+
+		List<Future<Object>> callers = startCallers(singleFlight, () -> {
+			release.await();
+			throw failure;
+		});
+		release.countDown();
+
+		for (Future<Object> caller : callers) {
+			try {
+				caller.get(5, TimeUnit.SECONDS);
+				fail("Every caller should see the failure");
+			} catch (ExecutionException e) {
+				assertSame(failure, e.getCause());
+			}
+		}
+		// The failure isn't kept, the next call runs again
+		assertEquals("ok", singleFlight.execute("song", () -> "ok"));
+	}
+
+	@Test
+	public void waitingIsBounded() throws Exception {
+		SingleFlight<String, Object> singleFlight = new SingleFlight<>(true, 50);
+		CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch running = new CountDownLatch(1);
+		Future<Object> leader = executor.submit(() -> singleFlight.execute("song", () -> {
+			running.countDown();
+			release.await();
+			return "slow";
+		}));
+		running.await();
+
+		long started = System.nanoTime();
+		try {
+			singleFlight.execute("song", () -> "never run");
+			fail("The caller should give up waiting");
+		} catch (TimeoutException e) {
+			assertTrue(System.nanoTime() - started < TimeUnit.SECONDS.toNanos(2));
+		}
+		assertEquals(1L, singleFlight.getStats().get("timeouts"));
+
+		release.countDown();
+		assertEquals("slow", leader.get(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void callersAfterForgetStartAFreshCall() throws Exception {
+		SingleFlight<String, Object> singleFlight = new SingleFlight<>(true, 5000);
+		CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch running = new CountDownLatch(1);
+		Future<Object> leader = executor.submit(() -> singleFlight.execute("song", () -> {
+			running.countDown();
+			release.await();
+			return "before the write";
+		}));
+		running.await();
+
+		singleFlight.forget("song");
+		assertEquals("after the write", singleFlight.execute("song", () -> "after the write"));
+
+		release.countDown();
+		assertEquals("before the write", leader.get(5, TimeUnit.SECONDS));
+		assertEquals(2L, singleFlight.getStats().get("calls"));
+	}
+
+	@Test
+	public void songLookupsAreSharedWithTheCacheOff() throws Exception {
+		MongoServer server = new MongoServer(new MemoryBackend());
+		InetSocketAddress address = server.bind();
+		MongoClient client = new MongoClient(new ServerAddress(address));
+		try {
+			MongoTemplate db = new MongoTemplate(client, "eecs3311-test");
+			FavouritesWriteBehind writeBehind = new FavouritesWriteBehind(db, false, 250, 500);
+			SongDalImpl songDalImpl = new SongDalImpl(db, writeBehind, new SongLeaderboard(db, writeBehind, 100, 60));
+			CachingSongDal songDal = new CachingSongDal(songDalImpl, false, 1000, 300, 30);
+			Song song = new Song("Trending", "Artist", "Album");
+			songDal.addSong(song);
+
+			List<Future<DbQueryStatus>> readers = new ArrayList<>();
+			for (int i = 0; i < 200; i++) {
+				readers.add(executor.submit(() -> songDal.findSongById(song.getId())));
+			}
+			for (Future<DbQueryStatus> reader : readers) {
+				DbQueryStatus found = reader.get(5, TimeUnit.SECONDS);
+				assertEquals(DbQueryExecResult.QUERY_OK, found.getdbQueryExecResult());
+				assertEquals("Trending", ((Song) found.getData()).getSongName());
+			}
+
+			Map<?, ?> stats = (Map<?, ?>) songDal.getCacheStats().get("singleFlight");
+			System.out.println("INFO: 200 concurrent reads with the cache off ran " + stats.get("calls") + " queries, "
+					+ stats.get("savedCalls") + " were saved");
+			assertEquals(200L, (Long) stats.get("calls") + (Long) stats.get("savedCalls"));
+		} finally {
+			client.close();
+			server.shutdownNow();
+		}
+	}
+
+	// Starts the leader, waits until its call runs, then starts the rest so they find it running
+	private List<Future<Object>> startCallers(SingleFlight<String, Object> singleFlight, Callable<Object> call)
+			throws InterruptedException {
+		CountDownLatch running = new CountDownLatch(1);
+		List<Future<Object>> callers = new ArrayList<>();
+		callers.add(executor.submit(() -> singleFlight.execute("song", () -> {
+			running.countDown();
+			return call.call();
+		})));
+		running.await();
+
+		CountDownLatch waiting = new CountDownLatch(CALLERS - 1);
+		for (int i = 1; i < CALLERS; i++) {
+			callers.add(executor.submit(() -> {
+				waiting.countDown();
+				return singleFlight.execute("song", () -> {
+					throw new AssertionError("Only the first caller should run the call");
+				});
+			}));
+		}
+		waiting.await();
+		// Give the followers time to get from the latch into the wait
+		Thread.sleep(200);
+		return callers;
+	}
+}
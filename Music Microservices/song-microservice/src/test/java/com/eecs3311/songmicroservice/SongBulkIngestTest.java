@@ -0,0 +1,98 @@
+package com.eecs3311.songmicroservice;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.MongoClient;
+import com.mongodb.ServerAddress;
+
+import de.bwaldvogel.mongo.MongoServer;
+import de.bwaldvogel.mongo.backend.memory.MemoryBackend;
+
+public class SongBulkIngestTest {
+
+	private MongoServer server;
+	private MongoClient client;
+	private MongoTemplate db;
+	private SongBulkIngest songBulkIngest;
+
+	@Before
+	public void setUp() {
+		server = new MongoServer(new MemoryBackend());
+		InetSocketAddress address = server.bind();
+		client = new MongoClient(new ServerAddress(address));
+		db = new MongoTemplate(client, "eecs3311-test");
+		FavouritesWriteBehind writeBehind = new FavouritesWriteBehind(db, false, 250, 500);
+		SongDalImpl songDal = new SongDalImpl(db, writeBehind, new SongLeaderboard(db, writeBehind, 100, 60));
+		songBulkIngest = new SongBulkIngest(songDal, new ObjectMapper());
+	}
+
+	@After
+	public void tearDown() {
+		client.close();
+		server.shutdownNow();
+	}
+
+	@Test
+	public void ingestsNdjsonInChunksAndReportsBadRows() {
+		StringBuilder body = new StringBuilder();
+		for (int i = 0; i < 25; i++) {
+			body.append(String.format("{\"songName\":\"Song %d\",\"songArtistFullName\":\"Artist\",\"songAlbum\":\"Album\"}\n", i));
+		}
+		body.append("{\"songName\":\"\",\"songArtistFullName\":\"Artist\",\"songAlbum\":\"Album\"}\n");
+
+		Map<?, ?> report = ingest(body.toString(), 10, false);
+
+		assertEquals(26L, report.get("rows"));
+		assertEquals(25L, report.get("inserted"));
+		assertEquals(1L, report.get("failed"));
+		assertEquals(25L, ((Map<?, ?>) ((List<?>) report.get("failures")).get(0)).get("row"));
+		assertEquals(3, ((List<?>) report.get("chunks")).size());
+		assertEquals(25, db.count(new Query(), Song.class));
+	}
+
+	@Test
+	public void ingestsJsonArray() {
+		String body = "[{\"songName\":\"A\",\"songArtistFullName\":\"Artist\",\"songAlbum\":\"Album\"},"
+				+ " 42,"
+				+ " {\"songName\":\"B\",\"songArtistFullName\":\"Artist\",\"songAlbum\":\"Album\"}]";
+
+		Map<?, ?> report = ingest(body, 1000, true);
+
+		assertEquals(3L, report.get("rows"));
+		assertEquals(2L, report.get("inserted"));
+		assertEquals(1L, ((Map<?, ?>) ((List<?>) report.get("failures")).get(0)).get("row"));
+	}
+
+	@Test
+	public void keepsWhatWasReadBeforeMalformedInput() {
+		String body = "{\"songName\":\"A\",\"songArtistFullName\":\"Artist\",\"songAlbum\":\"Album\"}\n{\"songName\": oops";
+
+		DbQueryStatus dbQueryStatus = songBulkIngest.ingest(stream(body), 1000, false);
+
+		assertEquals(DbQueryExecResult.QUERY_ERROR_GENERIC, dbQueryStatus.getdbQueryExecResult());
+		assertEquals(1L, ((Map<?, ?>) dbQueryStatus.getData()).get("inserted"));
+	}
+
+	private Map<?, ?> ingest(String body, int chunkSize, boolean ordered) {
+		DbQueryStatus dbQueryStatus = songBulkIngest.ingest(stream(body), chunkSize, ordered);
+		assertEquals(DbQueryExecResult.QUERY_OK, dbQueryStatus.getdbQueryExecResult());
+		return (Map<?, ?>) dbQueryStatus.getData();
+	}
+
+	private static ByteArrayInputStream stream(String body) {
+		return new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8));
+	}
+}
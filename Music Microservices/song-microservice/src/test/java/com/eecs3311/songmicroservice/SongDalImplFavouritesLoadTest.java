@@ -0,0 +1,129 @@
+package com.eecs3311.songmicroservice;
+
+import static org.junit.Assert.assertEquals;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.types.ObjectId;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import com.mongodb.MongoClient;
+import com.mongodb.ServerAddress;
+
+import de.bwaldvogel.mongo.MongoServer;
+import de.bwaldvogel.mongo.backend.memory.MemoryBackend;
+
+/**
+ * Load harness for the favourites counter, hammers a single song from 64 concurrent writers against an in-memory
+ * Mongo stand-in and checks that every like/unlike made it into the stored count
+ */
+public class SongDalImplFavouritesLoadTest {
+
+	private static final int WRITERS = 64;
+	private static final int UPDATES_PER_WRITER = 50;
+
+	private MongoServer server;
+	private MongoClient client;
+	private MongoTemplate db;
+	private SongDalImpl songDal;
+
+	@Before
+	public void setUp() {
+		server = new MongoServer(new MemoryBackend());
+		InetSocketAddress address = server.bind();
+		client = new MongoClient(new ServerAddress(address));
+		db = new MongoTemplate(client, "eecs3311-test");
+		FavouritesWriteBehind writeBehind = new FavouritesWriteBehind(db, false, 250, 500);
+		songDal = new SongDalImpl(db, writeBehind, new SongLeaderboard(db, writeBehind, 100, 60));
+	}
+
+	@After
+	public void tearDown() {
+		client.close();
+		server.shutdownNow();
+	}
+
+	@Test
+	public void concurrentIncrementsAreNotLost() throws Exception {
+		String songId = addSong().getId();
+
+		long elapsedNanos = runWriters(songId, false);
+
+		assertEquals((long) WRITERS * UPDATES_PER_WRITER, db.findById(songId, Song.class).getSongAmountFavourites());
+		report("increment", elapsedNanos);
+	}
+
+	@Test
+	public void concurrentDecrementsNeverGoBelowZero() throws Exception {
+		Song song = addSong();
+		long start = WRITERS * UPDATES_PER_WRITER / 2;
+		song.setSongAmountFavourites(start);
+		db.save(song);
+
+		runWriters(song.getId(), true);
+
+		assertEquals(0, db.findById(song.getId(), Song.class).getSongAmountFavourites());
+	}
+
+	@Test
+	public void returnsNewCountAndKeepsErrorResults() {
+		String songId = addSong().getId();
+
+		DbQueryStatus liked = songDal.updateSongFavouritesCount(songId, false);
+		assertEquals(DbQueryExecResult.QUERY_OK, liked.getdbQueryExecResult());
+		assertEquals(1L, liked.getData());
+
+		assertEquals(DbQueryExecResult.QUERY_OK, songDal.updateSongFavouritesCount(songId, true).getdbQueryExecResult());
+		assertEquals(DbQueryExecResult.QUERY_ERROR_GENERIC, songDal.updateSongFavouritesCount(songId, true).getdbQueryExecResult());
+		assertEquals(DbQueryExecResult.QUERY_ERROR_NOT_FOUND,
+				songDal.updateSongFavouritesCount(new ObjectId().toHexString(), false).getdbQueryExecResult());
+	}
+
+	private Song addSong() {
+		Song song = new Song("Song", "Artist", "Album");
+		db.insert(song);
+		return song;
+	}
+
+	private long runWriters(String songId, boolean shouldDecrement) throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(WRITERS);
+		CountDownLatch go = new CountDownLatch(1);
+		List<Future<?>> writers = new ArrayList<>();
+		for (int i = 0; i < WRITERS; i++) {
+			writers.add(pool.submit(() -> {
+				go.await();
+				for (int j = 0; j < UPDATES_PER_WRITER; j++) {
+					songDal.updateSongFavouritesCount(songId, shouldDecrement);
+				}
+				return null;
+			}));
+		}
+
+		long start = System.nanoTime();
+		go.countDown();
+		for (Future<?> writer : writers) {
+			writer.get();
+		}
+		long elapsedNanos = System.nanoTime() - start;
+
+		pool.shutdown();
+		pool.awaitTermination(10, TimeUnit.SECONDS);
+		return elapsedNanos;
+	}
+
+	private void report(String label, long elapsedNanos) {
+		long updates = (long) WRITERS * UPDATES_PER_WRITER;
+		System.out.println(String.format("INFO: %d %s updates from %d writers in %d ms (%.0f updates/s)", updates, label,
+				WRITERS, TimeUnit.NANOSECONDS.toMillis(elapsedNanos), updates * 1e9 / elapsedNanos));
+	}
+}
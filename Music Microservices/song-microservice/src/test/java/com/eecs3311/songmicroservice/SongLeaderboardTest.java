@@ -0,0 +1,103 @@
+package com.eecs3311.songmicroservice;
+
+import static org.junit.Assert.assertEquals;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import com.mongodb.MongoClient;
+import com.mongodb.ServerAddress;
+
+import de.bwaldvogel.mongo.MongoServer;
+import de.bwaldvogel.mongo.backend.memory.MemoryBackend;
+
+public class SongLeaderboardTest {
+
+	private MongoServer server;
+	private MongoClient client;
+	private MongoTemplate db;
+	private SongLeaderboard leaderboard;
+	private SongDalImpl songDal;
+	private final List<Song> songs = new ArrayList<>();
+
+	@Before
+	public void setUp() {
+		server = new MongoServer(new MemoryBackend());
+		InetSocketAddress address = server.bind();
+		client = new MongoClient(new ServerAddress(address));
+		db = new MongoTemplate(client, "eecs3311-test");
+		FavouritesWriteBehind writeBehind = new FavouritesWriteBehind(db, false, 250, 500);
+		leaderboard = new SongLeaderboard(db, writeBehind, 3, 60);
+		songDal = new SongDalImpl(db, writeBehind, leaderboard);
+
+		// Song i starts with i * 10 favourites
+		for (int i = 0; i < 20; i++) {
+			Song song = new Song("Song " + i, "Artist", "Album");
+			song.setSongAmountFavourites(i * 10);
+			db.insert(song);
+			songs.add(song);
+		}
+		leaderboard.reconcile();
+	}
+
+	@After
+	public void tearDown() {
+		client.close();
+		server.shutdownNow();
+	}
+
+	@Test
+	public void seedsFromTheDatabase() {
+		assertEquals(names("Song 19", "Song 18", "Song 17"), topNames(3));
+		assertEquals(190L, leaderboard.getTopSongs(1).get(0).get(Song.KEY_SONG_AMOUNT_FAVOURITES));
+	}
+
+	@Test
+	public void followsFavouriteUpdates() {
+		String songId = songs.get(12).getId();
+		for (int i = 0; i < 75; i++) {
+			songDal.updateSongFavouritesCount(songId, false);
+		}
+		assertEquals(names("Song 12", "Song 19", "Song 18"), topNames(3));
+
+		for (int i = 0; i < 11; i++) {
+			songDal.updateSongFavouritesCount(songs.get(19).getId(), true);
+		}
+		assertEquals(names("Song 12", "Song 18", "Song 19"), topNames(3));
+
+		songDal.deleteSongById(songId);
+		assertEquals(names("Song 18", "Song 19", "Song 17"), topNames(3));
+	}
+
+	@Test
+	public void reconcileRepairsDrift() {
+		// Changed behind the service's back
+		Song song = songs.get(0);
+		song.setSongAmountFavourites(1000);
+		db.save(song);
+		assertEquals(names("Song 19", "Song 18", "Song 17"), topNames(3));
+
+		leaderboard.reconcile();
+		assertEquals(names("Song 0", "Song 19", "Song 18"), topNames(3));
+	}
+
+	private List<String> topNames(int limit) {
+		List<String> names = new ArrayList<>();
+		for (Map<String, Object> song : leaderboard.getTopSongs(limit)) {
+			names.add((String) song.get(Song.KEY_SONG_NAME));
+		}
+		return names;
+	}
+
+	private static List<String> names(String... names) {
+		return Arrays.asList(names);
+	}
+}
@@ -0,0 +1,100 @@
+package com.eecs3311.songmicroservice;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bson.types.ObjectId;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import com.mongodb.MongoClient;
+import com.mongodb.ServerAddress;
+
+import de.bwaldvogel.mongo.MongoServer;
+import de.bwaldvogel.mongo.backend.memory.MemoryBackend;
+
+public class SongListingTest {
+
+	private MongoServer server;
+	private MongoClient client;
+	private MongoTemplate db;
+	private SongDalImpl songDal;
+
+	@Before
+	public void setUp() {
+		server = new MongoServer(new MemoryBackend());
+		InetSocketAddress address = server.bind();
+		client = new MongoClient(new ServerAddress(address));
+		db = new MongoTemplate(client, "eecs3311-test");
+		FavouritesWriteBehind writeBehind = new FavouritesWriteBehind(db, false, 250, 500);
+		songDal = new SongDalImpl(db, writeBehind, new SongLeaderboard(db, writeBehind, 100, 60));
+		songDal.initSongDb();
+
+		for (int i = 0; i < 55; i++) {
+			db.insert(new Song(i % 2 == 0 ? "Blue " + (i % 7) : "Red " + i, i % 3 == 0 ? "Artist A" : "Artist B", "Album"));
+		}
+		db.insert(new Song("Blu.e", "Artist C", "Album"));
+	}
+
+	@After
+	public void tearDown() {
+		client.close();
+		server.shutdownNow();
+	}
+
+	@Test
+	public void pagesThroughWholeCatalogInIdOrder() {
+		List<Song> songs = readAllPages(null, null, null, 10);
+
+		assertEquals(56, songs.size());
+		for (int i = 1; i < songs.size(); i++) {
+			assertEquals(-1, Integer.signum(songs.get(i - 1)._id.compareTo(songs.get(i)._id)));
+		}
+	}
+
+	@Test
+	public void searchesByArtistAndAlbum() {
+		assertEquals(19, readAllPages("Artist A", null, null, 4).size());
+		assertEquals(19, readAllPages("Artist A", "Album", null, 4).size());
+		assertEquals(0, readAllPages(null, "Other Album", null, 4).size());
+	}
+
+	@Test
+	public void searchesByNamePrefixInNameOrderAcrossDuplicateNames() {
+		List<Song> songs = readAllPages(null, null, "Blue", 3);
+
+		assertEquals(28, songs.size());
+		for (int i = 1; i < songs.size(); i++) {
+			Song previous = songs.get(i - 1);
+			Song current = songs.get(i);
+			int byName = previous.getSongName().compareTo(current.getSongName());
+			assertEquals(true, byName < 0 || (byName == 0 && previous._id.compareTo(current._id) < 0));
+		}
+		// The prefix is matched literally, not as a regex
+		assertEquals(1, readAllPages(null, null, "Blu.", 3).size());
+	}
+
+	@Test
+	public void cursorRoundTrips() {
+		SongCursor cursor = SongCursor.decode(new SongCursor(new ObjectId(), "Blue 1").encode());
+		assertEquals("Blue 1", cursor.getLastSongName());
+		assertNull(SongCursor.decode("not-a-cursor"));
+	}
+
+	private List<Song> readAllPages(String artist, String album, String namePrefix, int limit) {
+		List<Song> songs = new ArrayList<>();
+		SongCursor cursor = null;
+		do {
+			DbQueryStatus page = songDal.listSongs(artist, album, namePrefix, cursor, limit, songs::add);
+			assertEquals(DbQueryExecResult.QUERY_OK, page.getdbQueryExecResult());
+			cursor = page.getData() == null ? null : SongCursor.decode((String) page.getData());
+		} while (cursor != null);
+		return songs;
+	}
+}